@@ -0,0 +1,1049 @@
+/*
+ * Analytics snapshot
+ * ==================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BinaryOperator;
+
+/**
+ * This class holds Booking and Repair in memory as primitive columns, one
+ * array per attribute: dates as epoch days, ids as ints, prices as cents in
+ * longs, and repair types and companies as dictionary codes.  Reports are
+ * answered by scanning the columns in parallel: the rows are split into
+ * ranges of SPLIT rows that a fork-join pool scans on every core, and the
+ * partial results are merged pairwise on the way back up.
+ *
+ * Besides reports 11 to 16 it answers the revenue of every hotel per month
+ * and the occupancy rate of every hotel over a date range.  bookRoom,
+ * addRepair, addRoom and addMaintenanceCompany append to it as they write.
+ *
+ * The columns can be saved to a snapshot file and read back at the next
+ * start; only the rows added since are then read from the database.  The
+ * snapshot is kept when its row counts still match the tables and is
+ * reloaded in full otherwise.
+ *
+ * The snapshot is turned on with -Ddbproject.analytics=true, written to and
+ * read from -Ddbproject.analytics.snapshot=<file> when given, and scanned
+ * with -Ddbproject.analytics.threads threads (all cores by default).  It is
+ * thread safe: scans share a read lock and appends take the write lock.
+ *
+ * Usage: java AnalyticsSnapshot <dbname> <port> <user>
+ *   loads the snapshot, saves it when a file is configured and times the
+ *   reports on it.
+ */
+public class AnalyticsSnapshot {
+
+   public static final boolean ENABLED =
+      Boolean.parseBoolean(System.getProperty("dbproject.analytics", "false"));
+
+   // rows scanned by one fork-join leaf
+   static final int SPLIT = 1 << 15;
+
+   static final int MAGIC = 0x44425041;   // "DBPA"
+   static final int VERSION = 1;
+
+   // Booking columns
+   static final int B_ID = 0, B_CUSTOMER = 1, B_HOTEL = 2, B_ROOM = 3, B_DAY = 4, B_PEOPLE = 5;
+   // Repair columns
+   static final int R_ID = 0, R_HOTEL = 1, R_ROOM = 2, R_COMPANY = 3, R_DAY = 4, R_TYPE = 5;
+
+   /**
+    * A table as int columns, plus one long column, that grow together.
+    */
+   static final class Columns {
+      int[][] ints;
+      long[] longs;
+      int size = 0;
+
+      Columns (int intColumns, int capacity) {
+         this.ints = new int[intColumns][Math.max(16, capacity)];
+         this.longs = new long[Math.max(16, capacity)];
+      }//end Columns
+
+      // makes room for one more row and returns its index
+      int append () {
+         if (this.size == this.longs.length) {
+            int capacity = this.size + (this.size >> 1);
+            for (int c = 0; c < this.ints.length; ++c) {
+               this.ints[c] = Arrays.copyOf(this.ints[c], capacity);
+            }//end for
+            this.longs = Arrays.copyOf(this.longs, capacity);
+         }//end if
+         return this.size++;
+      }//end append
+   }//end Columns
+
+   /**
+    * Strings stored once and referred to by their code.
+    */
+   static final class Dictionary {
+      final List<String> values = new ArrayList<String>();
+      final Map<String, Integer> codes = new HashMap<String, Integer>();
+
+      int codeOf (String value) {
+         Integer code = this.codes.get(value);
+         if (code == null) {
+            code = this.values.size();
+            this.values.add(value);
+            this.codes.put(value, code);
+         }//end if
+         return code;
+      }//end codeOf
+   }//end Dictionary
+
+   // scans the rows [lo, hi) of one range
+   interface Leaf<R> {
+      R scan (int lo, int hi);
+   }//end Leaf
+
+   /**
+    * Splits a row range in halves down to SPLIT rows and merges the partial
+    * results of the halves in row order.
+    */
+   static final class Scan<R> extends RecursiveTask<R> {
+      private static final long serialVersionUID = 1L;
+
+      private final int _lo;
+      private final int _hi;
+      private final transient Leaf<R> _leaf;
+      private final transient BinaryOperator<R> _merge;
+
+      Scan (int lo, int hi, Leaf<R> leaf, BinaryOperator<R> merge) {
+         this._lo = lo;
+         this._hi = hi;
+         this._leaf = leaf;
+         this._merge = merge;
+      }//end Scan
+
+      protected R compute () {
+         if (this._hi - this._lo <= SPLIT) {
+            return this._leaf.scan(this._lo, this._hi);
+         }//end if
+         int mid = (this._lo + this._hi) >>> 1;
+         Scan<R> left = new Scan<R>(this._lo, mid, this._leaf, this._merge);
+         left.fork();
+         R right = new Scan<R>(mid, this._hi, this._leaf, this._merge).compute();
+         return this._merge.apply(left.join(), right);
+      }//end compute
+   }//end Scan
+
+   /**
+    * The k rows with the highest prices, in a min-heap on the price.
+    */
+   static final class TopK {
+      final int k;
+      final int[] rows;
+      final long[] prices;
+      int n = 0;
+
+      TopK (int k) {
+         this.k = Math.max(0, k);
+         this.rows = new int[this.k];
+         this.prices = new long[this.k];
+      }//end TopK
+
+      void offer (int row, long price) {
+         if (this.n < this.k) {
+            int i = this.n++;
+            // sift up
+            while (i > 0 && this.prices[(i - 1) >> 1] > price) {
+               this.rows[i] = this.rows[(i - 1) >> 1];
+               this.prices[i] = this.prices[(i - 1) >> 1];
+               i = (i - 1) >> 1;
+            }//end while
+            this.rows[i] = row;
+            this.prices[i] = price;
+         } else if (this.k > 0 && price > this.prices[0]) {
+            // sift down from the root
+            int i = 0;
+            while (true) {
+               int c = 2 * i + 1;
+               if (c >= this.n) {
+                  break;
+               }//end if
+               if (c + 1 < this.n && this.prices[c + 1] < this.prices[c]) {
+                  ++c;
+               }//end if
+               if (this.prices[c] >= price) {
+                  break;
+               }//end if
+               this.rows[i] = this.rows[c];
+               this.prices[i] = this.prices[c];
+               i = c;
+            }//end while
+            this.rows[i] = row;
+            this.prices[i] = price;
+         }//end if
+      }//end offer
+
+      TopK merge (TopK other) {
+         for (int i = 0; i < other.n; ++i) {
+            offer(other.rows[i], other.prices[i]);
+         }//end for
+         return this;
+      }//end merge
+   }//end TopK
+
+   /**
+    * Revenue and bookings of one hotel in one month.
+    */
+   public static class Revenue {
+      public final int hotelID;
+      public final int month;
+      public final long bookings;
+      public final long revenueCents;
+
+      Revenue (int hotelID, int month, long bookings, long revenueCents) {
+         this.hotelID = hotelID;
+         this.month = month;
+         this.bookings = bookings;
+         this.revenueCents = revenueCents;
+      }//end Revenue
+
+      public String revenue () {
+         return java.math.BigDecimal.valueOf(this.revenueCents, 2).toPlainString();
+      }//end revenue
+   }//end Revenue
+
+   /**
+    * Booked room-nights of one hotel against the room-nights it has.
+    */
+   public static class Occupancy {
+      public final int hotelID;
+      public final int rooms;
+      public final long booked;
+      public final double rate;   // percent
+
+      Occupancy (int hotelID, int rooms, long booked, int days) {
+         this.hotelID = hotelID;
+         this.rooms = rooms;
+         this.booked = booked;
+         this.rate = rooms == 0 || days <= 0 ? 0 : 100.0 * booked / ((long) rooms * days);
+      }//end Occupancy
+   }//end Occupancy
+
+   private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+   private Columns _bookings = new Columns(6, 0);
+   private Columns _repairs = new Columns(6, 0);
+   private Dictionary _types = new Dictionary();
+   private List<String> _companyNames = new ArrayList<String>();   // by company code
+   private Map<Integer, Integer> _companyCodes = new HashMap<Integer, Integer>();
+   private int[] _roomsPerHotel = new int[0];
+   private int _maxHotel = 0;
+   private volatile boolean _warm = false;
+   private ForkJoinPool _pool = null;
+
+   /**
+    * @return whether the snapshot is loaded and can answer reports
+    */
+   public boolean isWarm () {
+      return this._warm;
+   }//end isWarm
+
+   /**
+    * @return the number of Booking and Repair rows held
+    */
+   public String describe () {
+      this._lock.readLock().lock();
+      try {
+         return this._bookings.size + " bookings, " + this._repairs.size + " repairs, "
+            + this._companyNames.size() + " companies";
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end describe
+
+   /**
+    * Loads the snapshot: from the file when there is one and it still
+    * matches the tables, with the rows added since, and from the tables
+    * otherwise.
+    *
+    * @param esql the DBProject used to read the tables
+    * @param file the snapshot file, or null
+    * @throws java.sql.SQLException when the tables could not be read
+    */
+   public void load (DBProject esql, File file) throws SQLException {
+      if (file != null && file.isFile()) {
+         try {
+            if (loadFile(esql, file)) {
+               return;
+            }//end if
+         }catch (IOException e) {
+            System.err.println("Ignoring the analytics snapshot " + file + ": " + e.getMessage());
+         }//end try
+      }//end if
+      loadTables(esql);
+   }//end load
+
+   // reads every row of Booking and Repair
+   private void loadTables (DBProject esql) throws SQLException {
+      final Columns bookings = new Columns(6, 1 << 16);
+      final Columns repairs = new Columns(6, 1 << 16);
+      final Dictionary types = new Dictionary();
+      final List<String> names = new ArrayList<String>();
+      final Map<Integer, Integer> codes = new HashMap<Integer, Integer>();
+      loadCompanies(esql, names, codes);
+      esql.streamQuery("SELECT bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price FROM Booking",
+                       rs -> readBooking(bookings, rs));
+      esql.streamQuery("SELECT rID, hotelID, roomNo, mCompany, repairDate, repairType FROM Repair",
+                       rs -> readRepair(repairs, types, names, codes, rs));
+      install(esql, bookings, repairs, types, names, codes);
+   }//end loadTables
+
+   // reads a snapshot file and the rows added since; false when it no longer matches the tables
+   private boolean loadFile (DBProject esql, File file) throws IOException, SQLException {
+      final Columns bookings;
+      final Columns repairs;
+      final Dictionary types = new Dictionary();
+      final List<String> names = new ArrayList<String>();
+      final Map<Integer, Integer> codes = new HashMap<Integer, Integer>();
+      try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+         FileChannel ch = raf.getChannel();
+         ByteBuffer head = ByteBuffer.allocate(12);
+         readFully(ch, head);
+         if (head.getInt() != MAGIC || head.getInt() != VERSION) {
+            throw new IOException("not an analytics snapshot of this version");
+         }//end if
+         byte[] meta = new byte[head.getInt()];
+         readFully(ch, ByteBuffer.wrap(meta));
+         DataInputStream in = new DataInputStream(new ByteArrayInputStream(meta));
+         for (int i = in.readInt(); i > 0; --i) {
+            types.codeOf(in.readBoolean() ? in.readUTF() : null);
+         }//end for
+         for (int i = in.readInt(); i > 0; --i) {
+            int cmpID = in.readInt();
+            codes.put(cmpID, names.size());
+            names.add(in.readUTF());
+         }//end for
+         bookings = readColumns(ch, in.readInt(), 6);
+         repairs = readColumns(ch, in.readInt(), 6);
+      }//end try
+
+      // the rows written since the snapshot was saved
+      int maxBooking = max(bookings, B_ID);
+      int maxRepair = max(repairs, R_ID);
+      esql.streamQuery("SELECT bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price FROM Booking"
+                       + " WHERE bID > ?", rs -> readBooking(bookings, rs), maxBooking);
+      loadCompanies(esql, names, codes);
+      esql.streamQuery("SELECT rID, hotelID, roomNo, mCompany, repairDate, repairType FROM Repair WHERE rID > ?",
+                       rs -> readRepair(repairs, types, names, codes, rs), maxRepair);
+      ResultSet rs = esql.executeQuery("SELECT (SELECT COUNT(*) FROM Booking), (SELECT COUNT(*) FROM Repair)", false);
+      rs.next();
+      if (rs.getLong(1) != bookings.size || rs.getLong(2) != repairs.size) {
+         // rows were deleted, or inserted below the highest id: start over
+         return false;
+      }//end if
+      install(esql, bookings, repairs, types, names, codes);
+      return true;
+   }//end loadFile
+
+   // reads the companies not known yet; the names of known ones are refreshed
+   private static void loadCompanies (DBProject esql, final List<String> names, final Map<Integer, Integer> codes)
+         throws SQLException {
+      esql.streamQuery("SELECT cmpID, name FROM MaintenanceCompany", rs -> {
+         int cmpID = rs.getInt(1);
+         Integer code = codes.get(cmpID);
+         if (code == null) {
+            codes.put(cmpID, names.size());
+            names.add(rs.getString(2));
+         } else {
+            names.set(code, rs.getString(2));
+         }//end if
+      });
+   }//end loadCompanies
+
+   private static void readBooking (Columns bookings, ResultSet rs) throws SQLException {
+      int row = bookings.append();
+      bookings.ints[B_ID][row] = rs.getInt(1);
+      bookings.ints[B_CUSTOMER][row] = rs.getInt(2);
+      bookings.ints[B_HOTEL][row] = rs.getInt(3);
+      bookings.ints[B_ROOM][row] = rs.getInt(4);
+      bookings.ints[B_DAY][row] = (int) rs.getDate(5).toLocalDate().toEpochDay();
+      bookings.ints[B_PEOPLE][row] = rs.getInt(6);
+      bookings.longs[row] = rs.getBigDecimal(7).movePointRight(2).longValue();
+   }//end readBooking
+
+   private static void readRepair (Columns repairs, Dictionary types, List<String> names,
+                                   Map<Integer, Integer> codes, ResultSet rs) throws SQLException {
+      int row = repairs.append();
+      repairs.ints[R_ID][row] = rs.getInt(1);
+      repairs.ints[R_HOTEL][row] = rs.getInt(2);
+      repairs.ints[R_ROOM][row] = rs.getInt(3);
+      repairs.ints[R_COMPANY][row] = companyCode(names, codes, rs.getInt(4));
+      repairs.ints[R_DAY][row] = (int) rs.getDate(5).toLocalDate().toEpochDay();
+      repairs.ints[R_TYPE][row] = types.codeOf(rs.getString(6));
+   }//end readRepair
+
+   private static int companyCode (List<String> names, Map<Integer, Integer> codes, int cmpID) {
+      Integer code = codes.get(cmpID);
+      if (code == null) {
+         code = names.size();
+         codes.put(cmpID, code);
+         names.add("");
+      }//end if
+      return code;
+   }//end companyCode
+
+   // swaps the loaded columns in, with the number of rooms of every hotel
+   private void install (DBProject esql, Columns bookings, Columns repairs, Dictionary types,
+                         List<String> names, Map<Integer, Integer> codes) throws SQLException {
+      final Map<Integer, Integer> rooms = new HashMap<Integer, Integer>();
+      esql.streamQuery("SELECT hotelID, COUNT(*) FROM Room GROUP BY hotelID", rs -> {
+         rooms.put(rs.getInt(1), rs.getInt(2));
+      });
+      int maxHotel = 0;
+      for (Integer h : rooms.keySet()) {
+         maxHotel = Math.max(maxHotel, h);
+      }//end for
+      for (int i = 0; i < bookings.size; ++i) {
+         maxHotel = Math.max(maxHotel, bookings.ints[B_HOTEL][i]);
+      }//end for
+      int[] perHotel = new int[maxHotel + 1];
+      for (Map.Entry<Integer, Integer> e : rooms.entrySet()) {
+         if (e.getKey() >= 0) {
+            perHotel[e.getKey()] = e.getValue();
+         }//end if
+      }//end for
+      this._lock.writeLock().lock();
+      try {
+         this._bookings = bookings;
+         this._repairs = repairs;
+         this._types = types;
+         this._companyNames = names;
+         this._companyCodes = codes;
+         this._roomsPerHotel = perHotel;
+         this._maxHotel = maxHotel;
+         this._warm = true;
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end install
+
+   /**
+    * Writes the columns to a snapshot file, replacing it
+    *
+    * @param file the snapshot file
+    * @throws java.io.IOException when the file cannot be written
+    */
+   public void save (File file) throws IOException {
+      File tmp = new File(file.getPath() + ".tmp");
+      this._lock.readLock().lock();
+      try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+         raf.setLength(0);
+         FileChannel ch = raf.getChannel();
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         DataOutputStream meta = new DataOutputStream(bytes);
+         meta.writeInt(this._types.values.size());
+         for (String t : this._types.values) {
+            meta.writeBoolean(t != null);
+            if (t != null) {
+               meta.writeUTF(t);
+            }//end if
+         }//end for
+         meta.writeInt(this._companyCodes.size());
+         int[] ids = new int[this._companyNames.size()];
+         for (Map.Entry<Integer, Integer> e : this._companyCodes.entrySet()) {
+            ids[e.getValue()] = e.getKey();
+         }//end for
+         for (int code = 0; code < ids.length; ++code) {
+            meta.writeInt(ids[code]);
+            meta.writeUTF(this._companyNames.get(code));
+         }//end for
+         meta.writeInt(this._bookings.size);
+         meta.writeInt(this._repairs.size);
+         meta.flush();
+         ByteBuffer head = ByteBuffer.allocate(12);
+         head.putInt(MAGIC).putInt(VERSION).putInt(bytes.size()).flip();
+         writeFully(ch, head);
+         writeFully(ch, ByteBuffer.wrap(bytes.toByteArray()));
+         writeColumns(ch, this._bookings);
+         writeColumns(ch, this._repairs);
+         ch.force(false);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+      if (!tmp.renameTo(file)) {
+         // some platforms do not rename over an existing file
+         if (!file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+         }//end if
+      }//end if
+   }//end save
+
+   // the columns go out in 1 MB direct buffers, one whole column after another
+   private static void writeColumns (FileChannel ch, Columns t) throws IOException {
+      ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+      for (int[] column : t.ints) {
+         for (int off = 0; off < t.size; ) {
+            int n = Math.min(t.size - off, buf.capacity() / 4);
+            buf.clear();
+            buf.asIntBuffer().put(column, off, n);
+            buf.limit(n * 4);
+            writeFully(ch, buf);
+            off += n;
+         }//end for
+      }//end for
+      for (int off = 0; off < t.size; ) {
+         int n = Math.min(t.size - off, buf.capacity() / 8);
+         buf.clear();
+         buf.asLongBuffer().put(t.longs, off, n);
+         buf.limit(n * 8);
+         writeFully(ch, buf);
+         off += n;
+      }//end for
+   }//end writeColumns
+
+   private static Columns readColumns (FileChannel ch, int size, int intColumns) throws IOException {
+      Columns t = new Columns(intColumns, size + (size >> 3));
+      ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+      for (int[] column : t.ints) {
+         for (int off = 0; off < size; ) {
+            int n = Math.min(size - off, buf.capacity() / 4);
+            buf.clear().limit(n * 4);
+            readFully(ch, buf);
+            buf.asIntBuffer().get(column, off, n);
+            off += n;
+         }//end for
+      }//end for
+      for (int off = 0; off < size; ) {
+         int n = Math.min(size - off, buf.capacity() / 8);
+         buf.clear().limit(n * 8);
+         readFully(ch, buf);
+         buf.asLongBuffer().get(t.longs, off, n);
+         off += n;
+      }//end for
+      t.size = size;
+      return t;
+   }//end readColumns
+
+   private static void writeFully (FileChannel ch, ByteBuffer buf) throws IOException {
+      while (buf.hasRemaining()) {
+         ch.write(buf);
+      }//end while
+   }//end writeFully
+
+   // fills the buffer up to its limit and flips it for reading
+   private static void readFully (FileChannel ch, ByteBuffer buf) throws IOException {
+      while (buf.hasRemaining()) {
+         if (ch.read(buf) < 0) {
+            throw new IOException("truncated analytics snapshot");
+         }//end if
+      }//end while
+      buf.flip();
+   }//end readFully
+
+   private static int max (Columns t, int column) {
+      int max = Integer.MIN_VALUE;
+      for (int i = 0; i < t.size; ++i) {
+         max = Math.max(max, t.ints[column][i]);
+      }//end for
+      return max;
+   }//end max
+
+   /**
+    * Appends a booking that was just inserted.
+    */
+   public void addBooking (int bID, int customer, int hotelID, int roomNo, int epochDay, int noOfPeople,
+                           long priceCents) {
+      this._lock.writeLock().lock();
+      try {
+         if (!this._warm) {
+            return;
+         }//end if
+         Columns b = this._bookings;
+         int row = b.append();
+         b.ints[B_ID][row] = bID;
+         b.ints[B_CUSTOMER][row] = customer;
+         b.ints[B_HOTEL][row] = hotelID;
+         b.ints[B_ROOM][row] = roomNo;
+         b.ints[B_DAY][row] = epochDay;
+         b.ints[B_PEOPLE][row] = noOfPeople;
+         b.longs[row] = priceCents;
+         growHotels(hotelID);
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addBooking
+
+   /**
+    * Appends a repair that was just inserted.
+    */
+   public void addRepair (int rID, int hotelID, int roomNo, int cmpID, int epochDay, String repairType) {
+      this._lock.writeLock().lock();
+      try {
+         if (!this._warm) {
+            return;
+         }//end if
+         Columns r = this._repairs;
+         int row = r.append();
+         r.ints[R_ID][row] = rID;
+         r.ints[R_HOTEL][row] = hotelID;
+         r.ints[R_ROOM][row] = roomNo;
+         r.ints[R_COMPANY][row] = companyCode(this._companyNames, this._companyCodes, cmpID);
+         r.ints[R_DAY][row] = epochDay;
+         r.ints[R_TYPE][row] = this._types.codeOf(repairType);
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addRepair
+
+   /**
+    * Records a new maintenance company.
+    */
+   public void addCompany (int cmpID, String name) {
+      this._lock.writeLock().lock();
+      try {
+         if (!this._warm) {
+            return;
+         }//end if
+         this._companyNames.set(companyCode(this._companyNames, this._companyCodes, cmpID), name);
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addCompany
+
+   /**
+    * Records a new room of a hotel.
+    */
+   public void addRoom (int hotelID) {
+      this._lock.writeLock().lock();
+      try {
+         if (!this._warm || hotelID < 0) {
+            return;
+         }//end if
+         growHotels(hotelID);
+         ++this._roomsPerHotel[hotelID];
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addRoom
+
+   private void growHotels (int hotelID) {
+      if (hotelID > this._maxHotel) {
+         this._maxHotel = hotelID;
+         this._roomsPerHotel = Arrays.copyOf(this._roomsPerHotel, hotelID + 1);
+      }//end if
+   }//end growHotels
+
+   // runs a scan of n rows on the pool
+   private <R> R scan (int n, Leaf<R> leaf, BinaryOperator<R> merge) {
+      return pool().invoke(new Scan<R>(0, n, leaf, merge));
+   }//end scan
+
+   private synchronized ForkJoinPool pool () {
+      if (this._pool == null) {
+         this._pool = new ForkJoinPool(Integer.getInteger("dbproject.analytics.threads",
+                                                          Runtime.getRuntime().availableProcessors()));
+      }//end if
+      return this._pool;
+   }//end pool
+
+   /**
+    * Stops the scan threads
+    */
+   public synchronized void close () {
+      if (this._pool != null) {
+         this._pool.shutdown();
+         this._pool = null;
+      }//end if
+   }//end close
+
+   // the rows of a top-k as PriceIndex entries, most expensive first
+   private static List<PriceIndex.Entry> entries (Columns b, TopK top) {
+      List<PriceIndex.Entry> result = new ArrayList<PriceIndex.Entry>();
+      for (int i = 0; i < top.n; ++i) {
+         int r = top.rows[i];
+         result.add(new PriceIndex.Entry(b.ints[B_ID][r], b.ints[B_CUSTOMER][r], b.ints[B_HOTEL][r],
+                                         b.ints[B_ROOM][r], b.ints[B_DAY][r], b.ints[B_PEOPLE][r], b.longs[r]));
+      }//end for
+      Collections.sort(result, PriceIndex.BY_PRICE_DESC);
+      return result;
+   }//end entries
+
+   /**
+    * Report 11: the k most expensive bookings for dates in a range
+    */
+   public List<PriceIndex.Entry> topK (LocalDate first, LocalDate last, final int k) {
+      final int from = (int) first.toEpochDay();
+      final int to = (int) last.toEpochDay();
+      this._lock.readLock().lock();
+      try {
+         final Columns b = this._bookings;
+         final int[] day = b.ints[B_DAY];
+         final long[] price = b.longs;
+         TopK top = scan(b.size, (lo, hi) -> {
+            TopK t = new TopK(k);
+            for (int i = lo; i < hi; ++i) {
+               if (day[i] >= from && day[i] <= to) {
+                  t.offer(i, price[i]);
+               }//end if
+            }//end for
+            return t;
+         }, TopK::merge);
+         return entries(b, top);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end topK
+
+   /**
+    * Report 12: the k most expensive bookings of a set of customers
+    */
+   public List<PriceIndex.Entry> topKForCustomers (List<Integer> customerIDs, final int k) {
+      final int[] ids = sortedIds(customerIDs);
+      this._lock.readLock().lock();
+      try {
+         final Columns b = this._bookings;
+         final int[] customer = b.ints[B_CUSTOMER];
+         final long[] price = b.longs;
+         TopK top = scan(b.size, (lo, hi) -> {
+            TopK t = new TopK(k);
+            for (int i = lo; i < hi; ++i) {
+               if (Arrays.binarySearch(ids, customer[i]) >= 0) {
+                  t.offer(i, price[i]);
+               }//end if
+            }//end for
+            return t;
+         }, TopK::merge);
+         return entries(b, top);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end topKForCustomers
+
+   /**
+    * Report 13: the prices of the bookings of a set of customers in a hotel
+    * over a date range, in cents, in the order they were loaded
+    */
+   public long[] pricesForCustomers (final int hotelID, List<Integer> customerIDs, LocalDate first, LocalDate last) {
+      final int[] ids = sortedIds(customerIDs);
+      final int from = (int) first.toEpochDay();
+      final int to = (int) last.toEpochDay();
+      this._lock.readLock().lock();
+      try {
+         final Columns b = this._bookings;
+         final int[] hotel = b.ints[B_HOTEL];
+         final int[] day = b.ints[B_DAY];
+         final int[] customer = b.ints[B_CUSTOMER];
+         final long[] price = b.longs;
+         return scan(b.size, (lo, hi) -> {
+            long[] found = new long[8];
+            int n = 0;
+            for (int i = lo; i < hi; ++i) {
+               if (hotel[i] == hotelID && day[i] >= from && day[i] <= to
+                   && Arrays.binarySearch(ids, customer[i]) >= 0) {
+                  if (n == found.length) {
+                     found = Arrays.copyOf(found, n * 2);
+                  }//end if
+                  found[n++] = price[i];
+               }//end if
+            }//end for
+            return Arrays.copyOf(found, n);
+         }, AnalyticsSnapshot::concat);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end pricesForCustomers
+
+   /**
+    * Report 14: the repairs made by the companies with a name, as
+    * {repairType, hotelID, roomNo}
+    */
+   public List<Object[]> repairsByCompany (String name) {
+      String wanted = CustomerDirectory.trimTrailing(name);
+      this._lock.readLock().lock();
+      try {
+         final boolean[] match = new boolean[this._companyNames.size()];
+         for (int c = 0; c < match.length; ++c) {
+            match[c] = CustomerDirectory.trimTrailing(this._companyNames.get(c)).equals(wanted);
+         }//end for
+         final Columns r = this._repairs;
+         final int[] company = r.ints[R_COMPANY];
+         int[] rows = scan(r.size, (lo, hi) -> {
+            int[] found = new int[8];
+            int n = 0;
+            for (int i = lo; i < hi; ++i) {
+               if (match[company[i]]) {
+                  if (n == found.length) {
+                     found = Arrays.copyOf(found, n * 2);
+                  }//end if
+                  found[n++] = i;
+               }//end if
+            }//end for
+            return Arrays.copyOf(found, n);
+         }, AnalyticsSnapshot::concat);
+         List<Object[]> result = new ArrayList<Object[]>(rows.length);
+         for (int i : rows) {
+            result.add(new Object[] {this._types.values.get(r.ints[R_TYPE][i]), r.ints[R_HOTEL][i], r.ints[R_ROOM][i]});
+         }//end for
+         return result;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end repairsByCompany
+
+   /**
+    * Report 15: the k company names with the most repairs
+    */
+   public List<RepairAggregates.CompanyCount> topCompanies (int k) {
+      this._lock.readLock().lock();
+      try {
+         final int companies = this._companyNames.size();
+         final int[] company = this._repairs.ints[R_COMPANY];
+         long[] counts = scan(this._repairs.size, (lo, hi) -> {
+            long[] c = new long[companies];
+            for (int i = lo; i < hi; ++i) {
+               ++c[company[i]];
+            }//end for
+            return c;
+         }, AnalyticsSnapshot::add);
+         Map<String, Long> byName = new HashMap<String, Long>();
+         for (int c = 0; c < companies; ++c) {
+            if (counts[c] > 0) {
+               Long n = byName.get(this._companyNames.get(c));
+               byName.put(this._companyNames.get(c), (n == null ? 0 : n) + counts[c]);
+            }//end if
+         }//end for
+         List<RepairAggregates.CompanyCount> ranking = new ArrayList<RepairAggregates.CompanyCount>();
+         for (Map.Entry<String, Long> e : byName.entrySet()) {
+            ranking.add(new RepairAggregates.CompanyCount(e.getKey(), e.getValue()));
+         }//end for
+         Collections.sort(ranking);
+         return ranking.subList(0, Math.min(Math.max(k, 0), ranking.size()));
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end topCompanies
+
+   /**
+    * Report 16: year -> number of repairs of one room, ordered by year
+    */
+   public TreeMap<Integer, Long> repairsPerYear (final int hotelID, final int roomNo) {
+      this._lock.readLock().lock();
+      try {
+         final Columns r = this._repairs;
+         final int[] hotel = r.ints[R_HOTEL];
+         final int[] room = r.ints[R_ROOM];
+         final int[] day = r.ints[R_DAY];
+         return scan(r.size, (lo, hi) -> {
+            TreeMap<Integer, Long> years = new TreeMap<Integer, Long>();
+            for (int i = lo; i < hi; ++i) {
+               if (hotel[i] == hotelID && room[i] == roomNo) {
+                  years.merge(LocalDate.ofEpochDay(day[i]).getYear(), 1L, Long::sum);
+               }//end if
+            }//end for
+            return years;
+         }, (a, b) -> {
+            for (Map.Entry<Integer, Long> e : b.entrySet()) {
+               a.merge(e.getKey(), e.getValue(), Long::sum);
+            }//end for
+            return a;
+         });
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end repairsPerYear
+
+   /**
+    * The bookings and revenue of every hotel in every month of a year,
+    * ordered by hotel and month; months without bookings are left out
+    */
+   public List<Revenue> revenuePerHotelMonth (int year) {
+      final int from = (int) LocalDate.of(year, 1, 1).toEpochDay();
+      final int to = (int) LocalDate.of(year, 12, 31).toEpochDay();
+      // month of every day of the year, so the scan does no date arithmetic
+      final byte[] monthOf = new byte[to - from + 1];
+      for (int d = from; d <= to; ++d) {
+         monthOf[d - from] = (byte) (LocalDate.ofEpochDay(d).getMonthValue() - 1);
+      }//end for
+      this._lock.readLock().lock();
+      try {
+         final Columns b = this._bookings;
+         final int hotels = this._maxHotel + 1;
+         final int[] hotel = b.ints[B_HOTEL];
+         final int[] day = b.ints[B_DAY];
+         final long[] price = b.longs;
+         // bookings at [2 * (hotel * 12 + month)], revenue right after
+         long[] cells = scan(b.size, (lo, hi) -> {
+            long[] c = new long[hotels * 24];
+            for (int i = lo; i < hi; ++i) {
+               if (day[i] >= from && day[i] <= to && hotel[i] >= 0) {
+                  int cell = 2 * (hotel[i] * 12 + monthOf[day[i] - from]);
+                  ++c[cell];
+                  c[cell + 1] += price[i];
+               }//end if
+            }//end for
+            return c;
+         }, AnalyticsSnapshot::add);
+         List<Revenue> result = new ArrayList<Revenue>();
+         for (int h = 0; h < hotels; ++h) {
+            for (int m = 0; m < 12; ++m) {
+               int cell = 2 * (h * 12 + m);
+               if (cells[cell] > 0) {
+                  result.add(new Revenue(h, m + 1, cells[cell], cells[cell + 1]));
+               }//end if
+            }//end for
+         }//end for
+         return result;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end revenuePerHotelMonth
+
+   /**
+    * The share of room-nights booked in every hotel over a date range,
+    * ordered by hotel
+    */
+   public List<Occupancy> occupancy (LocalDate first, LocalDate last) {
+      final int from = (int) first.toEpochDay();
+      final int to = (int) last.toEpochDay();
+      this._lock.readLock().lock();
+      try {
+         final Columns b = this._bookings;
+         final int hotels = this._maxHotel + 1;
+         final int[] hotel = b.ints[B_HOTEL];
+         final int[] day = b.ints[B_DAY];
+         long[] booked = scan(b.size, (lo, hi) -> {
+            long[] c = new long[hotels];
+            for (int i = lo; i < hi; ++i) {
+               if (day[i] >= from && day[i] <= to && hotel[i] >= 0) {
+                  ++c[hotel[i]];
+               }//end if
+            }//end for
+            return c;
+         }, AnalyticsSnapshot::add);
+         List<Occupancy> result = new ArrayList<Occupancy>();
+         for (int h = 0; h < hotels; ++h) {
+            int rooms = h < this._roomsPerHotel.length ? this._roomsPerHotel[h] : 0;
+            if (rooms > 0 || booked[h] > 0) {
+               result.add(new Occupancy(h, rooms, booked[h], to - from + 1));
+            }//end if
+         }//end for
+         return result;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end occupancy
+
+   private static int[] sortedIds (List<Integer> ids) {
+      int[] sorted = new int[ids.size()];
+      for (int i = 0; i < sorted.length; ++i) {
+         sorted[i] = ids.get(i);
+      }//end for
+      Arrays.sort(sorted);
+      return sorted;
+   }//end sortedIds
+
+   private static long[] add (long[] a, long[] b) {
+      for (int i = 0; i < a.length; ++i) {
+         a[i] += b[i];
+      }//end for
+      return a;
+   }//end add
+
+   private static long[] concat (long[] a, long[] b) {
+      long[] c = Arrays.copyOf(a, a.length + b.length);
+      System.arraycopy(b, 0, c, a.length, b.length);
+      return c;
+   }//end concat
+
+   private static int[] concat (int[] a, int[] b) {
+      int[] c = Arrays.copyOf(a, a.length + b.length);
+      System.arraycopy(b, 0, c, a.length, b.length);
+      return c;
+   }//end concat
+
+   /**
+    * Loads the snapshot and times the reports on it
+    *
+    * @param args <dbname> <port> <user>
+    */
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            AnalyticsSnapshot.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+      DBProject esql = null;
+      AnalyticsSnapshot snapshot = new AnalyticsSnapshot();
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", 1);
+         String file = System.getProperty("dbproject.analytics.snapshot");
+         long start = System.nanoTime();
+         snapshot.load(esql, file == null ? null : new File(file));
+         esql.releaseSession();
+         System.out.println(String.format("Loaded %s in %.1f ms", snapshot.describe(), (System.nanoTime() - start) / 1e6));
+         if (file != null) {
+            start = System.nanoTime();
+            snapshot.save(new File(file));
+            System.out.println(String.format("Saved %s in %.1f ms", file, (System.nanoTime() - start) / 1e6));
+         }//end if
+         LocalDate first = LocalDate.of(2010, 1, 1);
+         LocalDate last = LocalDate.of(2010, 12, 31);
+         for (int round = 0; round < 3; ++round) {
+            time("topK", () -> snapshot.topK(first, last, 10).size());
+            time("topKForCustomers", () -> snapshot.topKForCustomers(Arrays.asList(1, 2, 3), 10).size());
+            time("pricesForCustomers", () -> snapshot.pricesForCustomers(1, Arrays.asList(1, 2, 3), first, last).length);
+            time("repairsByCompany", () -> snapshot.repairsByCompany("none").size());
+            time("topCompanies", () -> snapshot.topCompanies(10).size());
+            time("repairsPerYear", () -> snapshot.repairsPerYear(1, 1).size());
+            time("revenuePerHotelMonth", () -> snapshot.revenuePerHotelMonth(2010).size());
+            time("occupancy", () -> snapshot.occupancy(first, last).size());
+         }//end for
+      }catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         snapshot.close();
+         if (esql != null) {
+            esql.cleanup ();
+         }//end if
+      }//end try
+   }//end main
+
+   // a report run by main
+   private interface Report {
+      int run ();
+   }//end Report
+
+   private static void time (String name, Report report) {
+      long start = System.nanoTime();
+      int rows = report.run();
+      System.out.println(String.format("  %-22s %8d rows %10.3f ms", name, rows, (System.nanoTime() - start) / 1e6));
+   }//end time
+
+}//end AnalyticsSnapshot
@@ -0,0 +1,379 @@
+/*
+ * Headless batch execution
+ * ========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class runs DBProject menu operations from a script file instead of
+ * the interactive menu.  Every operation is given as its menu number or
+ * method name followed by the answers to its prompts, in prompt order,
+ * either as a '|' separated line
+ *
+ *     5|381|5|rzqs|eyeg|2019-01-01|150|2
+ *
+ * or as a JSON object on one line
+ *
+ *     {"op": "bookRoom", "args": ["381", "5", "rzqs", "eyeg", "2019-01-01", "150", "2"]}
+ *
+ * Blank lines and lines starting with '#' are skipped.  A line reading
+ * 'barrier' waits for every operation above it to finish, e.g. before
+ * booking customers that the lines above add.
+ *
+ * Operations are dispatched in chunks of consecutive lines to a pool of
+ * worker threads, each running on its own pooled session, and one timing
+ * line is printed per operation plus a summary per operation type.
+ */
+public class BatchRunner {
+
+   /**
+    * One scripted operation.
+    */
+   static class Op {
+      final int line;
+      final int choice;
+      final List<String> args;
+
+      Op (int line, int choice, List<String> args) {
+         this.line = line;
+         this.choice = choice;
+         this.args = args;
+      }//end Op
+   }//end Op
+
+   /**
+    * The outcome of one scripted operation.
+    */
+   static class Result {
+      final Op op;
+      final long nanos;
+      final String error;   // the failure the operation reported, or null
+
+      Result (Op op, long nanos, String error) {
+         this.op = op;
+         this.nanos = nanos;
+         this.error = error;
+      }//end Result
+   }//end Result
+
+   private final DBProject _esql;
+   private final int _threads;
+   private final int _chunk;
+   private final boolean _verbose;
+
+   /**
+    * Creates a new runner
+    *
+    * @param esql the DBProject the operations run against
+    * @param threads the number of worker threads
+    * @param chunk the number of consecutive operations a worker takes at once
+    * @param verbose whether to print the output of every operation
+    */
+   public BatchRunner (DBProject esql, int threads, int chunk, boolean verbose) {
+      this._esql = esql;
+      this._threads = threads;
+      this._chunk = chunk;
+      this._verbose = verbose;
+   }//end BatchRunner
+
+   /**
+    * Reads a script into segments separated by 'barrier' lines.
+    *
+    * @param file the script
+    * @return the operations of every segment, in file order
+    * @throws java.io.IOException when the file cannot be read or has a bad line
+    */
+   public static List<List<Op>> parse (File file) throws IOException {
+      List<List<Op>> segments = new ArrayList<List<Op>>();
+      List<Op> segment = new ArrayList<Op>();
+      try (BufferedReader reader = new BufferedReader(
+              new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+         String line;
+         int lineNo = 0;
+         while ((line = reader.readLine()) != null) {
+            ++lineNo;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+               continue;
+            }//end if
+            if (trimmed.equalsIgnoreCase("barrier")) {
+               segments.add(segment);
+               segment = new ArrayList<Op>();
+               continue;
+            }//end if
+            try {
+               segment.add(trimmed.startsWith("{") ? parseJson(lineNo, trimmed) : parsePlain(lineNo, line));
+            }catch (IllegalArgumentException e) {
+               throw new IOException(file + ":" + lineNo + ": " + e.getMessage());
+            }//end try
+         }//end while
+      }//end try
+      segments.add(segment);
+      return segments;
+   }//end parse
+
+   static Op parsePlain (int lineNo, String line) {
+      String[] fields = line.split("\\|", -1);
+      List<String> args = new ArrayList<String>();
+      for (int i = 1; i < fields.length; ++i) {
+         args.add(fields[i]);
+      }//end for
+      return new Op(lineNo, choiceOf(fields[0].trim()), args);
+   }//end parsePlain
+
+   // parses the {"op": ..., "args": [...]} objects of a JSON-lines script
+   static Op parseJson (int lineNo, String line) {
+      JsonCursor c = new JsonCursor(line);
+      String op = null;
+      List<String> args = new ArrayList<String>();
+      c.expect('{');
+      while (!c.consume('}')) {
+         String key = c.string();
+         c.expect(':');
+         if (key.equals("op")) {
+            op = c.scalar();
+         } else if (key.equals("args")) {
+            c.expect('[');
+            while (!c.consume(']')) {
+               args.add(c.scalar());
+               c.consume(',');
+            }//end while
+         } else {
+            throw new IllegalArgumentException("unknown key '" + key + "'");
+         }//end if
+         c.consume(',');
+      }//end while
+      if (op == null) {
+         throw new IllegalArgumentException("missing \"op\"");
+      }//end if
+      return new Op(lineNo, choiceOf(op), args);
+   }//end parseJson
+
+   // a menu number or an operation name
+   static int choiceOf (String op) {
+      for (int i = 1; i < DBProject.OPERATIONS.length; ++i) {
+         if (DBProject.OPERATIONS[i].equalsIgnoreCase(op)) {
+            return i;
+         }//end if
+      }//end for
+      try {
+         int choice = Integer.parseInt(op);
+         if (choice >= 1 && choice < DBProject.OPERATIONS.length) {
+            return choice;
+         }//end if
+      }catch (NumberFormatException e) {
+         // reported below.
+      }//end try
+      throw new IllegalArgumentException("unknown operation '" + op + "'");
+   }//end choiceOf
+
+   /**
+    * A minimal reader for the flat JSON objects of a script line.
+    */
+   static class JsonCursor {
+      private final String _s;
+      private int _pos = 0;
+
+      JsonCursor (String s) {
+         this._s = s;
+      }//end JsonCursor
+
+      private void skipSpace () {
+         while (this._pos < this._s.length() && Character.isWhitespace(this._s.charAt(this._pos))) {
+            ++this._pos;
+         }//end while
+      }//end skipSpace
+
+      boolean consume (char c) {
+         skipSpace();
+         if (this._pos < this._s.length() && this._s.charAt(this._pos) == c) {
+            ++this._pos;
+            return true;
+         }//end if
+         return false;
+      }//end consume
+
+      void expect (char c) {
+         if (!consume(c)) {
+            throw new IllegalArgumentException("expected '" + c + "' at column " + (this._pos + 1));
+         }//end if
+      }//end expect
+
+      String string () {
+         expect('"');
+         StringBuilder sb = new StringBuilder();
+         while (this._pos < this._s.length()) {
+            char ch = this._s.charAt(this._pos++);
+            if (ch == '"') {
+               return sb.toString();
+            }//end if
+            if (ch == '\\' && this._pos < this._s.length()) {
+               char e = this._s.charAt(this._pos++);
+               switch (e) {
+                  case 'n': sb.append('\n'); break;
+                  case 't': sb.append('\t'); break;
+                  case 'r': sb.append('\r'); break;
+                  case 'b': sb.append('\b'); break;
+                  case 'f': sb.append('\f'); break;
+                  case 'u':
+                     sb.append((char) Integer.parseInt(this._s.substring(this._pos, this._pos + 4), 16));
+                     this._pos += 4;
+                     break;
+                  default: sb.append(e); break;
+               }//end switch
+            } else {
+               sb.append(ch);
+            }//end if
+         }//end while
+         throw new IllegalArgumentException("unterminated string");
+      }//end string
+
+      // a string, or a bare number/literal returned as its text
+      String scalar () {
+         skipSpace();
+         if (this._pos < this._s.length() && this._s.charAt(this._pos) == '"') {
+            return string();
+         }//end if
+         int start = this._pos;
+         while (this._pos < this._s.length() && ",]} \t".indexOf(this._s.charAt(this._pos)) < 0) {
+            ++this._pos;
+         }//end while
+         if (start == this._pos) {
+            throw new IllegalArgumentException("expected a value at column " + (start + 1));
+         }//end if
+         return this._s.substring(start, this._pos);
+      }//end scalar
+   }//end JsonCursor
+
+   /**
+    * Runs every segment of a script, one after the other.
+    *
+    * @param segments the parsed script
+    * @return true when every operation succeeded
+    * @throws java.lang.InterruptedException when interrupted while waiting
+    */
+   public boolean run (List<List<Op>> segments) throws InterruptedException {
+      SessionIO.install();
+      PrintStream console = SessionIO.console();
+      List<Result> results = new ArrayList<Result>();
+      ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+      long start = System.nanoTime();
+      try {
+         for (List<Op> segment : segments) {
+            List<Future<List<Result>>> futures = new ArrayList<Future<List<Result>>>();
+            for (int i = 0; i < segment.size(); i += this._chunk) {
+               final List<Op> chunk = segment.subList(i, Math.min(segment.size(), i + this._chunk));
+               futures.add(workers.submit(() -> {
+                  List<Result> done = new ArrayList<Result>();
+                  for (Op op : chunk) {
+                     done.add(execute(op));
+                  }//end for
+                  return done;
+               }));
+            }//end for
+            for (Future<List<Result>> f : futures) {
+               try {
+                  results.addAll(f.get());
+               }catch (ExecutionException e) {
+                  console.println("worker failed: " + e.getCause());
+               }//end try
+            }//end for
+         }//end for
+      } finally {
+         workers.shutdown();
+      }//end try
+      long wall = System.nanoTime() - start;
+      printSummary(console, results, wall);
+      for (Result r : results) {
+         if (r.error != null) {
+            return false;
+         }//end if
+      }//end for
+      return true;
+   }//end run
+
+   // runs one operation on the calling worker with its answers bound as input
+   private Result execute (Op op) {
+      StringBuilder answers = new StringBuilder();
+      for (String a : op.args) {
+         answers.append(a).append('\n');
+      }//end for
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      PrintStream outStream = this._verbose ? new PrintStream(out, true) : SessionIO.discard();
+      // exceptions are reported on System.err as well, so it goes with the rest of the output
+      SessionIO.bind(new BufferedReader(new StringReader(answers.toString())), outStream, outStream);
+      long start = System.nanoTime();
+      String error;
+      try {
+         error = DBProject.runOperation(this._esql, op.choice);
+      } finally {
+         SessionIO.unbind();
+      }//end try
+      long nanos = System.nanoTime() - start;
+
+      PrintStream console = SessionIO.console();
+      synchronized (console) {
+         console.println(String.format("%6d  %-36s %10.3f ms  %s", op.line, DBProject.OPERATIONS[op.choice],
+                                       nanos / 1e6, error == null ? "ok" : "error: " + error));
+         if (this._verbose) {
+            console.print(out.toString());
+            console.println();
+         }//end if
+      }//end synchronized
+      return new Result(op, nanos, error);
+   }//end execute
+
+   private static void printSummary (PrintStream console, List<Result> results, long wallNanos) {
+      int n = DBProject.OPERATIONS.length;
+      long[] count = new long[n];
+      long[] errors = new long[n];
+      long[] total = new long[n];
+      long[] max = new long[n];
+      long failed = 0;
+      for (Result r : results) {
+         int c = r.op.choice;
+         ++count[c];
+         total[c] += r.nanos;
+         max[c] = Math.max(max[c], r.nanos);
+         if (r.error != null) {
+            ++errors[c];
+            ++failed;
+         }//end if
+      }//end for
+      console.println();
+      console.println(String.format("%-36s %8s %8s %12s %12s", "operation", "count", "errors", "avg ms", "max ms"));
+      for (int c = 1; c < n; ++c) {
+         if (count[c] > 0) {
+            console.println(String.format("%-36s %8d %8d %12.3f %12.3f", DBProject.OPERATIONS[c], count[c],
+                                          errors[c], total[c] / 1e6 / count[c], max[c] / 1e6));
+         }//end if
+      }//end for
+      double secs = wallNanos / 1e9;
+      console.println(String.format("%d operations, %d failed, %.2f s, %.1f ops/s",
+                                    results.size(), failed, secs, results.size() / secs));
+   }//end printSummary
+
+}//end BatchRunner
@@ -0,0 +1,578 @@
+/*
+ * Operation benchmark
+ * ===================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class benchmarks the 20 menu operations of DBProject against a
+ * database seeded from data/*.csv (see BulkLoader and its --scale option,
+ * and bench.sh for a run over several scale factors).  Every operation is
+ * driven through DBProject.runOperation exactly as the menu runs it, with
+ * its prompts answered from generated input that is valid for the seed
+ * data: existing hotels, rooms, customers with unique names, managers,
+ * HouseCleaning staff, certified companies and repairs.
+ *
+ * Each operation first runs a number of warmup invocations, which are not
+ * measured, and then the measured ones, spread over the worker threads.
+ * For every operation the benchmark reports throughput, average, p50, p99,
+ * p99.9 and maximum latency, and the bytes the worker thread allocated per
+ * invocation, and can append the same figures to a csv file so runs can be
+ * compared against a baseline.
+ *
+ * The insert operations write new rows on every invocation (customers,
+ * rooms, companies, repairs, bookings on dates after the last booked one,
+ * assignments and requests), so benchmark a scratch database.
+ *
+ * Usage: java Benchmark <dbname> <port> <user> [--data dir] [--ops list]
+ *                       [--warmup N] [--iterations N] [--threads N]
+ *                       [--seed N] [--label text] [--csv file]
+ */
+public class Benchmark {
+
+   static final DateTimeFormatter MENU_DATE = DateTimeFormatter.ofPattern("MM-dd-yyyy");
+
+   /**
+    * The figures of one benchmarked operation.
+    */
+   static class Stats {
+      final String operation;
+      final long[] nanos;        // sorted latencies of the measured invocations
+      final long wallNanos;
+      final long allocatedBytes;
+      final int errors;
+
+      Stats (String operation, long[] nanos, long wallNanos, long allocatedBytes, int errors) {
+         this.operation = operation;
+         this.nanos = nanos;
+         this.wallNanos = wallNanos;
+         this.allocatedBytes = allocatedBytes;
+         this.errors = errors;
+      }//end Stats
+
+      double throughput () {
+         return this.wallNanos == 0 ? 0 : this.nanos.length * 1e9 / this.wallNanos;
+      }//end throughput
+
+      double averageMillis () {
+         long total = 0;
+         for (long n : this.nanos) {
+            total += n;
+         }//end for
+         return this.nanos.length == 0 ? 0 : total / 1e6 / this.nanos.length;
+      }//end averageMillis
+
+      double percentileMillis (double p) {
+         if (this.nanos.length == 0) {
+            return 0;
+         }//end if
+         int i = (int) Math.ceil(p / 100.0 * this.nanos.length) - 1;
+         return this.nanos[Math.max(0, Math.min(this.nanos.length - 1, i))] / 1e6;
+      }//end percentileMillis
+
+      long bytesPerOp () {
+         return this.nanos.length == 0 ? 0 : this.allocatedBytes / this.nanos.length;
+      }//end bytesPerOp
+   }//end Stats
+
+   // seed data the generated answers are drawn from
+   private final List<int[]> _rooms = new ArrayList<int[]>();                 // {hotelID, roomNo}
+   private final Map<Integer, List<Integer>> _roomsByHotel = new HashMap<Integer, List<Integer>>();
+   private final List<Integer> _hotels = new ArrayList<Integer>();             // hotels with rooms, in load order
+   private final List<String[]> _customers = new ArrayList<String[]>();       // {fName, lName}, unique names
+   private final Map<Integer, Integer> _managers = new HashMap<Integer, Integer>();
+   private final List<int[]> _cleaners = new ArrayList<int[]>();              // {SSN, hotelID}
+   private final List<Object[]> _companies = new ArrayList<Object[]>();       // {cmpID, name}
+   private final List<int[]> _repairs = new ArrayList<int[]>();               // {rID, hotelID, roomNo}
+   private LocalDate _firstDate = LocalDate.of(2000, 1, 1);
+   private LocalDate _lastDate = LocalDate.of(2018, 12, 31);
+
+   // bookRoomsForGroup books its weeks this many days past bookRoom's first
+   // date, clear of the days bookRoom fills, and cycles through GROUP_WEEKS
+   // weeks, so the benchmark's bookings stay within a few years of the seed data
+   static final long GROUP_DAYS = 366;
+   static final int GROUP_WEEKS = 52;
+
+   // where the insert operations start, read from the database
+   private int _nextRoomNo;
+   private LocalDate _nextFreeDate;
+
+   private final DBProject _esql;
+   private final int _threads;
+   private final long _seed;
+   private final String _runTag;
+   private final AtomicInteger _sequence = new AtomicInteger();
+
+   /**
+    * Creates a new benchmark
+    *
+    * @param esql the DBProject the operations run against
+    * @param threads the number of worker threads
+    * @param seed the seed of the generated input
+    */
+   public Benchmark (DBProject esql, int threads, long seed) {
+      this._esql = esql;
+      this._threads = threads;
+      this._seed = seed;
+      this._runTag = Long.toString(System.currentTimeMillis() % 1000000000L, 36);
+   }//end Benchmark
+
+   /**
+    * Reads the seed data the answers are generated from, and where the
+    * insert operations can add rows without colliding with existing ones.
+    *
+    * @param dataDir the directory holding the csv files
+    * @throws java.lang.Exception when the files or the database cannot be read
+    */
+   public void prepare (File dataDir) throws Exception {
+      Map<String, Integer> nameCounts = new HashMap<String, Integer>();
+      List<String[]> names = new ArrayList<String[]>();
+      for (Object[] row : read(dataDir, BulkLoader.CUSTOMER)) {
+         String[] name = {(String) row[1], (String) row[2]};
+         String key = name[0] + " " + name[1];
+         Integer old = nameCounts.get(key);
+         nameCounts.put(key, old == null ? 1 : old + 1);
+         names.add(name);
+      }//end for
+      for (String[] name : names) {
+         // bookRoom asks for an id when a name is not unique
+         if (nameCounts.get(name[0] + " " + name[1]) == 1 && !name[0].equals("default")) {
+            this._customers.add(name);
+         }//end if
+      }//end for
+      for (Object[] row : read(dataDir, BulkLoader.ROOM)) {
+         int hotelID = (Integer) row[0];
+         if (hotelID == 0) {
+            continue;
+         }//end if
+         this._rooms.add(new int[] {hotelID, (Integer) row[1]});
+         List<Integer> rooms = this._roomsByHotel.get(hotelID);
+         if (rooms == null) {
+            rooms = new ArrayList<Integer>();
+            this._roomsByHotel.put(hotelID, rooms);
+            this._hotels.add(hotelID);
+         }//end if
+         rooms.add((Integer) row[1]);
+      }//end for
+      for (Object[] row : read(dataDir, BulkLoader.STAFF)) {
+         if ("Manager".equals(row[4]) && !this._managers.containsKey(row[5])) {
+            this._managers.put((Integer) row[5], (Integer) row[0]);
+         } else if ("HouseCleaning".equals(row[4]) && this._roomsByHotel.containsKey(row[5])) {
+            this._cleaners.add(new int[] {(Integer) row[0], (Integer) row[5]});
+         }//end if
+      }//end for
+      for (Object[] row : read(dataDir, BulkLoader.COMPANY)) {
+         if (Boolean.TRUE.equals(row[3]) && (Integer) row[0] != 0) {
+            this._companies.add(new Object[] {row[0], ((String) row[1]).trim()});
+         }//end if
+      }//end for
+      for (Object[] row : read(dataDir, BulkLoader.REPAIR)) {
+         if ((Integer) row[0] != 0 && this._managers.containsKey(row[1])) {
+            this._repairs.add(new int[] {(Integer) row[0], (Integer) row[1], (Integer) row[2]});
+         }//end if
+      }//end for
+
+      ResultSet rs = this._esql.executeQuery("SELECT MIN(bookingDate), MAX(bookingDate) FROM Booking WHERE bID <> 0", false);
+      if (rs.next() && rs.getDate(1) != null) {
+         this._firstDate = rs.getDate(1).toLocalDate();
+         this._lastDate = rs.getDate(2).toLocalDate();
+      }//end if
+      rs = this._esql.executeQuery("SELECT COALESCE(MAX(roomNo), 0) FROM Room", false);
+      this._nextRoomNo = (rs.next() ? rs.getInt(1) : 0) + 1;
+      this._nextFreeDate = this._lastDate.plusDays(1);
+      this._esql.releaseSession();
+   }//end prepare
+
+   /**
+    * Deletes the bookings the run added, which all lie after the seed dates,
+    * so they do not keep partitions of future years alive
+    *
+    * @return the number of bookings deleted
+    * @throws java.sql.SQLException when they could not be deleted
+    */
+   public int removeBookings () throws SQLException {
+      try {
+         return this._esql.executeUpdate("DELETE FROM Booking WHERE bookingDate >= ?",
+                                         java.sql.Date.valueOf(this._nextFreeDate));
+      } finally {
+         this._esql.releaseSession();
+      }//end try
+   }//end removeBookings
+
+   /**
+    * @return {hotelID, roomNo} of every room of the seed data
+    */
+   List<int[]> rooms () {
+      return this._rooms;
+   }//end rooms
+
+   /**
+    * @return {fName, lName} of the seed customers whose names are unique
+    */
+   List<String[]> customers () {
+      return this._customers;
+   }//end customers
+
+   /**
+    * @return the first date after every booking in the database
+    */
+   LocalDate nextFreeDate () {
+      return this._nextFreeDate;
+   }//end nextFreeDate
+
+   private static List<Object[]> read (File dataDir, BulkLoader.TableSpec spec) throws IOException {
+      List<Object[]> rows = new ArrayList<Object[]>();
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+              new FileInputStream(new File(dataDir, spec.file)), StandardCharsets.UTF_8), 1 << 16)) {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+               continue;
+            }//end if
+            Object[] values = new Object[spec.columns.length];
+            BulkLoader.parseLine(spec, line, values);
+            rows.add(values);
+         }//end while
+      }//end try
+      return rows;
+   }//end read
+
+   /**
+    * Generates the answers to the prompts of one invocation of an operation.
+    *
+    * @param choice the menu number of the operation
+    * @param seq a number unique to this invocation
+    * @return the answers, in prompt order
+    */
+   List<String> answers (int choice, int seq) {
+      Random r = new Random(this._seed * 1000003L + choice * 7919L + seq);
+      List<String> a = new ArrayList<String>();
+      int[] room = this._rooms.get(r.nextInt(this._rooms.size()));
+      LocalDate day = this._firstDate.plusDays(r.nextInt((int) (this._lastDate.toEpochDay() - this._firstDate.toEpochDay()) + 1));
+      String[] customer = this._customers.get(r.nextInt(this._customers.size()));
+      switch (choice) {
+         case 1: // addCustomer
+            add(a, "bench", "c" + this._runTag + seq, "benchmark", Long.toString(1000000000L + seq),
+                        "1990-01-01", r.nextBoolean() ? "Male" : "Female");
+            break;
+         case 2: // addRoom
+            add(a, room[0], this._nextRoomNo + seq, "Suite");
+            break;
+         case 3: // addMaintenanceCompany
+            add(a, "bench" + this._runTag + seq, "benchmark", "Y");
+            break;
+         case 4: { // addRepair
+            Object[] company = this._companies.get(r.nextInt(this._companies.size()));
+            add(a, room[0], room[1], company[0], day, "benchmark", "Small");
+            break;
+         }
+         case 5: { // bookRoom, a free room and date per invocation so none is refused: every room, then the next day
+            int[] free = this._rooms.get(seq % this._rooms.size());
+            add(a, free[0], free[1], customer[0], customer[1], this._nextFreeDate.plusDays(seq / this._rooms.size()),
+                        100 + r.nextInt(1900), 1 + r.nextInt(4));
+            break;
+         }
+         case 6: { // assignHouseCleaningToRoom
+            int[] cleaner = this._cleaners.get(r.nextInt(this._cleaners.size()));
+            List<Integer> rooms = this._roomsByHotel.get(cleaner[1]);
+            add(a, cleaner[0], cleaner[1], rooms.get(r.nextInt(rooms.size())));
+            break;
+         }
+         case 7: { // repairRequest
+            int[] repair = this._repairs.get(r.nextInt(this._repairs.size()));
+            add(a, repair[1], this._managers.get(repair[1]), repair[2], repair[0], day, "benchmark");
+            break;
+         }
+         case 8: // numberOfAvailableRooms
+         case 9: // numberOfBookedRooms
+            add(a, room[0], day);
+            break;
+         case 10: // listHotelRoomBookingsForAWeek
+            add(a, room[0], day.format(MENU_DATE));
+            break;
+         case 11: // topKHighestRoomPriceForADateRange
+            add(a, 10, day.format(MENU_DATE), day.plusDays(30).format(MENU_DATE));
+            break;
+         case 12: // topKHighestPriceBookingsForACustomer
+            add(a, 5, customer[0] + " " + customer[1]);
+            break;
+         case 13: // totalCostForCustomer
+            add(a, room[0], customer[0] + " " + customer[1], this._firstDate.format(MENU_DATE),
+                        this._lastDate.format(MENU_DATE));
+            break;
+         case 14: // listRepairsMade
+            add(a, this._companies.get(r.nextInt(this._companies.size()))[1]);
+            break;
+         case 15: // topKMaintenanceCompany
+            add(a, 10);
+            break;
+         case 16: // numberOfRepairsForEachRoomPerYear
+            add(a, room[0], room[1]);
+            break;
+         case 17: { // bookRoomsForGroup, a week for up to 3 rooms of every hotel in turn, clear of the dates bookRoom uses
+            int hotelID = this._hotels.get(seq % this._hotels.size());
+            List<Integer> rooms = this._roomsByHotel.get(hotelID);
+            StringBuilder list = new StringBuilder();
+            for (int i = 0; i < Math.min(3, rooms.size()); ++i) {
+               list.append(i == 0 ? "" : ",").append(rooms.get(i));
+            }//end for
+            int week = (seq / this._hotels.size()) % GROUP_WEEKS;
+            add(a, hotelID, list, customer[0], customer[1], this._nextFreeDate.plusDays(GROUP_DAYS + 7L * week),
+                        7, 100 + r.nextInt(1900), 1 + r.nextInt(4));
+            break;
+         }
+         case 18: // revenuePerHotelPerMonth
+            add(a, day.getYear());
+            break;
+         case 19: // occupancyRatePerHotel
+            add(a, day.format(MENU_DATE), day.plusDays(30).format(MENU_DATE));
+            break;
+         default: // search, for a customer's last name missing its last letter
+            add(a, customer[1].substring(0, Math.max(1, customer[1].length() - 1)), 10);
+            break;
+      }//end switch
+      return a;
+   }//end answers
+
+   private static void add (List<String> a, Object... values) {
+      for (Object v : values) {
+         a.add(String.valueOf(v));
+      }//end for
+   }//end add
+
+   /**
+    * Benchmarks one operation.
+    *
+    * @param choice the menu number of the operation
+    * @param warmup the number of unmeasured invocations
+    * @param iterations the number of measured invocations
+    * @return the figures of the measured invocations
+    * @throws java.lang.InterruptedException when interrupted while waiting
+    */
+   public Stats run (final int choice, int warmup, int iterations) throws InterruptedException {
+      ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+      try {
+         phase(workers, choice, warmup, null);
+         final long[] nanos = new long[iterations];
+         final long[] allocated = new long[1];
+         final int[] errors = new int[1];
+         long start = System.nanoTime();
+         phase(workers, choice, iterations, new Object[] {nanos, allocated, errors});
+         long wall = System.nanoTime() - start;
+         Arrays.sort(nanos);
+         return new Stats(DBProject.OPERATIONS[choice], nanos, wall, allocated[0], errors[0]);
+      } finally {
+         workers.shutdown();
+      }//end try
+   }//end run
+
+   // runs count invocations over the workers, recording them when measured is set
+   @SuppressWarnings("unchecked")
+   private void phase (ExecutorService workers, final int choice, final int count, final Object[] measured)
+         throws InterruptedException {
+      final AtomicInteger next = new AtomicInteger();
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int t = 0; t < this._threads; ++t) {
+         futures.add(workers.submit(() -> {
+            com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long threadId = Thread.currentThread().getId();
+            long bytes = 0;
+            int failed = 0;
+            int i;
+            while ((i = next.getAndIncrement()) < count) {
+               List<String> answers = answers(choice, this._sequence.getAndIncrement());
+               StringBuilder input = new StringBuilder();
+               for (String s : answers) {
+                  input.append(s).append('\n');
+               }//end for
+               ByteArrayOutputStream err = new ByteArrayOutputStream();
+               SessionIO.bind(new BufferedReader(new StringReader(input.toString())), SessionIO.discard(),
+                              new PrintStream(err, true));
+               long before = mx.getThreadAllocatedBytes(threadId);
+               long start = System.nanoTime();
+               try {
+                  DBProject.runOperation(this._esql, choice);
+               } finally {
+                  SessionIO.unbind();
+               }//end try
+               long nanos = System.nanoTime() - start;
+               bytes += mx.getThreadAllocatedBytes(threadId) - before;
+               if (err.size() > 0) {
+                  ++failed;
+               }//end if
+               if (measured != null) {
+                  ((long[]) measured[0])[i] = nanos;
+               }//end if
+            }//end while
+            if (measured != null) {
+               synchronized (measured) {
+                  ((long[]) measured[1])[0] += bytes;
+                  ((int[]) measured[2])[0] += failed;
+               }//end synchronized
+            }//end if
+            return null;
+         }));
+      }//end for
+      for (Future<Void> f : futures) {
+         try {
+            f.get();
+         }catch (ExecutionException e) {
+            SessionIO.console().println("worker failed: " + e.getCause());
+         }//end try
+      }//end for
+   }//end phase
+
+   static void printHeader (PrintStream out) {
+      out.println(String.format("%-36s %10s %9s %9s %9s %9s %9s %10s %7s", "operation", "ops/s", "avg ms",
+                                "p50 ms", "p99 ms", "p99.9 ms", "max ms", "B/op", "errors"));
+   }//end printHeader
+
+   static void print (PrintStream out, Stats s) {
+      out.println(String.format("%-36s %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f %10d %7d", s.operation,
+                                s.throughput(), s.averageMillis(), s.percentileMillis(50), s.percentileMillis(99),
+                                s.percentileMillis(99.9), s.percentileMillis(100), s.bytesPerOp(), s.errors));
+   }//end print
+
+   // appends one line per operation, writing the header to a new file
+   static void appendCsv (File file, String label, int threads, List<Stats> results) throws IOException {
+      boolean header = !file.exists() || file.length() == 0;
+      try (PrintWriter w = new PrintWriter(new OutputStreamWriter(
+              new FileOutputStream(file, true), StandardCharsets.UTF_8))) {
+         if (header) {
+            w.println("label,threads,operation,iterations,ops_per_s,avg_ms,p50_ms,p99_ms,p999_ms,max_ms,bytes_per_op,errors");
+         }//end if
+         for (Stats s : results) {
+            w.println(String.format(java.util.Locale.ROOT, "%s,%d,%s,%d,%.3f,%.4f,%.4f,%.4f,%.4f,%.4f,%d,%d",
+                                    label, threads, s.operation, s.nanos.length, s.throughput(), s.averageMillis(),
+                                    s.percentileMillis(50), s.percentileMillis(99), s.percentileMillis(99.9),
+                                    s.percentileMillis(100), s.bytesPerOp(), s.errors));
+         }//end for
+      }//end try
+   }//end appendCsv
+
+   /**
+    * Runs the benchmark from the command line
+    *
+    * @param args <dbname> <port> <user> [--data dir] [--ops list] [--warmup N]
+    *             [--iterations N] [--threads N] [--seed N] [--label text] [--csv file]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            Benchmark.class.getName () +
+            " <dbname> <port> <user> [--data dir] [--ops list] [--warmup N] [--iterations N]" +
+            " [--threads N] [--seed N] [--label text] [--csv file]");
+         return;
+      }//end if
+      File dataDir = new File("../data");
+      String ops = null;
+      int warmup = 200;
+      int iterations = 1000;
+      int threads = 1;
+      long seed = 42;
+      String label = "";
+      File csv = null;
+      for (int i = 3; i < args.length; ++i) {
+         if (args[i].equals("--data")) {
+            dataDir = new File(args[++i]);
+         } else if (args[i].equals("--ops")) {
+            ops = args[++i];
+         } else if (args[i].equals("--warmup")) {
+            warmup = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--iterations")) {
+            iterations = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--threads")) {
+            threads = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--seed")) {
+            seed = Long.parseLong(args[++i]);
+         } else if (args[i].equals("--label")) {
+            label = args[++i];
+         } else if (args[i].equals("--csv")) {
+            csv = new File(args[++i]);
+         } else {
+            System.err.println("Unknown option " + args[i]);
+            return;
+         }//end if
+      }//end for
+
+      List<Integer> choices = new ArrayList<Integer>();
+      if (ops == null) {
+         for (int c = 1; c < DBProject.OPERATIONS.length; ++c) {
+            choices.add(c);
+         }//end for
+      } else {
+         for (String op : ops.split(",")) {
+            choices.add(BatchRunner.choiceOf(op.trim()));
+         }//end for
+      }//end if
+
+      DBProject esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", Math.max(threads, 1) + 1);
+         esql.warmCaches();
+         Benchmark bench = new Benchmark(esql, threads, seed);
+         bench.prepare(dataDir);
+         SessionIO.install();
+         PrintStream console = SessionIO.console();
+         console.println(String.format("%d warmup and %d measured invocations per operation on %d thread(s)",
+                                       warmup, iterations, threads));
+         printHeader(console);
+         List<Stats> results = new ArrayList<Stats>();
+         for (int choice : choices) {
+            Stats s = bench.run(choice, warmup, iterations);
+            print(console, s);
+            results.add(s);
+         }//end for
+         if (csv != null) {
+            appendCsv(csv, label, threads, results);
+         }//end if
+         console.println("Removed the " + bench.removeBookings() + " bookings of the run");
+      }catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) {
+            esql.cleanup ();
+         }//end if
+      }//end try
+   }//end main
+
+}//end Benchmark
@@ -0,0 +1,45 @@
+/*
+ * Booking result
+ * ==============
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This class is the outcome of DBProject.book(), as reported by the
+ * book_room function of sql/create.sql.
+ */
+public class BookingResult {
+
+   /**
+    * What happened to a booking request.
+    */
+   public enum Status {
+      BOOKED,               // the booking was inserted
+      ROOM_MISSING,         // no such room in that hotel
+      CUSTOMER_MISSING,     // no customer with that name, or with that id
+      CUSTOMER_AMBIGUOUS,   // several customers share the name; give an id
+      ALREADY_BOOKED        // the room is taken for that date
+   }//end Status
+
+   public final Status status;
+   public final int bID;          // the new booking's id, when BOOKED
+   public final int customerID;   // the customer booked for, when BOOKED
+
+   BookingResult (Status status, int bID, int customerID) {
+      this.status = status;
+      this.bID = bID;
+      this.customerID = customerID;
+   }//end BookingResult
+
+   public boolean isBooked () {
+      return this.status == Status.BOOKED;
+   }//end isBooked
+
+}//end BookingResult
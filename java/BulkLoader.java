@@ -0,0 +1,527 @@
+/*
+ * Bulk loader for the seed data
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class loads the data/*.csv seed files through the JDBC driver, so
+ * the files do not have to be copied into $PGDATA for a server-side COPY.
+ * The files use the COPY text format with ',' as delimiter: backslash
+ * escapes, \N for NULL and M/d/yyyy dates.
+ *
+ * Tables are loaded in waves that respect the foreign keys of
+ * sql/create.sql; the tables of one wave are loaded in parallel, each on its
+ * own pooled connection, a batch of rows per multi-row INSERT ... VALUES
+ * statement and commit.  The bundled pg73 driver has no COPY API, and its
+ * executeBatch() runs one statement per row, so a batch is sent as a
+ * single statement instead: one round trip per batch.
+ *
+ * With a scale factor above 1 the fact tables Booking, Repair and Request
+ * are loaded that many times, and Room with them: each copy has its ids
+ * moved past the ones of the previous copy and its room numbers moved past
+ * the seed rooms, so the copies never collide on bookingSlotConstraint
+ * while keeping their dates, and so the years and partitions of the seed
+ * data.  The copies still reference the same hotels, customers, companies
+ * and staff; every hotel has scale times its rooms.
+ *
+ * Usage: java BulkLoader <dbname> <port> <user> [dataDir] [--threads N]
+ *                        [--batch N] [--scale N] [--truncate]
+ */
+public class BulkLoader {
+
+   // column kinds, deciding how a field is converted before it is bound
+   static final int INT = 0;
+   static final int LONG = 1;
+   static final int DECIMAL = 2;
+   static final int TEXT = 3;
+   static final int DATE = 4;
+   static final int BOOL = 5;
+
+   static final DateTimeFormatter CSV_DATE = DateTimeFormatter.ofPattern("M/d/yyyy");
+
+   /**
+    * Describes how one csv file maps onto a table.
+    */
+   static class TableSpec {
+      final String table;
+      final String file;
+      final String[] columns;
+      final int[] kinds;
+      final String[] casts;       // SQL type a column is cast to, or null
+      final int deferredColumn;   // column loaded as NULL and set later, or -1
+
+      TableSpec (String table, String file, String[] columns, int[] kinds,
+                 String[] casts, int deferredColumn) {
+         this.table = table;
+         this.file = file;
+         this.columns = columns;
+         this.kinds = kinds;
+         this.casts = casts;
+         this.deferredColumn = deferredColumn;
+      }//end TableSpec
+
+      // INSERT of a number of rows in one statement; VALUES lists take the column types of the target
+      String insertSql (int rows) {
+         StringBuilder sql = new StringBuilder("INSERT INTO ").append(this.table).append(" (");
+         StringBuilder values = new StringBuilder("(");
+         for (int i = 0; i < this.columns.length; ++i) {
+            if (i > 0) {
+               sql.append(", ");
+               values.append(", ");
+            }//end if
+            sql.append(this.columns[i]);
+            values.append(this.casts[i] == null ? "?" : "CAST(? AS " + this.casts[i] + ")");
+         }//end for
+         values.append(")");
+         sql.append(") VALUES ").append(values);
+         for (int row = 1; row < rows; ++row) {
+            sql.append(", ").append(values);
+         }//end for
+         return sql.toString();
+      }//end insertSql
+   }//end TableSpec
+
+   static final TableSpec HOTEL = new TableSpec("Hotel", "hotel.csv",
+      new String[] {"hotelID", "address", "manager"},
+      new int[] {INT, TEXT, INT}, new String[3], 2);
+   static final TableSpec STAFF = new TableSpec("Staff", "staff.csv",
+      new String[] {"SSN", "fName", "lName", "address", "role", "employerID"},
+      new int[] {INT, TEXT, TEXT, TEXT, TEXT, INT},
+      new String[] {null, null, null, null, "StaffRole", null}, -1);
+   static final TableSpec ROOM = new TableSpec("Room", "room.csv",
+      new String[] {"hotelID", "roomNo", "roomType"},
+      new int[] {INT, INT, TEXT}, new String[3], -1);
+   static final TableSpec CUSTOMER = new TableSpec("Customer", "customer.csv",
+      new String[] {"customerID", "fName", "lName", "Address", "phNo", "DOB", "gender"},
+      new int[] {INT, TEXT, TEXT, TEXT, LONG, DATE, TEXT},
+      new String[] {null, null, null, null, null, null, "GenderType"}, -1);
+   static final TableSpec COMPANY = new TableSpec("MaintenanceCompany", "maintenanceCompany.csv",
+      new String[] {"cmpID", "name", "address", "isCertified"},
+      new int[] {INT, TEXT, TEXT, BOOL}, new String[4], -1);
+   static final TableSpec BOOKING = new TableSpec("Booking", "booking.csv",
+      new String[] {"bID", "customer", "hotelID", "roomNo", "bookingDate", "noOfPeople", "price"},
+      new int[] {INT, INT, INT, INT, DATE, INT, DECIMAL}, new String[7], -1);
+   static final TableSpec REPAIR = new TableSpec("Repair", "repair.csv",
+      new String[] {"rID", "hotelID", "roomNo", "mCompany", "repairDate", "description", "repairType"},
+      new int[] {INT, INT, INT, INT, DATE, TEXT, TEXT}, new String[7], -1);
+   static final TableSpec REQUEST = new TableSpec("Request", "request.csv",
+      new String[] {"reqID", "managerID", "repairID", "requestDate", "description"},
+      new int[] {INT, INT, INT, DATE, TEXT}, new String[5], -1);
+   static final TableSpec ASSIGNED = new TableSpec("Assigned", "assigned.csv",
+      new String[] {"asgID", "staffID", "hotelID", "roomNo"},
+      new int[] {INT, INT, INT, INT}, new String[4], -1);
+
+   // the tables of one wave only reference tables of earlier waves
+   static final TableSpec[][] WAVES = {
+      {HOTEL},
+      {STAFF},
+      {ROOM, CUSTOMER, COMPANY},
+      {BOOKING, REPAIR, ASSIGNED},
+      {REQUEST}
+   };
+
+   /**
+    * Result of loading one table.
+    */
+   static class LoadStats {
+      final String table;
+      final long rows;
+      final long nanos;
+      final List<Object[]> deferred;
+
+      LoadStats (String table, long rows, long nanos, List<Object[]> deferred) {
+         this.table = table;
+         this.rows = rows;
+         this.nanos = nanos;
+         this.deferred = deferred;
+      }//end LoadStats
+
+      double rowsPerSecond () {
+         return this.nanos == 0 ? 0 : this.rows * 1e9 / this.nanos;
+      }//end rowsPerSecond
+   }//end LoadStats
+
+   private final DBProject _esql;
+   private final File _dataDir;
+   private final int _batchSize;
+   private final int _threads;
+   private final int _scale;
+
+   // ids of one scaled copy of Booking, Repair and Request, and its room numbers: max + 1
+   private int _bookingSpan, _repairSpan, _requestSpan, _roomSpan;
+
+   /**
+    * Creates a new loader
+    *
+    * @param esql the DBProject whose pool provides the connections
+    * @param dataDir the directory holding the csv files
+    * @param batchSize the number of rows per INSERT statement and commit
+    * @param threads the number of tables loaded at the same time
+    */
+   public BulkLoader (DBProject esql, File dataDir, int batchSize, int threads) {
+      this(esql, dataDir, batchSize, threads, 1);
+   }//end BulkLoader
+
+   /**
+    * Creates a new loader that multiplies the fact tables
+    *
+    * @param esql the DBProject whose pool provides the connections
+    * @param dataDir the directory holding the csv files
+    * @param batchSize the number of rows per INSERT statement and commit
+    * @param threads the number of tables loaded at the same time
+    * @param scale how many copies of Booking, Repair and Request to load
+    */
+   public BulkLoader (DBProject esql, File dataDir, int batchSize, int threads, int scale) {
+      this._esql = esql;
+      this._dataDir = dataDir;
+      this._batchSize = batchSize;
+      this._threads = threads;
+      this._scale = scale;
+   }//end BulkLoader
+
+   /**
+    * Empties every table the loader fills, and the repair summary tables,
+    * which TRUNCATE does not update through the Repair triggers; the
+    * reloaded repairs count themselves in again.  The free id ranges go
+    * too, as the sequences are reset by the load.
+    *
+    * @throws java.sql.SQLException when the tables could not be truncated
+    */
+   public void truncate () throws SQLException {
+      try {
+         this._esql.executeUpdate("TRUNCATE Request, Assigned, Repair, Booking, MaintenanceCompany,"
+                                  + " Customer, Room, Staff, Hotel, RepairCountByCompany, RepairCountByRoomYear,"
+                                  + " IdFreeRange CASCADE");
+      } finally {
+         this._esql.releaseSession();
+      }//end try
+   }//end truncate
+
+   /**
+    * Loads every csv file, wave by wave, resets the id sequences and creates
+    * the Booking and Repair partitions of the loaded years.
+    *
+    * @return the per-table statistics, in load order
+    * @throws Exception when a file could not be read or a batch failed
+    */
+   public List<LoadStats> load () throws Exception {
+      List<LoadStats> stats = new ArrayList<LoadStats>();
+      if (this._scale > 1) {
+         this._bookingSpan = max(BOOKING, 0) + 1;
+         this._repairSpan = max(REPAIR, 0) + 1;
+         this._requestSpan = max(REQUEST, 0) + 1;
+         this._roomSpan = max(ROOM, 1) + 1;
+      }//end if
+      ExecutorService pool = Executors.newFixedThreadPool(this._threads);
+      try {
+         for (TableSpec[] wave : WAVES) {
+            List<Future<LoadStats>> futures = new ArrayList<Future<LoadStats>>();
+            for (final TableSpec spec : wave) {
+               futures.add(pool.submit(() -> loadTable(spec)));
+            }//end for
+            for (Future<LoadStats> f : futures) {
+               try {
+                  stats.add(f.get());
+               }catch (ExecutionException e) {
+                  throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+               }//end try
+            }//end for
+            if (wave[0] == STAFF) {
+               assignManagers(stats.get(0).deferred);
+            }//end if
+         }//end for
+      } finally {
+         pool.shutdown();
+      }//end try
+      resetSequences();
+      // loaded years without a partition went to the default partitions
+      this._esql.ensurePartitions();
+      return stats;
+   }//end load
+
+   /**
+    * Streams one csv file into its table in batches.
+    *
+    * @param spec the table to load
+    * @return the statistics of the load
+    * @throws Exception when the file could not be read or a batch failed
+    */
+   LoadStats loadTable (TableSpec spec) throws Exception {
+      List<Object[]> deferred = new ArrayList<Object[]>();
+      long start = System.nanoTime();
+      long rows = 0;
+      File file = new File(this._dataDir, spec.file);
+      try (BufferedReader reader = new BufferedReader(
+              new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+         Connection connection = this._esql.session().connection;
+         connection.setAutoCommit(false);
+         Object[] values = new Object[spec.columns.length];
+         List<Object[]> pending = new ArrayList<Object[]>(this._batchSize);
+         String line;
+         while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+               continue;
+            }//end if
+            parseLine(spec, line, values);
+            if (spec.deferredColumn >= 0 && values[spec.deferredColumn] != null) {
+               deferred.add(new Object[] {values[spec.deferredColumn], values[0]});
+               values[spec.deferredColumn] = null;
+            }//end if
+            int copies = isScaled(spec) ? this._scale : 1;
+            for (int copy = 0; copy < copies; ++copy) {
+               pending.add(copy == 0 ? values.clone() : scaledCopy(spec, values, copy));
+               ++rows;
+               if (pending.size() == this._batchSize) {
+                  insert(spec, pending);
+                  connection.commit();
+                  pending.clear();
+               }//end if
+            }//end for
+         }//end while
+         if (!pending.isEmpty()) {
+            insert(spec, pending);
+            connection.commit();
+         }//end if
+      }catch (IOException e) {
+         throw new IOException("Could not read " + file + ": " + e.getMessage(), e);
+      } finally {
+         this._esql.releaseSession();
+      }//end try
+      return new LoadStats(spec.table, rows, System.nanoTime() - start, deferred);
+   }//end loadTable
+
+   // sends a batch of rows as one statement; full batches share one cached template
+   private void insert (TableSpec spec, List<Object[]> batch) throws SQLException {
+      PreparedStatement stmt = this._esql.session().statements.prepare(spec.insertSql(batch.size()));
+      int param = 0;
+      for (Object[] row : batch) {
+         for (Object value : row) {
+            if (value == null) {
+               stmt.setNull(++param, Types.NULL);
+            } else {
+               stmt.setObject(++param, value);
+            }//end if
+         }//end for
+      }//end for
+      stmt.executeUpdate();
+   }//end insert
+
+   /**
+    * Splits one line of COPY text format and converts every field.
+    *
+    * @param spec the table the line belongs to
+    * @param line the raw line
+    * @param values receives the converted fields; null for \N
+    */
+   static void parseLine (TableSpec spec, String line, Object[] values) {
+      StringBuilder field = new StringBuilder();
+      int col = 0;
+      boolean isNull = false;
+      for (int i = 0; i <= line.length(); ++i) {
+         char c = i < line.length() ? line.charAt(i) : ',';
+         if (c == '\\' && i + 1 < line.length()) {
+            char e = line.charAt(++i);
+            switch (e) {
+               case 'N': isNull = true; break;
+               case 'n': field.append('\n'); break;
+               case 't': field.append('\t'); break;
+               case 'r': field.append('\r'); break;
+               default: field.append(e); break;
+            }//end switch
+         } else if (c == ',') {
+            if (col >= values.length) {
+               throw new IllegalArgumentException(spec.file + ": too many fields in '" + line + "'");
+            }//end if
+            values[col] = isNull ? null : convert(spec.kinds[col], field.toString());
+            ++col;
+            field.setLength(0);
+            isNull = false;
+         } else {
+            field.append(c);
+         }//end if
+      }//end for
+      if (col != values.length) {
+         throw new IllegalArgumentException(spec.file + ": expected " + values.length
+                                            + " fields in '" + line + "'");
+      }//end if
+   }//end parseLine
+
+   private static boolean isScaled (TableSpec spec) {
+      return spec == BOOKING || spec == REPAIR || spec == REQUEST || spec == ROOM;
+   }//end isScaled
+
+   // the copy'th copy of a row: ids and room numbers past the earlier copies, the same dates
+   private Object[] scaledCopy (TableSpec spec, Object[] values, int copy) {
+      Object[] row = values.clone();
+      if (spec == ROOM) {
+         row[1] = (Integer) row[1] + copy * this._roomSpan;
+         return row;
+      }//end if
+      int span = spec == BOOKING ? this._bookingSpan : spec == REPAIR ? this._repairSpan : this._requestSpan;
+      row[0] = (Integer) row[0] + copy * span;
+      if (spec == BOOKING) {
+         row[3] = (Integer) row[3] + copy * this._roomSpan;
+      } else if (spec == REPAIR) {
+         row[2] = (Integer) row[2] + copy * this._roomSpan;
+      } else if (row[2] != null) {
+         row[2] = (Integer) row[2] + copy * this._repairSpan;
+      }//end if
+      return row;
+   }//end scaledCopy
+
+   // the largest number in one of the leading numeric columns of a csv file
+   private int max (TableSpec spec, int column) throws IOException {
+      int max = 0;
+      File file = new File(this._dataDir, spec.file);
+      try (BufferedReader reader = new BufferedReader(
+              new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            String[] fields = line.split(",", column + 2);
+            if (fields.length > column && !fields[column].trim().isEmpty()) {
+               max = Math.max(max, Integer.parseInt(fields[column].trim()));
+            }//end if
+         }//end while
+      }//end try
+      return max;
+   }//end max
+
+   static Object convert (int kind, String field) {
+      switch (kind) {
+         case INT: return Integer.valueOf(field.trim());
+         case LONG: return Long.valueOf(field.trim());
+         case DECIMAL: return new BigDecimal(field.trim());
+         case DATE: return java.sql.Date.valueOf(LocalDate.parse(field.trim(), CSV_DATE));
+         case BOOL: return Boolean.valueOf(field.trim());
+         default: return field;
+      }//end switch
+   }//end convert
+
+   // Hotel.manager and Staff.employerID reference each other, so managers
+   // are set once Staff is loaded, the same way create.sql does it
+   private void assignManagers (List<Object[]> managers) throws SQLException {
+      try {
+         for (Object[] m : managers) {
+            this._esql.executeUpdate("UPDATE Hotel SET manager = ? WHERE hotelID = ?", m[0], m[1]);
+         }//end for
+         this._esql.executeUpdate("UPDATE hotel SET manager = Staff.ssn FROM Staff"
+                                  + " WHERE hotel.hotelID = Staff.employerID AND Staff.role = 'Manager'"
+                                  + " AND hotel.manager IS NULL");
+      } finally {
+         this._esql.releaseSession();
+      }//end try
+   }//end assignManagers
+
+   // starts the id sequences of IdAllocator after the loaded ids
+   private void resetSequences () throws SQLException {
+      String[][] sequences = {
+         {"customer_id_seq", "customerID", "Customer", null},
+         {"booking_id_seq", "bID", "Booking", "booking"},
+         {"repair_id_seq", "rID", "Repair", "repair"},
+         {"request_id_seq", "reqID", "Request", "request"},
+         {"assigned_id_seq", "asgID", "Assigned", null},
+         {"maintenancecompany_id_seq", "cmpID", "MaintenanceCompany", null}
+      };
+      try {
+         // ranges released under the old sequences may hold loaded ids now
+         this._esql.executeUpdate("DELETE FROM IdFreeRange");
+         for (String[] s : sequences) {
+            // ids of archived rows are not handed out again
+            long archived = s[3] == null ? 0 : this._esql.getArchive().maxId(ColdArchive.table(s[3]));
+            this._esql.executeQuery("SELECT setval('" + s[0] + "', (SELECT GREATEST(COALESCE(MAX(" + s[1]
+                                    + "), 0), ?) + 1 FROM " + s[2] + "), false)", false, archived);
+         }//end for
+      } finally {
+         this._esql.releaseSession();
+      }//end try
+   }//end resetSequences
+
+   /**
+    * Loads the seed data from the command line
+    *
+    * @param args <dbname> <port> <user> [dataDir] [--threads N] [--batch N] [--scale N] [--truncate]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> [dataDir] [--threads N] [--batch N] [--scale N] [--truncate]");
+         return;
+      }//end if
+      File dataDir = new File("../data");
+      int threads = 3;
+      int batchSize = 5000;
+      int scale = 1;
+      boolean truncate = false;
+      for (int i = 3; i < args.length; ++i) {
+         if (args[i].equals("--threads")) {
+            threads = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--batch")) {
+            batchSize = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--scale")) {
+            scale = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--truncate")) {
+            truncate = true;
+         } else {
+            dataDir = new File(args[i]);
+         }//end if
+      }//end for
+
+      DBProject esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", threads);
+         BulkLoader loader = new BulkLoader(esql, dataDir, batchSize, threads, scale);
+         if (truncate) {
+            loader.truncate();
+         }//end if
+         long start = System.nanoTime();
+         long total = 0;
+         for (LoadStats s : loader.load()) {
+            System.out.println(String.format("%-20s %10d rows %8.2f s %12.0f rows/s",
+                               s.table, s.rows, s.nanos / 1e9, s.rowsPerSecond()));
+            total += s.rows;
+         }//end for
+         double secs = (System.nanoTime() - start) / 1e9;
+         System.out.println(String.format("%-20s %10d rows %8.2f s %12.0f rows/s",
+                            "total", total, secs, total / secs));
+      }catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) {
+            esql.cleanup ();
+         }//end if
+      }//end try
+   }//end main
+
+}//end BulkLoader
@@ -0,0 +1,735 @@
+/*
+ * Cold archive
+ * ============
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class moves the rows of past years out of Booking, Repair and
+ * Request into archive files, so the tables and their indexes only hold
+ * the rows the application still works with, and answers the historical
+ * reports over the archived rows, which DBProject adds to what the tables
+ * hold.
+ *
+ * archive() takes the years before a cutoff one at a time.  In one
+ * transaction it deletes the requests of the year's repairs, then the
+ * year's repairs and bookings, returning the deleted rows, writes them to
+ * one file per table and drops the yearly partitions left empty; the
+ * partitions of 2000 keep the rows with id 0 and stay.  A file is
+ * written under a temporary name and only renamed once the transaction
+ * has committed; a file left behind by a crash in between is renamed or
+ * removed by the next run, depending on whether its rows are still in the
+ * table.  A request is archived with its repair, whatever its own date, so
+ * no row left in the tables refers to an archived one, and archived rows
+ * only refer to hotels, rooms, customers, companies and staff, which are
+ * never archived.  The rows with id 0 the column defaults refer to stay.
+ *
+ * A file holds the rows of one table and year as columns.  Every number is
+ * stored after the minimum of its column in as few bits as the column's
+ * range needs (dates as days since 1970, prices in cents), so a year of
+ * bookings takes a fraction of the space it took in the table; the text
+ * columns, which only audits read, are deflated after them.  The files are
+ * memory-mapped and the reports read the packed numbers in place.
+ *
+ * The files are kept in -Ddbproject.archive.dir (archive by default), and
+ * files added or removed there are picked up by the next report.  The
+ * repair summary tables only count the rows left in Repair, as the delete
+ * triggers keep them, and the in-memory indexes load the tables at start,
+ * so a DBProject running during an archive run counts the archived rows
+ * twice until it is restarted.  Only reports 13 (total cost for a customer)
+ * and 16 (repairs per room and year) add the archived rows; the other
+ * reports, 12, 14 and 15 among them, cover the rows left in the tables.
+ *
+ * The class is thread safe.
+ *
+ * Usage: java ColdArchive <dbname> <port> <user> --before YEAR
+ *          moves the rows of the years before YEAR to the archive
+ *        java ColdArchive --list
+ *          lists the archive files
+ *        java ColdArchive --dump booking|repair|request
+ *          prints every archived row of a table
+ */
+public class ColdArchive {
+
+   public static final File DIR = new File(System.getProperty("dbproject.archive.dir", "archive"));
+
+   static final int MAGIC = 0x44425043;   // "DBPC"
+   static final int VERSION = 1;
+
+   // an archive file: <table>-<year>-<smallest id>.dba
+   private static final Pattern FILE = Pattern.compile("(booking|repair|request)-(\\d+)-(\\d+)\\.dba");
+   private static final String TMP = ".tmp";
+
+   /**
+    * An archived table: the columns of its files, and the statement that
+    * deletes one year of it, between the dates ? and ?, returning those
+    * columns, numbers first.
+    */
+   static final class Table {
+      final String name;
+      final String[] numbers;
+      final String[] texts;
+      final int dateColumn;
+      final int centsColumn;   // or -1
+      final String delete;
+
+      Table (String name, String[] numbers, String[] texts, int dateColumn, int centsColumn, String delete) {
+         this.name = name;
+         this.numbers = numbers;
+         this.texts = texts;
+         this.dateColumn = dateColumn;
+         this.centsColumn = centsColumn;
+         this.delete = delete;
+      }//end Table
+   }//end Table
+
+   // noOfPeople is -1 when unknown
+   static final Table BOOKING = new Table("booking",
+      new String[] {"bID", "customer", "hotelID", "roomNo", "bookingDate", "noOfPeople", "price"},
+      new String[0], 4, 6,
+      "DELETE FROM Booking WHERE bookingDate >= ? AND bookingDate < ? AND bID <> 0"
+      + " RETURNING bID, customer, hotelID, roomNo, bookingDate - DATE '1970-01-01',"
+      + " COALESCE(noOfPeople, -1), (price * 100)::bigint");
+   static final Table REPAIR = new Table("repair",
+      new String[] {"rID", "hotelID", "roomNo", "mCompany", "repairDate"},
+      new String[] {"description", "repairType"}, 4, -1,
+      "DELETE FROM Repair WHERE repairDate >= ? AND repairDate < ? AND rID <> 0"
+      + " RETURNING rID, hotelID, roomNo, mCompany, repairDate - DATE '1970-01-01', description, repairType");
+   // requests are filed under the year of their repair
+   static final Table REQUEST = new Table("request",
+      new String[] {"reqID", "managerID", "repairID", "requestDate"},
+      new String[] {"description"}, 3, -1,
+      "DELETE FROM Request WHERE reqID <> 0 AND repairID IN"
+      + " (SELECT rID FROM Repair WHERE repairDate >= ? AND repairDate < ? AND rID <> 0)"
+      + " RETURNING reqID, managerID, repairID, requestDate - DATE '1970-01-01', description");
+   // in the order a year is deleted: requests before the repairs they refer to
+   static final Table[] TABLES = {REQUEST, REPAIR, BOOKING};
+
+   // Booking columns
+   static final int B_ID = 0, B_CUSTOMER = 1, B_HOTEL = 2, B_ROOM = 3, B_DAY = 4, B_PEOPLE = 5, B_PRICE = 6;
+   // Repair columns
+   static final int R_ID = 0, R_HOTEL = 1, R_ROOM = 2, R_COMPANY = 3, R_DAY = 4;
+
+   static Table table (String name) {
+      for (Table t : TABLES) {
+         if (t.name.equals(name)) {
+            return t;
+         }//end if
+      }//end for
+      throw new IllegalArgumentException("No archived table " + name);
+   }//end table
+
+   /**
+    * One archive file, mapped.  Its numbers are read in place with absolute
+    * reads, which leave the buffer's position alone, so threads can share it.
+    */
+   static final class Segment {
+      final File file;
+      final Table table;
+      final int year;
+      final int rows;
+      private final ByteBuffer _buf;
+      private final long[] _min;
+      private final int[] _width;
+      private final int[] _offset;
+      private final int _textOffset;
+      private final int _textLength;
+
+      Segment (File file, Table table) throws IOException {
+         this.file = file;
+         this.table = table;
+         try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            this._buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+                           .order(ByteOrder.LITTLE_ENDIAN);
+         }//end try
+         if (this._buf.capacity() < 20 || this._buf.getInt(0) != MAGIC || this._buf.getInt(4) != VERSION) {
+            throw new IOException(file + " is not an archive file of this version");
+         }//end if
+         this.year = this._buf.getInt(8);
+         this.rows = this._buf.getInt(12);
+         int columns = this._buf.getInt(16);
+         if (columns != table.numbers.length || this._buf.capacity() < 20 + columns * 16 + 8) {
+            throw new IOException(file + " does not hold the columns of " + table.name);
+         }//end if
+         this._min = new long[columns];
+         this._width = new int[columns];
+         this._offset = new int[columns];
+         int at = 20;
+         for (int c = 0; c < columns; ++c, at += 16) {
+            this._min[c] = this._buf.getLong(at);
+            this._width[c] = this._buf.getInt(at + 8);
+            this._offset[c] = this._buf.getInt(at + 12);
+         }//end for
+         this._textOffset = this._buf.getInt(at);
+         this._textLength = this._buf.getInt(at + 4);
+         if ((long) this._textOffset + this._textLength != this._buf.capacity()) {
+            throw new IOException(file + " is truncated");
+         }//end if
+      }//end Segment
+
+      /**
+       * Returns a number of a row
+       */
+      long get (int column, int row) {
+         int width = this._width[column];
+         if (width == 64) {
+            return this._buf.getLong(this._offset[column] + row * 8);
+         }//end if
+         long bit = (long) row * width;
+         long word = this._buf.getLong(this._offset[column] + (int) (bit >>> 3));
+         return this._min[column] + ((word >>> (bit & 7)) & ((1L << width) - 1));
+      }//end get
+
+      /**
+       * Inflates the text columns, one array per row
+       */
+      List<String[]> texts () throws IOException {
+         byte[] deflated = new byte[this._textLength];
+         ByteBuffer text = this._buf.duplicate();
+         text.position(this._textOffset);
+         text.get(deflated);
+         List<String[]> result = new ArrayList<String[]>(this.rows);
+         try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(deflated)))) {
+            for (int row = 0; row < this.rows; ++row) {
+               String[] values = new String[this.table.texts.length];
+               for (int c = 0; c < values.length; ++c) {
+                  int length = in.readInt();
+                  if (length >= 0) {
+                     byte[] bytes = new byte[length];
+                     in.readFully(bytes);
+                     values[c] = new String(bytes, StandardCharsets.UTF_8);
+                  }//end if
+               }//end for
+               result.add(values);
+            }//end for
+         }//end try
+         return result;
+      }//end texts
+
+      String describe () {
+         StringBuilder bits = new StringBuilder();
+         for (int c = 0; c < this._width.length; ++c) {
+            bits.append(c == 0 ? "" : " ").append(this.table.numbers[c]).append(':').append(this._width[c]);
+         }//end for
+         return String.format("%-32s %8d rows %10d bytes  bits %s", this.file.getName(), this.rows,
+                              this._buf.capacity(), bits);
+      }//end describe
+   }//end Segment
+
+   /**
+    * The rows of one table and year as they are deleted.
+    */
+   static final class Rows {
+      final Table table;
+      long[][] numbers;
+      final List<String[]> texts = new ArrayList<String[]>();
+      int size = 0;
+
+      Rows (Table table) {
+         this.table = table;
+         this.numbers = new long[table.numbers.length][256];
+      }//end Rows
+
+      void read (ResultSet rs) throws SQLException {
+         while (rs.next()) {
+            if (this.size == this.numbers[0].length) {
+               for (int c = 0; c < this.numbers.length; ++c) {
+                  this.numbers[c] = Arrays.copyOf(this.numbers[c], this.size * 2);
+               }//end for
+            }//end if
+            for (int c = 0; c < this.numbers.length; ++c) {
+               this.numbers[c][this.size] = rs.getLong(c + 1);
+            }//end for
+            String[] values = new String[this.table.texts.length];
+            for (int c = 0; c < values.length; ++c) {
+               values[c] = rs.getString(this.numbers.length + c + 1);
+            }//end for
+            this.texts.add(values);
+            ++this.size;
+         }//end while
+      }//end read
+   }//end Rows
+
+   private final File _dir;
+   private String[] _names = new String[0];
+   private Map<String, Segment> _segments = new HashMap<String, Segment>();
+
+   public ColdArchive (File dir) {
+      this._dir = dir;
+   }//end ColdArchive
+
+   // the files of the directory, reopened when it changed
+   private synchronized List<Segment> segments () {
+      String[] names = this._dir.list((d, name) -> FILE.matcher(name).matches());
+      names = names == null ? new String[0] : names;
+      Arrays.sort(names);
+      if (!Arrays.equals(names, this._names)) {
+         Map<String, Segment> segments = new HashMap<String, Segment>();
+         for (String name : names) {
+            Segment s = this._segments.get(name);
+            if (s == null) {
+               try {
+                  s = open(new File(this._dir, name));
+               }catch (IOException e) {
+                  System.err.println("Ignoring the archive file " + name + ": " + e.getMessage());
+                  continue;
+               }//end try
+            }//end if
+            segments.put(name, s);
+         }//end for
+         this._names = names;
+         this._segments = segments;
+      }//end if
+      List<Segment> result = new ArrayList<Segment>();
+      for (String name : names) {
+         if (this._segments.containsKey(name)) {
+            result.add(this._segments.get(name));
+         }//end if
+      }//end for
+      return result;
+   }//end segments
+
+   private List<Segment> segments (Table table) {
+      List<Segment> result = new ArrayList<Segment>();
+      for (Segment s : segments()) {
+         if (s.table == table) {
+            result.add(s);
+         }//end if
+      }//end for
+      return result;
+   }//end segments
+
+   private static Segment open (File file) throws IOException {
+      String name = file.getName();
+      return new Segment(file, table(name.substring(0, name.indexOf('-'))));
+   }//end open
+
+   /**
+    * @return whether bookings of the years of a date range are archived
+    */
+   public boolean hasBookings (LocalDate first, LocalDate last) {
+      for (Segment s : segments(BOOKING)) {
+         if (s.year >= first.getYear() && s.year <= last.getYear()) {
+            return true;
+         }//end if
+      }//end for
+      return false;
+   }//end hasBookings
+
+   /**
+    * Report 13: the prices of the archived bookings of a set of customers in
+    * a hotel over a date range, in cents
+    */
+   public long[] pricesForCustomers (int hotelID, List<Integer> customerIDs, LocalDate first, LocalDate last) {
+      int[] ids = new int[customerIDs.size()];
+      for (int i = 0; i < ids.length; ++i) {
+         ids[i] = customerIDs.get(i);
+      }//end for
+      Arrays.sort(ids);
+      long from = first.toEpochDay();
+      long to = last.toEpochDay();
+      long[] found = new long[8];
+      int n = 0;
+      for (Segment s : segments(BOOKING)) {
+         if (ids.length == 0 || s.year < first.getYear() || s.year > last.getYear()) {
+            continue;
+         }//end if
+         for (int row = 0; row < s.rows; ++row) {
+            if (s.get(B_HOTEL, row) == hotelID) {
+               long day = s.get(B_DAY, row);
+               if (day >= from && day <= to && Arrays.binarySearch(ids, (int) s.get(B_CUSTOMER, row)) >= 0) {
+                  if (n == found.length) {
+                     found = Arrays.copyOf(found, n * 2);
+                  }//end if
+                  found[n++] = s.get(B_PRICE, row);
+               }//end if
+            }//end if
+         }//end for
+      }//end for
+      return Arrays.copyOf(found, n);
+   }//end pricesForCustomers
+
+   /**
+    * Report 16: year -> number of archived repairs of one room
+    */
+   public TreeMap<Integer, Long> repairsPerYear (int hotelID, int roomNo) {
+      TreeMap<Integer, Long> years = new TreeMap<Integer, Long>();
+      for (Segment s : segments(REPAIR)) {
+         long count = 0;
+         for (int row = 0; row < s.rows; ++row) {
+            if (s.get(R_HOTEL, row) == hotelID && s.get(R_ROOM, row) == roomNo) {
+               ++count;
+            }//end if
+         }//end for
+         if (count > 0) {
+            years.merge(s.year, count, Long::sum);
+         }//end if
+      }//end for
+      return years;
+   }//end repairsPerYear
+
+   /**
+    * @return the largest archived id of a table, or 0
+    */
+   public long maxId (Table table) {
+      long max = 0;
+      for (Segment s : segments(table)) {
+         for (int row = 0; row < s.rows; ++row) {
+            max = Math.max(max, s.get(0, row));
+         }//end for
+      }//end for
+      return max;
+   }//end maxId
+
+   /**
+    * Moves the rows of the years before a cutoff to the archive, a year per
+    * transaction
+    *
+    * @param esql the DBProject the rows are deleted through
+    * @param beforeYear the first year kept in the tables; at most the current year
+    * @return the rows archived per table name
+    * @throws java.sql.SQLException when a year could not be deleted; the years before it are archived
+    * @throws java.io.IOException when a file could not be written; its year stays in the tables
+    */
+   public Map<String, Long> archive (DBProject esql, int beforeYear) throws SQLException, IOException {
+      if (beforeYear > LocalDate.now().getYear()) {
+         throw new IllegalArgumentException("Cannot archive the current year or later: " + beforeYear);
+      }//end if
+      recover(esql);
+      Map<String, Long> archived = new TreeMap<String, Long>();
+      int first;
+      try {
+         ResultSet rs = esql.executeQuery("SELECT EXTRACT(YEAR FROM LEAST("
+                                          + "(SELECT MIN(bookingDate) FROM Booking WHERE bID <> 0),"
+                                          + " (SELECT MIN(repairDate) FROM Repair WHERE rID <> 0)))::int", false);
+         rs.next();
+         first = rs.getInt(1);
+         if (rs.wasNull()) {
+            return archived;
+         }//end if
+      } finally {
+         esql.releaseSession();
+      }//end try
+      for (int year = first; year < beforeYear; ++year) {
+         long start = System.nanoTime();
+         StringBuilder line = new StringBuilder("Archived " + year + ":");
+         for (Map.Entry<Table, Integer> e : archiveYear(esql, year).entrySet()) {
+            archived.merge(e.getKey().name, (long) e.getValue(), Long::sum);
+            line.append(" ").append(e.getValue()).append(" ").append(e.getKey().name);
+         }//end for
+         System.out.println(line.append(String.format(" (%.1f ms)", (System.nanoTime() - start) / 1e6)));
+      }//end for
+      return archived;
+   }//end archive
+
+   // deletes one year of the tables and writes its files; the rows archived per table
+   private Map<Table, Integer> archiveYear (DBProject esql, int year) throws SQLException, IOException {
+      this._dir.mkdirs();
+      Map<Table, Integer> counts = new HashMap<Table, Integer>();
+      List<File> written = new ArrayList<File>();
+      java.sql.Date from = java.sql.Date.valueOf(LocalDate.of(year, 1, 1));
+      java.sql.Date to = java.sql.Date.valueOf(LocalDate.of(year + 1, 1, 1));
+      Connection connection = esql.session().connection;
+      connection.setAutoCommit(false);
+      boolean committed = false;
+      try {
+         for (Table t : TABLES) {
+            Rows rows = new Rows(t);
+            rows.read(esql.executeQuery(t.delete, false, from, to));
+            if (rows.size > 0) {
+               written.add(write(this._dir, rows, year));
+               counts.put(t, rows.size);
+            }//end if
+         }//end for
+         // dropping an emptied yearly partition gives its space back at once
+         dropIfEmpty(esql, "booking_y" + year);
+         dropIfEmpty(esql, "repair_y" + year);
+         connection.commit();
+         committed = true;
+      } finally {
+         if (!committed) {
+            try {
+               connection.rollback();
+            } finally {
+               for (File f : written) {
+                  if (!f.delete()) {
+                     System.err.println("Could not remove " + f + "; the next archive run removes it");
+                  }//end if
+               }//end for
+            }//end try
+         }//end if
+         connection.setAutoCommit(true);
+         esql.releaseSession();
+      }//end try
+      for (File f : written) {
+         publish(f);
+      }//end for
+      return counts;
+   }//end archiveYear
+
+   // drops a partition that holds no rows; the rows with id 0 keep theirs
+   private static void dropIfEmpty (DBProject esql, String partition) throws SQLException {
+      ResultSet rs = esql.executeQuery("SELECT to_regclass(?) IS NOT NULL", false, partition);
+      if (!rs.next() || !rs.getBoolean(1)) {
+         return;
+      }//end if
+      rs = esql.executeQuery("SELECT NOT EXISTS (SELECT 1 FROM " + partition + ")", false);
+      if (rs.next() && rs.getBoolean(1)) {
+         esql.executeUpdate("DROP TABLE " + partition);
+      }//end if
+   }//end dropIfEmpty
+
+   // renames a file written under the temporary name to its own
+   private static void publish (File tmp) throws IOException {
+      String name = tmp.getName();
+      File file = new File(tmp.getParentFile(), name.substring(0, name.length() - TMP.length()));
+      if (!tmp.renameTo(file)) {
+         throw new IOException("Cannot rename " + tmp + " to " + file.getName()
+                               + "; its rows are archived, rename it by hand");
+      }//end if
+   }//end publish
+
+   // finishes the files of a run that stopped between writing them and renaming them
+   private void recover (DBProject esql) throws SQLException, IOException {
+      File[] left = this._dir.listFiles((d, name) -> name.endsWith(TMP)
+                                        && FILE.matcher(name.substring(0, name.length() - TMP.length())).matches());
+      if (left == null) {
+         return;
+      }//end if
+      try {
+         for (File tmp : left) {
+            Segment s;
+            try {
+               s = open(tmp);
+            }catch (IOException e) {
+               // not written out in full, so its transaction never committed
+               if (!tmp.delete()) {
+                  throw new IOException("Cannot remove " + tmp);
+               }//end if
+               continue;
+            }//end try
+            ResultSet rs = esql.executeQuery("SELECT COUNT(*) FROM " + s.table.name + " WHERE "
+                                             + s.table.numbers[0] + " = ?", false, s.get(0, 0));
+            rs.next();
+            if (rs.getLong(1) > 0) {
+               // the delete was rolled back: the rows are still in the table
+               if (!tmp.delete()) {
+                  throw new IOException("Cannot remove " + tmp);
+               }//end if
+            } else {
+               publish(tmp);
+            }//end if
+         }//end for
+      } finally {
+         esql.releaseSession();
+      }//end try
+   }//end recover
+
+   /**
+    * Writes the rows of a table and year to a new file under its temporary
+    * name, and forces it to disk
+    *
+    * @return the file written
+    */
+   static File write (File dir, Rows rows, int year) throws IOException {
+      Table t = rows.table;
+      int columns = t.numbers.length;
+      long[] min = new long[columns];
+      int[] width = new int[columns];
+      int[] offset = new int[columns];
+      int at = 20 + columns * 16 + 8;
+      for (int c = 0; c < columns; ++c) {
+         long lo = Long.MAX_VALUE;
+         long hi = Long.MIN_VALUE;
+         for (int row = 0; row < rows.size; ++row) {
+            lo = Math.min(lo, rows.numbers[c][row]);
+            hi = Math.max(hi, rows.numbers[c][row]);
+         }//end for
+         min[c] = lo;
+         width[c] = 64 - Long.numberOfLeadingZeros(hi - lo);
+         if (width[c] > 56 || hi - lo < 0) {
+            // a packed value is read with one 8-byte read, which holds 56 bits at any bit offset
+            width[c] = 64;
+            min[c] = 0;
+         }//end if
+         offset[c] = at;
+         at += width[c] == 64 ? rows.size * 8 : (int) (((long) rows.size * width[c] + 63) / 64 + 1) * 8;
+      }//end for
+
+      ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(deflated))) {
+         for (String[] values : rows.texts) {
+            for (String v : values) {
+               if (v == null) {
+                  out.writeInt(-1);
+               } else {
+                  byte[] bytes = v.getBytes(StandardCharsets.UTF_8);
+                  out.writeInt(bytes.length);
+                  out.write(bytes);
+               }//end if
+            }//end for
+         }//end for
+      }//end try
+
+      ByteBuffer buf = ByteBuffer.allocate(at + deflated.size()).order(ByteOrder.LITTLE_ENDIAN);
+      buf.putInt(MAGIC).putInt(VERSION).putInt(year).putInt(rows.size).putInt(columns);
+      for (int c = 0; c < columns; ++c) {
+         buf.putLong(min[c]).putInt(width[c]).putInt(offset[c]);
+      }//end for
+      buf.putInt(at).putInt(deflated.size());
+      for (int c = 0; c < columns; ++c) {
+         long[] values = rows.numbers[c];
+         if (width[c] == 64) {
+            for (int row = 0; row < rows.size; ++row) {
+               buf.putLong(offset[c] + row * 8, values[row]);
+            }//end for
+            continue;
+         }//end if
+         long[] packed = new long[(int) (((long) rows.size * width[c] + 63) / 64 + 1)];
+         for (int row = 0; row < rows.size; ++row) {
+            long v = values[row] - min[c];
+            long bit = (long) row * width[c];
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            packed[word] |= v << shift;
+            if (shift + width[c] > 64) {
+               packed[word + 1] |= v >>> (64 - shift);
+            }//end if
+         }//end for
+         for (int w = 0; w < packed.length; ++w) {
+            buf.putLong(offset[c] + w * 8, packed[w]);
+         }//end for
+      }//end for
+      buf.position(at);
+      buf.put(deflated.toByteArray());
+      buf.flip();
+
+      long firstId = Long.MAX_VALUE;
+      for (int row = 0; row < rows.size; ++row) {
+         firstId = Math.min(firstId, rows.numbers[0][row]);
+      }//end for
+      File file = new File(dir, t.name + "-" + year + "-" + firstId + ".dba" + TMP);
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+         raf.setLength(0);
+         FileChannel ch = raf.getChannel();
+         while (buf.hasRemaining()) {
+            ch.write(buf);
+         }//end while
+         ch.force(true);
+      }//end try
+      return file;
+   }//end write
+
+   /**
+    * Prints every archived row of a table, numbers first, dates and prices
+    * as such
+    */
+   void dump (Table table) throws IOException {
+      ResultRenderer out = ResultRenderer.toConsole(ResultRenderer.Format.TSV);
+      String[] names = Arrays.copyOf(table.numbers, table.numbers.length + table.texts.length);
+      System.arraycopy(table.texts, 0, names, table.numbers.length, table.texts.length);
+      out.columns(names);
+      for (Segment s : segments(table)) {
+         List<String[]> texts = s.texts();
+         for (int row = 0; row < s.rows; ++row) {
+            Object[] values = new Object[names.length];
+            for (int c = 0; c < table.numbers.length; ++c) {
+               long v = s.get(c, row);
+               values[c] = c == table.dateColumn ? LocalDate.ofEpochDay(v)
+                           : c == table.centsColumn ? BigDecimal.valueOf(v, 2) : (Object) v;
+            }//end for
+            System.arraycopy(texts.get(row), 0, values, table.numbers.length, table.texts.length);
+            out.row(values);
+         }//end for
+      }//end for
+      out.finish();
+   }//end dump
+
+   /**
+    * @return one line per archive file with its rows, size and bits per number
+    */
+   public String describe () {
+      StringBuilder sb = new StringBuilder();
+      for (Segment s : segments()) {
+         sb.append(s.describe()).append(String.format("%n"));
+      }//end for
+      return sb.length() == 0 ? "No archive files in " + this._dir + String.format("%n") : sb.toString();
+   }//end describe
+
+   /**
+    * Archives, lists or dumps from the command line
+    *
+    * @param args <dbname> <port> <user> --before YEAR | --list | --dump booking|repair|request
+    */
+   public static void main (String[] args) {
+      ColdArchive archive = new ColdArchive(DIR);
+      if (args.length == 1 && args[0].equals("--list")) {
+         System.out.print(archive.describe());
+         return;
+      }//end if
+      if (args.length == 2 && args[0].equals("--dump")) {
+         try {
+            archive.dump(table(args[1]));
+         }catch (Exception e) {
+            System.err.println (e.getMessage ());
+         }//end try
+         return;
+      }//end if
+      if (args.length != 5 || !args[3].equals("--before")) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ColdArchive.class.getName () +
+            " <dbname> <port> <user> --before YEAR | --list | --dump booking|repair|request");
+         return;
+      }//end if
+      DBProject esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", 1);
+         Map<String, Long> archived = archive.archive(esql, Integer.parseInt(args[4]));
+         System.out.println(archived.isEmpty() ? "Nothing to archive before " + args[4]
+                            : "Archived " + archived + " to " + DIR);
+      }catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) {
+            esql.cleanup ();
+         }//end if
+      }//end try
+   }//end main
+
+}//end ColdArchive
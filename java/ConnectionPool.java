@@ -0,0 +1,354 @@
+/*
+ * Connection pool
+ * ===============
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This class keeps a bounded set of physical PostgreSQL connections that
+ * are handed out to one thread at a time.  Idle connections are validated
+ * before they are reused and closed once they have been idle for too long.
+ * Every pooled connection carries its own StatementCache, so prepared
+ * statements survive between borrows.
+ *
+ * The pool is thread safe.
+ */
+public class ConnectionPool {
+
+   /**
+    * A physical connection together with the prepared statements cached on
+    * it.  Instances are only handed out by the pool.
+    */
+   public static class PooledConnection {
+      public final Connection connection;
+      public final StatementCache statements;
+
+      // when the connection was last returned to the pool
+      private long _lastUsed;
+
+      private PooledConnection (Connection connection, int statementCacheSize) {
+         this.connection = connection;
+         this.statements = new StatementCache(connection, statementCacheSize);
+         this._lastUsed = System.currentTimeMillis();
+      }//end PooledConnection
+   }//end PooledConnection
+
+   // connections idle for less than this are handed out without validation
+   private static final long VALIDATION_INTERVAL_MILLIS = 5000;
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final int _maxSize;
+   private final long _idleTimeoutMillis;
+   private final long _borrowTimeoutMillis;
+   private final int _statementCacheSize;
+
+   // idle connections, most recently returned first
+   private final Deque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+
+   // every open connection, borrowed or idle
+   private final List<PooledConnection> _open = new ArrayList<PooledConnection>();
+
+   // connections currently being opened, counted against _maxSize
+   private int _opening = 0;
+
+   // statement cache counters of connections that have been closed
+   private long _retiredHits = 0;
+   private long _retiredMisses = 0;
+
+   private long _created = 0;
+   private long _evicted = 0;
+   private boolean _closed = false;
+
+   private final Timer _sweeper;
+
+   /**
+    * Creates a new, empty pool.  Connections are opened on demand.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param maxSize the maximum number of open connections
+    * @param idleTimeoutMillis how long a connection may stay idle before it is closed
+    * @param borrowTimeoutMillis how long borrow() waits for a free connection
+    */
+   public ConnectionPool (String url, String user, String passwd, int maxSize,
+                          long idleTimeoutMillis, long borrowTimeoutMillis) {
+      if (maxSize < 1) {
+         throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+      }//end if
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._maxSize = maxSize;
+      this._idleTimeoutMillis = idleTimeoutMillis;
+      this._borrowTimeoutMillis = borrowTimeoutMillis;
+      this._statementCacheSize = StatementCache.DEFAULT_CAPACITY;
+
+      this._sweeper = new Timer("ConnectionPool-sweeper", true);
+      long period = Math.max(1000, idleTimeoutMillis / 2);
+      this._sweeper.schedule(new TimerTask() {
+         public void run() {
+            evictIdle();
+         }
+      }, period, period);
+   }//end ConnectionPool
+
+   /**
+    * Hands out a connection for the exclusive use of the caller, opening a
+    * new one if none is idle and the pool is not full.
+    *
+    * @return a validated connection; give it back with release()
+    * @throws java.sql.SQLException when no connection could be obtained in time
+    */
+   public PooledConnection borrow () throws SQLException {
+      long deadline = System.currentTimeMillis() + this._borrowTimeoutMillis;
+      while (true) {
+         PooledConnection pc = null;
+         boolean create = false;
+         synchronized (this) {
+            while (true) {
+               if (this._closed) {
+                  throw new SQLException("Connection pool is closed");
+               }//end if
+               if (!this._idle.isEmpty()) {
+                  pc = this._idle.pollFirst();
+                  break;
+               }//end if
+               if (this._open.size() + this._opening < this._maxSize) {
+                  ++this._opening;
+                  create = true;
+                  break;
+               }//end if
+               long wait = deadline - System.currentTimeMillis();
+               if (wait <= 0) {
+                  throw new SQLException("Timed out waiting for a database connection ("
+                                         + this._maxSize + " in use)");
+               }//end if
+               try {
+                  this.wait(wait);
+               }catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a database connection");
+               }//end try
+            }//end while
+         }//end synchronized
+
+         if (create) {
+            return open();
+         }//end if
+         if (System.currentTimeMillis() - pc._lastUsed < VALIDATION_INTERVAL_MILLIS || isValid(pc)) {
+            return pc;
+         }//end if
+         discard(pc);
+      }//end while
+   }//end borrow
+
+   /**
+    * Returns a borrowed connection to the pool.  An open transaction is
+    * rolled back and auto-commit is switched back on.
+    *
+    * @param pc the connection obtained from borrow()
+    */
+   public void release (PooledConnection pc) {
+      try {
+         if (!pc.connection.getAutoCommit()) {
+            pc.connection.rollback();
+            pc.connection.setAutoCommit(true);
+         }//end if
+      }catch (SQLException e) {
+         discard(pc);
+         return;
+      }//end try
+      synchronized (this) {
+         if (!this._closed) {
+            pc._lastUsed = System.currentTimeMillis();
+            this._idle.offerFirst(pc);
+            this.notify();
+            return;
+         }//end if
+         if (!retire(pc)) {
+            return;
+         }//end if
+      }//end synchronized
+      closeConnection(pc);
+   }//end release
+
+   /**
+    * Closes a borrowed connection that is known to be broken instead of
+    * returning it to the pool.
+    *
+    * @param pc the connection obtained from borrow()
+    */
+   public void discard (PooledConnection pc) {
+      boolean retired;
+      synchronized (this) {
+         retired = retire(pc);
+         this.notify();
+      }//end synchronized
+      if (retired) {
+         closeConnection(pc);
+      }//end if
+   }//end discard
+
+   /**
+    * Closes idle connections that have not been used for the idle timeout.
+    */
+   public void evictIdle () {
+      List<PooledConnection> expired = new ArrayList<PooledConnection>();
+      synchronized (this) {
+         long now = System.currentTimeMillis();
+         // the oldest connections sit at the end of the deque
+         Iterator<PooledConnection> it = this._idle.descendingIterator();
+         while (it.hasNext()) {
+            PooledConnection pc = it.next();
+            if (now - pc._lastUsed < this._idleTimeoutMillis) {
+               break;
+            }//end if
+            it.remove();
+            expired.add(pc);
+            ++this._evicted;
+         }//end while
+         for (PooledConnection pc : expired) {
+            retire(pc);
+         }//end for
+      }//end synchronized
+      // closed outside the lock, so a slow close does not hold up borrow() and release()
+      for (PooledConnection pc : expired) {
+         closeConnection(pc);
+      }//end for
+   }//end evictIdle
+
+   /**
+    * Closes every idle connection and stops handing out new ones.
+    * Borrowed connections are closed when they are released.
+    */
+   public void close () {
+      this._sweeper.cancel();
+      List<PooledConnection> idle = new ArrayList<PooledConnection>();
+      synchronized (this) {
+         this._closed = true;
+         while (!this._idle.isEmpty()) {
+            PooledConnection pc = this._idle.pollFirst();
+            if (retire(pc)) {
+               idle.add(pc);
+            }//end if
+         }//end while
+         this.notifyAll();
+      }//end synchronized
+      for (PooledConnection pc : idle) {
+         closeConnection(pc);
+      }//end for
+   }//end close
+
+   public synchronized int getOpenCount () { return this._open.size(); }
+   public synchronized int getIdleCount () { return this._idle.size(); }
+   public synchronized long getCreatedCount () { return this._created; }
+   public synchronized long getEvictedCount () { return this._evicted; }
+   public int getMaxSize () { return this._maxSize; }
+
+   /**
+    * @return statement cache hits summed over every connection of the pool
+    */
+   public synchronized long getStatementCacheHits () {
+      long hits = this._retiredHits;
+      for (PooledConnection pc : this._open) {
+         hits += pc.statements.getHits();
+      }//end for
+      return hits;
+   }//end getStatementCacheHits
+
+   /**
+    * @return statement cache misses summed over every connection of the pool
+    */
+   public synchronized long getStatementCacheMisses () {
+      long misses = this._retiredMisses;
+      for (PooledConnection pc : this._open) {
+         misses += pc.statements.getMisses();
+      }//end for
+      return misses;
+   }//end getStatementCacheMisses
+
+   private PooledConnection open () throws SQLException {
+      try {
+         PooledConnection pc = new PooledConnection(
+            DriverManager.getConnection(this._url, this._user, this._passwd), this._statementCacheSize);
+         synchronized (this) {
+            --this._opening;
+            ++this._created;
+            this._open.add(pc);
+         }//end synchronized
+         return pc;
+      }catch (SQLException e) {
+         synchronized (this) {
+            --this._opening;
+            this.notify();
+         }//end synchronized
+         throw e;
+      }//end try
+   }//end open
+
+   // takes a connection out of the pool; whether it was still in it, and so must be closed.  Must hold
+   // the pool lock
+   private boolean retire (PooledConnection pc) {
+      if (!this._open.remove(pc)) {
+         return false;
+      }//end if
+      this._idle.remove(pc);
+      this._retiredHits += pc.statements.getHits();
+      this._retiredMisses += pc.statements.getMisses();
+      return true;
+   }//end retire
+
+   // closes a retired connection; must not hold the pool lock, as closing may wait on the network
+   private static void closeConnection (PooledConnection pc) {
+      pc.statements.close();
+      try {
+         pc.connection.close();
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end closeConnection
+
+   // the pg73 driver predates Connection.isValid, so run a trivial query
+   private static boolean isValid (PooledConnection pc) {
+      Statement stmt = null;
+      try {
+         stmt = pc.connection.createStatement();
+         ResultSet rs = stmt.executeQuery("SELECT 1");
+         return rs.next();
+      }catch (SQLException e) {
+         return false;
+      }finally {
+         if (stmt != null) {
+            try {
+               stmt.close();
+            }catch (SQLException e) {
+               // ignored.
+            }//end try
+         }//end if
+      }//end try
+   }//end isValid
+
+}//end ConnectionPool
@@ -0,0 +1,282 @@
+/*
+ * Row counting result set
+ * =======================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Map;
+
+/**
+ * This class wraps the ResultSet of a query and counts the rows next()
+ * moves to in a field of its own, adding them to the rows of the query's
+ * statement in Metrics once: when next() runs past the last row or the
+ * result set is closed.  Rows of a result that is neither read to the end
+ * nor closed are not counted.  Every other method only delegates.
+ *
+ * Like the ResultSet it wraps, it is not thread safe.
+ */
+class CountingResultSet implements ResultSet {
+
+   private final ResultSet _rs;
+   private final Metrics _metrics;
+   private final String _sql;
+   private long _rows = 0;
+
+   /**
+    * Wraps a result set
+    *
+    * @param rs the result set of the query
+    * @param metrics where the rows are recorded
+    * @param sql the SQL template of the query
+    */
+   CountingResultSet (ResultSet rs, Metrics metrics, String sql) {
+      this._rs = rs;
+      this._metrics = metrics;
+      this._sql = sql;
+   }//end CountingResultSet
+
+   public boolean next () throws SQLException {
+      boolean more = this._rs.next();
+      if (more) {
+         ++this._rows;
+      } else {
+         flush();
+      }//end if
+      return more;
+   }//end next
+
+   public void close () throws SQLException {
+      flush();
+      this._rs.close();
+   }//end close
+
+   // records the rows counted since the last flush
+   private void flush () {
+      if (this._rows > 0) {
+         this._metrics.recordRows(this._sql, this._rows);
+         this._rows = 0;
+      }//end if
+   }//end flush
+
+   public boolean absolute (int row) throws SQLException { return this._rs.absolute(row); }
+   public void afterLast () throws SQLException { this._rs.afterLast(); }
+   public void beforeFirst () throws SQLException { this._rs.beforeFirst(); }
+   public void cancelRowUpdates () throws SQLException { this._rs.cancelRowUpdates(); }
+   public void clearWarnings () throws SQLException { this._rs.clearWarnings(); }
+   public void deleteRow () throws SQLException { this._rs.deleteRow(); }
+   public int findColumn (String columnLabel) throws SQLException { return this._rs.findColumn(columnLabel); }
+   public boolean first () throws SQLException { return this._rs.first(); }
+   public Array getArray (String columnLabel) throws SQLException { return this._rs.getArray(columnLabel); }
+   public Array getArray (int columnIndex) throws SQLException { return this._rs.getArray(columnIndex); }
+   public InputStream getAsciiStream (String columnLabel) throws SQLException { return this._rs.getAsciiStream(columnLabel); }
+   public InputStream getAsciiStream (int columnIndex) throws SQLException { return this._rs.getAsciiStream(columnIndex); }
+   @Deprecated
+   public BigDecimal getBigDecimal (String columnLabel, int scale) throws SQLException { return this._rs.getBigDecimal(columnLabel, scale); }
+   public BigDecimal getBigDecimal (String columnLabel) throws SQLException { return this._rs.getBigDecimal(columnLabel); }
+   @Deprecated
+   public BigDecimal getBigDecimal (int columnIndex, int scale) throws SQLException { return this._rs.getBigDecimal(columnIndex, scale); }
+   public BigDecimal getBigDecimal (int columnIndex) throws SQLException { return this._rs.getBigDecimal(columnIndex); }
+   public InputStream getBinaryStream (String columnLabel) throws SQLException { return this._rs.getBinaryStream(columnLabel); }
+   public InputStream getBinaryStream (int columnIndex) throws SQLException { return this._rs.getBinaryStream(columnIndex); }
+   public Blob getBlob (String columnLabel) throws SQLException { return this._rs.getBlob(columnLabel); }
+   public Blob getBlob (int columnIndex) throws SQLException { return this._rs.getBlob(columnIndex); }
+   public boolean getBoolean (String columnLabel) throws SQLException { return this._rs.getBoolean(columnLabel); }
+   public boolean getBoolean (int columnIndex) throws SQLException { return this._rs.getBoolean(columnIndex); }
+   public byte getByte (String columnLabel) throws SQLException { return this._rs.getByte(columnLabel); }
+   public byte getByte (int columnIndex) throws SQLException { return this._rs.getByte(columnIndex); }
+   public byte[] getBytes (String columnLabel) throws SQLException { return this._rs.getBytes(columnLabel); }
+   public byte[] getBytes (int columnIndex) throws SQLException { return this._rs.getBytes(columnIndex); }
+   public Reader getCharacterStream (String columnLabel) throws SQLException { return this._rs.getCharacterStream(columnLabel); }
+   public Reader getCharacterStream (int columnIndex) throws SQLException { return this._rs.getCharacterStream(columnIndex); }
+   public Clob getClob (String columnLabel) throws SQLException { return this._rs.getClob(columnLabel); }
+   public Clob getClob (int columnIndex) throws SQLException { return this._rs.getClob(columnIndex); }
+   public int getConcurrency () throws SQLException { return this._rs.getConcurrency(); }
+   public String getCursorName () throws SQLException { return this._rs.getCursorName(); }
+   public Date getDate (String columnLabel, Calendar cal) throws SQLException { return this._rs.getDate(columnLabel, cal); }
+   public Date getDate (String columnLabel) throws SQLException { return this._rs.getDate(columnLabel); }
+   public Date getDate (int columnIndex, Calendar cal) throws SQLException { return this._rs.getDate(columnIndex, cal); }
+   public Date getDate (int columnIndex) throws SQLException { return this._rs.getDate(columnIndex); }
+   public double getDouble (String columnLabel) throws SQLException { return this._rs.getDouble(columnLabel); }
+   public double getDouble (int columnIndex) throws SQLException { return this._rs.getDouble(columnIndex); }
+   public int getFetchDirection () throws SQLException { return this._rs.getFetchDirection(); }
+   public int getFetchSize () throws SQLException { return this._rs.getFetchSize(); }
+   public float getFloat (String columnLabel) throws SQLException { return this._rs.getFloat(columnLabel); }
+   public float getFloat (int columnIndex) throws SQLException { return this._rs.getFloat(columnIndex); }
+   public int getHoldability () throws SQLException { return this._rs.getHoldability(); }
+   public int getInt (String columnLabel) throws SQLException { return this._rs.getInt(columnLabel); }
+   public int getInt (int columnIndex) throws SQLException { return this._rs.getInt(columnIndex); }
+   public long getLong (String columnLabel) throws SQLException { return this._rs.getLong(columnLabel); }
+   public long getLong (int columnIndex) throws SQLException { return this._rs.getLong(columnIndex); }
+   public ResultSetMetaData getMetaData () throws SQLException { return this._rs.getMetaData(); }
+   public Reader getNCharacterStream (String columnLabel) throws SQLException { return this._rs.getNCharacterStream(columnLabel); }
+   public Reader getNCharacterStream (int columnIndex) throws SQLException { return this._rs.getNCharacterStream(columnIndex); }
+   public NClob getNClob (String columnLabel) throws SQLException { return this._rs.getNClob(columnLabel); }
+   public NClob getNClob (int columnIndex) throws SQLException { return this._rs.getNClob(columnIndex); }
+   public String getNString (String columnLabel) throws SQLException { return this._rs.getNString(columnLabel); }
+   public String getNString (int columnIndex) throws SQLException { return this._rs.getNString(columnIndex); }
+   public <T> T getObject (String columnLabel, Class<T> type) throws SQLException { return this._rs.getObject(columnLabel, type); }
+   public Object getObject (String columnLabel, Map<String, Class<?>> map) throws SQLException { return this._rs.getObject(columnLabel, map); }
+   public Object getObject (String columnLabel) throws SQLException { return this._rs.getObject(columnLabel); }
+   public <T> T getObject (int columnIndex, Class<T> type) throws SQLException { return this._rs.getObject(columnIndex, type); }
+   public Object getObject (int columnIndex, Map<String, Class<?>> map) throws SQLException { return this._rs.getObject(columnIndex, map); }
+   public Object getObject (int columnIndex) throws SQLException { return this._rs.getObject(columnIndex); }
+   public Ref getRef (String columnLabel) throws SQLException { return this._rs.getRef(columnLabel); }
+   public Ref getRef (int columnIndex) throws SQLException { return this._rs.getRef(columnIndex); }
+   public int getRow () throws SQLException { return this._rs.getRow(); }
+   public RowId getRowId (String columnLabel) throws SQLException { return this._rs.getRowId(columnLabel); }
+   public RowId getRowId (int columnIndex) throws SQLException { return this._rs.getRowId(columnIndex); }
+   public SQLXML getSQLXML (String columnLabel) throws SQLException { return this._rs.getSQLXML(columnLabel); }
+   public SQLXML getSQLXML (int columnIndex) throws SQLException { return this._rs.getSQLXML(columnIndex); }
+   public short getShort (String columnLabel) throws SQLException { return this._rs.getShort(columnLabel); }
+   public short getShort (int columnIndex) throws SQLException { return this._rs.getShort(columnIndex); }
+   public Statement getStatement () throws SQLException { return this._rs.getStatement(); }
+   public String getString (String columnLabel) throws SQLException { return this._rs.getString(columnLabel); }
+   public String getString (int columnIndex) throws SQLException { return this._rs.getString(columnIndex); }
+   public Time getTime (String columnLabel, Calendar cal) throws SQLException { return this._rs.getTime(columnLabel, cal); }
+   public Time getTime (String columnLabel) throws SQLException { return this._rs.getTime(columnLabel); }
+   public Time getTime (int columnIndex, Calendar cal) throws SQLException { return this._rs.getTime(columnIndex, cal); }
+   public Time getTime (int columnIndex) throws SQLException { return this._rs.getTime(columnIndex); }
+   public Timestamp getTimestamp (String columnLabel, Calendar cal) throws SQLException { return this._rs.getTimestamp(columnLabel, cal); }
+   public Timestamp getTimestamp (String columnLabel) throws SQLException { return this._rs.getTimestamp(columnLabel); }
+   public Timestamp getTimestamp (int columnIndex, Calendar cal) throws SQLException { return this._rs.getTimestamp(columnIndex, cal); }
+   public Timestamp getTimestamp (int columnIndex) throws SQLException { return this._rs.getTimestamp(columnIndex); }
+   public int getType () throws SQLException { return this._rs.getType(); }
+   public URL getURL (String columnLabel) throws SQLException { return this._rs.getURL(columnLabel); }
+   public URL getURL (int columnIndex) throws SQLException { return this._rs.getURL(columnIndex); }
+   @Deprecated
+   public InputStream getUnicodeStream (String columnLabel) throws SQLException { return this._rs.getUnicodeStream(columnLabel); }
+   @Deprecated
+   public InputStream getUnicodeStream (int columnIndex) throws SQLException { return this._rs.getUnicodeStream(columnIndex); }
+   public SQLWarning getWarnings () throws SQLException { return this._rs.getWarnings(); }
+   public void insertRow () throws SQLException { this._rs.insertRow(); }
+   public boolean isAfterLast () throws SQLException { return this._rs.isAfterLast(); }
+   public boolean isBeforeFirst () throws SQLException { return this._rs.isBeforeFirst(); }
+   public boolean isClosed () throws SQLException { return this._rs.isClosed(); }
+   public boolean isFirst () throws SQLException { return this._rs.isFirst(); }
+   public boolean isLast () throws SQLException { return this._rs.isLast(); }
+   public boolean last () throws SQLException { return this._rs.last(); }
+   public void moveToCurrentRow () throws SQLException { this._rs.moveToCurrentRow(); }
+   public void moveToInsertRow () throws SQLException { this._rs.moveToInsertRow(); }
+   public boolean previous () throws SQLException { return this._rs.previous(); }
+   public void refreshRow () throws SQLException { this._rs.refreshRow(); }
+   public boolean relative (int row) throws SQLException { return this._rs.relative(row); }
+   public boolean rowDeleted () throws SQLException { return this._rs.rowDeleted(); }
+   public boolean rowInserted () throws SQLException { return this._rs.rowInserted(); }
+   public boolean rowUpdated () throws SQLException { return this._rs.rowUpdated(); }
+   public void setFetchDirection (int direction) throws SQLException { this._rs.setFetchDirection(direction); }
+   public void setFetchSize (int rows) throws SQLException { this._rs.setFetchSize(rows); }
+   public void updateArray (String columnLabel, Array x) throws SQLException { this._rs.updateArray(columnLabel, x); }
+   public void updateArray (int columnIndex, Array x) throws SQLException { this._rs.updateArray(columnIndex, x); }
+   public void updateAsciiStream (String columnLabel, InputStream x, int length) throws SQLException { this._rs.updateAsciiStream(columnLabel, x, length); }
+   public void updateAsciiStream (String columnLabel, InputStream x, long length) throws SQLException { this._rs.updateAsciiStream(columnLabel, x, length); }
+   public void updateAsciiStream (String columnLabel, InputStream x) throws SQLException { this._rs.updateAsciiStream(columnLabel, x); }
+   public void updateAsciiStream (int columnIndex, InputStream x, int length) throws SQLException { this._rs.updateAsciiStream(columnIndex, x, length); }
+   public void updateAsciiStream (int columnIndex, InputStream x, long length) throws SQLException { this._rs.updateAsciiStream(columnIndex, x, length); }
+   public void updateAsciiStream (int columnIndex, InputStream x) throws SQLException { this._rs.updateAsciiStream(columnIndex, x); }
+   public void updateBigDecimal (String columnLabel, BigDecimal x) throws SQLException { this._rs.updateBigDecimal(columnLabel, x); }
+   public void updateBigDecimal (int columnIndex, BigDecimal x) throws SQLException { this._rs.updateBigDecimal(columnIndex, x); }
+   public void updateBinaryStream (String columnLabel, InputStream x, int length) throws SQLException { this._rs.updateBinaryStream(columnLabel, x, length); }
+   public void updateBinaryStream (String columnLabel, InputStream x, long length) throws SQLException { this._rs.updateBinaryStream(columnLabel, x, length); }
+   public void updateBinaryStream (String columnLabel, InputStream x) throws SQLException { this._rs.updateBinaryStream(columnLabel, x); }
+   public void updateBinaryStream (int columnIndex, InputStream x, int length) throws SQLException { this._rs.updateBinaryStream(columnIndex, x, length); }
+   public void updateBinaryStream (int columnIndex, InputStream x, long length) throws SQLException { this._rs.updateBinaryStream(columnIndex, x, length); }
+   public void updateBinaryStream (int columnIndex, InputStream x) throws SQLException { this._rs.updateBinaryStream(columnIndex, x); }
+   public void updateBlob (String columnLabel, InputStream x, long length) throws SQLException { this._rs.updateBlob(columnLabel, x, length); }
+   public void updateBlob (String columnLabel, InputStream x) throws SQLException { this._rs.updateBlob(columnLabel, x); }
+   public void updateBlob (String columnLabel, Blob x) throws SQLException { this._rs.updateBlob(columnLabel, x); }
+   public void updateBlob (int columnIndex, InputStream x, long length) throws SQLException { this._rs.updateBlob(columnIndex, x, length); }
+   public void updateBlob (int columnIndex, InputStream x) throws SQLException { this._rs.updateBlob(columnIndex, x); }
+   public void updateBlob (int columnIndex, Blob x) throws SQLException { this._rs.updateBlob(columnIndex, x); }
+   public void updateBoolean (String columnLabel, boolean x) throws SQLException { this._rs.updateBoolean(columnLabel, x); }
+   public void updateBoolean (int columnIndex, boolean x) throws SQLException { this._rs.updateBoolean(columnIndex, x); }
+   public void updateByte (String columnLabel, byte x) throws SQLException { this._rs.updateByte(columnLabel, x); }
+   public void updateByte (int columnIndex, byte x) throws SQLException { this._rs.updateByte(columnIndex, x); }
+   public void updateBytes (String columnLabel, byte[] x) throws SQLException { this._rs.updateBytes(columnLabel, x); }
+   public void updateBytes (int columnIndex, byte[] x) throws SQLException { this._rs.updateBytes(columnIndex, x); }
+   public void updateCharacterStream (String columnLabel, Reader x, int length) throws SQLException { this._rs.updateCharacterStream(columnLabel, x, length); }
+   public void updateCharacterStream (String columnLabel, Reader x, long length) throws SQLException { this._rs.updateCharacterStream(columnLabel, x, length); }
+   public void updateCharacterStream (String columnLabel, Reader x) throws SQLException { this._rs.updateCharacterStream(columnLabel, x); }
+   public void updateCharacterStream (int columnIndex, Reader x, int length) throws SQLException { this._rs.updateCharacterStream(columnIndex, x, length); }
+   public void updateCharacterStream (int columnIndex, Reader x, long length) throws SQLException { this._rs.updateCharacterStream(columnIndex, x, length); }
+   public void updateCharacterStream (int columnIndex, Reader x) throws SQLException { this._rs.updateCharacterStream(columnIndex, x); }
+   public void updateClob (String columnLabel, Reader x, long length) throws SQLException { this._rs.updateClob(columnLabel, x, length); }
+   public void updateClob (String columnLabel, Reader x) throws SQLException { this._rs.updateClob(columnLabel, x); }
+   public void updateClob (String columnLabel, Clob x) throws SQLException { this._rs.updateClob(columnLabel, x); }
+   public void updateClob (int columnIndex, Reader x, long length) throws SQLException { this._rs.updateClob(columnIndex, x, length); }
+   public void updateClob (int columnIndex, Reader x) throws SQLException { this._rs.updateClob(columnIndex, x); }
+   public void updateClob (int columnIndex, Clob x) throws SQLException { this._rs.updateClob(columnIndex, x); }
+   public void updateDate (String columnLabel, Date x) throws SQLException { this._rs.updateDate(columnLabel, x); }
+   public void updateDate (int columnIndex, Date x) throws SQLException { this._rs.updateDate(columnIndex, x); }
+   public void updateDouble (String columnLabel, double x) throws SQLException { this._rs.updateDouble(columnLabel, x); }
+   public void updateDouble (int columnIndex, double x) throws SQLException { this._rs.updateDouble(columnIndex, x); }
+   public void updateFloat (String columnLabel, float x) throws SQLException { this._rs.updateFloat(columnLabel, x); }
+   public void updateFloat (int columnIndex, float x) throws SQLException { this._rs.updateFloat(columnIndex, x); }
+   public void updateInt (String columnLabel, int x) throws SQLException { this._rs.updateInt(columnLabel, x); }
+   public void updateInt (int columnIndex, int x) throws SQLException { this._rs.updateInt(columnIndex, x); }
+   public void updateLong (String columnLabel, long x) throws SQLException { this._rs.updateLong(columnLabel, x); }
+   public void updateLong (int columnIndex, long x) throws SQLException { this._rs.updateLong(columnIndex, x); }
+   public void updateNCharacterStream (String columnLabel, Reader x, long length) throws SQLException { this._rs.updateNCharacterStream(columnLabel, x, length); }
+   public void updateNCharacterStream (String columnLabel, Reader x) throws SQLException { this._rs.updateNCharacterStream(columnLabel, x); }
+   public void updateNCharacterStream (int columnIndex, Reader x, long length) throws SQLException { this._rs.updateNCharacterStream(columnIndex, x, length); }
+   public void updateNCharacterStream (int columnIndex, Reader x) throws SQLException { this._rs.updateNCharacterStream(columnIndex, x); }
+   public void updateNClob (String columnLabel, Reader x, long length) throws SQLException { this._rs.updateNClob(columnLabel, x, length); }
+   public void updateNClob (String columnLabel, Reader x) throws SQLException { this._rs.updateNClob(columnLabel, x); }
+   public void updateNClob (String columnLabel, NClob x) throws SQLException { this._rs.updateNClob(columnLabel, x); }
+   public void updateNClob (int columnIndex, Reader x, long length) throws SQLException { this._rs.updateNClob(columnIndex, x, length); }
+   public void updateNClob (int columnIndex, Reader x) throws SQLException { this._rs.updateNClob(columnIndex, x); }
+   public void updateNClob (int columnIndex, NClob x) throws SQLException { this._rs.updateNClob(columnIndex, x); }
+   public void updateNString (String columnLabel, String x) throws SQLException { this._rs.updateNString(columnLabel, x); }
+   public void updateNString (int columnIndex, String x) throws SQLException { this._rs.updateNString(columnIndex, x); }
+   public void updateNull (String columnLabel) throws SQLException { this._rs.updateNull(columnLabel); }
+   public void updateNull (int columnIndex) throws SQLException { this._rs.updateNull(columnIndex); }
+   public void updateObject (String columnLabel, Object x, int scaleOrLength) throws SQLException { this._rs.updateObject(columnLabel, x, scaleOrLength); }
+   public void updateObject (String columnLabel, Object x) throws SQLException { this._rs.updateObject(columnLabel, x); }
+   public void updateObject (int columnIndex, Object x, int scaleOrLength) throws SQLException { this._rs.updateObject(columnIndex, x, scaleOrLength); }
+   public void updateObject (int columnIndex, Object x) throws SQLException { this._rs.updateObject(columnIndex, x); }
+   public void updateRef (String columnLabel, Ref x) throws SQLException { this._rs.updateRef(columnLabel, x); }
+   public void updateRef (int columnIndex, Ref x) throws SQLException { this._rs.updateRef(columnIndex, x); }
+   public void updateRow () throws SQLException { this._rs.updateRow(); }
+   public void updateRowId (String columnLabel, RowId x) throws SQLException { this._rs.updateRowId(columnLabel, x); }
+   public void updateRowId (int columnIndex, RowId x) throws SQLException { this._rs.updateRowId(columnIndex, x); }
+   public void updateSQLXML (String columnLabel, SQLXML x) throws SQLException { this._rs.updateSQLXML(columnLabel, x); }
+   public void updateSQLXML (int columnIndex, SQLXML x) throws SQLException { this._rs.updateSQLXML(columnIndex, x); }
+   public void updateShort (String columnLabel, short x) throws SQLException { this._rs.updateShort(columnLabel, x); }
+   public void updateShort (int columnIndex, short x) throws SQLException { this._rs.updateShort(columnIndex, x); }
+   public void updateString (String columnLabel, String x) throws SQLException { this._rs.updateString(columnLabel, x); }
+   public void updateString (int columnIndex, String x) throws SQLException { this._rs.updateString(columnIndex, x); }
+   public void updateTime (String columnLabel, Time x) throws SQLException { this._rs.updateTime(columnLabel, x); }
+   public void updateTime (int columnIndex, Time x) throws SQLException { this._rs.updateTime(columnIndex, x); }
+   public void updateTimestamp (String columnLabel, Timestamp x) throws SQLException { this._rs.updateTimestamp(columnLabel, x); }
+   public void updateTimestamp (int columnIndex, Timestamp x) throws SQLException { this._rs.updateTimestamp(columnIndex, x); }
+   public boolean wasNull () throws SQLException { return this._rs.wasNull(); }
+   public boolean isWrapperFor (Class<?> type) throws SQLException { return this._rs.isWrapperFor(type); }
+   public <T> T unwrap (Class<T> type) throws SQLException { return this._rs.unwrap(type); }
+
+}//end CountingResultSet
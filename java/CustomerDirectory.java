@@ -0,0 +1,134 @@
+/*
+ * Customer directory
+ * ==================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class maps customer names to customer ids in memory, so the
+ * operations that take a customer's name skip the scan of the unindexed
+ * CHAR(30) name columns.  Names are compared the way Postgres compares
+ * CHAR values, that is without their trailing blanks.
+ *
+ * The directory is only used once load() has completed (isWarm()); until
+ * then callers fall back to SQL, and a name it does not know is looked up
+ * in SQL too, since another client may have added it.  addCustomer keeps it
+ * current through add().  The directory is thread safe.
+ */
+public class CustomerDirectory {
+
+   private static final int[] NONE = new int[0];
+
+   private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+   private Map<String, int[]> _byName = new HashMap<String, int[]>();
+   private volatile boolean _warm = false;
+
+   /**
+    * Replaces the directory with every row of Customer.
+    *
+    * @param esql the DBProject used to read Customer
+    * @throws java.sql.SQLException when the table could not be read
+    */
+   public void load (DBProject esql) throws SQLException {
+      final Map<String, int[]> byName = new HashMap<String, int[]>();
+      esql.streamQuery("SELECT customerID, fName, lName FROM Customer ORDER BY customerID", rs -> {
+         put(byName, rs.getInt(1), rs.getString(2), rs.getString(3));
+      });
+      this._lock.writeLock().lock();
+      try {
+         this._byName = byName;
+         this._warm = true;
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end load
+
+   /**
+    * @return whether load() has completed and the directory can answer lookups
+    */
+   public boolean isWarm () {
+      return this._warm;
+   }//end isWarm
+
+   /**
+    * Records a new customer.
+    */
+   public void add (int customerID, String fName, String lName) {
+      this._lock.writeLock().lock();
+      try {
+         if (!this._warm) {
+            return;
+         }//end if
+         put(this._byName, customerID, fName, lName);
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end add
+
+   /**
+    * Returns the ids of the customers with a name
+    *
+    * @param fName the first name
+    * @param lName the last name
+    * @return the ids in ascending order, empty when the name is unknown
+    */
+   public int[] lookup (String fName, String lName) {
+      this._lock.readLock().lock();
+      try {
+         int[] ids = this._byName.get(key(fName, lName));
+         return ids == null ? NONE : ids.clone();
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end lookup
+
+   // CHAR(n) values compare without their trailing blanks
+   static String trimTrailing (String s) {
+      int end = s.length();
+      while (end > 0 && s.charAt(end - 1) == ' ') {
+         --end;
+      }//end while
+      return s.substring(0, end);
+   }//end trimTrailing
+
+   private static String key (String fName, String lName) {
+      return trimTrailing(fName) + '\0' + trimTrailing(lName);
+   }//end key
+
+   private static void put (Map<String, int[]> byName, int customerID, String fName, String lName) {
+      append(byName, key(fName, lName), customerID);
+   }//end put
+
+   // the id lists are short and kept sorted; a new one replaces the old array
+   private static void append (Map<String, int[]> map, String key, int customerID) {
+      int[] ids = map.get(key);
+      if (ids == null) {
+         map.put(key, new int[] {customerID});
+         return;
+      }//end if
+      int pos = Arrays.binarySearch(ids, customerID);
+      if (pos >= 0) {
+         return;
+      }//end if
+      int[] grown = new int[ids.length + 1];
+      System.arraycopy(ids, 0, grown, 0, -pos - 1);
+      grown[-pos - 1] = customerID;
+      System.arraycopy(ids, -pos - 1, grown, -pos, ids.length + pos + 1);
+      map.put(key, grown);
+   }//end append
+
+}//end CustomerDirectory
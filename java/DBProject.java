@@ -11,17 +11,23 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.io.File;
-import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 /**
  * This class defines a simple embedded SQL utility class that is designed to
  * work with PostgreSQL JDBC drivers.
@@ -29,16 +35,104 @@ import java.time.LocalDate;
  */
 public class DBProject {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // default bounds of the connection pool, overridable with -D system properties
+   public static final int DEFAULT_POOL_SIZE = Integer.getInteger("dbproject.pool.maxSize", 8);
+
+   // the years after this one that ensurePartitions gives Booking and Repair partitions for
+   static final int PARTITION_YEARS_AHEAD = Integer.getInteger("dbproject.partitions.yearsAhead", 2);
+   public static final long DEFAULT_IDLE_TIMEOUT_MILLIS =
+      Long.getLong("dbproject.pool.idleTimeoutSeconds", 300L) * 1000;
+   public static final long DEFAULT_BORROW_TIMEOUT_MILLIS =
+      Long.getLong("dbproject.pool.borrowTimeoutSeconds", 30L) * 1000;
+
+   // pool of physical database connections shared by all threads.
+   private ConnectionPool _pool = null;
+
+   // the connection (and its statement cache) bound to the current thread
+   // for the duration of one operation
+   private final ThreadLocal<ConnectionPool.PooledConnection> _session =
+      new ThreadLocal<ConnectionPool.PooledConnection>();
+
+   // the pool the session of the current thread came from, the primary's or a replica's
+   private final ThreadLocal<ConnectionPool> _sessionPool = new ThreadLocal<ConnectionPool>();
+
+   // whether the current thread runs a report, whose session may go to a replica
+   private final ThreadLocal<Boolean> _readOnly = new ThreadLocal<Boolean>();
+
+   // routes report sessions to the replicas in -Ddbproject.replicas
+   private ReplicaRouter _router = null;
+
+   // number of rows streamQuery fetches from the server cursor at a time
+   private volatile int _fetchSize = Integer.getInteger("dbproject.fetchSize", 1000);
+
+   // hands out primary keys from blocks reserved on the id sequences
+   private final IdAllocator _ids = new IdAllocator(this);
+
+   // whether reports are answered from the in-memory indexes below; they hold whole tables and only see
+   // this client's writes, so they are for a single client on data that fits in memory
+   private final boolean _useIndexes =
+      Boolean.parseBoolean(System.getProperty("dbproject.indexes", "false"));
+
+   // booked-room bitsets per hotel and date for the availability reports
+   private final OccupancyIndex _occupancy = new OccupancyIndex();
+
+   // bookings sorted by price per date and per customer for the top-k reports
+   private final PriceIndex _prices = new PriceIndex();
+
+   // Booking and Repair as primitive columns for parallel scans, when -Ddbproject.analytics=true
+   private final AnalyticsSnapshot _analytics = new AnalyticsSnapshot();
+
+   // the Booking, Repair and Request rows of past years moved out by ColdArchive
+   private final ColdArchive _archive = new ColdArchive(ColdArchive.DIR);
+
+   // the Hotel, Room, Staff and MaintenanceCompany rows the write operations check
+   private final ReferenceCache _references = new ReferenceCache();
+
+   // customer ids by name for the operations that take a customer's name
+   private final CustomerDirectory _customers = new CustomerDirectory();
+
+   // in-memory mirror of the trigger-maintained repair summary tables
+   private final RepairAggregates _repairs = new RepairAggregates();
+
+   // how reports are printed, and the directory they are exported to instead when set
+   private volatile ResultRenderer.Format _format =
+      ResultRenderer.Format.valueOf(System.getProperty("dbproject.output.format", "tsv").toUpperCase());
+   private volatile File _exportDir =
+      System.getProperty("dbproject.output.dir") == null ? null : new File(System.getProperty("dbproject.output.dir"));
+   private final AtomicInteger _exports = new AtomicInteger();
+
+   // rows per page of the listing reports on the console, 0 to print them at once
+   static final int DEFAULT_PAGE_SIZE = Integer.getInteger("dbproject.pageSize", 50);
+   private volatile int _pageSize = 0;
+
+   // latency, round-trip, row and error counts per operation and SQL template
+   private final Metrics _metrics = new Metrics("DBProject");
+
+   // statements above -Ddbproject.slowlog.thresholdMillis, with their plans
+   private final SlowQueryLog _slowLog = new SlowQueryLog(this);
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
+   // Threads running scripted operations bind their own input through SessionIO.
+   static BufferedReader in = SessionIO.wrapInput(
                                 new InputStreamReader(System.in));
 
+   // method names of the menu operations, indexed by menu number
+   static final String[] OPERATIONS = {
+      null,
+      "addCustomer", "addRoom", "addMaintenanceCompany", "addRepair", "bookRoom",
+      "assignHouseCleaningToRoom", "repairRequest", "numberOfAvailableRooms",
+      "numberOfBookedRooms", "listHotelRoomBookingsForAWeek", "topKHighestRoomPriceForADateRange",
+      "topKHighestPriceBookingsForACustomer", "totalCostForCustomer", "listRepairsMade",
+      "topKMaintenanceCompany", "numberOfRepairsForEachRoomPerYear", "bookRoomsForGroup",
+      "revenuePerHotelPerMonth", "occupancyRatePerHotel", "search"
+   };
+
+   // why the operation running on this thread failed, set by fail() and returned by runOperation
+   private static final ThreadLocal<String> FAILURE = new ThreadLocal<String>();
+
    /**
-    * Creates a new instance of DBProject
+    * Creates a new instance of DBProject with the default pool size
     *
     * @param hostname the MySQL or PostgreSQL server hostname
     * @param database the name of the database
@@ -47,6 +141,20 @@ public class DBProject {
     * @throws java.sql.SQLException when failed to make a connection.
     */
    public DBProject (String dbname, String dbport, String user, String passwd) throws SQLException {
+      this(dbname, dbport, user, passwd, DEFAULT_POOL_SIZE);
+   }//end DBProject
+
+   /**
+    * Creates a new instance of DBProject backed by a connection pool
+    *
+    * @param dbname the name of the database
+    * @param dbport the port the PostgreSQL server listens on
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param maxPoolSize the maximum number of concurrently open connections
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public DBProject (String dbname, String dbport, String user, String passwd, int maxPoolSize) throws SQLException {
 
       System.out.print("Connecting to database...");
       try{
@@ -54,8 +162,14 @@ public class DBProject {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // creates the pool and obtains a first physical connection to make
+         // sure the database is reachable
+         this._pool = new ConnectionPool(url, user, passwd, maxPoolSize,
+                                         DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_BORROW_TIMEOUT_MILLIS);
+         this._pool.release(this._pool.borrow());
+         this._router = new ReplicaRouter(this._pool, dbname, user, passwd, maxPoolSize,
+                                          DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_BORROW_TIMEOUT_MILLIS);
+         this._metrics.startDumping();
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -66,91 +180,828 @@ public class DBProject {
 
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
-    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.  The statement is
+    * prepared once per SQL template and reused from the statement cache.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL string, with '?' for every parameter
+    * @param params the values bound to the '?' placeholders, in order
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      int count = 0;
+      boolean ok = false;
+      try {
+         count = update (sql, params);
+         ok = true;
+         return count;
+      } finally {
+         long nanos = System.nanoTime () - start;
+         this._metrics.recordStatement (sql, nanos, 1, count, !ok);
+         this._slowLog.record (sql, params, nanos, count, !ok, inTransaction ());
+      }//end try
+   }//end executeUpdate
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+   // whether the session runs inside a transaction of its caller; a broken connection counts as one
+   private boolean inTransaction () {
+      try {
+         return !session ().connection.getAutoCommit ();
+      }catch (SQLException e) {
+         return true;
+      }//end try
+   }//end inTransaction
 
-      // close the instruction
-      stmt.close ();
-   }//end executeUpdate
+   // executeUpdate without the metrics
+   private int update (String sql, Object[] params) throws SQLException {
+      // fetches the cached statement object, preparing it on first use
+      PreparedStatement stmt = session ().statements.prepare (sql);
+      bind (stmt, params);
+
+      // issues the update instruction
+      return stmt.executeUpdate ();
+   }//end update
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and outputs the results to
-    * standard out.
+    * standard out.  The statement is prepared once per SQL template and
+    * reused from the statement cache, so the returned ResultSet is only
+    * valid until the same template is executed again or the session is
+    * released.
     *
-    * @param query the input query string
-    * @return the number of rows returned
+    * @param query the input query string, with '?' for every parameter
+    * @param verbos whether to print the result to standard out
+    * @param params the values bound to the '?' placeholders, in order
+    * @return the result set of the query
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public ResultSet executeQuery (String query, Boolean verbos) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public ResultSet executeQuery (String query, Boolean verbos, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      ResultSet rs = null;
+      try {
+         rs = query (query, params);
+      } finally {
+         long nanos = System.nanoTime () - start;
+         // the rows are counted as the caller reads them
+         this._metrics.recordStatement (query, nanos, 1, 0, rs == null);
+         this._slowLog.record (query, params, nanos, -1, rs == null, inTransaction ());
+      }//end try
+      rs = counted (query, rs);
+      if (verbos) {
+         try {
+            ResultRenderer out = openRenderer ("query");
+            while (rs.next ()) {
+               out.handleRow (rs);
+            }//end while
+            out.finish ();
+         }catch (IOException e) {
+            throw new SQLException ("Could not write the result: " + e.getMessage ());
+         }//end try
+      }//end if
+      return rs;
+   }//end executeQuery
+
+   // executeQuery without the metrics and the printing
+   private ResultSet query (String query, Object[] params) throws SQLException {
+      // fetches the cached statement object, preparing it on first use
+      PreparedStatement stmt = session ().statements.prepare (query);
+      bind (stmt, params);
 
       // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-     if (verbos) { 
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-     while (rs.next()){
-	 if(outputHeader){
-	    for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i) + "\t");
-	    }
-	    System.out.println();
-	    outputHeader = false;
-	 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
+      return stmt.executeQuery ();
+   }//end query
+
+   // the result set, counting the rows the caller reads when metrics are on
+   private ResultSet counted (String query, ResultSet rs) {
+      return Metrics.ENABLED ? new CountingResultSet (rs, this._metrics, query) : rs;
+   }//end counted
+
+   /**
+    * Method to stream the result of a query (i.e. SELECT) through a row
+    * handler.  The query runs behind a server-side cursor and only
+    * fetch-size rows are held in the client at a time, so arbitrarily large
+    * results run in constant memory.  The cursor is closed, and the
+    * session's auto-commit mode restored, before the method returns.
+    *
+    * Cursors are not re-entrant: the handler may run other statements on
+    * the session, but not another streamQuery.
+    *
+    * @param query the input query string, with '?' for every parameter
+    * @param handler receives every row of the result in order
+    * @param params the values bound to the '?' placeholders, in order
+    * @return the number of rows streamed
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public long streamQuery (String query, RowHandler handler, Object... params) throws SQLException {
+      Connection connection = session ().connection;
+      int fetchSize = this._fetchSize;
+      // cursors only live inside a transaction
+      boolean autoCommit = connection.getAutoCommit ();
+      if (autoCommit) {
+         connection.setAutoCommit (false);
+      }//end if
+      long start = System.nanoTime ();
+      long roundTrips = 0;
+      boolean ok = false;
+      long rowCount = 0;
+      try {
+         ++roundTrips;
+         update ("DECLARE dbproject_cursor NO SCROLL CURSOR FOR " + query, params);
+         try {
+            String fetch = "FETCH FORWARD " + fetchSize + " FROM dbproject_cursor";
+            int fetched;
+            do {
+               ++roundTrips;
+               ResultSet rs = query (fetch, new Object[0]);
+               fetched = 0;
+               while (rs.next ()) {
+                  handler.handleRow (rs);
+                  ++fetched;
+               }//end while
+               rs.close ();
+               rowCount += fetched;
+            } while (fetched == fetchSize);
+         } finally {
+            ++roundTrips;
+            update ("CLOSE dbproject_cursor", new Object[0]);
+         }//end try
+         ok = true;
+      } finally {
+         try {
+            if (autoCommit) {
+               ++roundTrips;
+               try {
+                  if (ok) {
+                     connection.commit ();
+                  } else {
+                     connection.rollback ();
+                  }//end if
+               } finally {
+                  connection.setAutoCommit (true);
+               }//end try
+            }//end if
+         } finally {
+            // the whole cursor counts as one statement of the query's template
+            long nanos = System.nanoTime () - start;
+            this._metrics.recordStatement (query, nanos, roundTrips, rowCount, !ok);
+            this._slowLog.record (query, params, nanos, rowCount, !ok, !autoCommit);
+         }//end try
+      }//end try
+      return rowCount;
+   }//end streamQuery
+
+   /**
+    * Streams the result of a query through a renderer of the current output
+    * format, to standard out or, when exporting, to a new file
+    *
+    * @param report names the export file
+    * @param query the input query string, with '?' for every parameter
+    * @param params the values bound to the '?' placeholders, in order
+    * @return the number of rows printed
+    * @throws java.sql.SQLException when failed to execute the query
+    * @throws java.io.IOException when the output could not be written
+    */
+   public long printQuery (String report, String query, Object... params) throws SQLException, IOException {
+      ResultRenderer out = openRenderer (report);
+      boolean ok = false;
+      try {
+         streamQuery (query, out, params);
+         ok = true;
+      } finally {
+         if (ok) {
+            out.finish ();
+         } else {
+            // keep what was printed, or close the file, without hiding the query's error
+            try {
+               out.finish ();
+            }catch (IOException e) {
+               // ignored.
+            }//end try
+         }//end if
+      }//end try
+      return out.getRowCount ();
+   }//end printQuery
+
+   /**
+    * Streams a query like printQuery, followed by rows computed in memory,
+    * through the same renderer
+    *
+    * @param report names the export file
+    * @param columns the column names, used when the query returns no row
+    * @param more the rows printed after those of the query
+    * @param query the input query string, with '?' for every parameter
+    * @param params the values bound to the '?' placeholders, in order
+    * @return the number of rows printed
+    * @throws java.sql.SQLException when failed to execute the query
+    * @throws java.io.IOException when the output could not be written
+    */
+   public long printMerged (String report, String[] columns, List<Object[]> more, String query, Object... params)
+         throws SQLException, IOException {
+      ResultRenderer out = openRenderer (report);
+      out.columns (columns);
+      boolean ok = false;
+      try {
+         streamQuery (query, out, params);
+         for (Object[] row : more) {
+            out.row (row);
+         }//end for
+         ok = true;
+      } finally {
+         if (ok) {
+            out.finish ();
+         } else {
+            try {
+               out.finish ();
+            }catch (IOException e) {
+               // ignored.
+            }//end try
+         }//end if
+      }//end try
+      return out.getRowCount ();
+   }//end printMerged
+
+   /**
+    * Sets the page size of the listing reports; only the interactive menu
+    * pages, as it is the only caller that reads the navigation choices
+    *
+    * @param pageSize rows per page, 0 to print every row at once
+    */
+   public void setPageSize (int pageSize) {
+      this._pageSize = Math.max (0, pageSize);
+   }//end setPageSize
+
+   /**
+    * @return whether the listing reports are printed a page at a time
+    */
+   public boolean isPaging () {
+      return this._pageSize > 0 && this._exportDir == null;
+   }//end isPaging
+
+   /**
+    * Prints a query a page at a time with keyset (seek) pagination: every
+    * page is the first page-size rows after the key of the last row of the
+    * page before, so it costs the same however deep the user browses, which
+    * OFFSET does not.  The keys the visited pages start after are kept, so
+    * going back re-runs the query of that page.  Without paging the query is
+    * printed whole, as printQuery does.
+    *
+    * @param report names the report
+    * @param query the query, ordered by its key, with %s where the key predicate goes
+    * @param after the key predicate, e.g. " AND (hotelID, roomNo) > (?, ?)"
+    * @param keyColumns the columns of the key in the result, from 1, in the order of the predicate
+    * @param limit the most rows printed over all pages, or -1 for every row
+    * @param params the values bound to the '?' placeholders before the key
+    * @throws java.sql.SQLException when failed to execute the query
+    * @throws java.io.IOException when the output could not be written
+    */
+   public void printPages (String report, String query, String after, int[] keyColumns, long limit,
+                           Object... params) throws SQLException, IOException {
+      if (!isPaging ()) {
+         Object[] all = Arrays.copyOf (params, params.length + 1);
+         all[params.length] = limit < 0 ? null : limit;
+         printQuery (report, String.format (query, "") + " LIMIT ?", all);
+         return;
+      }//end if
+      int pageSize = this._pageSize;
+      List<Object[]> starts = new ArrayList<Object[]> ();
+      starts.add (null);
+      int page = 0;
+      while (page >= 0) {
+         Object[] start = starts.get (page);
+         long rows = limit < 0 ? pageSize : Math.min (pageSize, limit - (long) page * pageSize);
+         Object[] all = Arrays.copyOf (params, params.length + (start == null ? 0 : start.length) + 1);
+         if (start != null) {
+            System.arraycopy (start, 0, all, params.length, start.length);
+         }//end if
+         all[all.length - 1] = rows;
+         Object[] last = null;
+         ResultRenderer out = openRenderer (report);
+         try {
+            ResultSet rs = executeQuery (String.format (query, start == null ? "" : after) + " LIMIT ?", false, all);
+            while (rs.next ()) {
+               out.handleRow (rs);
+               last = new Object[keyColumns.length];
+               for (int i = 0; i < keyColumns.length; ++i) {
+                  last[i] = rs.getObject (keyColumns[i]);
+               }//end for
+            }//end while
+         } finally {
+            out.finish ();
+         }//end try
+         boolean more = out.getRowCount () == rows && (limit < 0 || (long) (page + 1) * pageSize < limit);
+         if (more && starts.size () == page + 1) {
+            starts.add (last);
+         }//end if
+         page = nextPage (page, more);
       }//end while
-	 }
-      //stmt.close ();
-      return rs;
-   }//end executeQuery
+   }//end printPages
 
    /**
-    * Method to close the physical connection if it is open.
+    * Prints rows computed in memory, a page at a time when paging
+    *
+    * @param report names the report
+    * @param columns the column names
+    * @param rows the rows, in order
+    * @throws java.io.IOException when the output could not be written
     */
-   public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
+   public void printRows (String report, String[] columns, List<Object[]> rows) throws IOException {
+      int pageSize = isPaging () ? this._pageSize : Math.max (rows.size (), 1);
+      int page = 0;
+      while (page >= 0) {
+         ResultRenderer out = openRenderer (report);
+         out.columns (columns);
+         for (Object[] row : rows.subList (Math.min (page * pageSize, rows.size ()),
+                                           Math.min ((page + 1) * pageSize, rows.size ()))) {
+            out.row (row);
+         }//end for
+         out.finish ();
+         page = isPaging () ? nextPage (page, (page + 1) * pageSize < rows.size ()) : -1;
+      }//end while
+   }//end printRows
+
+   // asks where to go from a page, returning the next page or -1 to stop
+   private static int nextPage (int page, boolean more) throws IOException {
+      while (true) {
+         System.out.print ("-- page " + (page + 1) + (more ? " -- [n]ext" : " (last) --")
+                           + (page > 0 ? ", [p]revious" : "") + ", [q]uit: ");
+         String choice = in.readLine ();
+         if (choice == null) {
+            return -1;
+         }//end if
+         choice = choice.trim ().toLowerCase ();
+         if (choice.isEmpty ()) {
+            return more ? page + 1 : -1;
+         } else if (choice.startsWith ("n") && more) {
+            return page + 1;
+         } else if (choice.startsWith ("p") && page > 0) {
+            return page - 1;
+         } else if (choice.startsWith ("q")) {
+            return -1;
+         }//end if
+      }//end while
+   }//end nextPage
+
+   /**
+    * Creates a renderer of the current output format, writing to standard
+    * out or, when an export directory is set, to a new file named after the
+    * report.  The caller must finish() it.
+    *
+    * @param report names the export file
+    * @return the renderer
+    * @throws java.io.IOException when the export file cannot be created
+    */
+   public ResultRenderer openRenderer (String report) throws IOException {
+      ResultRenderer.Format format = this._format;
+      File dir = this._exportDir;
+      if (dir == null) {
+         return ResultRenderer.toConsole (format);
+      }//end if
+      if (!dir.isDirectory () && !dir.mkdirs ()) {
+         throw new IOException ("Cannot create the export directory " + dir);
+      }//end if
+      String name = String.format ("%s-%tY%<tm%<td-%<tH%<tM%<tS-%d.%s", report, new java.util.Date (),
+                                   this._exports.incrementAndGet (), format.extension);
+      return ResultRenderer.toFile (format, new File (dir, name));
+   }//end openRenderer
+
+   // applies the command line's output options over the -D defaults
+   private void configureOutput (ResultRenderer.Format format, File exportDir) {
+      if (format != null) {
+         setOutputFormat (format);
+      }//end if
+      if (exportDir != null) {
+         setExportDir (exportDir);
+      }//end if
+   }//end configureOutput
+
+   /**
+    * Sets the format reports are printed or exported in
+    */
+   public void setOutputFormat (ResultRenderer.Format format) {
+      this._format = format;
+   }//end setOutputFormat
+
+   /**
+    * Exports every report to a new file in a directory instead of printing it
+    *
+    * @param dir the directory, created if needed, or null to print again
+    */
+   public void setExportDir (File dir) {
+      this._exportDir = dir;
+   }//end setExportDir
+
+   /**
+    * Sets how many rows streamQuery fetches per round trip
+    *
+    * @param fetchSize the number of rows, at least 1
+    */
+   public void setFetchSize (int fetchSize) {
+      if (fetchSize < 1) {
+         throw new IllegalArgumentException("fetch size must be positive: " + fetchSize);
+      }//end if
+      this._fetchSize = fetchSize;
+   }//end setFetchSize
+
+   public int getFetchSize () {
+      return this._fetchSize;
+   }//end getFetchSize
+
+   /**
+    * Binds the parameter values to the placeholders of a prepared statement
+    *
+    * @param stmt the statement to bind
+    * @param params the values, where null binds SQL NULL
+    * @throws java.sql.SQLException when a value cannot be bound
+    */
+   static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         if (params[i] == null) {
+            stmt.setNull (i + 1, Types.NULL);
+         } else {
+            stmt.setObject (i + 1, params[i]);
+         }//end if
+      }//end for
+   }//end bind
+
+   /**
+    * Returns the connection bound to the calling thread, borrowing one from
+    * the pool on first use.  It stays bound until releaseSession() is
+    * called, so every statement of one operation runs on the same session.
+    *
+    * @return the pooled connection of the calling thread
+    * @throws java.sql.SQLException when no connection could be obtained
+    */
+   public ConnectionPool.PooledConnection session () throws SQLException {
+      ConnectionPool.PooledConnection pc = this._session.get ();
+      if (pc == null) {
+         ConnectionPool pool = Boolean.TRUE.equals (this._readOnly.get ()) ? this._router.readPool () : this._pool;
+         try {
+            pc = pool.borrow ();
+         }catch (SQLException e) {
+            if (pool == this._pool) {
+               throw e;
+            }//end if
+            // the replica is unreachable: the report runs on the primary
+            this._router.failed (pool, e);
+            pool = this._pool;
+            pc = pool.borrow ();
+         }//end try
+         this._session.set (pc);
+         this._sessionPool.set (pool);
+      }//end if
+      return pc;
+   }//end session
+
+   /**
+    * Marks the operations the current thread runs next as read only, so
+    * their sessions may be routed to a replica, or as writes
+    *
+    * @param readOnly whether the next operations only read
+    */
+   public void setReadOnly (boolean readOnly) {
+      this._readOnly.set (readOnly);
+   }//end setReadOnly
+
+   /**
+    * Returns the connection bound to the calling thread to the pool.  Result
+    * sets obtained during the session must not be used afterwards.
+    */
+   public void releaseSession () {
+      ConnectionPool.PooledConnection pc = this._session.get ();
+      if (pc != null) {
+         ConnectionPool pool = this._sessionPool.get ();
+         this._session.remove ();
+         this._sessionPool.remove ();
+         (pool == null ? this._pool : pool).release (pc);
+      }//end if
+   }//end releaseSession
+
+   /**
+    * Returns a new primary key for a table from the id allocator
+    *
+    * @param table the table the row is inserted into
+    * @return an id that no other client is handed
+    * @throws java.sql.SQLException when a new id block could not be reserved
+    */
+   public int nextId (IdAllocator.Table table) throws SQLException {
+      return this._ids.next (table);
+   }//end nextId
+
+   /**
+    * Loads the in-memory indexes (-Ddbproject.indexes) and the analytics
+    * snapshot (-Ddbproject.analytics) used by the reports.  A failure is
+    * reported but not fatal: the indexes then fill in on demand.
+    */
+   public void warmCaches () {
+      if (this._useIndexes) {
+         warm ("room occupancy", () -> this._occupancy.load (this));
+         warm ("booking prices", () -> this._prices.load (this));
+         warm ("repair counts", () -> this._repairs.load (this));
+         warm ("customer names", () -> this._customers.load (this));
+      }//end if
+      // the snapshot has a switch of its own, -Ddbproject.analytics
+      if (AnalyticsSnapshot.ENABLED) {
+         warm ("analytics snapshot", () -> this._analytics.load (this, snapshotFile ()));
+      }//end if
+   }//end warmCaches
+
+   // a step of warmCaches
+   private interface Loader {
+      void load () throws SQLException;
+   }//end Loader
+
+   private void warm (String what, Loader loader) {
+      try {
+         long start = System.currentTimeMillis();
+         System.out.print("Loading " + what + "...");
+         loader.load ();
+         System.out.println("Done (" + (System.currentTimeMillis() - start) + " ms)");
+      }catch (SQLException e) {
+         System.err.println("Could not load the " + what + ": " + e.getMessage());
+      } finally {
+         releaseSession ();
+      }//end try
+   }//end warm
+
+   /**
+    * Creates the yearly Booking and Repair partitions of the coming years
+    * (-Ddbproject.partitions.yearsAhead, 2 by default) through the
+    * ensure_partitions function of sql/create.sql, which also moves the rows
+    * of the default partitions into partitions of their own.  A failure is
+    * reported and otherwise ignored: new rows then land in the default
+    * partitions.
+    */
+   public void ensurePartitions () {
+      try {
+         ResultSet rs = executeQuery ("SELECT ensure_partitions(?)", false, PARTITION_YEARS_AHEAD);
+         int created = rs.next () ? rs.getInt (1) : 0;
+         if (created > 0) {
+            System.out.println ("Created " + created + " Booking and Repair partitions");
          }//end if
-      }catch (SQLException e){
-         // ignored.
+      }catch (SQLException e) {
+         System.err.println ("Could not create the coming partitions: " + e.getMessage ());
+      } finally {
+         releaseSession ();
       }//end try
+   }//end ensurePartitions
+
+   /**
+    * Books a room through the book_room function of sql/create.sql, which
+    * checks the room, resolves the customer and inserts the booking in one
+    * round trip and one transaction.  The unique constraint on (hotelID,
+    * roomNo, bookingDate) makes concurrent bookings of the same room and
+    * date safe: exactly one of them is BOOKED.
+    *
+    * @param hotelID the hotel of the room
+    * @param roomNo the room
+    * @param fName the customer's first name, used when customerID is null
+    * @param lName the customer's last name, used when customerID is null
+    * @param customerID the customer, or null to look the customer up by name
+    * @param date the date booked
+    * @param noOfPeople the number of occupants
+    * @param price the price of the room
+    * @return what happened, with the new booking's id when it was booked
+    * @throws java.sql.SQLException when the booking could not be attempted
+    */
+   public BookingResult book (int hotelID, int roomNo, String fName, String lName, Integer customerID,
+                              LocalDate date, int noOfPeople, BigDecimal price) throws SQLException {
+      int bID = nextId (IdAllocator.Table.BOOKING);
+      ResultSet rs = executeQuery ("SELECT status, customer_id FROM book_room(?, ?, ?, ?, ?, ?, ?, ?, ?)", false,
+                                   bID, hotelID, roomNo, fName, lName, customerID, java.sql.Date.valueOf (date),
+                                   noOfPeople, price);
+      rs.next ();
+      BookingResult.Status status = BookingResult.Status.valueOf (rs.getString (1));
+      int customer = rs.getInt (2);
+      if (status == BookingResult.Status.BOOKED) {
+         indexBooking (bID, customer, hotelID, roomNo, date, noOfPeople, price);
+      }//end if
+      return new BookingResult (status, bID, customer);
+   }//end book
+
+   /**
+    * Returns the ids of the customers with a name, from the customer
+    * directory or, when it does not know the name, from Customer
+    *
+    * @param fName the first name
+    * @param lName the last name
+    * @return the ids in ascending order, empty when there is no such customer
+    * @throws java.sql.SQLException when Customer could not be read
+    */
+   public List<Integer> findCustomers (String fName, String lName) throws SQLException {
+      List<Integer> ids = new ArrayList<Integer> ();
+      if (this._useIndexes && this._customers.isWarm ()) {
+         for (int id : this._customers.lookup (fName, lName)) {
+            ids.add (id);
+         }//end for
+         if (!ids.isEmpty ()) {
+            return ids;
+         }//end if
+      }//end if
+      ResultSet rs = executeQuery ("SELECT customerID FROM Customer WHERE fName = ? AND lName = ? ORDER BY customerID",
+                                   false, fName, lName);
+      while (rs.next ()) {
+         ids.add (rs.getInt (1));
+      }//end while
+      return ids;
+   }//end findCustomers
+
+   // where the analytics snapshot is saved, if anywhere
+   private static File snapshotFile () {
+      String file = System.getProperty ("dbproject.analytics.snapshot");
+      return file == null ? null : new File (file);
+   }//end snapshotFile
+
+   /**
+    * Records a booking that was just inserted in the in-memory indexes
+    */
+   public void indexBooking (int bID, int customer, int hotelID, int roomNo, LocalDate date,
+                             int noOfPeople, BigDecimal price) {
+      this._occupancy.addBooking (hotelID, roomNo, date);
+      this._prices.addBooking (new PriceIndex.Entry (bID, customer, hotelID, roomNo, (int) date.toEpochDay (),
+                                                    noOfPeople, price.movePointRight (2).longValue ()));
+      this._analytics.addBooking (bID, customer, hotelID, roomNo, (int) date.toEpochDay (), noOfPeople,
+                                  price.movePointRight (2).longValue ());
+   }//end indexBooking
+
+   /**
+    * @return the analytics snapshot
+    */
+   public AnalyticsSnapshot getAnalytics () {
+      return this._analytics;
+   }//end getAnalytics
+
+   /**
+    * @return whether reports can be answered from the analytics snapshot
+    */
+   public boolean useAnalytics () {
+      return AnalyticsSnapshot.ENABLED && this._analytics.isWarm ();
+   }//end useAnalytics
+
+   /**
+    * @return the archive of the rows of past years
+    */
+   public ColdArchive getArchive () {
+      return this._archive;
+   }//end getArchive
+
+   /**
+    * @return the router of the report sessions
+    */
+   public ReplicaRouter getRouter () {
+      return this._router;
+   }//end getRouter
+
+   /**
+    * @return the slow query log
+    */
+   public SlowQueryLog getSlowLog () {
+      return this._slowLog;
+   }//end getSlowLog
+
+   /**
+    * @return the reference data cache
+    */
+   public ReferenceCache getReferences () {
+      return this._references;
+   }//end getReferences
+
+   /**
+    * @return the customer directory
+    */
+   public CustomerDirectory getCustomers () {
+      return this._customers;
+   }//end getCustomers
+
+   /**
+    * @return whether reports are answered from the in-memory indexes
+    */
+   public boolean useIndexes () {
+      return this._useIndexes;
+   }//end useIndexes
+
+   /**
+    * @return the room occupancy index
+    */
+   public OccupancyIndex getOccupancy () {
+      return this._occupancy;
+   }//end getOccupancy
+
+   /**
+    * @return the booking price index
+    */
+   public PriceIndex getPrices () {
+      return this._prices;
+   }//end getPrices
+
+   /**
+    * @return the repair count aggregates
+    */
+   public RepairAggregates getRepairs () {
+      return this._repairs;
+   }//end getRepairs
+
+   /**
+    * @return the latency and round-trip figures of the operations and statements
+    */
+   public Metrics getMetrics () {
+      return this._metrics;
+   }//end getMetrics
+
+   /**
+    * @return the connection pool shared by all sessions
+    */
+   public ConnectionPool getPool () {
+      return this._pool;
+   }//end getPool
+
+   /**
+    * @return how many statements were served from the statement caches
+    */
+   public long getStatementCacheHits () {
+      return this._pool == null ? 0 : this._pool.getStatementCacheHits ();
+   }//end getStatementCacheHits
+
+   /**
+    * @return how many statements had to be prepared on the server
+    */
+   public long getStatementCacheMisses () {
+      return this._pool == null ? 0 : this._pool.getStatementCacheMisses ();
+   }//end getStatementCacheMisses
+
+   /**
+    * Method to close the physical connections if they are open.
+    */
+   public void cleanup(){
+      releaseSession ();
+      File snapshot = snapshotFile ();
+      if (snapshot != null && useAnalytics ()) {
+         try {
+            this._analytics.save (snapshot);
+         }catch (IOException e) {
+            System.err.println ("Could not save the analytics snapshot: " + e.getMessage ());
+         }//end try
+      }//end if
+      this._analytics.close ();
+      this._slowLog.close ();
+      if (this._router != null) {
+         this._router.close ();
+      }//end if
+      if (this._pool != null){
+         this._ids.release ();
+         this._pool.close ();
+      }//end if
+      this._metrics.close ();
    }//end cleanup
 
    /**
     * The main execution method
     *
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+    *        and, for headless runs, --batch <script> [--threads N] [--chunk N] [--verbose];
+    *        --format tsv|table|csv|json and --export <dir> choose how reports are written,
+    *        --page-size N how many rows of a listing the menu shows at a time
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      String script = null;
+      int threads = 1;
+      int chunk = 1;
+      boolean verbose = false;
+      ResultRenderer.Format format = null;
+      File exportDir = null;
+      int pageSize = DEFAULT_PAGE_SIZE;
+      boolean usage = args.length < 3;
+      for (int i = 3; i < args.length && !usage; ++i) {
+         if (args[i].equals("--batch") && i + 1 < args.length) {
+            script = args[++i];
+         } else if (args[i].equals("--threads") && i + 1 < args.length) {
+            threads = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--chunk") && i + 1 < args.length) {
+            chunk = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--verbose")) {
+            verbose = true;
+         } else if (args[i].equals("--format") && i + 1 < args.length) {
+            format = ResultRenderer.Format.valueOf(args[++i].toUpperCase());
+         } else if (args[i].equals("--export") && i + 1 < args.length) {
+            exportDir = new File(args[++i]);
+         } else if (args[i].equals("--page-size") && i + 1 < args.length) {
+            pageSize = Integer.parseInt(args[++i]);
+         } else {
+            usage = true;
+         }//end if
+      }//end for
+      if (usage) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             DBProject.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [--batch <script> [--threads N] [--chunk N] [--verbose]]" +
+            " [--format tsv|table|csv|json] [--export <dir>] [--page-size N]");
+         return;
+      }//end if
+
+      if (script != null) {
+         runBatch(args[0], args[1], args[2], script, threads, chunk, verbose, format, exportDir);
          return;
       }//end if
       
@@ -165,6 +1016,10 @@ public class DBProject {
          String dbport = args[1];
          String user = args[2];
          esql = new DBProject (dbname, dbport, user, "");
+         esql.configureOutput (format, exportDir);
+         esql.setPageSize (pageSize);
+         esql.ensurePartitions ();
+         esql.warmCaches ();
 
          boolean keepon = true;
          while(keepon) {
@@ -187,28 +1042,18 @@ public class DBProject {
 				System.out.println("14. List the repairs made by maintenance company");
 				System.out.println("15. Get top k maintenance companies based on repair count");
 				System.out.println("16. Get number of repairs occurred per year for a given hotel room");
-				System.out.println("17. < EXIT");
-
-            switch (readChoice()){
-				   case 1: addCustomer(esql); break;
-				   case 2: addRoom(esql); break;
-				   case 3: addMaintenanceCompany(esql); break;
-				   case 4: addRepair(esql); break;
-				   case 5: bookRoom(esql); break;
-				   case 6: assignHouseCleaningToRoom(esql); break;
-				   case 7: repairRequest(esql); break;
-				   case 8: numberOfAvailableRooms(esql); break;
-				   case 9: numberOfBookedRooms(esql); break;
-				   case 10: listHotelRoomBookingsForAWeek(esql); break;
-				   case 11: topKHighestRoomPriceForADateRange(esql); break;
-				   case 12: topKHighestPriceBookingsForACustomer(esql); break;
-				   case 13: totalCostForCustomer(esql); break;
-				   case 14: listRepairsMade(esql); break;
-				   case 15: topKMaintenanceCompany(esql); break;
-				   case 16: numberOfRepairsForEachRoomPerYear(esql); break;
-				   case 17: keepon = false; break;
-				   default : System.out.println("Unrecognized choice!"); break;
-            }//end switch
+				System.out.println("17. Book rooms for a group or a multi-night stay");
+				System.out.println("18. Get revenue per hotel per month for a year");
+				System.out.println("19. Get occupancy rate per hotel for a date range");
+				System.out.println("20. Search repairs, requests, customers, companies and addresses");
+				System.out.println("21. < EXIT");
+
+            int choice = readChoice();
+            if (choice == 21) {
+               keepon = false;
+            } else {
+               runOperation(esql, choice);
+            }//end if
          }//end while
       }catch(Exception e) {
          System.err.println (e.getMessage ());
@@ -216,6 +1061,15 @@ public class DBProject {
          // make sure to cleanup the created table and close the connection.
          try{
             if(esql != null) {
+               System.out.println("Statement cache: " + esql.getStatementCacheHits () + " hits, "
+                                  + esql.getStatementCacheMisses () + " misses");
+               System.out.println("Reference cache:\n" + esql.getReferences ().report ());
+               if (esql.getSlowLog ().getSlowCount () > 0) {
+                  System.out.println("Slow queries:\n" + esql.getSlowLog ().report ());
+               }//end if
+               if (esql.getRouter ().hasReplicas ()) {
+                  System.out.println("Replicas:\n" + esql.getRouter ().report ());
+               }//end if
                System.out.print("Disconnecting from database...");
                esql.cleanup ();
                System.out.println("Done\n\nBye !");
@@ -226,6 +1080,122 @@ public class DBProject {
       }//end try
    }//end main
    
+   /**
+    * Runs a script of operations without the interactive menu
+    *
+    * @param script the script file, see BatchRunner for its format
+    * @param threads the number of worker threads
+    * @param chunk the number of consecutive operations a worker takes at once
+    * @param verbose whether to print the output of every operation
+    * @param format the output format of the reports, or null for the default
+    * @param exportDir where the reports are exported to, or null for the default
+    */
+   static void runBatch(String dbname, String dbport, String user, String script,
+                        int threads, int chunk, boolean verbose,
+                        ResultRenderer.Format format, File exportDir) {
+      DBProject esql = null;
+      boolean ok = false;
+      try{
+         List<List<BatchRunner.Op>> segments = BatchRunner.parse(new File(script));
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (dbname, dbport, user, "", Math.max(DEFAULT_POOL_SIZE, threads + 1));
+         esql.configureOutput (format, exportDir);
+         esql.warmCaches ();
+         ok = new BatchRunner(esql, threads, chunk, verbose).run(segments);
+         System.out.println("Reference cache:\n" + esql.getReferences ().report ());
+         if (esql.getSlowLog ().getSlowCount () > 0) {
+            System.out.println("Slow queries:\n" + esql.getSlowLog ().report ());
+         }//end if
+         if (esql.getRouter ().hasReplicas ()) {
+            System.out.println("Replicas:\n" + esql.getRouter ().report ());
+         }//end if
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null) {
+            esql.cleanup ();
+         }//end if
+      }//end try
+      if (!ok) {
+         System.exit(1);
+      }//end if
+   }//end runBatch
+
+   /**
+    * Runs one menu operation on the calling thread and returns the session
+    * it used to the pool afterwards.  Several threads may run operations on
+    * the same DBProject at once.
+    *
+    * @param esql the shared DBProject instance
+    * @param choice the menu number of the operation
+    * @return why the operation failed, as it reported it, or null if it succeeded
+    */
+   public static String runOperation(DBProject esql, int choice) {
+      FAILURE.remove ();
+      esql.getMetrics ().beginOperation ();
+      boolean report = ReplicaRouter.isReport (choice);
+      esql.setReadOnly (report);
+      try {
+         switch (choice){
+            case 1: addCustomer(esql); break;
+            case 2: addRoom(esql); break;
+            case 3: addMaintenanceCompany(esql); break;
+            case 4: addRepair(esql); break;
+            case 5: bookRoom(esql); break;
+            case 6: assignHouseCleaningToRoom(esql); break;
+            case 7: repairRequest(esql); break;
+            case 8: numberOfAvailableRooms(esql); break;
+            case 9: numberOfBookedRooms(esql); break;
+            case 10: listHotelRoomBookingsForAWeek(esql); break;
+            case 11: topKHighestRoomPriceForADateRange(esql); break;
+            case 12: topKHighestPriceBookingsForACustomer(esql); break;
+            case 13: totalCostForCustomer(esql); break;
+            case 14: listRepairsMade(esql); break;
+            case 15: topKMaintenanceCompany(esql); break;
+            case 16: numberOfRepairsForEachRoomPerYear(esql); break;
+            case 17: bookRoomsForGroup(esql); break;
+            case 18: revenuePerHotelPerMonth(esql); break;
+            case 19: occupancyRatePerHotel(esql); break;
+            case 20: search(esql); break;
+            default : fail("Unrecognized choice!\n"); break;
+         }//end switch
+      } finally {
+         esql.releaseSession ();
+         esql.setReadOnly (false);
+         if (!report) {
+            esql.getRouter ().wrote ();
+         }//end if
+         if (choice >= 1 && choice < OPERATIONS.length) {
+            esql.getMetrics ().endOperation (OPERATIONS[choice]);
+         }//end if
+      }//end try
+      String failure = FAILURE.get ();
+      FAILURE.remove ();
+      return failure;
+   }//end runOperation
+
+   /**
+    * Reports why the running operation failed, on standard out like the
+    * operation's other messages, and marks the operation failed.
+    *
+    * @param message the message, printed as it is
+    */
+   static void fail(String message) {
+      System.out.print(message);
+      FAILURE.set (message.trim ());
+   }//end fail
+
+   /**
+    * Reports the exception that stopped the running operation on standard
+    * error and marks the operation failed.
+    *
+    * @param e the exception the operation caught
+    */
+   static void fail(Exception e) {
+      System.err.println (e.getMessage ());
+      FAILURE.set (e.getMessage () != null ? e.getMessage () : e.toString ());
+   }//end fail
+
    public static void Greeting(){
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -257,11 +1227,6 @@ public class DBProject {
    public static void addCustomer(DBProject esql){
 	  // Given customer details add the customer in the DB
 	try {
-		ResultSet c = esql.executeQuery("SELECT MAX(customerID) AS max_id FROM customer", false);
-		int cID = -1;
-		if (c.next()) {
-                	cID = c.getInt("max_id") + 1;
-		}
 		System.out.print("\tEnter your First Name: ");
 		String fname = in.readLine();
 		System.out.print("\tEnter your Last Name: ");
@@ -275,14 +1240,16 @@ public class DBProject {
 		System.out.print("\tEnter your Gender: ");
 		String gender = in.readLine();
 		try{
-			String query = "INSERT INTO customer (customerID, fname, lname, address, phno, dob, gender) VALUES (" + cID + ", \'" + fname + "\', \'" + lname + "\', \'" + Address + "\', " + phNo + ", DATE \'" + DOB + "\', \'" + gender +"\')";
-			esql.executeQuery(query, false);
+			int cID = esql.nextId(IdAllocator.Table.CUSTOMER);
+			String query = "INSERT INTO customer (customerID, fname, lname, address, phno, dob, gender) VALUES (?, ?, ?, ?, ?, ?, CAST(? AS GenderType))";
+			esql.executeUpdate(query, cID, fname, lname, Address, Long.parseLong(phNo), java.sql.Date.valueOf(DOB), gender);
+			esql.getCustomers().add(cID, fname, lname);
 			System.out.print("Successfully Added Customer!");
 		}catch(Exception e) {
-			System.err.println (e.getMessage());
+			fail(e);
 		}
 	} catch (Exception e){
-		System.err.println (e.getMessage());
+		fail(e);
 	}
    }//end addCustomer
 
@@ -291,26 +1258,26 @@ public class DBProject {
 	try{
 		System.out.print("\tEnter the Hotel ID: ");
 		String hID = in.readLine();
-		String getHID = "SELECT * FROM Hotel WHERE hotelID = " + hID;
-		ResultSet res = esql.executeQuery(getHID, false);
-		if (!res.isBeforeFirst()) {
-			System.out.print("\tHotel ID Not Found\n");
+		if (!esql.getReferences().hotelExists(esql, Integer.parseInt(hID))) {
+			fail("\tHotel ID Not Found\n");
 		} else {
 			System.out.print("\tEnter the Room Number: ");
 			String roomNum = in.readLine();
-			ResultSet res1 = esql.executeQuery("Select * FROM Room WHERE hotelID = " + hID + " AND roomNo = " + roomNum, false);
-			if (res1.next()) {
-				System.out.print("\tRoom Already Exists\n");
+			if (esql.getReferences().roomExists(esql, Integer.parseInt(hID), Integer.parseInt(roomNum))) {
+				fail("\tRoom Already Exists\n");
 			} else{
 				System.out.print("\tEnter the Room Type: ");
 				String rType = in.readLine();
-				String query = "INSERT INTO Room (hotelID, roomNo, roomType) VALUES (" + hID + ", " + roomNum + ", \'" + rType + "\')";
-				esql.executeQuery(query, false);
+				String query = "INSERT INTO Room (hotelID, roomNo, roomType) VALUES (?, ?, ?)";
+				esql.executeUpdate(query, Integer.parseInt(hID), Integer.parseInt(roomNum), rType);
+				esql.getOccupancy().invalidateHotel(Integer.parseInt(hID));
+				esql.getAnalytics().addRoom(Integer.parseInt(hID));
+				esql.getReferences().invalidateRoom(Integer.parseInt(hID), Integer.parseInt(roomNum));
 				System.out.print("\tSuccessfully Added Room!\n");
 			}
 		}
 	} catch (Exception e) {
-		System.err.println (e.getMessage());
+		fail(e);
 	}
    }//end addRoom
 
@@ -321,10 +1288,10 @@ public class DBProject {
 		String CName = in.readLine();
 		System.out.print("\tEnter the Company Address: ");
 		String cAddress = in.readLine();
-		String check = "SELECT * FROM MaintenanceCompany WHERE name = \'" + CName + "\'  AND address = \'" + cAddress + "\'";
-		ResultSet res = esql.executeQuery(check, false);
+		String check = "SELECT * FROM MaintenanceCompany WHERE name = ? AND address = ?";
+		ResultSet res = esql.executeQuery(check, false, CName, cAddress);
 		if (res.next()) {
-			System.out.print("\tCompany Already Exists in Database\n");
+			fail("\tCompany Already Exists in Database\n");
 		} else {
 			System.out.print("\tIs the Company Certified (Y/N): ");
 			String cert = in.readLine();
@@ -333,17 +1300,16 @@ public class DBProject {
 			if (cert.equals(cmp)) {
 				certBool = true;
 			}
-			ResultSet c = esql.executeQuery("SELECT MAX(cmpID) AS max_id FROM MaintenanceCompany", false);
-                	int cID = -1;
-			if (c.next()) {
-				cID = c.getInt("max_id") + 1;
-			}
-			String query = "INSERT INTO MaintenanceCompany (cmpID, name, address, isCertified) VALUES (" + cID + ", \'" + CName + "\', \'" + cAddress + "\', " + certBool +")";
-			esql.executeQuery(query, false);
+			int cID = esql.nextId(IdAllocator.Table.MAINTENANCE_COMPANY);
+			String query = "INSERT INTO MaintenanceCompany (cmpID, name, address, isCertified) VALUES (?, ?, ?, ?)";
+			esql.executeUpdate(query, cID, CName, cAddress, certBool);
+			esql.getRepairs().addCompany(cID, CName);
+			esql.getAnalytics().addCompany(cID, CName);
+			esql.getReferences().invalidateCompany(cID);
 			System.out.print("\tSuccessfully Added a Maintenance Company!\n");
 		}
 	} catch (Exception e) {
-		System.err.println (e.getMessage());
+		fail(e);
 	}
    }//end addMaintenanceCompany
 
@@ -354,34 +1320,30 @@ public class DBProject {
 		String hID = in.readLine();
 		System.out.print("\tEnter the Room Number: ");
 		String roomNum = in.readLine();
-		ResultSet res = esql.executeQuery("Select * FROM Room WHERE hotelID = " + hID + " AND roomNo = " + roomNum, false);
-		if (res.next()) {
+		if (esql.getReferences().roomExists(esql, Integer.parseInt(hID), Integer.parseInt(roomNum))) {
 			System.out.print("\tEnter the Maintenace Company ID: ");
 			String maintID = in.readLine();
-			ResultSet res1 = esql.executeQuery("SELECT * FROM MaintenanceCompany WHERE cmpID = " + maintID + " AND isCertified", false);
-			if (res1.next()) {
-				ResultSet c = esql.executeQuery("SELECT MAX(rID) AS max_id FROM Repair", false);
-                        	int rID = -1;
-                        	if (c.next()) {
-                                	rID = c.getInt("max_id") + 1;
-                        	}
+			if (esql.getReferences().isCertified(esql, Integer.parseInt(maintID))) {
 				System.out.print("\tEnter the Repair Date in YYYY-MM-DD Format: ");
 				String date = in.readLine();
 				System.out.print("\tEnter a Description of the maintenance required: ");
 				String desc = in.readLine();
 				System.out.print("\tEnter the Repair Type: ");
 				String rType = in.readLine();
-				String query = "INSERT INTO Repair (rID, hotelID, roomNo, mCompany, repairDate, description, repairType) VALUES (" + rID + ", " + hID + ", " + roomNum + ", " + maintID + ", DATE \'" + date + "\', \'" + desc + "\', \'" + rType + "\')";
-				esql.executeQuery(query, false);
+				int rID = esql.nextId(IdAllocator.Table.REPAIR);
+				String query = "INSERT INTO Repair (rID, hotelID, roomNo, mCompany, repairDate, description, repairType) VALUES (?, ?, ?, ?, ?, ?, ?)";
+				esql.executeUpdate(query, rID, Integer.parseInt(hID), Integer.parseInt(roomNum), Integer.parseInt(maintID), java.sql.Date.valueOf(date), desc, rType);
+				esql.getRepairs().addRepair(Integer.parseInt(maintID), Integer.parseInt(hID), Integer.parseInt(roomNum), LocalDate.parse(date).getYear());
+				esql.getAnalytics().addRepair(rID, Integer.parseInt(hID), Integer.parseInt(roomNum), Integer.parseInt(maintID), (int) LocalDate.parse(date).toEpochDay(), rType);
 				System.out.print("Successfully Added a Maintenance Request");
 			} else {
-				System.out.print("\tMaintenance Company Does Not Exist!\n");
+				fail("\tMaintenance Company Does Not Exist!\n");
 			}
 		} else {
-			System.out.print("\tNo Such Room Exists!\n");
+			fail("\tNo Such Room Exists!\n");
 		}
 	} catch (Exception e) {
-		System.err.println(e.getMessage());
+		fail(e);
 	}
    }//end addRepair
 
@@ -392,59 +1354,87 @@ public class DBProject {
 		String hID = in.readLine();
 		System.out.print("\tEnter the Room Number: ");
 		String roomNum = in.readLine();
-		ResultSet res = esql.executeQuery("Select * FROM Room WHERE hotelID = " + hID + " AND roomNo = " + roomNum, false);
-		if (res.next()) {
-			System.out.print("\tEnter the Customer's First Name: ");
-			String Fname = in.readLine();
-			System.out.print("\tEnter the Customer's Last Name: ");
-			String Lname = in.readLine();
-			ResultSet getCust = esql.executeQuery("SELECT COUNT(*) AS rowcount FROM customer WHERE fname = \'" + Fname + "\' AND lname = \'" + Lname + "\'", false);
-			if (getCust.next()) {
-				int count = getCust.getInt("rowcount");
-				String cID = "";
-				ResultSet getCID = esql.executeQuery("SELECT * FROM customer WHERE fname = \'" + Fname + "\' AND lname = \'" + Lname + "\'", false);
-				if (count == 1) {
-					getCID.next();
-					cID = getCID.getString("customerID");
-				} else {
-					System.out.print("\tThere are more than 1 customer with this name. Please specify a Customer ID: ");
-					cID = in.readLine();
-				}
-				ResultSet verify = esql.executeQuery("SELECT * FROM customer WHERE customerID = " + cID, false);
-				if (verify.next()) {
-					System.out.print("\tEnter the Date you with to book the room for in YYYY-MM-DD Format: ");
-					String date = in.readLine();
-					ResultSet checkDate = esql.executeQuery("SELECT * FROM Booking WHERE hotelID = " + hID + " AND roomNo = " + roomNum + " AND bookingDate = DATE \'" + date + "\'", false);
-					if (!checkDate.next()) {
-						ResultSet c = esql.executeQuery("SELECT MAX(bID) AS max_id FROM Booking", false);
-                                		int bID = -1;
-                                		if (c.next()) {
-                                        		bID = c.getInt("max_id") + 1;
-                                		}
-						System.out.print("Enter the Price of the room: ");
-						String price = in.readLine();
-						System.out.print("Enter the number of Occupants: ");
-						String numPeople = in.readLine();
-						String query = "INSERT INTO Booking (bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price) VALUES (" + bID + ", " + cID + ", " + hID + ", " + roomNum + ", DATE \'" + date + "\', " + numPeople + ", "+ price + ")";
-						esql.executeQuery(query, false);
-						System.out.print("Successfully Booked Room!");
-					} else {
-						System.out.print("\tRoom is already Booked\n");
-					}
-				} else {
-					System.out.print("\tInvalid Customer ID!\n");
-				}
-			} else {
-				System.out.print("\tNo Customer with that name exists!\n");
+		System.out.print("\tEnter the Customer's First Name: ");
+		String Fname = in.readLine();
+		System.out.print("\tEnter the Customer's Last Name: ");
+		String Lname = in.readLine();
+		System.out.print("\tEnter the Date you with to book the room for in YYYY-MM-DD Format: ");
+		String date = in.readLine();
+		System.out.print("Enter the Price of the room: ");
+		String price = in.readLine();
+		System.out.print("Enter the number of Occupants: ");
+		String numPeople = in.readLine();
+		// the checks and the insert run in one round trip; a name the directory knows is passed as an id
+		Integer cID = null;
+		if (esql.useIndexes() && esql.getCustomers().isWarm()) {
+			int[] ids = esql.getCustomers().lookup(Fname, Lname);
+			if (ids.length == 1) {
+				cID = ids[0];
+			} else if (ids.length > 1) {
+				System.out.print("\tThere are more than 1 customer with this name. Please specify a Customer ID: ");
+				cID = Integer.parseInt(in.readLine().trim());
 			}
-		} else {
-			System.out.print("\tNo Such Room Exists!\n");
+		}
+		BookingResult result = esql.book(Integer.parseInt(hID), Integer.parseInt(roomNum), Fname, Lname, cID, LocalDate.parse(date), Integer.parseInt(numPeople), new BigDecimal(price));
+		if (result.status == BookingResult.Status.CUSTOMER_AMBIGUOUS) {
+			System.out.print("\tThere are more than 1 customer with this name. Please specify a Customer ID: ");
+			cID = Integer.parseInt(in.readLine().trim());
+			result = esql.book(Integer.parseInt(hID), Integer.parseInt(roomNum), Fname, Lname, cID, LocalDate.parse(date), Integer.parseInt(numPeople), new BigDecimal(price));
+		}
+		switch (result.status) {
+			case BOOKED: System.out.print("Successfully Booked Room!"); break;
+			case ROOM_MISSING: fail("\tNo Such Room Exists!\n"); break;
+			case CUSTOMER_MISSING: fail(cID == null ? "\tNo Customer with that name exists!\n" : "\tInvalid Customer ID!\n"); break;
+			default: fail("\tRoom is already Booked\n"); break;
 		}
 	} catch (Exception e) {
-		System.err.println(e.getMessage());
+		fail(e);
 	}
    }//end bookRoom
 
+   public static void bookRoomsForGroup(DBProject esql){
+	  // Given hotelID, a set of rooms, a customer and a range of nights book every room for every night, or none
+	try {
+		System.out.print("\tEnter Hotel ID: ");
+		String hID = in.readLine();
+		System.out.print("\tEnter the Room Numbers, e.g. 1,2,5-8: ");
+		List<Integer> rooms = GroupBooking.parseRooms(in.readLine());
+		System.out.print("\tEnter the Customer's First Name: ");
+		String Fname = in.readLine();
+		System.out.print("\tEnter the Customer's Last Name: ");
+		String Lname = in.readLine();
+		List<Integer> customers = esql.findCustomers(Fname, Lname);
+		Integer cID = null;
+		if (customers.size() == 1) {
+			cID = customers.get(0);
+		} else if (customers.size() > 1) {
+			System.out.print("\tThere are more than 1 customer with this name. Please specify a Customer ID: ");
+			cID = Integer.parseInt(in.readLine().trim());
+		}
+		if (cID == null) {
+			fail("\tNo Customer with that name exists!\n");
+			return;
+		}
+		System.out.print("\tEnter the First Night in YYYY-MM-DD Format: ");
+		String date = in.readLine();
+		System.out.print("\tEnter the Number of Nights: ");
+		String nights = in.readLine();
+		System.out.print("Enter the Price of a room for one night: ");
+		String price = in.readLine();
+		System.out.print("Enter the number of Occupants of each room: ");
+		String numPeople = in.readLine();
+		GroupBooking.Result result = new GroupBooking(esql).book(Integer.parseInt(hID), rooms, cID, LocalDate.parse(date), Integer.parseInt(nights), Integer.parseInt(numPeople), new BigDecimal(price));
+		switch (result.status) {
+			case BOOKED: System.out.print(String.format("Successfully Booked %d Room-Nights! (%.1f ms, %.0f per second)\n", result.bookings, result.nanos / 1e6, result.bookingsPerSecond())); break;
+			case ROOM_MISSING: fail("\tNo Such Rooms Exist: " + result.problems + "\n"); break;
+			case CUSTOMER_MISSING: fail("\tInvalid Customer ID!\n"); break;
+			default: fail("\tNothing Booked, already Booked: " + result.problems + "\n"); break;
+		}
+	} catch (Exception e) {
+		fail(e);
+	}
+   }//end bookRoomsForGroup
+
    public static void assignHouseCleaningToRoom(DBProject esql){
 	  // Given Staff SSN, HotelID, roomNo Assign the staff to the room 
 	try {
@@ -452,29 +1442,25 @@ public class DBProject {
 		String ssn = in.readLine();
 		System.out.print("\tEnter the Hotel ID: ");
 		String hID = in.readLine();
-		ResultSet staff = esql.executeQuery("SELECT * FROM Staff WHERE SSN = " + ssn + " AND employerID = " + hID + " AND role = \'HouseCleaning\'", false);
+		ReferenceCache.Staff staff = esql.getReferences().staff(esql, Integer.parseInt(ssn));
 		String fname = "";
-		if (staff.next()) {
-			fname = staff.getString("fname");
+		if (staff != null && staff.employerID == Integer.parseInt(hID) && "HouseCleaning".equals(staff.role)) {
+			fname = staff.fName;
 			System.out.print("\tEnter the Room Number you wish to asign to " + fname + ": ");
 			String roomNum = in.readLine();
-			ResultSet res = esql.executeQuery("Select * FROM Room WHERE hotelID = " + hID + " AND roomNo = " + roomNum, false);
-                	if (res.next()) {
-				 ResultSet c = esql.executeQuery("SELECT MAX(asgID) AS max_id FROM Assigned", false);
-                                 int asgID = -1;
-                                 if (c.next()) {
-                                 	asgID = c.getInt("max_id") + 1;
-                                 }
-				String query = "INSERT INTO Assigned (asgID, staffID, hotelID, roomNo) VALUES (" + asgID + ", " + ssn + ", " + hID + ", " + roomNum + ")";
+                	if (esql.getReferences().roomExists(esql, Integer.parseInt(hID), Integer.parseInt(roomNum))) {
+				int asgID = esql.nextId(IdAllocator.Table.ASSIGNED);
+				String query = "INSERT INTO Assigned (asgID, staffID, hotelID, roomNo) VALUES (?, ?, ?, ?)";
+				esql.executeUpdate(query, asgID, Integer.parseInt(ssn), Integer.parseInt(hID), Integer.parseInt(roomNum));
 				System.out.print("\tSuccessfully Assigned " + fname + " to Room Number " + roomNum + "!\n");
 			} else {
-				System.out.print("\tRoom does not exist in the Hotel!\n");
+				fail("\tRoom does not exist in the Hotel!\n");
 			}
 		} else {
-			System.out.print("\tStaff Member Does not exist!\n");
+			fail("\tStaff Member Does not exist!\n");
 		}
 	} catch (Exception e) {
-		System.err.println(e.getMessage());
+		fail(e);
 	}
    }//end assignHouseCleaningToRoom
    
@@ -485,34 +1471,29 @@ public class DBProject {
 		String hID = in.readLine();
 		System.out.print("\tEnter your Social Security Number: ");
 		String ssn = in.readLine();
-		ResultSet checkHotelManager = esql.executeQuery("SELECT * FROM Hotel WHERE hotelID = " + hID + " AND manager = " + ssn, false);
-		if (checkHotelManager.next()) {
+		if (esql.getReferences().isManager(esql, Integer.parseInt(hID), Integer.parseInt(ssn))) {
 			System.out.print("\tEnter the Room Number: ");
 			String roomNum = in.readLine();
 			System.out.print("\tEnter the Repair ID: ");
 			String repID = in.readLine();
-			ResultSet checkRepair = esql.executeQuery("SELECT * FROM Repair WHERE rID =" + repID + " AND hotelID = " + hID + " AND roomNo = " + roomNum, false);
+			ResultSet checkRepair = esql.executeQuery("SELECT * FROM Repair WHERE rID = ? AND hotelID = ? AND roomNo = ?", false, Integer.parseInt(repID), Integer.parseInt(hID), Integer.parseInt(roomNum));
 			if (checkRepair.next()) {
-				ResultSet c = esql.executeQuery("SELECT MAX(reqID) AS max_id FROM Request", false);
-                		int rID = -1;
-                		if (c.next()) {
-                        		rID = c.getInt("max_id") + 1;
-                		}
 				System.out.print("\tEnter Today's Date in YYYY-MM-DD Format: ");
 				String date = in.readLine();
 				System.out.print("\tEnter a Description of the Repair Request: ");
 				String desc = in.readLine();
-				String query = "INSERT INTO Request (reqID, managerID, repairID, requestDate, description) VALUES (" + rID + ", " + ssn + ", " + repID + ", DATE \'" + date + "\', \'" + desc +"\')";
-				esql.executeQuery(query, false);
+				int rID = esql.nextId(IdAllocator.Table.REQUEST);
+				String query = "INSERT INTO Request (reqID, managerID, repairID, requestDate, description) VALUES (?, ?, ?, ?, ?)";
+				esql.executeUpdate(query, rID, Integer.parseInt(ssn), Integer.parseInt(repID), java.sql.Date.valueOf(date), desc);
 				System.out.print("\tSuccessfully Made a Repair Request!\n");
 			} else {
-				System.out.print("\tNot a Valid Repair, Hotel, Room Number Combination!\n");
+				fail("\tNot a Valid Repair, Hotel, Room Number Combination!\n");
 			}
 		} else {
-			System.out.print("\tNot a valid user!\n");
+			fail("\tNot a valid user!\n");
 		}
 	} catch (Exception e) {
-		System.err.println(e.getMessage());
+		fail(e);
 	}
    }//end repairRequest
    
@@ -525,12 +1506,19 @@ public class DBProject {
 	System.out.print("\tEnter the date you are checking for in YYYY-MM-DD Format: ");
 	String date = in.readLine();
  	System.out.println("\tChecking available rooms.\n");
-	esql.executeQuery("SELECT COUNT(*) FROM room WHERE hotelid = " + hotelID 
+	if (esql.useIndexes()) {
+		ResultRenderer out = esql.openRenderer("numberOfAvailableRooms");
+		out.columns("count");
+		out.row(esql.getOccupancy().availableRooms(esql, hotelID, LocalDate.parse(date)));
+		out.finish();
+		return;
+	}
+	esql.printQuery("numberOfAvailableRooms", "SELECT COUNT(*) FROM room WHERE hotelid = ?"
                            + " AND (hotelid, roomno) NOT IN "
                            + "(SELECT hotelid, roomno FROM booking " 
-                           + "WHERE bookingdate = '" + date + "');", true);  
+                           + "WHERE bookingdate = ?)", hotelID, java.sql.Date.valueOf(date));  
 	}catch (Exception e) {
-		System.err.println (e.getMessage());
+		fail(e);
     }//end try
    }//end numberOfAvailableRooms
    
@@ -543,11 +1531,18 @@ public class DBProject {
 		System.out.print("Enter the date you are checking for in YYYY-MM-DD Format: ");
 		String date = in.readLine();
 		System.out.println("Checking today's booked rooms.");
-		esql.executeQuery("SELECT COUNT(*) FROM booking " 
-				+ "WHERE hotelid = " + hotelID 
-				+ " AND bookingdate = '" + date + "';", true);  
+		if (esql.useIndexes()) {
+			ResultRenderer out = esql.openRenderer("numberOfBookedRooms");
+			out.columns("count");
+			out.row(esql.getOccupancy().bookedRooms(esql, hotelID, LocalDate.parse(date)));
+			out.finish();
+			return;
+		}
+		esql.printQuery("numberOfBookedRooms", "SELECT COUNT(*) FROM booking " 
+				+ "WHERE hotelid = ?"
+				+ " AND bookingdate = ?", hotelID, java.sql.Date.valueOf(date));  
 	}catch (Exception e) {
-		System.err.println (e.getMessage());
+		fail(e);
 	}//end try
    }//end numberOfBookedRooms
    
@@ -570,14 +1565,24 @@ public class DBProject {
 		startDate = LocalDate.of(year,month,day);
 		endDate = startDate.plusDays(7);
 
-		esql.executeQuery("SELECT r.* FROM room r WHERE r.hotelid = " + hotelID 
+		if (esql.useIndexes()) {
+			List<Object[]> rows = new ArrayList<Object[]>();
+			for (OccupancyIndex.Room r : esql.getOccupancy().freeRooms(esql, hotelID, startDate, endDate)) {
+				rows.add(new Object[] {r.hotelID, r.roomNo, r.roomType});
+			}
+			esql.printRows("listHotelRoomBookingsForAWeek", new String[] {"hotelid", "roomno", "roomtype"}, rows);
+			return;
+		}
+		// pages seek on the Room primary key (hotelID, roomNo)
+		esql.printPages("listHotelRoomBookingsForAWeek", "SELECT r.* FROM room r WHERE r.hotelid = ?"
                         	+ " AND (r.hotelid, r.roomno) NOT IN "
                         	+ "(SELECT b.hotelid, b.roomno FROM booking b " 
-                        	+ "WHERE b.bookingdate BETWEEN '" + startDate.toString() 
-                        	+ "' AND '" + endDate.toString() + "');", true);  
+                        	+ "WHERE b.bookingdate BETWEEN ? AND ?)%s ORDER BY r.hotelid, r.roomno",
+                        	" AND (r.hotelid, r.roomno) > (?, ?)", new int[] {1, 2}, -1,
+                        	hotelID, java.sql.Date.valueOf(startDate), java.sql.Date.valueOf(endDate));  
 
 	}catch (Exception e) {
-		System.err.println (e.getMessage());
+		fail(e);
 	}//end try
    }//end listHotelRoomBookingsForAWeek
    
@@ -601,16 +1606,35 @@ public class DBProject {
       startDate = LocalDate.of(Integer.parseInt(tokens1[2]), Integer.parseInt(tokens1[0]) , Integer.parseInt(tokens1[1]));
       endDate = LocalDate.of(Integer.parseInt(tokens2[2]), Integer.parseInt(tokens2[0]) , Integer.parseInt(tokens2[1]));
 
-		esql.executeQuery("SELECT * FROM booking WHERE bookingdate BETWEEN '" + startDate.toString() 
-                        	  + "' AND '" + endDate.toString() + "' ORDER BY price DESC LIMIT " + k + ";", true);  
+		List<PriceIndex.Entry> top = null;
+		if (esql.useIndexes() && esql.getPrices().isWarm()) {
+			top = esql.getPrices().topK(startDate, endDate, k);
+		} else if (esql.useAnalytics()) {
+			top = esql.getAnalytics().topK(startDate, endDate, k);
+		}
+		if (top != null) {
+			List<Object[]> rows = new ArrayList<Object[]>();
+			for (PriceIndex.Entry b : top) {
+				rows.add(new Object[] {b.bID, b.customer, b.hotelID, b.roomNo, b.bookingDate(), b.noOfPeople, b.price()});
+			}
+			esql.printRows("topKHighestRoomPriceForADateRange",
+			               new String[] {"bid", "customer", "hotelid", "roomno", "bookingdate", "noofpeople", "price"}, rows);
+			return;
+		}
+		// pages seek on (price, bID), bID breaking the ties between equal prices
+		esql.printPages("topKHighestRoomPriceForADateRange", "SELECT * FROM booking WHERE bookingdate BETWEEN ? AND ?"
+                        	  + "%s ORDER BY price DESC, bID DESC",
+                        	  " AND (price, bID) < (?, ?)", new int[] {7, 1}, k,
+                        	  java.sql.Date.valueOf(startDate), java.sql.Date.valueOf(endDate));  
 
  	} catch (Exception e) {
-		System.err.println (e.getMessage());
+		fail(e);
 	}//end try
    }//end topKHighestRoomPriceForADateRange
    
    public static void topKHighestPriceBookingsForACustomer(DBProject esql){
 	  // Given a customer Name, List Top K highest booking price for a customer 
+	  // (the bookings left in the table; archived ones are not ranked)
 	int k;
 	String customerName;
 
@@ -621,12 +1645,45 @@ public class DBProject {
 		String fullName = in.readLine();
 		String[] names = fullName.split(" ");
 
-		esql.executeQuery("SELECT b.price FROM booking b, customer c WHERE c.fName = '" + names[0] 
-                        	+ "' AND c.lName = '" + names[1] 
-                        	+ "' AND b.customer = c.customerID ORDER BY b.price DESC LIMIT " + k + ";", true);  
+		if (esql.useIndexes() && esql.getPrices().isWarm()) {
+			List<Integer> customers = esql.findCustomers(names[0], names[1]);
+			ResultRenderer out = esql.openRenderer("topKHighestPriceBookingsForACustomer");
+			out.columns("price");
+			for (PriceIndex.Entry b : esql.getPrices().topKForCustomers(customers, k)) {
+				out.row(b.price());
+			}
+			out.finish();
+			return;
+		}
+		if (esql.useAnalytics()) {
+			ResultRenderer out = esql.openRenderer("topKHighestPriceBookingsForACustomer");
+			out.columns("price");
+			for (PriceIndex.Entry b : esql.getAnalytics().topKForCustomers(esql.findCustomers(names[0], names[1]), k)) {
+				out.row(b.price());
+			}
+			out.finish();
+			return;
+		}
+		int[] customerIDs = knownCustomers(esql, names[0], names[1]);
+		if (customerIDs != null) {
+			// the directory knows the name: no scan of the customer names
+			List<Object> params = new ArrayList<Object>();
+			for (int id : customerIDs) {
+				params.add(id);
+			}
+			params.add(k);
+			esql.printQuery("topKHighestPriceBookingsForACustomer", "SELECT b.price FROM booking b"
+                        	+ " WHERE b.customer" + oneOf(customerIDs.length) + " ORDER BY b.price DESC, b.bID DESC LIMIT ?",
+                        	params.toArray());
+			return;
+		}
+		esql.printQuery("topKHighestPriceBookingsForACustomer", "SELECT b.price FROM booking b, customer c WHERE c.fName = ?"
+                        	+ " AND c.lName = ?"
+                        	+ " AND b.customer = c.customerID ORDER BY b.price DESC, b.bID DESC LIMIT ?",
+                        	names[0], names[1], k);  
 
 	} catch (Exception e) {
-		System.err.println (e.getMessage());
+		fail(e);
 	}//end try
    }//end topKHighestPriceBookingsForACustomer
    
@@ -647,42 +1704,131 @@ public class DBProject {
 		LocalDate startDate = LocalDate.of(Integer.parseInt(tokens1[2]), Integer.parseInt(tokens1[0]) , Integer.parseInt(tokens1[1]));
 		LocalDate endDate = LocalDate.of(Integer.parseInt(tokens2[2]), Integer.parseInt(tokens2[0]) , Integer.parseInt(tokens2[1]));
 
-		esql.executeQuery("SELECT b.price FROM booking b, customer c WHERE b.hotelid = " + hotelID 
-                        	+ " AND c.fName = '" + names[0] + "' AND c.lName = '" + names[1] 
-                        	+ "' AND b.customer = c.customerID "
-                        	+ "AND b.bookingdate BETWEEN DATE '" + startDate.toString() 
-                        	+ "' AND DATE '" + endDate.toString() + "';", true);  
+		// the archived bookings of the range follow those still in Booking
+		List<Object[]> archived = new ArrayList<Object[]>();
+		if (esql.getArchive().hasBookings(startDate, endDate)) {
+			for (long cents : esql.getArchive().pricesForCustomers(hotelID, esql.findCustomers(names[0], names[1]), startDate, endDate)) {
+				archived.add(new Object[] {BigDecimal.valueOf(cents, 2)});
+			}
+		}
+		if (esql.useAnalytics()) {
+			ResultRenderer out = esql.openRenderer("totalCostForCustomer");
+			out.columns("price");
+			for (long cents : esql.getAnalytics().pricesForCustomers(hotelID, esql.findCustomers(names[0], names[1]), startDate, endDate)) {
+				out.row(BigDecimal.valueOf(cents, 2));
+			}
+			for (Object[] row : archived) {
+				out.row(row);
+			}
+			out.finish();
+			return;
+		}
+		int[] customerIDs = knownCustomers(esql, names[0], names[1]);
+		if (customerIDs != null) {
+			// the directory knows the name: no scan of the customer names
+			List<Object> params = new ArrayList<Object>();
+			params.add(hotelID);
+			for (int id : customerIDs) {
+				params.add(id);
+			}
+			params.add(java.sql.Date.valueOf(startDate));
+			params.add(java.sql.Date.valueOf(endDate));
+			esql.printMerged("totalCostForCustomer", new String[] {"price"}, archived,
+                        	"SELECT b.price FROM booking b WHERE b.hotelid = ?"
+                        	+ " AND b.customer" + oneOf(customerIDs.length)
+                        	+ " AND b.bookingdate BETWEEN ? AND ?",
+                        	params.toArray());
+			return;
+		}
+		esql.printMerged("totalCostForCustomer", new String[] {"price"}, archived,
+                        	"SELECT b.price FROM booking b, customer c WHERE b.hotelid = ?"
+                        	+ " AND c.fName = ? AND c.lName = ?"
+                        	+ " AND b.customer = c.customerID "
+                        	+ "AND b.bookingdate BETWEEN ? AND ?",
+                        	hotelID, names[0], names[1], java.sql.Date.valueOf(startDate), java.sql.Date.valueOf(endDate));  
 
 	}catch (Exception e) {
-		System.err.println (e.getMessage());
+		fail(e);
 	}//end try
    }//end totalCostForCustomer
    
+   // the most customers sharing a name that are bound one by one; more are found through the join
+   static final int MAX_KNOWN_CUSTOMERS = 8;
+
+   // the ids of the customers with a name, or null when the directory cannot tell or they are too many
+   private static int[] knownCustomers(DBProject esql, String fName, String lName) {
+	if (!esql.useIndexes() || !esql.getCustomers().isWarm()) {
+		return null;
+	}
+	int[] ids = esql.getCustomers().lookup(fName, lName);
+	return ids.length == 0 || ids.length > MAX_KNOWN_CUSTOMERS ? null : ids;
+   }//end knownCustomers
+
+   // " = ?" for one value, " IN (?, ?, ...)" for several: one cached template per count
+   private static String oneOf(int count) {
+	if (count == 1) {
+		return " = ?";
+	}
+	StringBuilder in = new StringBuilder(" IN (?");
+	for (int i = 1; i < count; ++i) {
+		in.append(", ?");
+	}
+	return in.append(")").toString();
+   }//end oneOf
+
    public static void listRepairsMade(DBProject esql){
 	  // Given a Maintenance company name list all the repairs along with repairType, hotelID and roomNo
+	  // (the repairs left in the table; archived ones are not listed)
 	try {
 	System.out.print("Enter maintenance company name: ");
 	String companyName = in.readLine();
-	esql.executeQuery("SELECT rep.repairType, rep.hotelID, rep.roomNo FROM repair rep, MaintenanceCompany mc" 
-                        	+ " WHERE mc.name = '" + companyName 
-                        	+ "' AND mc.cmpID = rep.mCompany;", true);  
+	if (esql.useAnalytics()) {
+		esql.printRows("listRepairsMade", new String[] {"repairtype", "hotelid", "roomno"},
+		               esql.getAnalytics().repairsByCompany(companyName));
+		return;
+	}
+	// pages seek on rID through repairCompanyIndex (mCompany, rID)
+	esql.printPages("listRepairsMade", "SELECT rep.rID, rep.repairType, rep.hotelID, rep.roomNo FROM repair rep, MaintenanceCompany mc" 
+                        	+ " WHERE mc.name = ?"
+                        	+ " AND mc.cmpID = rep.mCompany%s ORDER BY rep.rID",
+                        	" AND rep.rID > ?", new int[] {1}, -1, companyName);  
 	}catch (Exception e) {
-		System.err.println (e.getMessage());
+		fail(e);
 	}//end try
    }//end listRepairsMade
    
    public static void topKMaintenanceCompany(DBProject esql){
 	  // List Top K Maintenance Company Names based on total repair count (descending order)
+	  // (the repairs left in the table; archived ones are not counted)
 	try {
 		System.out.print("Enter k: ");
 		int k = Integer.parseInt(in.readLine());
 
-		esql.executeQuery("SELECT mc.name, COUNT(rep.rid) as num_of_repairs FROM repair rep, MaintenanceCompany mc"
-                        	+ " WHERE mc.cmpID = rep.mCompany"
+		if (esql.useIndexes() && esql.getRepairs().isWarm()) {
+			ResultRenderer out = esql.openRenderer("topKMaintenanceCompany");
+			out.columns("name", "num_of_repairs");
+			for (RepairAggregates.CompanyCount c : esql.getRepairs().topCompanies(k)) {
+				out.row(c.name, c.count);
+			}
+			out.finish();
+			return;
+		}
+		if (esql.useAnalytics()) {
+			ResultRenderer out = esql.openRenderer("topKMaintenanceCompany");
+			out.columns("name", "num_of_repairs");
+			for (RepairAggregates.CompanyCount c : esql.getAnalytics().topCompanies(k)) {
+				out.row(c.name, c.count);
+			}
+			out.finish();
+			return;
+		}
+		// the summary table holds one row per company instead of one per repair
+		esql.printQuery("topKMaintenanceCompany", "SELECT mc.name, SUM(rc.repairCount) as num_of_repairs FROM RepairCountByCompany rc, MaintenanceCompany mc"
+                        	+ " WHERE mc.cmpID = rc.mCompany AND rc.repairCount > 0"
                         	+ " GROUP BY mc.name"
-                        	+ " ORDER BY num_of_repairs DESC LIMIT " + k + ";", true); 
+                        	+ " ORDER BY num_of_repairs DESC LIMIT ?", k); 
 	} catch (Exception e) {
-		System.err.println (e.getMessage());
+		fail(e);
 	}//end try
    }//end topKMaintenanceCompany
    
@@ -694,13 +1840,113 @@ public class DBProject {
 	System.out.print("Enter roomNo: ");
 	int roomNo = Integer.parseInt(in.readLine());
 
-	esql.executeQuery("SELECT hotelID, roomNo, EXTRACT(YEAR FROM repairDate) AS year, COUNT(rID) as num_of_repairs"
-                        	+ " FROM repair"
-                        	+ " WHERE hotelID = " + hotelID + " AND roomNo = " + roomNo
-                        	+ " GROUP BY hotelID, roomNo, year;", true);  
+	TreeMap<Integer, Long> years = null;
+	if (esql.useIndexes() && esql.getRepairs().isWarm()) {
+		years = esql.getRepairs().repairsPerYear(hotelID, roomNo);
+	} else if (esql.useAnalytics()) {
+		years = esql.getAnalytics().repairsPerYear(hotelID, roomNo);
+	}
+	// the summary table only counts the repairs still in Repair; the archive adds the others
+	TreeMap<Integer, Long> archived = esql.getArchive().repairsPerYear(hotelID, roomNo);
+	if (years == null && !archived.isEmpty()) {
+		final TreeMap<Integer, Long> live = new TreeMap<Integer, Long>();
+		esql.streamQuery("SELECT repairYear, repairCount FROM RepairCountByRoomYear"
+		                 + " WHERE hotelID = ? AND roomNo = ? AND repairCount > 0", rs -> {
+			live.put(rs.getInt(1), rs.getLong(2));
+		}, hotelID, roomNo);
+		years = live;
+	}
+	if (years != null) {
+		for (Map.Entry<Integer, Long> y : archived.entrySet()) {
+			years.merge(y.getKey(), y.getValue(), Long::sum);
+		}
+		ResultRenderer out = esql.openRenderer("numberOfRepairsForEachRoomPerYear");
+		out.columns("hotelid", "roomno", "year", "num_of_repairs");
+		for (Map.Entry<Integer, Long> y : years.entrySet()) {
+			out.row(hotelID, roomNo, y.getKey(), y.getValue());
+		}
+		out.finish();
+		return;
+	}
+	esql.printQuery("numberOfRepairsForEachRoomPerYear", "SELECT hotelID, roomNo, repairYear AS year, repairCount as num_of_repairs"
+                        	+ " FROM RepairCountByRoomYear"
+                        	+ " WHERE hotelID = ? AND roomNo = ? AND repairCount > 0"
+                        	+ " ORDER BY repairYear", hotelID, roomNo);  
 	}catch (Exception e) {
-		System.err.println (e.getMessage());
+		fail(e);
 	}//end try
    }//end listRepairsMade
 
+   public static void revenuePerHotelPerMonth(DBProject esql){
+	  // Given a year, get the number of bookings and the revenue of every hotel in every month
+	try {
+		System.out.print("Enter year: ");
+		int year = Integer.parseInt(in.readLine().trim());
+		if (esql.useAnalytics()) {
+			ResultRenderer out = esql.openRenderer("revenuePerHotelPerMonth");
+			out.columns("hotelid", "month", "bookings", "revenue");
+			for (AnalyticsSnapshot.Revenue r : esql.getAnalytics().revenuePerHotelMonth(year)) {
+				out.row(r.hotelID, r.month, r.bookings, new BigDecimal(r.revenue()));
+			}
+			out.finish();
+			return;
+		}
+		esql.printQuery("revenuePerHotelPerMonth", "SELECT hotelID, EXTRACT(MONTH FROM bookingDate) AS month,"
+                        	+ " COUNT(*) AS bookings, SUM(price) AS revenue FROM Booking"
+                        	+ " WHERE bookingDate BETWEEN ? AND ?"
+                        	+ " GROUP BY hotelID, month ORDER BY hotelID, month",
+                        	java.sql.Date.valueOf(LocalDate.of(year, 1, 1)), java.sql.Date.valueOf(LocalDate.of(year, 12, 31)));
+	}catch (Exception e) {
+		fail(e);
+	}//end try
+   }//end revenuePerHotelPerMonth
+
+   public static void occupancyRatePerHotel(DBProject esql){
+	  // Given a date range, get the share of the room-nights of every hotel that were booked
+	try {
+		System.out.print("Enter start date (mm-dd-yyyy): ");
+		String date1 = in.readLine();
+		System.out.print("Enter end date (mm-dd-yyyy): ");
+		String date2 = in.readLine();
+		String[] tokens1 = date1.split("-");
+		String[] tokens2 = date2.split("-");
+		LocalDate startDate = LocalDate.of(Integer.parseInt(tokens1[2]), Integer.parseInt(tokens1[0]) , Integer.parseInt(tokens1[1]));
+		LocalDate endDate = LocalDate.of(Integer.parseInt(tokens2[2]), Integer.parseInt(tokens2[0]) , Integer.parseInt(tokens2[1]));
+		int days = (int) (endDate.toEpochDay() - startDate.toEpochDay() + 1);
+		if (esql.useAnalytics()) {
+			ResultRenderer out = esql.openRenderer("occupancyRatePerHotel");
+			out.columns("hotelid", "rooms", "booked", "occupancy");
+			for (AnalyticsSnapshot.Occupancy o : esql.getAnalytics().occupancy(startDate, endDate)) {
+				out.row(o.hotelID, o.rooms, o.booked, BigDecimal.valueOf(o.rate).setScale(2, java.math.RoundingMode.HALF_UP));
+			}
+			out.finish();
+			return;
+		}
+		esql.printQuery("occupancyRatePerHotel", "SELECT r.hotelID, r.rooms, COALESCE(b.booked, 0) AS booked,"
+                        	+ " ROUND(100.0 * COALESCE(b.booked, 0) / (r.rooms * ?), 2) AS occupancy"
+                        	+ " FROM (SELECT hotelID, COUNT(*) AS rooms FROM Room GROUP BY hotelID) r"
+                        	+ " LEFT JOIN (SELECT hotelID, COUNT(*) AS booked FROM Booking"
+                        	+ " WHERE bookingDate BETWEEN ? AND ? GROUP BY hotelID) b ON b.hotelID = r.hotelID"
+                        	+ " ORDER BY r.hotelID",
+                        	Math.max(days, 1), java.sql.Date.valueOf(startDate), java.sql.Date.valueOf(endDate));
+	}catch (Exception e) {
+		fail(e);
+	}//end try
+   }//end occupancyRatePerHotel
+
+   public static void search(DBProject esql){
+	  // Find repairs and requests by keyword, and customers, companies and addresses by partial or misspelled text
+	try {
+		System.out.print("Enter search text: ");
+		String text = in.readLine().trim();
+		System.out.print("Enter the most results of each kind [10]: ");
+		String limit = in.readLine().trim();
+		// search_all() of sql/create.sql ranks full-text and trigram index matches
+		esql.printQuery("search", "SELECT kind, id, label, detail, rank FROM search_all(?, ?)",
+		                text, limit.isEmpty() ? 10 : Integer.parseInt(limit));
+	}catch (Exception e) {
+		fail(e);
+	}//end try
+   }//end search
+
 }//end DBProject
@@ -0,0 +1,603 @@
+/*
+ * Synthetic data generator
+ * ========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class writes a synthetic data set in the format of data/*.csv, so it
+ * can be loaded by create.sql or BulkLoader, at any size.  At scale factor
+ * s it writes 1000s hotels with 10 rooms and 5 staff each (one Manager, two
+ * Receptionists, two HouseCleaning staff, each cleaner assigned one room),
+ * 2000s customers, 20s maintenance companies, 4000s bookings and 2000s
+ * repairs with one request each, like the shipped data at s = 1; every
+ * count can also be set on its own.
+ *
+ * Every foreign key of sql/create.sql holds, including the default row 0
+ * of each table.  Hotel.manager is written as \N and set from the hotel's
+ * Manager once Staff is loaded, the way create.sql and BulkLoader break the
+ * Hotel/Staff cycle.  A room is never booked twice for the same date.
+ *
+ * Bookings and repairs are spread over hotels with a Zipf skew (hotel-skew,
+ * 0 for uniform) and bookings over dates with a seasonal skew peaking in
+ * summer and at the end of the year and on weekends (date-skew, 0 for
+ * uniform).  The per-hotel counts are fixed before generation, so ids are
+ * prefix sums and every chunk of hotels or customers is generated from its
+ * own seed: the output only depends on the options, never on the number
+ * of threads.  Chunks are generated in parallel and written in order.
+ *
+ * Usage: java DataGenerator <outDir> [--scale N] [--hotels N] [--rooms N]
+ *                           [--customers N] [--companies N] [--bookings N]
+ *                           [--repairs N] [--from yyyy-mm-dd] [--to yyyy-mm-dd]
+ *                           [--hotel-skew S] [--date-skew S] [--seed N]
+ *                           [--threads N]
+ */
+public class DataGenerator {
+
+   static final int STAFF_PER_HOTEL = 5;
+   static final int CLEANERS_PER_HOTEL = 2;
+   static final int HOTELS_PER_CHUNK = 512;
+   static final int CUSTOMERS_PER_CHUNK = 16384;
+
+   static final String[] ROOM_TYPES = {"Economy", "Suite", "Deluxe"};
+   static final int[] ROOM_TYPE_SHARE = {50, 80, 100};   // cumulative percent
+   static final int[][] ROOM_TYPE_PRICE = {{50, 600}, {400, 1400}, {900, 1999}};
+   static final String[] REPAIR_TYPES = {"Small", "Medium", "Large"};
+   static final String[] GENDERS = {"Male", "Female", "Other"};
+
+   /**
+    * Writes the rows of one chunk.
+    */
+   interface Chunk {
+      void write (int chunk, StringBuilder out);
+   }//end Chunk
+
+   private final File _outDir;
+   private final long _seed;
+   private final int _threads;
+   private final int _hotels;
+   private final int _rooms;
+   private final int _customers;
+   private final int _companies;
+   private final long _bookings;
+   private final long _repairs;
+   private final LocalDate _from;
+   private final int _days;
+   private final double _hotelSkew;
+   private final double _dateSkew;
+
+   // per hotel counts and the id before each hotel's first row, by hotel - 1
+   private int[] _bookingsPerHotel;
+   private long[] _bookingBase;
+   private int[] _repairsPerHotel;
+   private long[] _repairBase;
+   private double[] _dateWeights;   // cumulative, by day since _from
+
+   /**
+    * Creates a new generator
+    *
+    * @param outDir the directory the csv files are written to
+    * @param seed the seed every generated value derives from
+    * @param threads the number of chunks generated at the same time
+    * @param hotels the number of hotels
+    * @param rooms the number of rooms per hotel
+    * @param customers the number of customers
+    * @param companies the number of maintenance companies
+    * @param bookings the number of bookings
+    * @param repairs the number of repairs, and of requests
+    * @param from the first booking and repair date
+    * @param to the last booking and repair date
+    * @param hotelSkew the Zipf exponent of bookings and repairs per hotel
+    * @param dateSkew the strength of the seasonal skew of bookings per date
+    */
+   public DataGenerator (File outDir, long seed, int threads, int hotels, int rooms, int customers,
+                         int companies, long bookings, long repairs, LocalDate from, LocalDate to,
+                         double hotelSkew, double dateSkew) {
+      this._outDir = outDir;
+      this._seed = seed;
+      this._threads = threads;
+      this._hotels = hotels;
+      this._rooms = rooms;
+      this._customers = customers;
+      this._companies = companies;
+      this._bookings = bookings;
+      this._repairs = repairs;
+      this._from = from;
+      this._days = (int) (to.toEpochDay() - from.toEpochDay()) + 1;
+      this._hotelSkew = hotelSkew;
+      this._dateSkew = dateSkew;
+   }//end DataGenerator
+
+   /**
+    * Writes every csv file.
+    *
+    * @throws java.io.IOException when a file cannot be written
+    * @throws java.lang.InterruptedException when interrupted while waiting
+    */
+   public void generate () throws IOException, InterruptedException {
+      long capacity = (long) this._hotels * this._rooms * this._days;
+      if (this._bookings > capacity) {
+         throw new IllegalArgumentException(this._bookings + " bookings do not fit in " + this._hotels
+                                            + " hotels with " + this._rooms + " rooms over " + this._days + " days");
+      }//end if
+      double[] hotelWeights = hotelWeights();
+      this._bookingsPerHotel = allocate(this._bookings, hotelWeights, (long) this._rooms * this._days);
+      this._bookingBase = prefixSums(this._bookingsPerHotel);
+      this._repairsPerHotel = allocate(this._repairs, hotelWeights, Long.MAX_VALUE);
+      this._repairBase = prefixSums(this._repairsPerHotel);
+      this._dateWeights = dateWeights();
+      this._outDir.mkdirs();
+
+      ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+      try {
+         int hotelChunks = (this._hotels + HOTELS_PER_CHUNK - 1) / HOTELS_PER_CHUNK;
+         int customerChunks = (this._customers + CUSTOMERS_PER_CHUNK - 1) / CUSTOMERS_PER_CHUNK;
+         write(workers, "hotel.csv", hotelChunks, this::hotels);
+         write(workers, "staff.csv", hotelChunks, this::staff);
+         write(workers, "room.csv", hotelChunks, this::rooms);
+         write(workers, "customer.csv", customerChunks, this::customers);
+         write(workers, "maintenanceCompany.csv", 1, this::companies);
+         write(workers, "booking.csv", hotelChunks, this::bookings);
+         write(workers, "repair.csv", hotelChunks, this::repairs);
+         write(workers, "request.csv", hotelChunks, this::requests);
+         write(workers, "assigned.csv", hotelChunks, this::assigned);
+      } finally {
+         workers.shutdown();
+      }//end try
+   }//end generate
+
+   // generates chunks in parallel, at most a few per thread ahead of the writer
+   private void write (ExecutorService workers, String file, int chunks, final Chunk chunk)
+         throws IOException, InterruptedException {
+      long start = System.nanoTime();
+      long bytes = 0;
+      Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(this._outDir, file)), 1 << 20)) {
+         int next = 0;
+         while (next < chunks || !pending.isEmpty()) {
+            while (next < chunks && pending.size() < this._threads * 4) {
+               final int c = next++;
+               pending.add(workers.submit(() -> {
+                  StringBuilder sb = new StringBuilder(1 << 16);
+                  chunk.write(c, sb);
+                  return sb.toString().getBytes(StandardCharsets.UTF_8);
+               }));
+            }//end while
+            try {
+               byte[] data = pending.removeFirst().get();
+               out.write(data);
+               bytes += data.length;
+            }catch (ExecutionException e) {
+               throw new IOException(file + ": " + e.getCause(), e.getCause());
+            }//end try
+         }//end while
+      }//end try
+      System.out.println(String.format("%-24s %12d bytes %10.2f s", file, bytes, (System.nanoTime() - start) / 1e9));
+   }//end write
+
+   // an independent random stream for one chunk of one file
+   private SplittableRandom random (int table, int chunk) {
+      return new SplittableRandom(this._seed * 0x9E3779B97F4A7C15L + table * 0x632BE59BD9B4E019L + chunk);
+   }//end random
+
+   private int firstHotel (int chunk) {
+      return chunk * HOTELS_PER_CHUNK + 1;
+   }//end firstHotel
+
+   private int lastHotel (int chunk) {
+      return Math.min(this._hotels, (chunk + 1) * HOTELS_PER_CHUNK);
+   }//end lastHotel
+
+   // SSN of the k'th staff member of a hotel; the first one is its Manager
+   private static long ssn (int hotelID, int k) {
+      return (long) (hotelID - 1) * STAFF_PER_HOTEL + k + 1;
+   }//end ssn
+
+   private void hotels (int chunk, StringBuilder out) {
+      SplittableRandom r = random(1, chunk);
+      if (chunk == 0) {
+         out.append("0,default,\\N\n");
+      }//end if
+      for (int h = firstHotel(chunk); h <= lastHotel(chunk); ++h) {
+         out.append(h).append(',');
+         word(r, out, 6).append(",\\N\n");
+      }//end for
+   }//end hotels
+
+   private void staff (int chunk, StringBuilder out) {
+      SplittableRandom r = random(2, chunk);
+      if (chunk == 0) {
+         out.append("0,default,default,default,Manager,0\n");
+      }//end if
+      for (int h = firstHotel(chunk); h <= lastHotel(chunk); ++h) {
+         for (int k = 0; k < STAFF_PER_HOTEL; ++k) {
+            String role = k == 0 ? "Manager" : k <= STAFF_PER_HOTEL - CLEANERS_PER_HOTEL - 1 ? "Receptionist" : "HouseCleaning";
+            out.append(ssn(h, k)).append(',');
+            word(r, out, 4).append(',');
+            word(r, out, 4).append(',');
+            word(r, out, 6).append(',').append(role).append(',').append(h).append('\n');
+         }//end for
+      }//end for
+   }//end staff
+
+   // the type of a room, derived from the room itself so bookings can price it
+   private int roomType (int hotelID, int roomNo) {
+      long x = mix(this._seed ^ ((long) hotelID << 20) ^ roomNo);
+      int percent = (int) ((x >>> 1) % 100);
+      int t = 0;
+      while (percent >= ROOM_TYPE_SHARE[t]) {
+         ++t;
+      }//end while
+      return t;
+   }//end roomType
+
+   private void rooms (int chunk, StringBuilder out) {
+      if (chunk == 0) {
+         out.append("0,0,default\n");
+      }//end if
+      for (int h = firstHotel(chunk); h <= lastHotel(chunk); ++h) {
+         for (int room = 1; room <= this._rooms; ++room) {
+            out.append(h).append(',').append(room).append(',').append(ROOM_TYPES[roomType(h, room)]).append('\n');
+         }//end for
+      }//end for
+   }//end rooms
+
+   private void customers (int chunk, StringBuilder out) {
+      SplittableRandom r = random(3, chunk);
+      int first = chunk * CUSTOMERS_PER_CHUNK + 1;
+      int last = Math.min(this._customers, (chunk + 1) * CUSTOMERS_PER_CHUNK);
+      if (chunk == 0) {
+         out.append("0,default,default,default,0,1/1/2000,Male\n");
+      }//end if
+      long dobFrom = LocalDate.of(1940, 1, 1).toEpochDay();
+      long dobTo = LocalDate.of(2000, 12, 31).toEpochDay();
+      for (int c = first; c <= last; ++c) {
+         out.append(c).append(',');
+         word(r, out, 4).append(',');
+         word(r, out, 4).append(',');
+         word(r, out, 6).append(',').append(r.nextLong(1000000000L, 10000000000L)).append(',');
+         date(out, LocalDate.ofEpochDay(r.nextLong(dobFrom, dobTo + 1))).append(',');
+         out.append(GENDERS[r.nextInt(GENDERS.length)]).append('\n');
+      }//end for
+   }//end customers
+
+   private void companies (int chunk, StringBuilder out) {
+      SplittableRandom r = random(4, chunk);
+      out.append("0,default,default,TRUE\n");
+      for (int c = 1; c <= this._companies; ++c) {
+         out.append(c).append(',');
+         word(r, out, 4).append(',');
+         word(r, out, 6).append(",TRUE\n");
+      }//end for
+   }//end companies
+
+   private void bookings (int chunk, StringBuilder out) {
+      SplittableRandom r = random(5, chunk);
+      if (chunk == 0) {
+         out.append("0,0,0,0,1/1/2000,0,0\n");
+      }//end if
+      int slots = this._rooms * this._days;
+      long[] taken = new long[(slots + 63) >>> 6];
+      for (int h = firstHotel(chunk); h <= lastHotel(chunk); ++h) {
+         int count = this._bookingsPerHotel[h - 1];
+         long bID = this._bookingBase[h - 1];
+         Arrays.fill(taken, 0L);
+         for (int i = 0; i < count; ++i) {
+            int day = sampleDay(r);
+            int room = r.nextInt(this._rooms);
+            // on a taken slot use the next free one; count never exceeds slots
+            int slot = nextFree(taken, slots, day * this._rooms + room);
+            taken[slot >>> 6] |= 1L << slot;
+            day = slot / this._rooms;
+            room = slot % this._rooms + 1;
+            int[] price = ROOM_TYPE_PRICE[roomType(h, room)];
+            out.append(++bID).append(',').append(1 + r.nextInt(this._customers)).append(',')
+               .append(h).append(',').append(room).append(',');
+            date(out, this._from.plusDays(day)).append(',').append(1 + r.nextInt(4)).append(',')
+               .append(price[0] + r.nextInt(price[1] - price[0] + 1)).append('\n');
+         }//end for
+      }//end for
+   }//end bookings
+
+   // the date of a repair, derived from its id so its request can follow it
+   private int repairDay (long rID) {
+      return (int) ((mix(this._seed * 31 + rID) >>> 1) % this._days);
+   }//end repairDay
+
+   // the first clear bit at or after slot, wrapping around, scanning a word at a time
+   private static int nextFree (long[] taken, int slots, int slot) {
+      int w = slot >>> 6;
+      long free = ~taken[w] & (-1L << slot);
+      while (true) {
+         if (free != 0) {
+            int found = (w << 6) + Long.numberOfTrailingZeros(free);
+            if (found < slots) {
+               return found;
+            }//end if
+         }//end if
+         w = w + 1 == taken.length ? 0 : w + 1;
+         free = ~taken[w];
+      }//end while
+   }//end nextFree
+
+   private void repairs (int chunk, StringBuilder out) {
+      SplittableRandom r = random(6, chunk);
+      if (chunk == 0) {
+         out.append("0,0,0,0,1/1/2000,default,Small\n");
+      }//end if
+      for (int h = firstHotel(chunk); h <= lastHotel(chunk); ++h) {
+         long rID = this._repairBase[h - 1];
+         for (int i = 0; i < this._repairsPerHotel[h - 1]; ++i) {
+            out.append(++rID).append(',').append(h).append(',').append(1 + r.nextInt(this._rooms)).append(',')
+               .append(1 + r.nextInt(this._companies)).append(',');
+            date(out, this._from.plusDays(repairDay(rID))).append(',');
+            word(r, out, 4).append(',').append(REPAIR_TYPES[r.nextInt(REPAIR_TYPES.length)]).append('\n');
+         }//end for
+      }//end for
+   }//end repairs
+
+   // one request per repair, by the manager of the repaired hotel, sharing its id
+   private void requests (int chunk, StringBuilder out) {
+      SplittableRandom r = random(7, chunk);
+      if (chunk == 0) {
+         out.append("0,0,0,1/1/2000,default\n");
+      }//end if
+      for (int h = firstHotel(chunk); h <= lastHotel(chunk); ++h) {
+         long rID = this._repairBase[h - 1];
+         for (int i = 0; i < this._repairsPerHotel[h - 1]; ++i) {
+            ++rID;
+            out.append(rID).append(',').append(ssn(h, 0)).append(',').append(rID).append(',');
+            date(out, this._from.plusDays(Math.max(0, repairDay(rID) - r.nextInt(8)))).append(',');
+            word(r, out, 4).append('\n');
+         }//end for
+      }//end for
+   }//end requests
+
+   private void assigned (int chunk, StringBuilder out) {
+      SplittableRandom r = random(8, chunk);
+      if (chunk == 0) {
+         out.append("0,0,0,0\n");
+      }//end if
+      for (int h = firstHotel(chunk); h <= lastHotel(chunk); ++h) {
+         for (int k = 0; k < CLEANERS_PER_HOTEL; ++k) {
+            out.append((long) (h - 1) * CLEANERS_PER_HOTEL + k + 1).append(',')
+               .append(ssn(h, STAFF_PER_HOTEL - CLEANERS_PER_HOTEL + k)).append(',')
+               .append(h).append(',').append(1 + r.nextInt(this._rooms)).append('\n');
+         }//end for
+      }//end for
+   }//end assigned
+
+   // Zipf weights by hotel - 1; ranks are spread over the ids by a stride coprime to the hotel count
+   private double[] hotelWeights () {
+      double[] weights = new double[this._hotels];
+      int stride = 7919;
+      while (gcd(stride, this._hotels) != 1) {
+         stride += 2;
+      }//end while
+      for (int rank = 0; rank < this._hotels; ++rank) {
+         weights[(int) ((long) rank * stride % this._hotels)] = 1.0 / Math.pow(rank + 1, this._hotelSkew);
+      }//end for
+      return weights;
+   }//end hotelWeights
+
+   // splits total over the weights by largest remainder, moving what exceeds cap to the others
+   static int[] allocate (long total, double[] weights, long cap) {
+      int n = weights.length;
+      int[] counts = new int[n];
+      boolean[] full = new boolean[n];
+      long left = total;
+      while (left > 0) {
+         double sum = 0;
+         for (int i = 0; i < n; ++i) {
+            if (!full[i]) {
+               sum += weights[i];
+            }//end if
+         }//end for
+         if (sum == 0) {
+            throw new IllegalArgumentException("cannot place " + left + " more rows");
+         }//end if
+         long placed = 0;
+         Integer[] order = new Integer[n];
+         double[] remainder = new double[n];
+         for (int i = 0; i < n; ++i) {
+            order[i] = i;
+            if (full[i]) {
+               continue;
+            }//end if
+            double share = left * weights[i] / sum;
+            long whole = (long) share;
+            remainder[i] = share - whole;
+            long room = cap - counts[i];
+            long add = Math.min(whole, room);
+            counts[i] += add;
+            placed += add;
+            if (counts[i] == cap) {
+               full[i] = true;
+            }//end if
+         }//end for
+         final double[] rem = remainder;
+         Arrays.sort(order, (a, b) -> Double.compare(rem[b], rem[a]));
+         for (int j = 0; j < n && placed < left; ++j) {
+            int i = order[j];
+            if (!full[i] && rem[i] > 0) {
+               ++counts[i];
+               ++placed;
+               if (counts[i] == cap) {
+                  full[i] = true;
+               }//end if
+            }//end if
+         }//end for
+         if (placed == 0) {
+            // only remainders of capped hotels were left; hand out one row each
+            for (int i = 0; i < n && placed < left; ++i) {
+               if (!full[i]) {
+                  ++counts[i];
+                  ++placed;
+                  full[i] = counts[i] == cap;
+               }//end if
+            }//end for
+         }//end if
+         left -= placed;
+      }//end while
+      return counts;
+   }//end allocate
+
+   private static long[] prefixSums (int[] counts) {
+      long[] base = new long[counts.length];
+      long sum = 0;
+      for (int i = 0; i < counts.length; ++i) {
+         base[i] = sum;
+         sum += counts[i];
+      }//end for
+      return base;
+   }//end prefixSums
+
+   // cumulative weights of the booking dates: summer and year-end peaks, busier weekends
+   private double[] dateWeights () {
+      double[] cumulative = new double[this._days];
+      double sum = 0;
+      for (int d = 0; d < this._days; ++d) {
+         LocalDate date = this._from.plusDays(d);
+         double season = 0.5 * (1 - Math.cos(2 * Math.PI * (date.getDayOfYear() - 15) / 365.0));
+         double yearEnd = date.getDayOfYear() > 350 ? 1.0 : 0.0;
+         DayOfWeek dow = date.getDayOfWeek();
+         double weekend = dow == DayOfWeek.FRIDAY || dow == DayOfWeek.SATURDAY ? 0.5 : 0.0;
+         sum += 1 + this._dateSkew * (season + yearEnd + weekend);
+         cumulative[d] = sum;
+      }//end for
+      return cumulative;
+   }//end dateWeights
+
+   private int sampleDay (SplittableRandom r) {
+      double x = r.nextDouble() * this._dateWeights[this._days - 1];
+      int i = Arrays.binarySearch(this._dateWeights, x);
+      return Math.min(this._days - 1, i < 0 ? -i - 1 : i);
+   }//end sampleDay
+
+   private static StringBuilder word (SplittableRandom r, StringBuilder out, int length) {
+      for (int i = 0; i < length; ++i) {
+         out.append((char) ('a' + r.nextInt(26)));
+      }//end for
+      return out;
+   }//end word
+
+   // M/d/yyyy, the date format of the csv files
+   private static StringBuilder date (StringBuilder out, LocalDate d) {
+      return out.append(d.getMonthValue()).append('/').append(d.getDayOfMonth()).append('/').append(d.getYear());
+   }//end date
+
+   private static long mix (long x) {
+      x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+      x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+      return x ^ (x >>> 31);
+   }//end mix
+
+   private static int gcd (int a, int b) {
+      return b == 0 ? a : gcd(b, a % b);
+   }//end gcd
+
+   /**
+    * Runs the generator from the command line
+    *
+    * @param args <outDir> [--scale N] [--hotels N] [--rooms N] [--customers N]
+    *             [--companies N] [--bookings N] [--repairs N] [--from date]
+    *             [--to date] [--hotel-skew S] [--date-skew S] [--seed N] [--threads N]
+    */
+   public static void main (String[] args) {
+      if (args.length < 1) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataGenerator.class.getName () +
+            " <outDir> [--scale N] [--hotels N] [--rooms N] [--customers N] [--companies N]" +
+            " [--bookings N] [--repairs N] [--from yyyy-mm-dd] [--to yyyy-mm-dd]" +
+            " [--hotel-skew S] [--date-skew S] [--seed N] [--threads N]");
+         return;
+      }//end if
+      try {
+         double scale = 1;
+         for (int i = 1; i + 1 < args.length; ++i) {
+            if (args[i].equals("--scale")) {
+               scale = Double.parseDouble(args[i + 1]);
+            }//end if
+         }//end for
+         int hotels = (int) Math.max(1, Math.round(1000 * scale));
+         int rooms = 10;
+         int customers = (int) Math.max(1, Math.round(2000 * scale));
+         int companies = (int) Math.max(1, Math.round(20 * scale));
+         long bookings = Math.round(4000 * scale);
+         long repairs = Math.round(2000 * scale);
+         LocalDate from = LocalDate.of(2000, 1, 1);
+         LocalDate to = LocalDate.of(2018, 12, 31);
+         double hotelSkew = 1.0;
+         double dateSkew = 1.0;
+         long seed = 166;
+         int threads = Runtime.getRuntime().availableProcessors();
+         for (int i = 1; i < args.length; ++i) {
+            if (args[i].equals("--scale")) {
+               ++i;
+            } else if (args[i].equals("--hotels")) {
+               hotels = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--rooms")) {
+               rooms = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--customers")) {
+               customers = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--companies")) {
+               companies = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--bookings")) {
+               bookings = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--repairs")) {
+               repairs = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--from")) {
+               from = LocalDate.parse(args[++i]);
+            } else if (args[i].equals("--to")) {
+               to = LocalDate.parse(args[++i]);
+            } else if (args[i].equals("--hotel-skew")) {
+               hotelSkew = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--date-skew")) {
+               dateSkew = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--seed")) {
+               seed = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--threads")) {
+               threads = Integer.parseInt(args[++i]);
+            } else {
+               System.err.println("Unknown option " + args[i]);
+               return;
+            }//end if
+         }//end for
+         long start = System.nanoTime();
+         new DataGenerator(new File(args[0]), seed, threads, hotels, rooms, customers, companies,
+                           bookings, repairs, from, to, hotelSkew, dateSkew).generate();
+         System.out.println(String.format("%d hotels, %d rooms, %d customers, %d bookings, %d repairs in %.2f s",
+                                          hotels, (long) hotels * rooms, customers, bookings, repairs,
+                                          (System.nanoTime() - start) / 1e9));
+      }catch (Exception e) {
+         System.err.println (e.getMessage ());
+      }//end try
+   }//end main
+
+}//end DataGenerator
@@ -0,0 +1,263 @@
+/*
+ * Group and multi-night bookings
+ * ==============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class books a set of rooms of one hotel for a range of nights, all
+ * or nothing, in one transaction: one query checks the customer, the rooms
+ * and every room-night of the range for existing bookings, and one
+ * multi-row INSERT ... SELECT FROM unnest(...) writes all the bookings.  The
+ * room numbers, ids and dates travel as comma-separated arrays, so both
+ * statements keep a single SQL template whatever the size of the group.
+ * Any conflict, including one raced in after the check and caught by
+ * bookingSlotConstraint, rolls the whole reservation back.
+ *
+ * Usage: java GroupBooking <dbname> <port> <user> <hotelID> <rooms> <firstNight>
+ *                          <nights> [customerID]
+ *   e.g. java GroupBooking mydb 5432 me 17 1-10 2030-01-01 30
+ */
+public class GroupBooking {
+
+   static final String CHECK_SQL =
+      "SELECT 'CUSTOMER', NULL::numeric, NULL::date WHERE NOT EXISTS (SELECT 1 FROM Customer WHERE customerID = ?)"
+      + " UNION ALL"
+      + " SELECT CASE WHEN rm.roomNo IS NULL THEN 'ROOM' ELSE 'BOOKED' END, r.roomNo, b.bookingDate"
+      + " FROM unnest(string_to_array(?, ',')::numeric[]) AS r(roomNo)"
+      + " LEFT JOIN Room rm ON rm.hotelID = ? AND rm.roomNo = r.roomNo"
+      + " LEFT JOIN Booking b ON b.hotelID = ? AND b.roomNo = r.roomNo AND b.bookingDate BETWEEN ? AND ?"
+      + " WHERE rm.roomNo IS NULL OR b.bID IS NOT NULL";
+
+   static final String INSERT_SQL =
+      "INSERT INTO Booking (bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price)"
+      + " SELECT s.bID, ?, ?, s.roomNo, s.bookingDate, ?, ?"
+      + " FROM unnest(string_to_array(?, ',')::numeric[], string_to_array(?, ',')::numeric[],"
+      + " string_to_array(?, ',')::date[]) AS s(bID, roomNo, bookingDate)";
+
+   /**
+    * What happened to a group reservation.
+    */
+   public enum Status {
+      BOOKED,             // every room-night was booked
+      CUSTOMER_MISSING,   // no customer with that id
+      ROOM_MISSING,       // some rooms do not exist; see problems
+      CONFLICT            // some room-nights are taken; see problems
+   }//end Status
+
+   /**
+    * The outcome of a group reservation.
+    */
+   public static class Result {
+      public final Status status;
+      public final int bookings;           // room-nights booked
+      public final List<String> problems;  // the missing rooms or taken room-nights
+      public final long nanos;
+
+      Result (Status status, int bookings, List<String> problems, long nanos) {
+         this.status = status;
+         this.bookings = bookings;
+         this.problems = problems;
+         this.nanos = nanos;
+      }//end Result
+
+      public double bookingsPerSecond () {
+         return this.nanos == 0 ? 0 : this.bookings * 1e9 / this.nanos;
+      }//end bookingsPerSecond
+   }//end Result
+
+   private final DBProject _esql;
+
+   /**
+    * Creates a new group booker
+    *
+    * @param esql the DBProject whose session the reservation runs on
+    */
+   public GroupBooking (DBProject esql) {
+      this._esql = esql;
+   }//end GroupBooking
+
+   /**
+    * Books every room for every night of a range, or nothing
+    *
+    * @param hotelID the hotel
+    * @param roomNos the rooms of the hotel, at least one
+    * @param customerID the customer the bookings are made for
+    * @param firstNight the first night booked
+    * @param nights the number of nights, at least 1
+    * @param noOfPeople the number of occupants of each room
+    * @param price the price of one room for one night
+    * @return what happened, with the problems found when nothing was booked
+    * @throws java.sql.SQLException when the reservation could not be attempted
+    * @throws java.lang.IllegalArgumentException when no room or fewer than 1 night is asked for
+    */
+   public Result book (int hotelID, List<Integer> roomNos, int customerID, LocalDate firstNight, int nights,
+                       int noOfPeople, BigDecimal price) throws SQLException {
+      if (roomNos.isEmpty()) {
+         throw new IllegalArgumentException("Give at least one room number, e.g. 1,2,5-8");
+      }//end if
+      if (nights < 1) {
+         throw new IllegalArgumentException("Book at least 1 night, not " + nights);
+      }//end if
+      long start = System.nanoTime();
+      LocalDate lastNight = firstNight.plusDays(nights - 1);
+      StringBuilder rooms = new StringBuilder();
+      for (Integer roomNo : roomNos) {
+         rooms.append(rooms.length() == 0 ? "" : ",").append(roomNo);
+      }//end for
+
+      Connection connection = this._esql.session().connection;
+      boolean autoCommit = connection.getAutoCommit();
+      connection.setAutoCommit(false);
+      boolean committed = false;
+      try {
+         // one check over every room and night of the range
+         List<String> problems = new ArrayList<String>();
+         Status status = Status.BOOKED;
+         ResultSet rs = this._esql.executeQuery(CHECK_SQL, false, customerID, rooms.toString(), hotelID, hotelID,
+                                                java.sql.Date.valueOf(firstNight), java.sql.Date.valueOf(lastNight));
+         while (rs.next()) {
+            String kind = rs.getString(1);
+            if (kind.equals("CUSTOMER")) {
+               status = Status.CUSTOMER_MISSING;
+               problems.add("customer " + customerID);
+            } else if (kind.equals("ROOM")) {
+               status = status == Status.CUSTOMER_MISSING ? status : Status.ROOM_MISSING;
+               problems.add("room " + rs.getInt(2));
+            } else {
+               status = status == Status.BOOKED ? Status.CONFLICT : status;
+               problems.add("room " + rs.getInt(2) + " on " + rs.getDate(3));
+            }//end if
+         }//end while
+         if (status != Status.BOOKED) {
+            return new Result(status, 0, problems, System.nanoTime() - start);
+         }//end if
+
+         // every room-night in one statement
+         int[] ids = new int[roomNos.size() * nights];
+         StringBuilder bIDs = new StringBuilder();
+         StringBuilder roomList = new StringBuilder();
+         StringBuilder dates = new StringBuilder();
+         int n = 0;
+         for (Integer roomNo : roomNos) {
+            for (int night = 0; night < nights; ++night) {
+               ids[n] = this._esql.nextId(IdAllocator.Table.BOOKING);
+               String sep = n++ == 0 ? "" : ",";
+               bIDs.append(sep).append(ids[n - 1]);
+               roomList.append(sep).append(roomNo);
+               dates.append(sep).append(firstNight.plusDays(night));
+            }//end for
+         }//end for
+         try {
+            this._esql.executeUpdate(INSERT_SQL, customerID, hotelID, noOfPeople, price,
+                                     bIDs.toString(), roomList.toString(), dates.toString());
+         }catch (SQLException e) {
+            // a room-night booked between the check and the insert.  On the partitioned Booking the
+            // violation names the partition's copy of bookingSlotConstraint, and the ids come from
+            // the allocator, so any unique violation is a taken room-night; the driver has no SQLState
+            if (e.getMessage() != null && e.getMessage().contains("duplicate key")) {
+               problems.add(e.getMessage());
+               return new Result(Status.CONFLICT, 0, problems, System.nanoTime() - start);
+            }//end if
+            throw e;
+         }//end try
+         connection.commit();
+         committed = true;
+
+         n = 0;
+         for (Integer roomNo : roomNos) {
+            for (int night = 0; night < nights; ++night) {
+               this._esql.indexBooking(ids[n++], customerID, hotelID, roomNo, firstNight.plusDays(night),
+                                       noOfPeople, price);
+            }//end for
+         }//end for
+         return new Result(Status.BOOKED, ids.length, problems, System.nanoTime() - start);
+      } finally {
+         try {
+            if (!committed) {
+               connection.rollback();
+            }//end if
+         } finally {
+            connection.setAutoCommit(autoCommit);
+         }//end try
+      }//end try
+   }//end book
+
+   /**
+    * Parses a list of room numbers such as "1,2,5-8"
+    *
+    * @param text comma-separated numbers and inclusive ranges
+    * @return the room numbers, in the given order
+    */
+   public static List<Integer> parseRooms (String text) {
+      List<Integer> rooms = new ArrayList<Integer>();
+      for (String part : text.split(",")) {
+         String p = part.trim();
+         if (p.isEmpty()) {
+            continue;
+         }//end if
+         int dash = p.indexOf('-', 1);
+         if (dash < 0) {
+            rooms.add(Integer.parseInt(p));
+         } else {
+            int last = Integer.parseInt(p.substring(dash + 1).trim());
+            for (int r = Integer.parseInt(p.substring(0, dash).trim()); r <= last; ++r) {
+               rooms.add(r);
+            }//end for
+         }//end if
+      }//end for
+      return rooms;
+   }//end parseRooms
+
+   /**
+    * Times one large reservation from the command line
+    *
+    * @param args <dbname> <port> <user> <hotelID> <rooms> <firstNight> <nights> [customerID]
+    */
+   public static void main (String[] args) {
+      if (args.length < 7) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            GroupBooking.class.getName () +
+            " <dbname> <port> <user> <hotelID> <rooms> <firstNight> <nights> [customerID]");
+         return;
+      }//end if
+      DBProject esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", 1);
+         int customerID = args.length > 7 ? Integer.parseInt(args[7]) : 1;
+         Result r = new GroupBooking(esql).book(Integer.parseInt(args[3]), parseRooms(args[4]), customerID,
+                                                LocalDate.parse(args[5]), Integer.parseInt(args[6]), 1,
+                                                new BigDecimal("100"));
+         System.out.println(String.format("%s: %d room-nights in %.3f ms, %.1f room-nights/s", r.status, r.bookings,
+                                          r.nanos / 1e6, r.bookingsPerSecond()));
+         for (String p : r.problems) {
+            System.out.println("  " + p);
+         }//end for
+      }catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) {
+            esql.cleanup ();
+         }//end if
+      }//end try
+   }//end main
+
+}//end GroupBooking
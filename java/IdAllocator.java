@@ -0,0 +1,149 @@
+/*
+ * Block-allocated ID generator
+ * ============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * This class hands out primary keys for the tables DBProject inserts into.
+ * Instead of running SELECT MAX(id) before every insert it reserves a block
+ * of BLOCK_SIZE ids with a single nextval() on the table's sequence (hi/lo)
+ * and serves the rest of the block from memory.  Every sequence is created
+ * in sql/create.sql with INCREMENT BY BLOCK_SIZE, so two clients never get
+ * overlapping blocks.
+ *
+ * The allocator is thread safe.  On a clean shutdown release() records
+ * the unused rest of every block in IdFreeRange, as a sequence cannot be
+ * rewound safely while other clients may be calling nextval() on it.  A
+ * client that needs a block takes one of those ranges first, deleting it
+ * with FOR UPDATE SKIP LOCKED so no two clients take the same one, and
+ * only calls nextval() when there is none.  The delete must commit on its
+ * own, so inside a transaction, where a rollback would bring the range
+ * back while the client still hands it out, blocks come from nextval().
+ * The rest of a block is still lost when a client dies without release().
+ */
+public class IdAllocator {
+
+   // must match the INCREMENT BY of the sequences in sql/create.sql
+   public static final int BLOCK_SIZE = 50;
+
+   // takes the lowest free range of a sequence that no other client is taking
+   static final String TAKE_SQL =
+      "DELETE FROM IdFreeRange WHERE (seqName, firstID) ="
+      + " (SELECT seqName, firstID FROM IdFreeRange WHERE seqName = ? ORDER BY firstID LIMIT 1 FOR UPDATE SKIP LOCKED)"
+      + " RETURNING firstID, limitID";
+
+   /**
+    * The tables whose ids are allocated, with their sequence names.
+    */
+   public enum Table {
+      CUSTOMER("customer_id_seq"),
+      BOOKING("booking_id_seq"),
+      REPAIR("repair_id_seq"),
+      REQUEST("request_id_seq"),
+      ASSIGNED("assigned_id_seq"),
+      MAINTENANCE_COMPANY("maintenancecompany_id_seq");
+
+      public final String sequence;
+
+      Table (String sequence) {
+         this.sequence = sequence;
+      }//end Table
+   }//end Table
+
+   // the ids reserved for one table; guarded by its own monitor
+   private static class Block {
+      final Table table;
+      int next = 0;   // next id to hand out
+      int limit = 0;  // first id past the block
+
+      Block (Table table) {
+         this.table = table;
+      }//end Block
+   }//end Block
+
+   private final DBProject _esql;
+   private final Map<Table, Block> _blocks = new EnumMap<Table, Block>(Table.class);
+
+   /**
+    * Creates a new allocator that reserves blocks through the given DBProject
+    *
+    * @param esql the DBProject whose sessions run the nextval() calls
+    */
+   public IdAllocator (DBProject esql) {
+      this._esql = esql;
+      for (Table t : Table.values()) {
+         this._blocks.put(t, new Block(t));
+      }//end for
+   }//end IdAllocator
+
+   /**
+    * Returns the next free id of a table, reserving a new block from the
+    * database only when the current one is used up.
+    *
+    * @param table the table the id is for
+    * @return an id no other client will be handed
+    * @throws java.sql.SQLException when a new block could not be reserved
+    */
+   public int next (Table table) throws SQLException {
+      Block b = this._blocks.get(table);
+      synchronized (b) {
+         if (b.next >= b.limit) {
+            ResultSet rs = null;
+            if (this._esql.session().connection.getAutoCommit()) {
+               rs = this._esql.executeQuery(TAKE_SQL, false, table.sequence);
+            }//end if
+            if (rs != null && rs.next()) {
+               b.next = rs.getInt(1);
+               b.limit = rs.getInt(2);
+            } else {
+               rs = this._esql.executeQuery("SELECT nextval('" + table.sequence + "')", false);
+               rs.next();
+               b.next = rs.getInt(1);
+               b.limit = b.next + BLOCK_SIZE;
+            }//end if
+         }//end if
+         return b.next++;
+      }//end synchronized
+   }//end next
+
+   /**
+    * Records the unused rest of every block in IdFreeRange for the next
+    * client.  Called on a clean shutdown; the allocator reserves new
+    * blocks if it is used afterwards.
+    */
+   public void release () {
+      try {
+         for (Block b : this._blocks.values()) {
+            synchronized (b) {
+               if (b.next >= b.limit) {
+                  continue;
+               }//end if
+               try {
+                  this._esql.executeUpdate("INSERT INTO IdFreeRange (seqName, firstID, limitID) VALUES (?, ?, ?)",
+                                           b.table.sequence, b.next, b.limit);
+               }catch (SQLException e) {
+                  // the ids are only lost, never handed out twice
+                  System.err.println("Could not release ids of " + b.table.sequence + ": " + e.getMessage());
+               }//end try
+               b.next = b.limit;
+            }//end synchronized
+         }//end for
+      } finally {
+         this._esql.releaseSession();
+      }//end try
+   }//end release
+
+}//end IdAllocator
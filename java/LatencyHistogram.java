@@ -0,0 +1,119 @@
+/*
+ * Latency histogram
+ * =================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This class records latencies in nanoseconds in log-linear buckets, like
+ * an HDR histogram: every power of two is split into SUB_BUCKETS equal
+ * buckets, so any recorded value is reported within 1/SUB_BUCKETS (under
+ * 1%) of its true value, from nanoseconds to centuries, in a fixed array
+ * of 7296 counts.  Recording is a few shifts and an increment, and the
+ * histograms of several threads are combined with add().
+ *
+ * A histogram is not thread safe: give every thread its own and add them
+ * up when the threads are done.
+ */
+public class LatencyHistogram {
+
+   static final int SUB_BITS = 7;
+   static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+   private final long[] _counts = new long[(64 - SUB_BITS) * SUB_BUCKETS];
+   private long _count = 0;
+   private long _total = 0;
+   private long _min = Long.MAX_VALUE;
+   private long _max = 0;
+
+   // small values have a bucket each; above, the SUB_BITS bits below the top bit pick it
+   static int bucketOf (long value) {
+      if (value < SUB_BUCKETS) {
+         return (int) value;
+      }//end if
+      int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS - 1;
+      return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+   }//end bucketOf
+
+   // the largest value that falls into a bucket
+   static long highestIn (int bucket) {
+      if (bucket < SUB_BUCKETS) {
+         return bucket;
+      }//end if
+      int shift = bucket / SUB_BUCKETS - 1;
+      long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+      return ((sub + 1) << shift) - 1;
+   }//end highestIn
+
+   /**
+    * Records one latency.
+    *
+    * @param nanos the latency in nanoseconds
+    */
+   public void record (long nanos) {
+      long v = Math.max(0, nanos);
+      ++this._counts[bucketOf(v)];
+      ++this._count;
+      this._total += v;
+      this._min = Math.min(this._min, v);
+      this._max = Math.max(this._max, v);
+   }//end record
+
+   /**
+    * Adds the recorded values of another histogram to this one.
+    */
+   public void add (LatencyHistogram other) {
+      for (int i = 0; i < this._counts.length; ++i) {
+         this._counts[i] += other._counts[i];
+      }//end for
+      this._count += other._count;
+      this._total += other._total;
+      this._min = Math.min(this._min, other._min);
+      this._max = Math.max(this._max, other._max);
+   }//end add
+
+   public long getCount () {
+      return this._count;
+   }//end getCount
+
+   public long getMin () {
+      return this._count == 0 ? 0 : this._min;
+   }//end getMin
+
+   public long getMax () {
+      return this._max;
+   }//end getMax
+
+   public double getMean () {
+      return this._count == 0 ? 0 : (double) this._total / this._count;
+   }//end getMean
+
+   /**
+    * Returns the value at a percentile, never above the largest recorded one
+    *
+    * @param percentile from 0 to 100
+    * @return the latency in nanoseconds
+    */
+   public long valueAtPercentile (double percentile) {
+      if (this._count == 0) {
+         return 0;
+      }//end if
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * this._count));
+      long seen = 0;
+      for (int i = 0; i < this._counts.length; ++i) {
+         seen += this._counts[i];
+         if (seen >= rank) {
+            return Math.min(this._max, highestIn(i));
+         }//end if
+      }//end for
+      return this._max;
+   }//end valueAtPercentile
+
+}//end LatencyHistogram
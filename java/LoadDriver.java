@@ -0,0 +1,412 @@
+/*
+ * Concurrent workload driver
+ * ==========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * This class simulates many clerks using DBProject at the same time: every
+ * session runs on its own thread and pooled connection and issues menu
+ * operations drawn from a weighted mix, e.g.
+ *
+ *     bookRoom=60,numberOfAvailableRooms=25,topKHighestRoomPriceForADateRange=15
+ *
+ * Bookings and availability checks all target a small hot set of hotels
+ * and dates after the last booked date, so sessions compete for the same
+ * rooms; the other operations get the inputs Benchmark generates.
+ *
+ * Every session records its own latency histogram per operation and counts
+ * the outcomes: ok, conflict (bookRoom found the room already booked) and
+ * failure (anything written to System.err, or a refused input).  After the
+ * run the hot dates are checked for double bookings, i.e. rooms booked more
+ * than once for the same date because two sessions passed a booking check
+ * before either inserted; with bookingSlotConstraint in place there must
+ * be none.  The summary can be appended to a csv file so runs can be
+ * compared.
+ *
+ * Usage: java LoadDriver <dbname> <port> <user> [--sessions N] [--seconds N]
+ *                        [--ops N] [--mix op=weight,...] [--hot-hotels N]
+ *                        [--hot-days N] [--think-ms N] [--data dir]
+ *                        [--seed N] [--label text] [--csv file]
+ */
+public class LoadDriver {
+
+   static final String DEFAULT_MIX =
+      "bookRoom=60,numberOfAvailableRooms=20,numberOfBookedRooms=10,topKHighestRoomPriceForADateRange=10";
+
+   static final int OK = 0;
+   static final int CONFLICT = 1;
+   static final int FAILURE = 2;
+
+   /**
+    * What one session measured, per menu number.
+    */
+   static class SessionStats {
+      final LatencyHistogram[] latency = new LatencyHistogram[DBProject.OPERATIONS.length];
+      final long[][] outcomes = new long[DBProject.OPERATIONS.length][3];
+
+      SessionStats () {
+         for (int i = 0; i < this.latency.length; ++i) {
+            this.latency[i] = new LatencyHistogram();
+         }//end for
+      }//end SessionStats
+
+      void add (SessionStats other) {
+         for (int i = 0; i < this.latency.length; ++i) {
+            this.latency[i].add(other.latency[i]);
+            for (int k = 0; k < 3; ++k) {
+               this.outcomes[i][k] += other.outcomes[i][k];
+            }//end for
+         }//end for
+      }//end add
+   }//end SessionStats
+
+   private final DBProject _esql;
+   private final Benchmark _inputs;
+   private final int[] _choices;
+   private final int[] _cumulativeWeights;
+   private final List<int[]> _hotRooms = new ArrayList<int[]>();   // {hotelID, roomNo}
+   private final LocalDate _firstHotDay;
+   private final int _hotDays;
+   private final long _seed;
+
+   /**
+    * Creates a new driver
+    *
+    * @param esql the DBProject the sessions run against
+    * @param inputs the prepared benchmark whose seed data the inputs come from
+    * @param mix op=weight pairs separated by commas
+    * @param hotHotels the number of hotels bookings are made for
+    * @param hotDays the number of dates bookings are made for
+    * @param seed the seed of the generated inputs
+    */
+   public LoadDriver (DBProject esql, Benchmark inputs, String mix, int hotHotels, int hotDays, long seed) {
+      this._esql = esql;
+      this._inputs = inputs;
+      Map<Integer, Integer> weights = new LinkedHashMap<Integer, Integer>();
+      for (String entry : mix.split(",")) {
+         String[] kv = entry.split("=");
+         weights.put(BatchRunner.choiceOf(kv[0].trim()), kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1);
+      }//end for
+      this._choices = new int[weights.size()];
+      this._cumulativeWeights = new int[weights.size()];
+      int i = 0;
+      int sum = 0;
+      for (Map.Entry<Integer, Integer> e : weights.entrySet()) {
+         sum += e.getValue();
+         this._choices[i] = e.getKey();
+         this._cumulativeWeights[i++] = sum;
+      }//end for
+
+      // the hot set: every room of hotHotels hotels spread over the seed data
+      List<Integer> hotels = new ArrayList<Integer>();
+      for (int[] room : inputs.rooms()) {
+         if (hotels.isEmpty() || hotels.get(hotels.size() - 1) != room[0]) {
+            hotels.add(room[0]);
+         }//end if
+      }//end for
+      Random r = new Random(seed);
+      List<Integer> hot = new ArrayList<Integer>();
+      while (hot.size() < Math.min(hotHotels, hotels.size())) {
+         Integer h = hotels.get(r.nextInt(hotels.size()));
+         if (!hot.contains(h)) {
+            hot.add(h);
+         }//end if
+      }//end while
+      for (int[] room : inputs.rooms()) {
+         if (hot.contains(room[0])) {
+            this._hotRooms.add(room);
+         }//end if
+      }//end for
+      this._firstHotDay = inputs.nextFreeDate();
+      this._hotDays = hotDays;
+      this._seed = seed;
+   }//end LoadDriver
+
+   private int pick (Random r) {
+      int x = r.nextInt(this._cumulativeWeights[this._cumulativeWeights.length - 1]);
+      for (int i = 0; ; ++i) {
+         if (x < this._cumulativeWeights[i]) {
+            return this._choices[i];
+         }//end if
+      }//end for
+   }//end pick
+
+   // the answers of one operation; bookings and availability checks hit the hot set
+   private List<String> answers (int choice, int seq, Random r) {
+      int[] room = this._hotRooms.get(r.nextInt(this._hotRooms.size()));
+      LocalDate day = this._firstHotDay.plusDays(r.nextInt(this._hotDays));
+      List<String> a = new ArrayList<String>();
+      if (choice == 5) {
+         String[] customer = this._inputs.customers().get(r.nextInt(this._inputs.customers().size()));
+         a.add(String.valueOf(room[0]));
+         a.add(String.valueOf(room[1]));
+         a.add(customer[0]);
+         a.add(customer[1]);
+         a.add(day.toString());
+         a.add(String.valueOf(100 + r.nextInt(1900)));
+         a.add(String.valueOf(1 + r.nextInt(4)));
+      } else if (choice == 8 || choice == 9) {
+         a.add(String.valueOf(room[0]));
+         a.add(day.toString());
+      } else {
+         a = this._inputs.answers(choice, seq);
+      }//end if
+      return a;
+   }//end answers
+
+   // ok, conflict or failure, from what an operation printed
+   static int classify (int choice, String out, String err) {
+      if (!err.trim().isEmpty()) {
+         return FAILURE;
+      }//end if
+      if (choice == 5) {
+         if (out.contains("Successfully Booked")) {
+            return OK;
+         }//end if
+         return out.contains("already Booked") ? CONFLICT : FAILURE;
+      }//end if
+      return OK;
+   }//end classify
+
+   /**
+    * Runs the sessions until the time or operation budget is used up.
+    *
+    * @param sessions the number of concurrent sessions
+    * @param seconds how long to run, or 0 for no time limit
+    * @param opsPerSession how many operations each session runs, or 0 for no limit
+    * @param thinkMillis the pause of a session between two operations
+    * @return the merged statistics of all sessions
+    * @throws java.lang.InterruptedException when interrupted while waiting
+    */
+   public SessionStats run (int sessions, int seconds, final int opsPerSession, final int thinkMillis)
+         throws InterruptedException {
+      final long deadline = seconds > 0 ? System.nanoTime() + seconds * 1000000000L : Long.MAX_VALUE;
+      final CountDownLatch start = new CountDownLatch(1);
+      final SessionStats[] stats = new SessionStats[sessions];
+      Thread[] threads = new Thread[sessions];
+      for (int s = 0; s < sessions; ++s) {
+         final int session = s;
+         stats[s] = new SessionStats();
+         threads[s] = new Thread(() -> {
+            Random r = new Random(this._seed * 31 + session);
+            try {
+               start.await();
+               for (int n = 0; (opsPerSession == 0 || n < opsPerSession) && System.nanoTime() < deadline; ++n) {
+                  int choice = pick(r);
+                  StringBuilder input = new StringBuilder();
+                  for (String a : answers(choice, session * 1000000 + n, r)) {
+                     input.append(a).append('\n');
+                  }//end for
+                  ByteArrayOutputStream out = new ByteArrayOutputStream();
+                  ByteArrayOutputStream err = new ByteArrayOutputStream();
+                  SessionIO.bind(new BufferedReader(new StringReader(input.toString())),
+                                 new PrintStream(out, true), new PrintStream(err, true));
+                  long t0 = System.nanoTime();
+                  try {
+                     DBProject.runOperation(this._esql, choice);
+                  } finally {
+                     SessionIO.unbind();
+                  }//end try
+                  stats[session].latency[choice].record(System.nanoTime() - t0);
+                  ++stats[session].outcomes[choice][classify(choice, out.toString(), err.toString())];
+                  if (thinkMillis > 0) {
+                     Thread.sleep(thinkMillis);
+                  }//end if
+               }//end for
+            }catch (InterruptedException e) {
+               // the session ends early.
+            }//end try
+         }, "session-" + s);
+         threads[s].start();
+      }//end for
+      start.countDown();
+      for (Thread t : threads) {
+         t.join();
+      }//end for
+      SessionStats total = new SessionStats();
+      for (SessionStats s : stats) {
+         total.add(s);
+      }//end for
+      return total;
+   }//end run
+
+   /**
+    * Counts the rooms booked more than once for the same hot date.
+    *
+    * @return the number of (hotel, room, date) slots with more than one booking
+    * @throws java.sql.SQLException when Booking cannot be read
+    */
+   public long countDoubleBookings () throws SQLException {
+      try {
+         ResultSet rs = this._esql.executeQuery("SELECT COUNT(*) FROM (SELECT hotelID, roomNo, bookingDate FROM Booking"
+                                                + " WHERE bookingDate BETWEEN ? AND ?"
+                                                + " GROUP BY hotelID, roomNo, bookingDate HAVING COUNT(*) > 1) d", false,
+                                                java.sql.Date.valueOf(this._firstHotDay),
+                                                java.sql.Date.valueOf(this._firstHotDay.plusDays(this._hotDays - 1)));
+         return rs.next() ? rs.getLong(1) : 0;
+      } finally {
+         this._esql.releaseSession();
+      }//end try
+   }//end countDoubleBookings
+
+   static void printReport (PrintStream out, SessionStats stats, double seconds, long doubleBookings) {
+      out.println(String.format("%-36s %8s %9s %8s %8s %8s %8s %8s %9s %8s %8s %8s", "operation", "count", "ops/s",
+                                "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "ok", "conflict", "failed"));
+      long total = 0;
+      for (int c = 1; c < DBProject.OPERATIONS.length; ++c) {
+         LatencyHistogram h = stats.latency[c];
+         if (h.getCount() == 0) {
+            continue;
+         }//end if
+         total += h.getCount();
+         out.println(String.format("%-36s %8d %9.1f %8.3f %8.3f %8.3f %8.3f %8.3f %9.3f %8d %8d %8d",
+                                   DBProject.OPERATIONS[c], h.getCount(), h.getCount() / seconds, h.getMean() / 1e6,
+                                   h.valueAtPercentile(50) / 1e6, h.valueAtPercentile(90) / 1e6,
+                                   h.valueAtPercentile(99) / 1e6, h.valueAtPercentile(99.9) / 1e6, h.getMax() / 1e6,
+                                   stats.outcomes[c][OK], stats.outcomes[c][CONFLICT], stats.outcomes[c][FAILURE]));
+      }//end for
+      out.println(String.format("%d operations in %.2f s, %.1f ops/s, %d double-booked room dates",
+                                total, seconds, total / seconds, doubleBookings));
+   }//end printReport
+
+   // appends one line per operation, writing the header to a new file
+   static void appendCsv (File file, String label, int sessions, SessionStats stats, double seconds,
+                          long doubleBookings) throws IOException {
+      boolean header = !file.exists() || file.length() == 0;
+      try (PrintWriter w = new PrintWriter(new OutputStreamWriter(
+              new FileOutputStream(file, true), StandardCharsets.UTF_8))) {
+         if (header) {
+            w.println("label,sessions,operation,count,ops_per_s,mean_ms,p50_ms,p90_ms,p99_ms,p999_ms,max_ms,"
+                      + "ok,conflicts,failures,double_bookings");
+         }//end if
+         for (int c = 1; c < DBProject.OPERATIONS.length; ++c) {
+            LatencyHistogram h = stats.latency[c];
+            if (h.getCount() == 0) {
+               continue;
+            }//end if
+            w.println(String.format(Locale.ROOT, "%s,%d,%s,%d,%.3f,%.4f,%.4f,%.4f,%.4f,%.4f,%.4f,%d,%d,%d,%d",
+                                    label, sessions, DBProject.OPERATIONS[c], h.getCount(), h.getCount() / seconds,
+                                    h.getMean() / 1e6, h.valueAtPercentile(50) / 1e6, h.valueAtPercentile(90) / 1e6,
+                                    h.valueAtPercentile(99) / 1e6, h.valueAtPercentile(99.9) / 1e6, h.getMax() / 1e6,
+                                    stats.outcomes[c][OK], stats.outcomes[c][CONFLICT], stats.outcomes[c][FAILURE],
+                                    doubleBookings));
+         }//end for
+      }//end try
+   }//end appendCsv
+
+   /**
+    * Runs the driver from the command line
+    *
+    * @param args <dbname> <port> <user> [--sessions N] [--seconds N] [--ops N]
+    *             [--mix op=weight,...] [--hot-hotels N] [--hot-days N] [--think-ms N]
+    *             [--data dir] [--seed N] [--label text] [--csv file]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            LoadDriver.class.getName () +
+            " <dbname> <port> <user> [--sessions N] [--seconds N] [--ops N] [--mix op=weight,...]" +
+            " [--hot-hotels N] [--hot-days N] [--think-ms N] [--data dir] [--seed N] [--label text] [--csv file]");
+         return;
+      }//end if
+      int sessions = 16;
+      int seconds = 30;
+      int ops = 0;
+      String mix = DEFAULT_MIX;
+      int hotHotels = 5;
+      int hotDays = 7;
+      int thinkMillis = 0;
+      File dataDir = new File("../data");
+      long seed = 42;
+      String label = "";
+      File csv = null;
+      for (int i = 3; i < args.length; ++i) {
+         if (args[i].equals("--sessions")) {
+            sessions = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--seconds")) {
+            seconds = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--ops")) {
+            ops = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--mix")) {
+            mix = args[++i];
+         } else if (args[i].equals("--hot-hotels")) {
+            hotHotels = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--hot-days")) {
+            hotDays = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--think-ms")) {
+            thinkMillis = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--data")) {
+            dataDir = new File(args[++i]);
+         } else if (args[i].equals("--seed")) {
+            seed = Long.parseLong(args[++i]);
+         } else if (args[i].equals("--label")) {
+            label = args[++i];
+         } else if (args[i].equals("--csv")) {
+            csv = new File(args[++i]);
+         } else {
+            System.err.println("Unknown option " + args[i]);
+            return;
+         }//end if
+      }//end for
+
+      DBProject esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", sessions + 1);
+         esql.warmCaches();
+         Benchmark inputs = new Benchmark(esql, sessions, seed);
+         inputs.prepare(dataDir);
+         LoadDriver driver = new LoadDriver(esql, inputs, mix, hotHotels, hotDays, seed);
+         SessionIO.install();
+         PrintStream console = SessionIO.console();
+         console.println(String.format("%d sessions, mix %s, %d hot hotels over %d days from %s", sessions, mix,
+                                       hotHotels, hotDays, driver._firstHotDay));
+         long start = System.nanoTime();
+         SessionStats stats = driver.run(sessions, seconds, ops, thinkMillis);
+         double elapsed = (System.nanoTime() - start) / 1e9;
+         long doubleBookings = driver.countDoubleBookings();
+         printReport(console, stats, elapsed, doubleBookings);
+         if (csv != null) {
+            appendCsv(csv, label, sessions, stats, elapsed, doubleBookings);
+         }//end if
+      }catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) {
+            esql.cleanup ();
+         }//end if
+      }//end try
+   }//end main
+
+}//end LoadDriver
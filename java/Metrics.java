@@ -0,0 +1,431 @@
+/*
+ * Operation and statement metrics
+ * ===============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * This class keeps latency histograms, round-trip, row and error counts
+ * for every menu operation and for every SQL template DBProject runs.
+ * DBProject records each statement as it completes, and the statements of
+ * one operation also add up into that operation's counts, so a bookRoom
+ * shows how many round trips it took.  Errors are the statements that
+ * failed.
+ *
+ * Every operation and template is registered as an MBean under
+ * DBProject:type=Operation and DBProject:type=Statement, next to a
+ * DBProject:type=Metrics bean that dumps everything as text or JSON.
+ * With the dbproject.metrics.dumpSeconds property set, the dump is also
+ * written every so many seconds to dbproject.metrics.dumpFile (standard
+ * error by default) in dbproject.metrics.format (text or json).
+ *
+ * Recording costs two clock reads, a map lookup and an uncontended lock
+ * per statement.  The class is thread safe.
+ */
+public class Metrics {
+
+   /**
+    * The attributes of one operation or SQL template as seen through JMX.
+    */
+   public interface StatMBean {
+      String getName ();
+      long getCalls ();
+      long getErrors ();
+      long getRoundTrips ();
+      long getRows ();
+      double getMeanMillis ();
+      double getP50Millis ();
+      double getP99Millis ();
+      double getP999Millis ();
+      double getMaxMillis ();
+   }//end StatMBean
+
+   /**
+    * The figures of one operation or SQL template.
+    */
+   public static class Stat implements StatMBean {
+      private final String _name;
+      private LatencyHistogram _latency = new LatencyHistogram();
+      private long _errors = 0;
+      private long _roundTrips = 0;
+      private long _rows = 0;
+
+      Stat (String name) {
+         this._name = name;
+      }//end Stat
+
+      synchronized void record (long nanos, long roundTrips, long rows, long errors) {
+         this._latency.record(nanos);
+         this._roundTrips += roundTrips;
+         this._rows += rows;
+         this._errors += errors;
+      }//end record
+
+      synchronized void addRows (long rows) {
+         this._rows += rows;
+      }//end addRows
+
+      synchronized void reset () {
+         this._latency = new LatencyHistogram();
+         this._errors = 0;
+         this._roundTrips = 0;
+         this._rows = 0;
+      }//end reset
+
+      public String getName () { return this._name; }
+      public synchronized long getCalls () { return this._latency.getCount(); }
+      public synchronized long getErrors () { return this._errors; }
+      public synchronized long getRoundTrips () { return this._roundTrips; }
+      public synchronized long getRows () { return this._rows; }
+      public synchronized double getMeanMillis () { return this._latency.getMean() / 1e6; }
+      public synchronized double getP50Millis () { return this._latency.valueAtPercentile(50) / 1e6; }
+      public synchronized double getP99Millis () { return this._latency.valueAtPercentile(99) / 1e6; }
+      public synchronized double getP999Millis () { return this._latency.valueAtPercentile(99.9) / 1e6; }
+      public synchronized double getMaxMillis () { return this._latency.getMax() / 1e6; }
+   }//end Stat
+
+   /**
+    * The dump operations of the DBProject:type=Metrics bean.
+    */
+   public interface MetricsMBean {
+      String dumpText ();
+      String dumpJson ();
+      void reset ();
+   }//end MetricsMBean
+
+   // what the statements of the operation running on a thread added up to
+   private static class OperationScope {
+      boolean active;
+      long start;
+      long roundTrips;
+      long rows;
+      long errors;
+   }//end OperationScope
+
+   public static final boolean ENABLED =
+      Boolean.parseBoolean(System.getProperty("dbproject.metrics", "true"));
+
+   private final Map<String, Stat> _operations = new ConcurrentHashMap<String, Stat>();
+   private final Map<String, Stat> _statements = new ConcurrentHashMap<String, Stat>();
+   private final ThreadLocal<OperationScope> _scope = new ThreadLocal<OperationScope>();
+   private final MBeanServer _server;
+   private final String _domain;
+   private Timer _dumper = null;
+
+   /**
+    * Creates the metrics of one DBProject and registers them with the
+    * platform MBean server
+    *
+    * @param domain the JMX domain, made unique if already taken
+    */
+   public Metrics (String domain) {
+      MBeanServer server = null;
+      String registered = domain;
+      if (ENABLED) {
+         try {
+            server = ManagementFactory.getPlatformMBeanServer();
+            for (int i = 2; server.isRegistered(new ObjectName(registered + ":type=Metrics")); ++i) {
+               registered = domain + "-" + i;
+            }//end for
+            final Metrics self = this;
+            server.registerMBean(new StandardMBean(new MetricsMBean() {
+               public String dumpText () { return self.dumpText(); }
+               public String dumpJson () { return self.dumpJson(); }
+               public void reset () { self.reset(); }
+            }, MetricsMBean.class), new ObjectName(registered + ":type=Metrics"));
+         }catch (Exception e) {
+            System.err.println("Metrics are not available through JMX: " + e.getMessage());
+            server = null;
+         }//end try
+      }//end if
+      this._server = server;
+      this._domain = registered;
+   }//end Metrics
+
+   /**
+    * Starts the periodic dump configured by the dbproject.metrics.* properties
+    */
+   public void startDumping () {
+      long seconds = Long.getLong("dbproject.metrics.dumpSeconds", 0L);
+      if (!ENABLED || seconds <= 0) {
+         return;
+      }//end if
+      final String file = System.getProperty("dbproject.metrics.dumpFile");
+      final boolean json = "json".equalsIgnoreCase(System.getProperty("dbproject.metrics.format", "text"));
+      this._dumper = new Timer("Metrics-dumper", true);
+      this._dumper.schedule(new TimerTask() {
+         public void run () {
+            dump(file, json);
+         }
+      }, seconds * 1000, seconds * 1000);
+   }//end startDumping
+
+   /**
+    * Stops the periodic dump and unregisters the MBeans
+    */
+   public void close () {
+      if (this._dumper != null) {
+         this._dumper.cancel();
+      }//end if
+      if (this._server != null) {
+         try {
+            for (ObjectName name : this._server.queryNames(new ObjectName(this._domain + ":*"), null)) {
+               this._server.unregisterMBean(name);
+            }//end for
+         }catch (Exception e) {
+            // the JVM is going away with them.
+         }//end try
+      }//end if
+   }//end close
+
+   /**
+    * Starts counting the statements of an operation on the calling thread
+    */
+   public void beginOperation () {
+      if (!ENABLED) {
+         return;
+      }//end if
+      OperationScope scope = this._scope.get();
+      if (scope == null) {
+         scope = new OperationScope();
+         this._scope.set(scope);
+      }//end if
+      scope.roundTrips = scope.rows = scope.errors = 0;
+      scope.active = true;
+      scope.start = System.nanoTime();
+   }//end beginOperation
+
+   /**
+    * Records the operation begun on the calling thread
+    *
+    * @param name the operation name
+    */
+   public void endOperation (String name) {
+      OperationScope scope = this._scope.get();
+      if (!ENABLED || scope == null || !scope.active) {
+         return;
+      }//end if
+      stat(this._operations, "Operation", name).record(System.nanoTime() - scope.start, scope.roundTrips,
+                                                       scope.rows, scope.errors);
+      scope.active = false;
+   }//end endOperation
+
+   /**
+    * Records one completed statement
+    *
+    * @param sql the SQL template
+    * @param nanos how long it took
+    * @param roundTrips how many round trips to the server it took
+    * @param rows the rows it returned or changed
+    * @param failed whether it threw
+    */
+   public void recordStatement (String sql, long nanos, long roundTrips, long rows, boolean failed) {
+      if (!ENABLED) {
+         return;
+      }//end if
+      stat(this._statements, "Statement", sql).record(nanos, roundTrips, rows, failed ? 1 : 0);
+      OperationScope scope = this._scope.get();
+      if (scope != null && scope.active) {
+         scope.roundTrips += roundTrips;
+         scope.rows += rows;
+         scope.errors += failed ? 1 : 0;
+      }//end if
+   }//end recordStatement
+
+   /**
+    * Adds rows to a statement already recorded, for results counted as
+    * they are read
+    *
+    * @param sql the statement's SQL template
+    * @param rows the rows read
+    */
+   public void recordRows (String sql, long rows) {
+      if (!ENABLED) {
+         return;
+      }//end if
+      stat(this._statements, "Statement", sql).addRows(rows);
+      OperationScope scope = this._scope.get();
+      if (scope != null && scope.active) {
+         scope.rows += rows;
+      }//end if
+   }//end recordRows
+
+   private Stat stat (Map<String, Stat> stats, String type, String name) {
+      Stat s = stats.get(name);
+      if (s == null) {
+         synchronized (stats) {
+            s = stats.get(name);
+            if (s == null) {
+               s = new Stat(name);
+               register(type, s);
+               stats.put(name, s);
+            }//end if
+         }//end synchronized
+      }//end if
+      return s;
+   }//end stat
+
+   private void register (String type, Stat s) {
+      if (this._server == null) {
+         return;
+      }//end if
+      try {
+         ObjectName name = new ObjectName(this._domain + ":type=" + type + ",name=" + ObjectName.quote(s.getName()));
+         this._server.registerMBean(new StandardMBean(s, StatMBean.class), name);
+      }catch (Exception e) {
+         // the figures are still dumped.
+      }//end try
+   }//end register
+
+   /**
+    * @return the figures of one operation, or null if it never ran
+    */
+   public Stat getOperation (String name) {
+      return this._operations.get(name);
+   }//end getOperation
+
+   /**
+    * @return the figures of one SQL template, or null if it never ran
+    */
+   public Stat getStatement (String sql) {
+      return this._statements.get(sql);
+   }//end getStatement
+
+   /**
+    * Clears every figure
+    */
+   public void reset () {
+      for (Stat s : this._operations.values()) {
+         s.reset();
+      }//end for
+      for (Stat s : this._statements.values()) {
+         s.reset();
+      }//end for
+   }//end reset
+
+   private static List<Stat> sorted (Map<String, Stat> stats) {
+      List<Stat> list = new ArrayList<Stat>(stats.values());
+      // most time spent first
+      Collections.sort(list, new Comparator<Stat>() {
+         public int compare (Stat a, Stat b) {
+            return Double.compare(b.getMeanMillis() * b.getCalls(), a.getMeanMillis() * a.getCalls());
+         }
+      });
+      return list;
+   }//end sorted
+
+   /**
+    * @return every figure as a table, operations first
+    */
+   public String dumpText () {
+      StringBuilder sb = new StringBuilder();
+      String header = String.format("%-10s %8s %7s %9s %9s %9s %9s %9s %9s %9s  %s%n", "type", "calls", "errors",
+                                    "trips", "rows", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "name");
+      sb.append(header);
+      appendText(sb, "operation", sorted(this._operations));
+      appendText(sb, "statement", sorted(this._statements));
+      return sb.toString();
+   }//end dumpText
+
+   private static void appendText (StringBuilder sb, String type, List<Stat> stats) {
+      for (Stat s : stats) {
+         sb.append(String.format(Locale.ROOT, "%-10s %8d %7d %9d %9d %9.3f %9.3f %9.3f %9.3f %9.3f  %s%n", type,
+                                 s.getCalls(), s.getErrors(), s.getRoundTrips(), s.getRows(), s.getMeanMillis(),
+                                 s.getP50Millis(), s.getP99Millis(), s.getP999Millis(), s.getMaxMillis(),
+                                 s.getName().replaceAll("\\s+", " ")));
+      }//end for
+   }//end appendText
+
+   /**
+    * @return every figure as one JSON object
+    */
+   public String dumpJson () {
+      StringBuilder sb = new StringBuilder("{\"time\":").append(System.currentTimeMillis());
+      sb.append(",\"operations\":");
+      appendJson(sb, sorted(this._operations));
+      sb.append(",\"statements\":");
+      appendJson(sb, sorted(this._statements));
+      return sb.append('}').toString();
+   }//end dumpJson
+
+   private static void appendJson (StringBuilder sb, List<Stat> stats) {
+      sb.append('[');
+      for (int i = 0; i < stats.size(); ++i) {
+         Stat s = stats.get(i);
+         if (i > 0) {
+            sb.append(',');
+         }//end if
+         sb.append("{\"name\":");
+         quote(sb, s.getName());
+         sb.append(String.format(Locale.ROOT, ",\"calls\":%d,\"errors\":%d,\"roundTrips\":%d,\"rows\":%d,"
+                                 + "\"meanMs\":%.4f,\"p50Ms\":%.4f,\"p99Ms\":%.4f,\"p999Ms\":%.4f,\"maxMs\":%.4f}",
+                                 s.getCalls(), s.getErrors(), s.getRoundTrips(), s.getRows(), s.getMeanMillis(),
+                                 s.getP50Millis(), s.getP99Millis(), s.getP999Millis(), s.getMaxMillis()));
+      }//end for
+      sb.append(']');
+   }//end appendJson
+
+   static void quote (StringBuilder sb, String s) {
+      sb.append('"');
+      for (int i = 0; i < s.length(); ++i) {
+         char c = s.charAt(i);
+         switch (c) {
+            case '"': sb.append("\\\""); break;
+            case '\\': sb.append("\\\\"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            case '\t': sb.append("\\t"); break;
+            default:
+               if (c < 0x20) {
+                  sb.append(String.format("\\u%04x", (int) c));
+               } else {
+                  sb.append(c);
+               }//end if
+         }//end switch
+      }//end for
+      sb.append('"');
+   }//end quote
+
+   // appends one dump to a file, or writes it to standard error
+   private void dump (String file, boolean json) {
+      String text = json ? dumpJson() + "\n" : dumpText() + "\n";
+      if (file == null) {
+         System.err.print(text);
+         return;
+      }//end if
+      try (PrintWriter w = new PrintWriter(new OutputStreamWriter(
+              new FileOutputStream(new File(file), true), StandardCharsets.UTF_8))) {
+         w.print(text);
+      }catch (IOException e) {
+         System.err.println("Could not write the metrics to " + file + ": " + e.getMessage());
+      }//end try
+   }//end dump
+
+}//end Metrics
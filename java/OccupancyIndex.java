@@ -0,0 +1,308 @@
+/*
+ * Room occupancy index
+ * ====================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps, for every hotel and every date with bookings, a bitset
+ * over the hotel's rooms with a bit set for each booked room.  Availability
+ * counts then become a popcount and the free rooms of a date range an OR
+ * over the range's bitsets, without running the NOT IN anti-join on the
+ * Booking table.
+ *
+ * The whole index is loaded from Room and Booking by load(); a hotel that
+ * is not indexed (because the load did not run or the hotel was
+ * invalidated) is loaded on its first lookup.  bookRoom keeps it current
+ * through addBooking(), including for a hotel that is being loaded: its
+ * bookings wait in a placeholder and are applied once the hotel is read.
+ * The counts are those of this client: bookings made by other clients are
+ * only seen by a hotel loaded after them, so with several clients the
+ * reports drift until a restart (-Ddbproject.indexes is off by default).
+ * The index is thread safe.
+ */
+public class OccupancyIndex {
+
+   /**
+    * The rooms of one hotel and the booked-room bitsets of its dates.
+    */
+   private static class HotelRooms {
+      final int[] roomNos;            // sorted; the index of a room is its bit
+      final String[] roomTypes;
+      final Map<Integer, long[]> days = new HashMap<Integer, long[]>();
+
+      HotelRooms (int[] roomNos, String[] roomTypes) {
+         this.roomNos = roomNos;
+         this.roomTypes = roomTypes;
+      }//end HotelRooms
+
+      synchronized void book (int roomNo, int epochDay) {
+         int bit = Arrays.binarySearch(this.roomNos, roomNo);
+         if (bit < 0) {
+            return;
+         }//end if
+         long[] set = this.days.get(epochDay);
+         if (set == null) {
+            set = new long[(this.roomNos.length + 63) >>> 6];
+            this.days.put(epochDay, set);
+         }//end if
+         set[bit >>> 6] |= 1L << bit;
+      }//end book
+
+      synchronized int booked (int epochDay) {
+         long[] set = this.days.get(epochDay);
+         int count = 0;
+         if (set != null) {
+            for (long word : set) {
+               count += Long.bitCount(word);
+            }//end for
+         }//end if
+         return count;
+      }//end booked
+
+      // positions of the rooms that are free on every day of the range
+      synchronized List<Integer> free (int firstDay, int lastDay) {
+         long[] taken = new long[(this.roomNos.length + 63) >>> 6];
+         for (int day = firstDay; day <= lastDay; ++day) {
+            long[] set = this.days.get(day);
+            if (set != null) {
+               for (int i = 0; i < taken.length; ++i) {
+                  taken[i] |= set[i];
+               }//end for
+            }//end if
+         }//end for
+         List<Integer> rooms = new ArrayList<Integer>();
+         for (int bit = 0; bit < this.roomNos.length; ++bit) {
+            if ((taken[bit >>> 6] & (1L << bit)) == 0) {
+               rooms.add(bit);
+            }//end if
+         }//end for
+         return rooms;
+      }//end free
+   }//end HotelRooms
+
+   /**
+    * A hotel that is being loaded, holding the bookings made meanwhile.
+    */
+   private static class Pending {
+      private final List<int[]> _bookings = new ArrayList<int[]>();
+      private HotelRooms _hotel = null;
+
+      synchronized void book (int roomNo, int epochDay) {
+         if (this._hotel != null) {
+            this._hotel.book(roomNo, epochDay);
+         } else {
+            this._bookings.add(new int[] {roomNo, epochDay});
+         }//end if
+      }//end book
+
+      // applies the waiting bookings to the loaded hotel; the hotel of the first load to get here
+      synchronized HotelRooms publish (HotelRooms hotel) {
+         if (this._hotel == null) {
+            for (int[] b : this._bookings) {
+               hotel.book(b[0], b[1]);
+            }//end for
+            this._bookings.clear();
+            this._hotel = hotel;
+         }//end if
+         return this._hotel;
+      }//end publish
+   }//end Pending
+
+   /**
+    * A room that is free for a whole date range.
+    */
+   public static class Room {
+      public final int hotelID;
+      public final int roomNo;
+      public final String roomType;
+
+      Room (int hotelID, int roomNo, String roomType) {
+         this.hotelID = hotelID;
+         this.roomNo = roomNo;
+         this.roomType = roomType;
+      }//end Room
+   }//end Room
+
+   private final ConcurrentHashMap<Integer, HotelRooms> _hotels =
+      new ConcurrentHashMap<Integer, HotelRooms>();
+
+   // hotels being loaded by hotel(); registered before their rows are read
+   private final ConcurrentHashMap<Integer, Pending> _pending =
+      new ConcurrentHashMap<Integer, Pending>();
+
+   private long _hits = 0;
+   private long _misses = 0;
+
+   /**
+    * Replaces the index with the rooms and bookings of every hotel.
+    *
+    * @param esql the DBProject used to read Room and Booking
+    * @throws java.sql.SQLException when the tables could not be read
+    */
+   public void load (DBProject esql) throws SQLException {
+      final Map<Integer, HotelRooms> hotels = new HashMap<Integer, HotelRooms>();
+      final List<Integer> rooms = new ArrayList<Integer>();
+      final List<String> types = new ArrayList<String>();
+      final int[] current = {Integer.MIN_VALUE};
+      esql.streamQuery("SELECT hotelID, roomNo, roomType FROM Room ORDER BY hotelID, roomNo", rs -> {
+         int hotelID = rs.getInt(1);
+         if (hotelID != current[0]) {
+            addHotel(hotels, current[0], rooms, types);
+            current[0] = hotelID;
+         }//end if
+         rooms.add(rs.getInt(2));
+         types.add(rs.getString(3));
+      });
+      addHotel(hotels, current[0], rooms, types);
+
+      esql.streamQuery("SELECT hotelID, roomNo, bookingDate FROM Booking", rs -> {
+         HotelRooms hotel = hotels.get(rs.getInt(1));
+         if (hotel != null) {
+            hotel.book(rs.getInt(2), (int) rs.getDate(3).toLocalDate().toEpochDay());
+         }//end if
+      });
+      this._hotels.clear();
+      this._hotels.putAll(hotels);
+   }//end load
+
+   private static void addHotel (Map<Integer, HotelRooms> hotels, int hotelID,
+                                 List<Integer> rooms, List<String> types) {
+      if (rooms.isEmpty()) {
+         return;
+      }//end if
+      int[] roomNos = new int[rooms.size()];
+      for (int i = 0; i < roomNos.length; ++i) {
+         roomNos[i] = rooms.get(i);
+      }//end for
+      hotels.put(hotelID, new HotelRooms(roomNos, types.toArray(new String[types.size()])));
+      rooms.clear();
+      types.clear();
+   }//end addHotel
+
+   /**
+    * Returns the indexed hotel, loading it from the database on a miss.
+    * A hotel without rooms is indexed as empty.
+    */
+   private HotelRooms hotel (DBProject esql, final int hotelID) throws SQLException {
+      HotelRooms hotel = this._hotels.get(hotelID);
+      if (hotel != null) {
+         synchronized (this) { ++this._hits; }
+         return hotel;
+      }//end if
+      synchronized (this) { ++this._misses; }
+      // a booking committed from here on reaches the placeholder, if the SELECTs below miss it
+      Pending pending = new Pending();
+      Pending loading = this._pending.putIfAbsent(hotelID, pending);
+      pending = loading != null ? loading : pending;
+      try {
+         hotel = read(esql, hotelID);
+         hotel = pending.publish(hotel);
+         HotelRooms raced = this._hotels.putIfAbsent(hotelID, hotel);
+         return raced != null ? raced : hotel;
+      } finally {
+         this._pending.remove(hotelID, pending);
+      }//end try
+   }//end hotel
+
+   // reads the rooms and bookings of one hotel
+   private static HotelRooms read (DBProject esql, int hotelID) throws SQLException {
+      final List<Integer> rooms = new ArrayList<Integer>();
+      final List<String> types = new ArrayList<String>();
+      ResultSet rs = esql.executeQuery("SELECT roomNo, roomType FROM Room WHERE hotelID = ? ORDER BY roomNo",
+                                       false, hotelID);
+      while (rs.next()) {
+         rooms.add(rs.getInt(1));
+         types.add(rs.getString(2));
+      }//end while
+      Map<Integer, HotelRooms> loaded = new HashMap<Integer, HotelRooms>();
+      addHotel(loaded, hotelID, rooms, types);
+      HotelRooms hotel = loaded.containsKey(hotelID) ? loaded.get(hotelID) : new HotelRooms(new int[0], new String[0]);
+
+      rs = esql.executeQuery("SELECT roomNo, bookingDate FROM Booking WHERE hotelID = ?", false, hotelID);
+      while (rs.next()) {
+         hotel.book(rs.getInt(1), (int) rs.getDate(2).toLocalDate().toEpochDay());
+      }//end while
+      return hotel;
+   }//end read
+
+   /**
+    * @return the number of rooms of the hotel that are not booked on the date
+    */
+   public int availableRooms (DBProject esql, int hotelID, LocalDate date) throws SQLException {
+      HotelRooms hotel = hotel(esql, hotelID);
+      return hotel.roomNos.length - hotel.booked((int) date.toEpochDay());
+   }//end availableRooms
+
+   /**
+    * @return the number of rooms of the hotel that are booked on the date
+    */
+   public int bookedRooms (DBProject esql, int hotelID, LocalDate date) throws SQLException {
+      return hotel(esql, hotelID).booked((int) date.toEpochDay());
+   }//end bookedRooms
+
+   /**
+    * Lists the rooms of a hotel that are free on every day of a date range
+    *
+    * @param esql the DBProject used on a cache miss
+    * @param hotelID the hotel
+    * @param first the first day of the range
+    * @param last the last day of the range, inclusive
+    * @return the free rooms ordered by room number
+    * @throws java.sql.SQLException when the hotel had to be loaded and could not be
+    */
+   public List<Room> freeRooms (DBProject esql, int hotelID, LocalDate first, LocalDate last) throws SQLException {
+      HotelRooms hotel = hotel(esql, hotelID);
+      List<Room> rooms = new ArrayList<Room>();
+      for (int bit : hotel.free((int) first.toEpochDay(), (int) last.toEpochDay())) {
+         rooms.add(new Room(hotelID, hotel.roomNos[bit], hotel.roomTypes[bit]));
+      }//end for
+      return rooms;
+   }//end freeRooms
+
+   /**
+    * Records a new booking.  A hotel being loaded gets it once it is read;
+    * hotels that are not indexed are left alone, and will see the booking
+    * when they are loaded.
+    */
+   public void addBooking (int hotelID, int roomNo, LocalDate date) {
+      // the placeholder first: a load publishes its hotel before dropping the placeholder.  Booking a
+      // room twice changes nothing, so a hotel that is both indexed and being loaded again gets it twice
+      Pending pending = this._pending.get(hotelID);
+      if (pending != null) {
+         pending.book(roomNo, (int) date.toEpochDay());
+      }//end if
+      HotelRooms hotel = this._hotels.get(hotelID);
+      if (hotel != null) {
+         hotel.book(roomNo, (int) date.toEpochDay());
+      }//end if
+   }//end addBooking
+
+   /**
+    * Drops a hotel from the index, e.g. after one of its rooms was added.
+    */
+   public void invalidateHotel (int hotelID) {
+      this._hotels.remove(hotelID);
+   }//end invalidateHotel
+
+   public synchronized long getHits () { return this._hits; }
+   public synchronized long getMisses () { return this._misses; }
+
+}//end OccupancyIndex
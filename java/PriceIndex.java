@@ -0,0 +1,223 @@
+/*
+ * Booking price index
+ * ===================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps every booking in two price-sorted views: one list per
+ * booking date and one list per customer, each ordered by price, highest
+ * first, and by bID, highest first, between equal prices, as the SQL of
+ * the reports orders them.  A top-k query walks only the head of each list in range through a
+ * bounded min-heap of k entries and stops a list as soon as its next price
+ * cannot enter the heap, so it never scans or sorts the whole range.
+ *
+ * The index is only used once load() has completed (isWarm()); until then
+ * callers fall back to SQL.  bookRoom keeps it current through
+ * addBooking(), but bookings made by other clients are not seen until the
+ * next start, and the whole table is held in memory, so it is only loaded
+ * with -Ddbproject.indexes=true.  The index is thread safe.
+ */
+public class PriceIndex {
+
+   /**
+    * One booking as held in the index; prices are in cents.
+    */
+   public static class Entry {
+      public final int bID;
+      public final int customer;
+      public final int hotelID;
+      public final int roomNo;
+      public final int epochDay;
+      public final int noOfPeople;
+      public final long priceCents;
+
+      public Entry (int bID, int customer, int hotelID, int roomNo, int epochDay,
+                    int noOfPeople, long priceCents) {
+         this.bID = bID;
+         this.customer = customer;
+         this.hotelID = hotelID;
+         this.roomNo = roomNo;
+         this.epochDay = epochDay;
+         this.noOfPeople = noOfPeople;
+         this.priceCents = priceCents;
+      }//end Entry
+
+      public LocalDate bookingDate () {
+         return LocalDate.ofEpochDay(this.epochDay);
+      }//end bookingDate
+
+      public BigDecimal price () {
+         return BigDecimal.valueOf(this.priceCents, 2);
+      }//end price
+   }//end Entry
+
+   // highest price first, then highest bID: ORDER BY price DESC, bID DESC
+   static final Comparator<Entry> BY_PRICE_DESC = new Comparator<Entry>() {
+      public int compare (Entry a, Entry b) {
+         int byPrice = Long.compare(b.priceCents, a.priceCents);
+         return byPrice != 0 ? byPrice : Integer.compare(b.bID, a.bID);
+      }
+   };
+
+   private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+   private TreeMap<Integer, List<Entry>> _days = new TreeMap<Integer, List<Entry>>();
+   private Map<Integer, List<Entry>> _customers = new HashMap<Integer, List<Entry>>();
+   private volatile boolean _warm = false;
+
+   /**
+    * Replaces the index with every row of Booking.
+    *
+    * @param esql the DBProject used to read Booking
+    * @throws java.sql.SQLException when the table could not be read
+    */
+   public void load (DBProject esql) throws SQLException {
+      final TreeMap<Integer, List<Entry>> days = new TreeMap<Integer, List<Entry>>();
+      final Map<Integer, List<Entry>> customers = new HashMap<Integer, List<Entry>>();
+      esql.streamQuery("SELECT bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price FROM Booking", rs -> {
+         Entry e = new Entry(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4),
+                             (int) rs.getDate(5).toLocalDate().toEpochDay(), rs.getInt(6),
+                             rs.getBigDecimal(7).movePointRight(2).longValue());
+         listOf(days, e.epochDay).add(e);
+         listOf(customers, e.customer).add(e);
+      });
+      for (List<Entry> list : days.values()) {
+         Collections.sort(list, BY_PRICE_DESC);
+      }//end for
+      for (List<Entry> list : customers.values()) {
+         Collections.sort(list, BY_PRICE_DESC);
+      }//end for
+      this._lock.writeLock().lock();
+      try {
+         this._days = days;
+         this._customers = customers;
+         this._warm = true;
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end load
+
+   /**
+    * @return whether load() has completed and the index can answer queries
+    */
+   public boolean isWarm () {
+      return this._warm;
+   }//end isWarm
+
+   /**
+    * Records a new booking in its date and customer lists.
+    */
+   public void addBooking (Entry e) {
+      this._lock.writeLock().lock();
+      try {
+         if (!this._warm) {
+            return;
+         }//end if
+         insertSorted(listOf(this._days, e.epochDay), e);
+         insertSorted(listOf(this._customers, e.customer), e);
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addBooking
+
+   /**
+    * Returns the k most expensive bookings made for dates in a range
+    *
+    * @param first the first date of the range
+    * @param last the last date of the range, inclusive
+    * @param k the number of bookings
+    * @return the bookings, most expensive first
+    */
+   public List<Entry> topK (LocalDate first, LocalDate last, int k) {
+      this._lock.readLock().lock();
+      try {
+         return topK(this._days.subMap((int) first.toEpochDay(), true, (int) last.toEpochDay(), true).values(), k);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end topK
+
+   /**
+    * Returns the k most expensive bookings of a set of customers
+    *
+    * @param customerIDs the customers
+    * @param k the number of bookings
+    * @return the bookings, most expensive first
+    */
+   public List<Entry> topKForCustomers (List<Integer> customerIDs, int k) {
+      this._lock.readLock().lock();
+      try {
+         List<List<Entry>> lists = new ArrayList<List<Entry>>();
+         for (Integer id : customerIDs) {
+            List<Entry> list = this._customers.get(id);
+            if (list != null) {
+               lists.add(list);
+            }//end if
+         }//end for
+         return topK(lists, k);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end topKForCustomers
+
+   // merges the heads of price-sorted lists through a bounded min-heap
+   private static List<Entry> topK (Iterable<List<Entry>> lists, int k) {
+      List<Entry> result = new ArrayList<Entry>();
+      if (k <= 0) {
+         return result;
+      }//end if
+      PriorityQueue<Entry> heap = new PriorityQueue<Entry>(k, Collections.reverseOrder(BY_PRICE_DESC));
+      for (List<Entry> list : lists) {
+         for (Entry e : list) {
+            if (heap.size() < k) {
+               heap.add(e);
+            } else if (BY_PRICE_DESC.compare(e, heap.peek()) < 0) {
+               heap.poll();
+               heap.add(e);
+            } else {
+               // the rest of this list ranks no higher
+               break;
+            }//end if
+         }//end for
+      }//end for
+      result.addAll(heap);
+      Collections.sort(result, BY_PRICE_DESC);
+      return result;
+   }//end topK
+
+   private static void insertSorted (List<Entry> list, Entry e) {
+      int pos = Collections.binarySearch(list, e, BY_PRICE_DESC);
+      list.add(pos < 0 ? -pos - 1 : pos, e);
+   }//end insertSorted
+
+   private static List<Entry> listOf (Map<Integer, List<Entry>> map, int key) {
+      List<Entry> list = map.get(key);
+      if (list == null) {
+         list = new ArrayList<Entry>();
+         map.put(key, list);
+      }//end if
+      return list;
+   }//end listOf
+
+}//end PriceIndex
@@ -0,0 +1,287 @@
+/*
+ * Partition pruning benchmark
+ * ===========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class measures what the yearly partitions of Booking and Repair buy
+ * the date range queries of DBProject.  Every query runs twice over the same
+ * generated parameters: once as DBProject writes it, comparing the bare date
+ * column with constants so the planner prunes the partitions outside the
+ * range, and once with the column wrapped in an expression ("bookingDate +
+ * 0"), which returns the same rows but makes the planner read every
+ * partition.  For each variant it prints the partitions the plan reads and
+ * the figures of Benchmark, and can append them to the same csv file.
+ *
+ * Run it after BulkLoader --scale N at several scale factors (bench.sh does)
+ * to see the gap grow with the table while the pruned latency stays flat.
+ *
+ * Usage: java PruningBenchmark <dbname> <port> <user> [--warmup N]
+ *                              [--iterations N] [--seed N] [--label text] [--csv file]
+ */
+public class PruningBenchmark {
+
+   // the partitions an EXPLAIN output reads
+   private static final Pattern PARTITION = Pattern.compile(" on ((booking|repair)_(y\\d+|default))\\b");
+
+   /**
+    * One query, with %s where its date column goes.
+    */
+   private static abstract class Query {
+      final String name;
+      final String sql;
+      final String column;
+
+      Query (String name, String column, String sql) {
+         this.name = name;
+         this.column = column;
+         this.sql = sql;
+      }//end Query
+
+      String sql (boolean pruned) {
+         return String.format(this.sql, pruned ? this.column : "(" + this.column + " + 0)");
+      }//end sql
+
+      abstract Object[] params (Random r);
+   }//end Query
+
+   private final DBProject _esql;
+   private final List<int[]> _rooms = new ArrayList<int[]>();          // {hotelID, roomNo}
+   private final List<Integer> _customers = new ArrayList<Integer>();
+   private LocalDate _firstDate = LocalDate.of(2000, 1, 1);
+   private int _days = 365;
+
+   public PruningBenchmark (DBProject esql) {
+      this._esql = esql;
+   }//end PruningBenchmark
+
+   // reads the rooms, customers and booked dates the parameters are drawn from
+   void prepare () throws Exception {
+      this._esql.streamQuery("SELECT hotelID, roomNo FROM Room", rs -> {
+         this._rooms.add(new int[] {rs.getInt(1), rs.getInt(2)});
+      });
+      this._esql.streamQuery("SELECT customerID FROM Customer", rs -> {
+         this._customers.add(rs.getInt(1));
+      });
+      ResultSet rs = this._esql.executeQuery("SELECT MIN(bookingDate), MAX(bookingDate) FROM Booking WHERE bID <> 0", false);
+      if (rs.next() && rs.getDate(1) != null) {
+         this._firstDate = rs.getDate(1).toLocalDate();
+         this._days = (int) (rs.getDate(2).toLocalDate().toEpochDay() - this._firstDate.toEpochDay()) + 1;
+      }//end if
+      this._esql.releaseSession();
+      if (this._rooms.isEmpty() || this._customers.isEmpty()) {
+         throw new IllegalStateException("Load the data first: there are no rooms or customers");
+      }//end if
+   }//end prepare
+
+   private int[] room (Random r) {
+      return this._rooms.get(r.nextInt(this._rooms.size()));
+   }//end room
+
+   private LocalDate day (Random r) {
+      return this._firstDate.plusDays(r.nextInt(this._days));
+   }//end day
+
+   private static java.sql.Date sqlDate (LocalDate d) {
+      return java.sql.Date.valueOf(d);
+   }//end sqlDate
+
+   // the date range queries of DBProject that read Booking or Repair
+   List<Query> queries () {
+      List<Query> q = new ArrayList<Query>();
+      q.add(new Query("numberOfBookedRooms", "bookingDate",
+                      "SELECT COUNT(*) FROM Booking WHERE hotelID = ? AND %s = ?") {
+         Object[] params (Random r) {
+            return new Object[] {room(r)[0], sqlDate(day(r))};
+         }
+      });
+      q.add(new Query("listHotelRoomBookingsForAWeek", "b.bookingDate",
+                      "SELECT r.* FROM Room r WHERE r.hotelID = ? AND (r.hotelID, r.roomNo) NOT IN"
+                      + " (SELECT b.hotelID, b.roomNo FROM Booking b WHERE %s BETWEEN ? AND ?)") {
+         Object[] params (Random r) {
+            LocalDate d = day(r);
+            return new Object[] {room(r)[0], sqlDate(d), sqlDate(d.plusDays(7))};
+         }
+      });
+      q.add(new Query("topKHighestRoomPriceForADateRange", "bookingDate",
+                      "SELECT * FROM Booking WHERE %s BETWEEN ? AND ? ORDER BY price DESC LIMIT 10") {
+         Object[] params (Random r) {
+            LocalDate d = day(r);
+            return new Object[] {sqlDate(d), sqlDate(d.plusDays(30))};
+         }
+      });
+      q.add(new Query("totalCostForCustomer", "b.bookingDate",
+                      "SELECT b.price FROM Booking b WHERE b.hotelID = ? AND b.customer = ? AND %s BETWEEN ? AND ?") {
+         Object[] params (Random r) {
+            LocalDate d = day(r);
+            return new Object[] {room(r)[0], PruningBenchmark.this._customers.get(r.nextInt(
+                                 PruningBenchmark.this._customers.size())), sqlDate(d), sqlDate(d.plusDays(365))};
+         }
+      });
+      q.add(new Query("revenuePerHotelPerMonth", "bookingDate",
+                      "SELECT hotelID, EXTRACT(MONTH FROM bookingDate) AS month, COUNT(*), SUM(price) FROM Booking"
+                      + " WHERE %s BETWEEN ? AND ? GROUP BY hotelID, month") {
+         Object[] params (Random r) {
+            int year = day(r).getYear();
+            return new Object[] {sqlDate(LocalDate.of(year, 1, 1)), sqlDate(LocalDate.of(year, 12, 31))};
+         }
+      });
+      // numberOfRepairsForEachRoomPerYear reads RepairCountByRoomYear; this is one year of it from Repair
+      q.add(new Query("repairsOfRoomInYear", "repairDate",
+                      "SELECT COUNT(*) FROM Repair WHERE hotelID = ? AND roomNo = ? AND %s BETWEEN ? AND ?") {
+         Object[] params (Random r) {
+            int[] room = room(r);
+            int year = day(r).getYear();
+            return new Object[] {room[0], room[1], sqlDate(LocalDate.of(year, 1, 1)),
+                                 sqlDate(LocalDate.of(year, 12, 31))};
+         }
+      });
+      return q;
+   }//end queries
+
+   /**
+    * Returns the partitions the plan of a query reads
+    */
+   TreeSet<String> partitions (String sql, Object[] params) throws Exception {
+      TreeSet<String> names = new TreeSet<String>();
+      try {
+         ResultSet rs = this._esql.executeQuery("EXPLAIN " + sql, false, params);
+         while (rs.next()) {
+            Matcher m = PARTITION.matcher(rs.getString(1));
+            while (m.find()) {
+               names.add(m.group(1));
+            }//end while
+         }//end while
+      } finally {
+         this._esql.releaseSession();
+      }//end try
+      return names;
+   }//end partitions
+
+   /**
+    * Runs one variant of a query over the given parameters.
+    */
+   Benchmark.Stats run (String operation, String sql, List<Object[]> params, int warmup) throws Exception {
+      int errors = 0;
+      long[] nanos = new long[params.size()];
+      try {
+         for (int i = 0; i < Math.min(warmup, params.size()); ++i) {
+            drain(this._esql.executeQuery(sql, false, params.get(i)));
+         }//end for
+         long wall = System.nanoTime();
+         for (int i = 0; i < params.size(); ++i) {
+            long start = System.nanoTime();
+            try {
+               drain(this._esql.executeQuery(sql, false, params.get(i)));
+            }catch (java.sql.SQLException e) {
+               ++errors;
+            }//end try
+            nanos[i] = System.nanoTime() - start;
+         }//end for
+         wall = System.nanoTime() - wall;
+         Arrays.sort(nanos);
+         return new Benchmark.Stats(operation, nanos, wall, 0, errors);
+      } finally {
+         this._esql.releaseSession();
+      }//end try
+   }//end run
+
+   private static void drain (ResultSet rs) throws java.sql.SQLException {
+      while (rs.next()) {
+         rs.getObject(1);
+      }//end while
+   }//end drain
+
+   /**
+    * Runs the benchmark from the command line
+    *
+    * @param args <dbname> <port> <user> [--warmup N] [--iterations N] [--seed N] [--label text] [--csv file]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            PruningBenchmark.class.getName () +
+            " <dbname> <port> <user> [--warmup N] [--iterations N] [--seed N] [--label text] [--csv file]");
+         return;
+      }//end if
+      int warmup = 20;
+      int iterations = 200;
+      long seed = 42;
+      String label = "";
+      File csv = null;
+      for (int i = 3; i < args.length; ++i) {
+         if (args[i].equals("--warmup")) {
+            warmup = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--iterations")) {
+            iterations = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("--seed")) {
+            seed = Long.parseLong(args[++i]);
+         } else if (args[i].equals("--label")) {
+            label = args[++i];
+         } else if (args[i].equals("--csv")) {
+            csv = new File(args[++i]);
+         } else {
+            System.err.println("Unknown option " + args[i]);
+            return;
+         }//end if
+      }//end for
+
+      DBProject esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", 1);
+         PruningBenchmark bench = new PruningBenchmark(esql);
+         bench.prepare();
+         System.out.println(String.format("%d warmup and %d measured invocations per query and variant",
+                                          warmup, iterations));
+         Benchmark.printHeader(System.out);
+         List<Benchmark.Stats> results = new ArrayList<Benchmark.Stats>();
+         for (Query q : bench.queries()) {
+            Random r = new Random(seed);
+            List<Object[]> params = new ArrayList<Object[]>();
+            for (int i = 0; i < iterations; ++i) {
+               params.add(q.params(r));
+            }//end for
+            for (boolean pruned : new boolean[] {true, false}) {
+               String sql = q.sql(pruned);
+               Benchmark.Stats s = bench.run(q.name + (pruned ? "/pruned" : "/full"), sql, params, warmup);
+               Benchmark.print(System.out, s);
+               TreeSet<String> read = bench.partitions(sql, params.get(0));
+               System.out.println("   reads " + read.size() + " partition(s) " + read);
+               results.add(s);
+            }//end for
+         }//end for
+         if (csv != null) {
+            Benchmark.appendCsv(csv, label, 1, results);
+         }//end if
+      }catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) {
+            esql.cleanup ();
+         }//end if
+      }//end try
+   }//end main
+
+}//end PruningBenchmark
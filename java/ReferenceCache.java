@@ -0,0 +1,390 @@
+/*
+ * Reference data cache
+ * ====================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class caches the rows of Hotel, Room, Staff and MaintenanceCompany
+ * that the write operations probe before they insert anything, so a
+ * repeated check costs no round trip.  Lookups read through: a key that is
+ * not cached is read from the database and remembered, whether the row
+ * exists or not.  Every table has its own size-bounded LRU map keyed by a
+ * primitive long, (hotelID, roomNo) packed into one, and entries expire
+ * after a while so rows written by other clients are eventually seen.  The
+ * operations that insert into these tables invalidate what they change.
+ *
+ * The sizes and the expiry come from -Ddbproject.refcache.size (entries per
+ * table, 0 turns caching off) and -Ddbproject.refcache.ttlSeconds.  The
+ * cache is thread safe.
+ */
+public class ReferenceCache {
+
+   public static final int DEFAULT_SIZE = Integer.getInteger("dbproject.refcache.size", 10000);
+   public static final long DEFAULT_TTL_MILLIS = Long.getLong("dbproject.refcache.ttlSeconds", 300L) * 1000;
+
+   // cached in place of a row that does not exist
+   private static final Object ABSENT = new Object();
+
+   /**
+    * A staff member as far as the operations check one.
+    */
+   public static class Staff {
+      public final int ssn;
+      public final String fName;
+      public final String role;
+      public final int employerID;
+
+      Staff (int ssn, String fName, String role, int employerID) {
+         this.ssn = ssn;
+         this.fName = fName;
+         this.role = role;
+         this.employerID = employerID;
+      }//end Staff
+   }//end Staff
+
+   // reads one row for a key, or returns null when there is none
+   private interface Loader {
+      Object load (DBProject esql, long key) throws SQLException;
+   }//end Loader
+
+   private final Lru _hotels;      // hotelID -> manager SSN, -1 for none
+   private final Lru _rooms;       // (hotelID, roomNo) -> roomType
+   private final Lru _staff;       // SSN -> Staff
+   private final Lru _companies;   // cmpID -> isCertified
+
+   /**
+    * Creates a cache with the default size and expiry
+    */
+   public ReferenceCache () {
+      this(DEFAULT_SIZE, DEFAULT_TTL_MILLIS);
+   }//end ReferenceCache
+
+   /**
+    * Creates a cache
+    *
+    * @param size the number of entries kept per table, 0 for none
+    * @param ttlMillis how long an entry is trusted
+    */
+   public ReferenceCache (int size, long ttlMillis) {
+      this._hotels = new Lru("Hotel", size, ttlMillis, (esql, key) -> {
+         ResultSet rs = esql.executeQuery("SELECT manager FROM Hotel WHERE hotelID = ?", false, (int) key);
+         if (!rs.next()) {
+            return null;
+         }//end if
+         int manager = rs.getInt(1);
+         return rs.wasNull() ? -1 : manager;
+      });
+      this._rooms = new Lru("Room", size, ttlMillis, (esql, key) -> {
+         ResultSet rs = esql.executeQuery("SELECT roomType FROM Room WHERE hotelID = ? AND roomNo = ?", false,
+                                          (int) (key >> 32), (int) key);
+         return rs.next() ? String.valueOf(rs.getString(1)) : null;
+      });
+      this._staff = new Lru("Staff", size, ttlMillis, (esql, key) -> {
+         ResultSet rs = esql.executeQuery("SELECT fName, role, employerID FROM Staff WHERE SSN = ?", false, (int) key);
+         return rs.next() ? new Staff((int) key, rs.getString(1), rs.getString(2), rs.getInt(3)) : null;
+      });
+      this._companies = new Lru("MaintenanceCompany", size, ttlMillis, (esql, key) -> {
+         ResultSet rs = esql.executeQuery("SELECT isCertified FROM MaintenanceCompany WHERE cmpID = ?", false,
+                                          (int) key);
+         return rs.next() ? Boolean.valueOf(rs.getBoolean(1)) : null;
+      });
+   }//end ReferenceCache
+
+   private static long roomKey (int hotelID, int roomNo) {
+      return ((long) hotelID << 32) | (roomNo & 0xffffffffL);
+   }//end roomKey
+
+   /**
+    * @return whether the hotel exists
+    * @throws java.sql.SQLException when the hotel could not be read
+    */
+   public boolean hotelExists (DBProject esql, int hotelID) throws SQLException {
+      return this._hotels.get(esql, hotelID) != null;
+   }//end hotelExists
+
+   /**
+    * @return whether the staff member manages the hotel
+    * @throws java.sql.SQLException when the hotel could not be read
+    */
+   public boolean isManager (DBProject esql, int hotelID, int ssn) throws SQLException {
+      Object manager = this._hotels.get(esql, hotelID);
+      return manager != null && ((Integer) manager).intValue() == ssn;
+   }//end isManager
+
+   /**
+    * @return whether the hotel has the room
+    * @throws java.sql.SQLException when the room could not be read
+    */
+   public boolean roomExists (DBProject esql, int hotelID, int roomNo) throws SQLException {
+      return this._rooms.get(esql, roomKey(hotelID, roomNo)) != null;
+   }//end roomExists
+
+   /**
+    * @return the staff member, or null when there is none with that SSN
+    * @throws java.sql.SQLException when the staff member could not be read
+    */
+   public Staff staff (DBProject esql, int ssn) throws SQLException {
+      return (Staff) this._staff.get(esql, ssn);
+   }//end staff
+
+   /**
+    * @return whether the maintenance company exists and is certified
+    * @throws java.sql.SQLException when the company could not be read
+    */
+   public boolean isCertified (DBProject esql, int cmpID) throws SQLException {
+      return Boolean.TRUE.equals(this._companies.get(esql, cmpID));
+   }//end isCertified
+
+   public void invalidateHotel (int hotelID) {
+      this._hotels.remove(hotelID);
+   }//end invalidateHotel
+
+   public void invalidateRoom (int hotelID, int roomNo) {
+      this._rooms.remove(roomKey(hotelID, roomNo));
+   }//end invalidateRoom
+
+   public void invalidateStaff (int ssn) {
+      this._staff.remove(ssn);
+   }//end invalidateStaff
+
+   public void invalidateCompany (int cmpID) {
+      this._companies.remove(cmpID);
+   }//end invalidateCompany
+
+   /**
+    * Drops every cached entry
+    */
+   public void invalidateAll () {
+      this._hotels.clear();
+      this._rooms.clear();
+      this._staff.clear();
+      this._companies.clear();
+   }//end invalidateAll
+
+   /**
+    * @return one line per table with its hits, misses and hit ratio
+    */
+   public String report () {
+      return this._hotels.report() + "\n" + this._rooms.report() + "\n" + this._staff.report() + "\n"
+         + this._companies.report();
+   }//end report
+
+   /**
+    * @return the hit ratio over all tables, from 0 to 1
+    */
+   public double getHitRatio () {
+      long hits = this._hotels.hits() + this._rooms.hits() + this._staff.hits() + this._companies.hits();
+      long misses = this._hotels.misses() + this._rooms.misses() + this._staff.misses() + this._companies.misses();
+      return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+   }//end getHitRatio
+
+   /**
+    * A long-keyed LRU map in parallel arrays: a chained hash table over the
+    * slots, and a doubly linked list of the slots from most to least
+    * recently used.  No object is allocated per entry.
+    */
+   static final class Lru {
+      private static final int NIL = -1;
+
+      private final String _name;
+      private final int _size;
+      private final long _ttlMillis;
+      private final Loader _loader;
+      private final int _bits;
+      private final int[] _buckets;
+      private final int[] _chain;      // next slot in the same bucket; next free slot when free
+      private final long[] _keys;
+      private final Object[] _values;
+      private final long[] _loadedAt;
+      private final int[] _prev;
+      private final int[] _next;
+      private int _head = NIL;         // most recently used
+      private int _tail = NIL;         // least recently used
+      private int _free = NIL;
+      private int _used = 0;           // slots ever handed out
+      private long _hits = 0;
+      private long _misses = 0;
+      private long _version = 0;       // bumped by every invalidation
+
+      Lru (String name, int size, long ttlMillis, Loader loader) {
+         this._name = name;
+         this._size = Math.max(0, size);
+         this._ttlMillis = ttlMillis;
+         this._loader = loader;
+         int bits = 1;
+         while ((1 << bits) < this._size * 2) {
+            ++bits;
+         }//end while
+         this._bits = bits;
+         this._buckets = new int[1 << bits];
+         java.util.Arrays.fill(this._buckets, NIL);
+         this._chain = new int[this._size];
+         this._keys = new long[this._size];
+         this._values = new Object[this._size];
+         this._loadedAt = new long[this._size];
+         this._prev = new int[this._size];
+         this._next = new int[this._size];
+      }//end Lru
+
+      // returns the value of a key, reading it through on a miss; null when there is no row
+      Object get (DBProject esql, long key) throws SQLException {
+         long version;
+         synchronized (this) {
+            int slot = find(key);
+            if (slot != NIL && System.currentTimeMillis() - this._loadedAt[slot] < this._ttlMillis) {
+               ++this._hits;
+               moveToFront(slot);
+               return this._values[slot] == ABSENT ? null : this._values[slot];
+            }//end if
+            if (slot != NIL) {
+               unlink(slot);
+            }//end if
+            ++this._misses;
+            version = this._version;
+         }//end synchronized
+         // the round trip is made without the lock
+         Object value = this._loader.load(esql, key);
+         put(key, value == null ? ABSENT : value, version);
+         return value;
+      }//end get
+
+      synchronized void remove (long key) {
+         ++this._version;
+         int slot = find(key);
+         if (slot != NIL) {
+            unlink(slot);
+         }//end if
+      }//end remove
+
+      synchronized void clear () {
+         ++this._version;
+         while (this._head != NIL) {
+            unlink(this._head);
+         }//end while
+      }//end clear
+
+      synchronized long hits () {
+         return this._hits;
+      }//end hits
+
+      synchronized long misses () {
+         return this._misses;
+      }//end misses
+
+      synchronized String report () {
+         long total = this._hits + this._misses;
+         return String.format("%-20s %10d hits %10d misses %6.1f%% hit ratio", this._name, this._hits,
+                              this._misses, total == 0 ? 0.0 : 100.0 * this._hits / total);
+      }//end report
+
+      // a value read before an invalidation may be stale, and is not kept
+      private synchronized void put (long key, Object value, long version) {
+         if (this._size == 0 || version != this._version) {
+            return;
+         }//end if
+         int slot = find(key);
+         if (slot == NIL) {
+            if (this._free != NIL) {
+               slot = this._free;
+               this._free = this._chain[slot];
+            } else if (this._used < this._size) {
+               slot = this._used++;
+            } else {
+               slot = this._tail;
+               unlink(slot);
+               this._free = this._chain[slot];
+            }//end if
+            this._keys[slot] = key;
+            int b = bucketOf(key);
+            this._chain[slot] = this._buckets[b];
+            this._buckets[b] = slot;
+            this._prev[slot] = NIL;
+            this._next[slot] = this._head;
+            if (this._head != NIL) {
+               this._prev[this._head] = slot;
+            }//end if
+            this._head = slot;
+            if (this._tail == NIL) {
+               this._tail = slot;
+            }//end if
+         } else {
+            moveToFront(slot);
+         }//end if
+         this._values[slot] = value;
+         this._loadedAt[slot] = System.currentTimeMillis();
+      }//end put
+
+      private int bucketOf (long key) {
+         return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - this._bits));
+      }//end bucketOf
+
+      private int find (long key) {
+         if (this._size == 0) {
+            return NIL;
+         }//end if
+         for (int s = this._buckets[bucketOf(key)]; s != NIL; s = this._chain[s]) {
+            if (this._keys[s] == key) {
+               return s;
+            }//end if
+         }//end for
+         return NIL;
+      }//end find
+
+      private void moveToFront (int slot) {
+         if (slot == this._head) {
+            return;
+         }//end if
+         // out of the list ...
+         this._next[this._prev[slot]] = this._next[slot];
+         if (this._next[slot] != NIL) {
+            this._prev[this._next[slot]] = this._prev[slot];
+         } else {
+            this._tail = this._prev[slot];
+         }//end if
+         // ... and back in at the head
+         this._prev[slot] = NIL;
+         this._next[slot] = this._head;
+         this._prev[this._head] = slot;
+         this._head = slot;
+      }//end moveToFront
+
+      // takes a slot out of its bucket and the list, and frees it
+      private void unlink (int slot) {
+         int b = bucketOf(this._keys[slot]);
+         if (this._buckets[b] == slot) {
+            this._buckets[b] = this._chain[slot];
+         } else {
+            int s = this._buckets[b];
+            while (this._chain[s] != slot) {
+               s = this._chain[s];
+            }//end while
+            this._chain[s] = this._chain[slot];
+         }//end if
+         if (this._prev[slot] != NIL) {
+            this._next[this._prev[slot]] = this._next[slot];
+         } else {
+            this._head = this._next[slot];
+         }//end if
+         if (this._next[slot] != NIL) {
+            this._prev[this._next[slot]] = this._prev[slot];
+         } else {
+            this._tail = this._prev[slot];
+         }//end if
+         this._values[slot] = null;
+         this._chain[slot] = this._free;
+         this._free = slot;
+      }//end unlink
+   }//end Lru
+
+}//end ReferenceCache
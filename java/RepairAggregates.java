@@ -0,0 +1,295 @@
+/*
+ * Repair aggregates
+ * =================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * This class mirrors the repair summary tables of sql/create.sql
+ * (RepairCountByCompany and RepairCountByRoomYear, which a trigger on
+ * Repair keeps current) in memory.  Company counts are kept grouped by
+ * company name (trimmed of its CHAR(30) padding), like
+ * topKMaintenanceCompany reports them, in a set ordered by count, so the
+ * top k companies are read off its head; per-room counts are kept per
+ * (hotelID, roomNo) by year.
+ *
+ * addRepair keeps the mirror current for this client's own inserts.
+ * verify() compares the mirror and the summary tables against a full
+ * recount of Repair.  The class is thread safe.
+ */
+public class RepairAggregates {
+
+   /**
+    * A company name with its repair count.
+    */
+   public static class CompanyCount implements Comparable<CompanyCount> {
+      public final String name;
+      public final long count;
+
+      CompanyCount (String name, long count) {
+         this.name = name;
+         this.count = count;
+      }//end CompanyCount
+
+      // highest count first, then by name so equal counts stay distinct
+      public int compareTo (CompanyCount o) {
+         int c = Long.compare(o.count, this.count);
+         return c != 0 ? c : this.name.compareTo(o.name);
+      }//end compareTo
+   }//end CompanyCount
+
+   private final Map<Integer, String> _companyNames = new HashMap<Integer, String>();
+   private final Map<String, Long> _byName = new HashMap<String, Long>();
+   private final TreeSet<CompanyCount> _ranking = new TreeSet<CompanyCount>();
+   private final Map<Long, TreeMap<Integer, Long>> _byRoom = new HashMap<Long, TreeMap<Integer, Long>>();
+   private boolean _warm = false;
+
+   /**
+    * Replaces the mirror with the contents of the summary tables.
+    *
+    * @param esql the DBProject used to read the summary tables
+    * @throws java.sql.SQLException when the tables could not be read
+    */
+   public void load (DBProject esql) throws SQLException {
+      final Map<Integer, String> names = new HashMap<Integer, String>();
+      final Map<String, Long> byName = new HashMap<String, Long>();
+      final Map<Long, TreeMap<Integer, Long>> byRoom = new HashMap<Long, TreeMap<Integer, Long>>();
+      esql.streamQuery("SELECT mc.cmpID, mc.name, COALESCE(rc.repairCount, 0)"
+                       + " FROM MaintenanceCompany mc LEFT JOIN RepairCountByCompany rc ON rc.mCompany = mc.cmpID", rs -> {
+         String name = rs.getString(2).trim();
+         names.put(rs.getInt(1), name);
+         long count = rs.getLong(3);
+         if (count > 0) {
+            Long old = byName.get(name);
+            byName.put(name, (old == null ? 0 : old) + count);
+         }//end if
+      });
+      esql.streamQuery("SELECT hotelID, roomNo, repairYear, repairCount FROM RepairCountByRoomYear"
+                       + " WHERE repairCount > 0", rs -> {
+         TreeMap<Integer, Long> years = byRoom.get(roomKey(rs.getInt(1), rs.getInt(2)));
+         if (years == null) {
+            years = new TreeMap<Integer, Long>();
+            byRoom.put(roomKey(rs.getInt(1), rs.getInt(2)), years);
+         }//end if
+         years.put(rs.getInt(3), rs.getLong(4));
+      });
+      synchronized (this) {
+         this._companyNames.clear();
+         this._companyNames.putAll(names);
+         this._byName.clear();
+         this._ranking.clear();
+         for (Map.Entry<String, Long> e : byName.entrySet()) {
+            this._byName.put(e.getKey(), e.getValue());
+            this._ranking.add(new CompanyCount(e.getKey(), e.getValue()));
+         }//end for
+         this._byRoom.clear();
+         this._byRoom.putAll(byRoom);
+         this._warm = true;
+      }//end synchronized
+   }//end load
+
+   /**
+    * @return whether load() has completed and the mirror can answer reports
+    */
+   public synchronized boolean isWarm () {
+      return this._warm;
+   }//end isWarm
+
+   /**
+    * Records a newly added maintenance company.
+    */
+   public synchronized void addCompany (int cmpID, String name) {
+      this._companyNames.put(cmpID, name.trim());
+   }//end addCompany
+
+   /**
+    * Records a repair that was just inserted.
+    *
+    * @param cmpID the maintenance company that made the repair
+    * @param hotelID the hotel of the repaired room
+    * @param roomNo the repaired room
+    * @param year the year of the repair date
+    */
+   public synchronized void addRepair (int cmpID, int hotelID, int roomNo, int year) {
+      if (!this._warm) {
+         return;
+      }//end if
+      String name = this._companyNames.get(cmpID);
+      if (name != null) {
+         Long old = this._byName.get(name);
+         long count = old == null ? 0 : old;
+         if (old != null) {
+            this._ranking.remove(new CompanyCount(name, count));
+         }//end if
+         this._byName.put(name, count + 1);
+         this._ranking.add(new CompanyCount(name, count + 1));
+      }//end if
+      long key = roomKey(hotelID, roomNo);
+      TreeMap<Integer, Long> years = this._byRoom.get(key);
+      if (years == null) {
+         years = new TreeMap<Integer, Long>();
+         this._byRoom.put(key, years);
+      }//end if
+      Long old = years.get(year);
+      years.put(year, (old == null ? 0 : old) + 1);
+   }//end addRepair
+
+   /**
+    * @return the k company names with the most repairs, most repairs first
+    */
+   public synchronized List<CompanyCount> topCompanies (int k) {
+      List<CompanyCount> top = new ArrayList<CompanyCount>();
+      for (CompanyCount c : this._ranking) {
+         if (top.size() >= k) {
+            break;
+         }//end if
+         top.add(c);
+      }//end for
+      return top;
+   }//end topCompanies
+
+   /**
+    * @return year -> number of repairs of one room, ordered by year
+    */
+   public synchronized TreeMap<Integer, Long> repairsPerYear (int hotelID, int roomNo) {
+      TreeMap<Integer, Long> years = this._byRoom.get(roomKey(hotelID, roomNo));
+      return years == null ? new TreeMap<Integer, Long>() : new TreeMap<Integer, Long>(years);
+   }//end repairsPerYear
+
+   /**
+    * Recounts Repair from scratch and compares the result with the summary
+    * tables and, if it is warm, with the in-memory mirror.
+    *
+    * @param esql the DBProject used to read the tables
+    * @return one line per difference found; empty when consistent
+    * @throws java.sql.SQLException when the tables could not be read
+    */
+   public List<String> verify (DBProject esql) throws SQLException {
+      final List<String> problems = new ArrayList<String>();
+      final Map<String, Long> recountByName = new HashMap<String, Long>();
+
+      esql.streamQuery("SELECT COALESCE(r.mCompany, rc.mCompany), COALESCE(r.cnt, 0), COALESCE(rc.repairCount, 0)"
+                       + " FROM (SELECT mCompany, COUNT(*) AS cnt FROM Repair GROUP BY mCompany) r"
+                       + " FULL JOIN RepairCountByCompany rc ON rc.mCompany = r.mCompany"
+                       + " WHERE COALESCE(r.cnt, 0) <> COALESCE(rc.repairCount, 0)", rs -> {
+         problems.add("RepairCountByCompany: company " + rs.getString(1) + " has " + rs.getLong(3)
+                      + ", recount " + rs.getLong(2));
+      });
+      esql.streamQuery("SELECT COALESCE(r.hotelID, s.hotelID), COALESCE(r.roomNo, s.roomNo),"
+                       + " COALESCE(r.year, s.repairYear), COALESCE(r.cnt, 0), COALESCE(s.repairCount, 0)"
+                       + " FROM (SELECT hotelID, roomNo, EXTRACT(YEAR FROM repairDate) AS year, COUNT(*) AS cnt"
+                       + " FROM Repair GROUP BY hotelID, roomNo, year) r"
+                       + " FULL JOIN RepairCountByRoomYear s"
+                       + " ON s.hotelID = r.hotelID AND s.roomNo = r.roomNo AND s.repairYear = r.year"
+                       + " WHERE COALESCE(r.cnt, 0) <> COALESCE(s.repairCount, 0)", rs -> {
+         problems.add("RepairCountByRoomYear: hotel " + rs.getInt(1) + " room " + rs.getInt(2)
+                      + " year " + rs.getInt(3) + " has " + rs.getLong(5) + ", recount " + rs.getLong(4));
+      });
+
+      if (!isWarm()) {
+         return problems;
+      }//end if
+      final Map<Long, TreeMap<Integer, Long>> recountByRoom = new HashMap<Long, TreeMap<Integer, Long>>();
+      esql.streamQuery("SELECT mc.name, COUNT(rep.rID) FROM Repair rep, MaintenanceCompany mc"
+                       + " WHERE mc.cmpID = rep.mCompany GROUP BY mc.name", rs -> {
+         recountByName.put(rs.getString(1).trim(), rs.getLong(2));
+      });
+      esql.streamQuery("SELECT hotelID, roomNo, EXTRACT(YEAR FROM repairDate) AS year, COUNT(rID)"
+                       + " FROM Repair GROUP BY hotelID, roomNo, year", rs -> {
+         long key = roomKey(rs.getInt(1), rs.getInt(2));
+         TreeMap<Integer, Long> years = recountByRoom.get(key);
+         if (years == null) {
+            years = new TreeMap<Integer, Long>();
+            recountByRoom.put(key, years);
+         }//end if
+         years.put(rs.getInt(3), rs.getLong(4));
+      });
+      synchronized (this) {
+         if (!recountByName.equals(this._byName)) {
+            for (String name : recountByName.keySet()) {
+               if (!recountByName.get(name).equals(this._byName.get(name))) {
+                  problems.add("mirror: company " + name + " has " + this._byName.get(name)
+                               + ", recount " + recountByName.get(name));
+               }//end if
+            }//end for
+            for (String name : this._byName.keySet()) {
+               if (!recountByName.containsKey(name)) {
+                  problems.add("mirror: company " + name + " has " + this._byName.get(name)
+                               + ", recount 0");
+               }//end if
+            }//end for
+         }//end if
+         if (!recountByRoom.equals(this._byRoom)) {
+            for (Long key : recountByRoom.keySet()) {
+               if (!recountByRoom.get(key).equals(this._byRoom.get(key))) {
+                  problems.add("mirror: hotel " + (key >> 32) + " room " + (int) (long) key
+                               + " has " + this._byRoom.get(key) + ", recount " + recountByRoom.get(key));
+               }//end if
+            }//end for
+            for (Long key : this._byRoom.keySet()) {
+               if (!recountByRoom.containsKey(key)) {
+                  problems.add("mirror: hotel " + (key >> 32) + " room " + (int) (long) key
+                               + " has " + this._byRoom.get(key) + ", recount {}");
+               }//end if
+            }//end for
+         }//end if
+      }//end synchronized
+      return problems;
+   }//end verify
+
+   // packs (hotelID, roomNo) into one primitive key
+   static long roomKey (int hotelID, int roomNo) {
+      return ((long) hotelID << 32) | (roomNo & 0xffffffffL);
+   }//end roomKey
+
+   /**
+    * Runs the consistency check from the command line
+    *
+    * @param args <dbname> <port> <user>
+    */
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            RepairAggregates.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+      DBProject esql = null;
+      try {
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new DBProject (args[0], args[1], args[2], "", 1);
+         RepairAggregates aggregates = new RepairAggregates();
+         aggregates.load(esql);
+         List<String> problems = aggregates.verify(esql);
+         for (String p : problems) {
+            System.out.println(p);
+         }//end for
+         System.out.println(problems.isEmpty() ? "Repair aggregates are consistent"
+                            : problems.size() + " inconsistencies found");
+      }catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) {
+            esql.cleanup ();
+         }//end if
+      }//end try
+   }//end main
+
+}//end RepairAggregates
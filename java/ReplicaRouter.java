@@ -0,0 +1,301 @@
+/*
+ * Replica router
+ * ==============
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class sends the sessions of the report operations to streaming
+ * replicas of the primary, so reporting load does not slow the bookings.
+ * The replicas are listed in dbproject.replicas as host:port[/dbname],
+ * separated by commas; without it every session goes to the primary.
+ *
+ * A timer checks every dbproject.replica.checkMillis how far each replica
+ * has got: it samples the primary's WAL position and each replica's replay
+ * position, and a replica is caught up to the last primary sample it has
+ * replayed.  A report session goes to a replica, round robin, only when it
+ * is up and caught up to a sample taken after both
+ *
+ *  - dbproject.replica.maxLagMillis ago, so reports are never staler than
+ *    that, and
+ *  - the end of the last write operation of this client, so a report sees
+ *    what the client itself just wrote (read your writes).
+ *
+ * Otherwise, and when a replica cannot be reached, the session goes to the
+ * primary.  Write operations, and the reads they check their input with,
+ * always run on the primary.  An instance that is not a standby has no
+ * replay position and is never used, unless
+ * -Ddbproject.replica.trustStandalone=true treats it as always current, as
+ * when a second local instance loaded with the same data stands in for a
+ * replica in testing.
+ *
+ * The class is thread safe.
+ */
+public class ReplicaRouter {
+
+   static final long MAX_LAG_MILLIS = Long.getLong("dbproject.replica.maxLagMillis", 5000L);
+   static final long CHECK_MILLIS = Long.getLong("dbproject.replica.checkMillis", 1000L);
+   static final boolean TRUST_STANDALONE =
+      Boolean.parseBoolean(System.getProperty("dbproject.replica.trustStandalone", "false"));
+
+   // primary WAL samples kept, enough to cover the largest lag reported
+   private static final int MAX_SAMPLES = 256;
+
+   /**
+    * One replica and what the last check found.
+    */
+   static class Replica {
+      final String name;
+      final ConnectionPool pool;
+      volatile boolean up = false;
+      volatile long caughtUpTo = Long.MIN_VALUE;   // nanoTime of the last primary sample replayed
+      volatile long lagMillis = -1;
+      volatile String state = "not checked yet";
+      final AtomicLong reads = new AtomicLong();
+
+      Replica (String name, ConnectionPool pool) {
+         this.name = name;
+         this.pool = pool;
+      }//end Replica
+   }//end Replica
+
+   private final ConnectionPool _primary;
+   private final List<Replica> _replicas = new ArrayList<Replica>();
+   private final Deque<long[]> _samples = new ArrayDeque<long[]>();   // {nanoTime, primary WAL position}
+   private final AtomicInteger _next = new AtomicInteger();
+   private final AtomicLong _primaryReads = new AtomicLong();
+   private final AtomicLong _fallbacks = new AtomicLong();
+   private volatile long _lastWrite = Long.MIN_VALUE;
+   private Timer _checker = null;
+
+   /**
+    * Creates the router of a DBProject, with a pool per configured replica
+    *
+    * @param primary the pool of the primary
+    * @param dbname the database, unless a replica names another one
+    * @param user the user name used to login to the replicas
+    * @param passwd the user login password
+    * @param maxSize the maximum number of open connections per replica
+    * @param idleTimeoutMillis how long a replica connection may stay idle
+    * @param borrowTimeoutMillis how long to wait for a free replica connection
+    */
+   public ReplicaRouter (ConnectionPool primary, String dbname, String user, String passwd, int maxSize,
+                         long idleTimeoutMillis, long borrowTimeoutMillis) {
+      this._primary = primary;
+      for (String spec : System.getProperty("dbproject.replicas", "").split(",")) {
+         spec = spec.trim();
+         if (spec.isEmpty()) {
+            continue;
+         }//end if
+         String url = "jdbc:postgresql://" + (spec.indexOf('/') < 0 ? spec + "/" + dbname : spec);
+         this._replicas.add(new Replica(spec, new ConnectionPool(url, user, passwd, maxSize,
+                                                                 idleTimeoutMillis, borrowTimeoutMillis)));
+      }//end for
+      if (!this._replicas.isEmpty()) {
+         this._checker = new Timer("ReplicaRouter-checker", true);
+         this._checker.schedule(new TimerTask() {
+            public void run () {
+               check();
+            }
+         }, 0, Math.max(CHECK_MILLIS, 10));
+      }//end if
+   }//end ReplicaRouter
+
+   /**
+    * @return whether any replica is configured
+    */
+   public boolean hasReplicas () {
+      return !this._replicas.isEmpty();
+   }//end hasReplicas
+
+   /**
+    * @return whether an operation of the menu only reads, and so may run on a replica
+    */
+   public static boolean isReport (int choice) {
+      return (choice >= 8 && choice <= 16) || (choice >= 18 && choice <= 20);
+   }//end isReport
+
+   /**
+    * Notes that a write operation of this client has completed; reports
+    * stay on the primary until a replica has replayed it
+    */
+   public void wrote () {
+      this._lastWrite = System.nanoTime();
+   }//end wrote
+
+   /**
+    * Returns the pool a report session should borrow from: the next replica
+    * that is up and current enough, or the primary
+    */
+   public ConnectionPool readPool () {
+      if (this._replicas.isEmpty()) {
+         return this._primary;
+      }//end if
+      long since = Math.max(this._lastWrite, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(MAX_LAG_MILLIS));
+      int n = this._replicas.size();
+      int first = Math.abs(this._next.getAndIncrement() % n);
+      for (int i = 0; i < n; ++i) {
+         Replica r = this._replicas.get((first + i) % n);
+         if (r.up && r.caughtUpTo != Long.MIN_VALUE && r.caughtUpTo - since >= 0) {
+            r.reads.incrementAndGet();
+            return r.pool;
+         }//end if
+      }//end for
+      this._fallbacks.incrementAndGet();
+      this._primaryReads.incrementAndGet();
+      return this._primary;
+   }//end readPool
+
+   /**
+    * Takes a replica out of rotation after a connection to it failed; the
+    * next check brings it back once it answers again
+    *
+    * @param pool the pool of the replica
+    * @param e what went wrong
+    */
+   public void failed (ConnectionPool pool, SQLException e) {
+      for (Replica r : this._replicas) {
+         if (r.pool == pool && r.up) {
+            r.up = false;
+            r.state = "down: " + e.getMessage();
+            System.err.println("Replica " + r.name + " is down, reports go to the primary: " + e.getMessage());
+         }//end if
+      }//end for
+      this._fallbacks.incrementAndGet();
+      this._primaryReads.incrementAndGet();
+   }//end failed
+
+   // samples the primary's WAL position, then each replica's replay position
+   private void check () {
+      long now = System.nanoTime();
+      try {
+         String lsn = query(this._primary, "SELECT pg_current_wal_lsn()::text")[0];
+         synchronized (this._samples) {
+            this._samples.addLast(new long[] {now, parseLsn(lsn)});
+            while (this._samples.size() > MAX_SAMPLES) {
+               this._samples.removeFirst();
+            }//end while
+         }//end synchronized
+      }catch (SQLException e) {
+         // without a primary sample the replicas cannot get more current
+      }//end try
+      for (Replica r : this._replicas) {
+         boolean wasUp = r.up;
+         try {
+            String[] row = query(r.pool, "SELECT pg_is_in_recovery()::text, pg_last_wal_replay_lsn()::text");
+            if (!"true".equals(row[0]) || row[1] == null) {
+               r.caughtUpTo = TRUST_STANDALONE ? System.nanoTime() : Long.MIN_VALUE;
+               r.lagMillis = TRUST_STANDALONE ? 0 : -1;
+               r.up = TRUST_STANDALONE;
+               r.state = TRUST_STANDALONE ? "standalone, trusted" : "not a standby";
+            } else {
+               long replayed = parseLsn(row[1]);
+               r.caughtUpTo = caughtUpTo(replayed);
+               r.lagMillis = r.caughtUpTo == Long.MIN_VALUE ? -1
+                             : TimeUnit.NANOSECONDS.toMillis(Math.max(0, now - r.caughtUpTo));
+               r.up = true;
+               r.state = r.lagMillis < 0 ? "behind every sample" : "streaming";
+            }//end if
+         }catch (SQLException e) {
+            r.up = false;
+            r.state = "down: " + e.getMessage();
+         }//end try
+         if (wasUp != r.up) {
+            System.err.println("Replica " + r.name + (r.up ? " is up" : " is " + r.state));
+         }//end if
+      }//end for
+   }//end check
+
+   // the newest primary sample a replay position has reached
+   private long caughtUpTo (long replayed) {
+      synchronized (this._samples) {
+         Iterator<long[]> newest = this._samples.descendingIterator();
+         while (newest.hasNext()) {
+            long[] s = newest.next();
+            if (s[1] <= replayed) {
+               return s[0];
+            }//end if
+         }//end while
+      }//end synchronized
+      return Long.MIN_VALUE;
+   }//end caughtUpTo
+
+   // runs a one-row query on a connection of a pool
+   private static String[] query (ConnectionPool pool, String sql) throws SQLException {
+      ConnectionPool.PooledConnection pc = pool.borrow();
+      boolean ok = false;
+      try (Statement stmt = pc.connection.createStatement()) {
+         ResultSet rs = stmt.executeQuery(sql);
+         int columns = rs.getMetaData().getColumnCount();
+         String[] row = new String[columns];
+         if (rs.next()) {
+            for (int i = 0; i < columns; ++i) {
+               row[i] = rs.getString(i + 1);
+            }//end for
+         }//end if
+         ok = true;
+         return row;
+      } finally {
+         if (ok) {
+            pool.release(pc);
+         } else {
+            pool.discard(pc);
+         }//end if
+      }//end try
+   }//end query
+
+   // a WAL position as PostgreSQL prints it, e.g. 16/B374D848
+   static long parseLsn (String lsn) {
+      int slash = lsn.indexOf('/');
+      return (Long.parseLong(lsn.substring(0, slash), 16) << 32) | Long.parseLong(lsn.substring(slash + 1), 16);
+   }//end parseLsn
+
+   /**
+    * @return one line per replica with its state, lag and reads, and the reports the primary ran
+    */
+   public String report () {
+      StringBuilder sb = new StringBuilder();
+      for (Replica r : this._replicas) {
+         sb.append(String.format(Locale.ROOT, "%-24s %-24s lag %6s ms %10d reads%n", r.name, r.state,
+                                 r.lagMillis < 0 ? "-" : Long.toString(r.lagMillis), r.reads.get()));
+      }//end for
+      sb.append(String.format(Locale.ROOT, "%-24s %-24s %13s %10d reads (%d fell back)%n", "primary", "", "",
+                              this._primaryReads.get(), this._fallbacks.get()));
+      return sb.toString();
+   }//end report
+
+   /**
+    * Stops the checks and closes the replica pools
+    */
+   public void close () {
+      if (this._checker != null) {
+         this._checker.cancel();
+      }//end if
+      for (Replica r : this._replicas) {
+         r.pool.close();
+      }//end for
+   }//end close
+
+}//end ReplicaRouter
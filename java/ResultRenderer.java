@@ -0,0 +1,458 @@
+/*
+ * Result renderer
+ * ===============
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This RowHandler writes the rows of a report, as they arrive, through a
+ * large buffered writer to standard out or to a file.  Every cell is
+ * written straight into the buffer, so no string is built per row, and the
+ * column names and types are read from the metadata once.  The header goes
+ * out with the first row; an empty result prints nothing.
+ *
+ * Rows come either from a ResultSet, through handleRow, or from the
+ * in-memory indexes, through columns() and row().  finish() must be called
+ * once the last row is written.
+ */
+public abstract class ResultRenderer implements RowHandler {
+
+   /**
+    * The output formats.
+    */
+   public enum Format {
+      TSV("txt"),     // tab separated, as the menu always printed
+      TABLE("txt"),   // aligned columns
+      CSV("csv"),     // RFC 4180
+      JSON("jsonl");  // one JSON object per row
+
+      public final String extension;
+
+      Format (String extension) {
+         this.extension = extension;
+      }//end Format
+   }//end Format
+
+   static final int BUFFER_SIZE = 1 << 16;
+   static final String NEWLINE = System.lineSeparator();
+
+   protected final Writer _out;
+   private final File _file;   // null when writing to standard out
+   private String[] _names = null;
+   private boolean[] _numeric = null;
+   private boolean _started = false;
+   private long _rowCount = 0;
+
+   protected ResultRenderer (Writer out, File file) {
+      this._out = out;
+      this._file = file;
+   }//end ResultRenderer
+
+   /**
+    * Creates a renderer writing to standard out, which is flushed but left
+    * open by finish()
+    *
+    * @param format the output format
+    * @return the renderer
+    */
+   public static ResultRenderer toConsole (Format format) {
+      return create(format, new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE), null);
+   }//end toConsole
+
+   /**
+    * Creates a renderer writing to a new file, which is closed by finish()
+    *
+    * @param format the output format
+    * @param file the file, replaced if it exists
+    * @return the renderer
+    * @throws java.io.IOException when the file cannot be created
+    */
+   public static ResultRenderer toFile (Format format, File file) throws IOException {
+      Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+                                      BUFFER_SIZE);
+      return create(format, out, file);
+   }//end toFile
+
+   private static ResultRenderer create (Format format, Writer out, File file) {
+      switch (format) {
+         case TABLE: return new Table(out, file);
+         case CSV: return new Csv(out, file);
+         case JSON: return new JsonLines(out, file);
+         default: return new Tsv(out, file);
+      }//end switch
+   }//end create
+
+   /**
+    * Names the columns of the rows passed to row()
+    */
+   public void columns (String... names) {
+      this._names = names;
+   }//end columns
+
+   public void handleRow (ResultSet rs) throws SQLException {
+      if (this._numeric == null) {
+         // obtains the metadata object once, for the names and types
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+         this._names = new String[numCol];
+         this._numeric = new boolean[numCol];
+         for (int i = 1; i <= numCol; ++i) {
+            this._names[i - 1] = rsmd.getColumnName (i);
+            this._numeric[i - 1] = isNumeric (rsmd.getColumnType (i));
+         }//end for
+      }//end if
+      try {
+         begin();
+         for (int i = 0; i < this._names.length; ++i) {
+            writeCell(i, rs.getString (i + 1), this._numeric[i]);
+         }//end for
+         endRow();
+      }catch (IOException e) {
+         throw new SQLException("Could not write the result: " + e.getMessage());
+      }//end try
+      ++this._rowCount;
+   }//end handleRow
+
+   /**
+    * Writes one row of values computed in memory
+    *
+    * @param values one value per column named with columns(), in order
+    * @throws java.io.IOException when the output cannot be written
+    */
+   public void row (Object... values) throws IOException {
+      begin();
+      for (int i = 0; i < values.length; ++i) {
+         Object v = values[i];
+         writeCell(i, v == null ? null : v.toString(), v instanceof Number);
+      }//end for
+      endRow();
+      ++this._rowCount;
+   }//end row
+
+   /**
+    * Writes whatever is still buffered, and closes the file when exporting
+    *
+    * @return the number of rows written
+    * @throws java.io.IOException when the output cannot be written
+    */
+   public long finish () throws IOException {
+      try {
+         if (this._started) {
+            end();
+         }//end if
+         this._out.flush();
+      } finally {
+         if (this._file != null) {
+            this._out.close();
+         }//end if
+      }//end try
+      if (this._file != null) {
+         System.out.println("\tExported " + this._rowCount + " rows to " + this._file.getPath());
+      }//end if
+      return this._rowCount;
+   }//end finish
+
+   /**
+    * @return the number of rows written so far
+    */
+   public long getRowCount () {
+      return this._rowCount;
+   }//end getRowCount
+
+   private void begin () throws IOException {
+      if (!this._started) {
+         this._started = true;
+         writeHeader(this._names);
+      }//end if
+   }//end begin
+
+   private static boolean isNumeric (int type) {
+      switch (type) {
+         case Types.TINYINT: case Types.SMALLINT: case Types.INTEGER: case Types.BIGINT:
+         case Types.REAL: case Types.FLOAT: case Types.DOUBLE: case Types.NUMERIC: case Types.DECIMAL:
+            return true;
+         default:
+            return false;
+      }//end switch
+   }//end isNumeric
+
+   // writes count copies of c
+   protected final void pad (char c, int count) throws IOException {
+      for (int i = 0; i < count; ++i) {
+         this._out.write(c);
+      }//end for
+   }//end pad
+
+   protected abstract void writeHeader (String[] names) throws IOException;
+
+   protected abstract void writeCell (int column, String value, boolean numeric) throws IOException;
+
+   protected abstract void endRow () throws IOException;
+
+   // called by finish() when at least one row was written
+   protected void end () throws IOException {
+   }//end end
+
+   /**
+    * Tab separated, every cell followed by a tab, with null printed as null.
+    */
+   static class Tsv extends ResultRenderer {
+      Tsv (Writer out, File file) {
+         super(out, file);
+      }//end Tsv
+
+      protected void writeHeader (String[] names) throws IOException {
+         for (String name : names) {
+            this._out.write(name);
+            this._out.write('\t');
+         }//end for
+         this._out.write(NEWLINE);
+      }//end writeHeader
+
+      protected void writeCell (int column, String value, boolean numeric) throws IOException {
+         this._out.write(value == null ? "null" : value);
+         this._out.write('\t');
+      }//end writeCell
+
+      protected void endRow () throws IOException {
+         this._out.write(NEWLINE);
+      }//end endRow
+   }//end Tsv
+
+   /**
+    * Comma separated, quoted where needed, with null as an empty field.
+    */
+   static class Csv extends ResultRenderer {
+      Csv (Writer out, File file) {
+         super(out, file);
+      }//end Csv
+
+      protected void writeHeader (String[] names) throws IOException {
+         for (int i = 0; i < names.length; ++i) {
+            writeCell(i, names[i], false);
+         }//end for
+         endRow();
+      }//end writeHeader
+
+      protected void writeCell (int column, String value, boolean numeric) throws IOException {
+         if (column > 0) {
+            this._out.write(',');
+         }//end if
+         if (value == null) {
+            return;
+         }//end if
+         boolean quote = false;
+         for (int i = 0; i < value.length() && !quote; ++i) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+         }//end for
+         if (!quote) {
+            this._out.write(value);
+            return;
+         }//end if
+         this._out.write('"');
+         for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == '"') {
+               this._out.write('"');
+            }//end if
+            this._out.write(c);
+         }//end for
+         this._out.write('"');
+      }//end writeCell
+
+      protected void endRow () throws IOException {
+         this._out.write("\r\n");
+      }//end endRow
+   }//end Csv
+
+   /**
+    * One JSON object per line, keyed by column name; numbers stay numbers.
+    */
+   static class JsonLines extends ResultRenderer {
+      private String[] _keys;
+
+      JsonLines (Writer out, File file) {
+         super(out, file);
+      }//end JsonLines
+
+      protected void writeHeader (String[] names) throws IOException {
+         // the keys are escaped once, not per row
+         this._keys = new String[names.length];
+         for (int i = 0; i < names.length; ++i) {
+            StringBuilder sb = new StringBuilder();
+            Metrics.quote(sb, names[i]);
+            this._keys[i] = sb.append(':').toString();
+         }//end for
+      }//end writeHeader
+
+      protected void writeCell (int column, String value, boolean numeric) throws IOException {
+         this._out.write(column == 0 ? '{' : ',');
+         this._out.write(this._keys[column]);
+         if (value == null) {
+            this._out.write("null");
+         } else if (numeric && isJsonNumber(value)) {
+            this._out.write(value);
+         } else {
+            quote(value);
+         }//end if
+      }//end writeCell
+
+      protected void endRow () throws IOException {
+         this._out.write(this._keys.length == 0 ? "{}" : "}");
+         this._out.write('\n');
+      }//end endRow
+
+      // numeric columns may hold NaN or Infinity, which JSON has no literal for
+      private static boolean isJsonNumber (String value) {
+         char c = value.isEmpty() ? 'x' : value.charAt(0);
+         return (c >= '0' && c <= '9') || (c == '-' && value.length() > 1 && Character.isDigit(value.charAt(1)));
+      }//end isJsonNumber
+
+      private void quote (String s) throws IOException {
+         this._out.write('"');
+         for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+               case '"': this._out.write("\\\""); break;
+               case '\\': this._out.write("\\\\"); break;
+               case '\n': this._out.write("\\n"); break;
+               case '\r': this._out.write("\\r"); break;
+               case '\t': this._out.write("\\t"); break;
+               default:
+                  if (c < 0x20) {
+                     this._out.write(String.format("\\u%04x", (int) c));
+                  } else {
+                     this._out.write(c);
+                  }//end if
+            }//end switch
+         }//end for
+         this._out.write('"');
+      }//end quote
+   }//end JsonLines
+
+   /**
+    * Aligned columns, numbers to the right.  The widths are taken from the
+    * first SAMPLE_ROWS rows, which are held back until then; a longer value
+    * further down widens its own line only.
+    */
+   static class Table extends ResultRenderer {
+      static final int SAMPLE_ROWS = 1000;
+
+      private String[] _header;
+      private int[] _widths;
+      private boolean[] _rightAligned;
+      private List<String[]> _sample = new ArrayList<String[]>();
+      private String[] _current;
+
+      Table (Writer out, File file) {
+         super(out, file);
+      }//end Table
+
+      protected void writeHeader (String[] names) throws IOException {
+         this._header = names;
+         this._widths = new int[names.length];
+         this._rightAligned = new boolean[names.length];
+         for (int i = 0; i < names.length; ++i) {
+            this._widths[i] = names[i].length();
+         }//end for
+      }//end writeHeader
+
+      protected void writeCell (int column, String value, boolean numeric) throws IOException {
+         if (this._current == null) {
+            this._current = new String[this._header.length];
+         }//end if
+         String v = value == null ? "" : value;
+         this._rightAligned[column] |= numeric;
+         if (this._sample == null) {
+            if (column > 0) {
+               this._out.write(" | ");
+            }//end if
+            writePadded(v, column);
+         } else {
+            this._current[column] = v;
+            this._widths[column] = Math.max(this._widths[column], v.length());
+         }//end if
+      }//end writeCell
+
+      protected void endRow () throws IOException {
+         if (this._sample == null) {
+            this._out.write(NEWLINE);
+            return;
+         }//end if
+         this._sample.add(this._current);
+         this._current = null;
+         if (this._sample.size() == SAMPLE_ROWS) {
+            flushSample();
+         }//end if
+      }//end endRow
+
+      protected void end () throws IOException {
+         if (this._sample != null) {
+            flushSample();
+         }//end if
+      }//end end
+
+      // the widths are settled: the header, the rule and the rows held back
+      private void flushSample () throws IOException {
+         for (int i = 0; i < this._header.length; ++i) {
+            if (i > 0) {
+               this._out.write(" | ");
+            }//end if
+            this._out.write(this._header[i]);
+            pad(' ', this._widths[i] - this._header[i].length());
+         }//end for
+         this._out.write(NEWLINE);
+         for (int i = 0; i < this._header.length; ++i) {
+            if (i > 0) {
+               this._out.write("-+-");
+            }//end if
+            pad('-', this._widths[i]);
+         }//end for
+         this._out.write(NEWLINE);
+         for (String[] row : this._sample) {
+            for (int i = 0; i < row.length; ++i) {
+               if (i > 0) {
+                  this._out.write(" | ");
+               }//end if
+               writePadded(row[i], i);
+            }//end for
+            this._out.write(NEWLINE);
+         }//end for
+         this._sample = null;
+      }//end flushSample
+
+      private void writePadded (String v, int column) throws IOException {
+         int fill = this._widths[column] - v.length();
+         if (this._rightAligned[column]) {
+            pad(' ', fill);
+            this._out.write(v);
+         } else {
+            this._out.write(v);
+            pad(' ', fill);
+         }//end if
+      }//end writePadded
+   }//end Table
+
+}//end ResultRenderer
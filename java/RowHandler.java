@@ -0,0 +1,31 @@
+/*
+ * Row callback for streaming queries
+ * ==================================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a query run through DBProject.streamQuery, one at a
+ * time, while the rest of the result is still on the server.
+ */
+public interface RowHandler {
+
+   /**
+    * Called once for every row of the result, in order.
+    *
+    * @param rs the result set positioned on the current row; do not move it
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   void handleRow (ResultSet rs) throws SQLException;
+
+}//end RowHandler
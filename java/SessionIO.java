@@ -0,0 +1,147 @@
+/*
+ * Per-thread console redirection
+ * ==============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+
+/**
+ * The menu operations of DBProject read their input from DBProject.in and
+ * print to System.out and System.err.  This class lets a thread replace
+ * those three streams for itself only, so the same operations can be
+ * driven from a script on several worker threads at once, each with its
+ * own answers to the prompts and its own captured output.  Threads that
+ * have not bound anything keep using the real console.
+ */
+public class SessionIO {
+
+   private static final ThreadLocal<BufferedReader> INPUT = new ThreadLocal<BufferedReader>();
+   private static final ThreadLocal<PrintStream> OUTPUT = new ThreadLocal<PrintStream>();
+   private static final ThreadLocal<PrintStream> ERROR = new ThreadLocal<PrintStream>();
+
+   private static PrintStream _console = System.out;
+   private static boolean _installed = false;
+
+   /**
+    * A reader that answers readLine() from the calling thread's bound input
+    * and from the wrapped reader otherwise.
+    */
+   static class Input extends BufferedReader {
+      Input (Reader in) {
+         super(in);
+      }//end Input
+
+      public String readLine () throws IOException {
+         BufferedReader bound = INPUT.get();
+         return bound != null ? bound.readLine() : super.readLine();
+      }//end readLine
+   }//end Input
+
+   /**
+    * A print stream that writes to the calling thread's bound stream and to
+    * the original stream otherwise.
+    */
+   static class Output extends PrintStream {
+      private final PrintStream _original;
+      private final ThreadLocal<PrintStream> _bound;
+
+      Output (PrintStream original, ThreadLocal<PrintStream> bound) {
+         super(original, true);
+         this._original = original;
+         this._bound = bound;
+      }//end Output
+
+      private PrintStream target () {
+         PrintStream bound = this._bound.get();
+         return bound != null ? bound : this._original;
+      }//end target
+
+      public void write (int b) {
+         target().write(b);
+      }//end write
+
+      public void write (byte[] buf, int off, int len) {
+         target().write(buf, off, len);
+      }//end write
+
+      public void flush () {
+         target().flush();
+      }//end flush
+   }//end Output
+
+   /**
+    * Wraps the console input so bound threads can replace it.
+    *
+    * @param in the console reader
+    * @return the reader DBProject.in should use
+    */
+   public static BufferedReader wrapInput (Reader in) {
+      return new Input(in);
+   }//end wrapInput
+
+   /**
+    * Replaces System.out and System.err with thread-aware streams.  Only the
+    * first call has an effect.
+    */
+   public static synchronized void install () {
+      if (_installed) {
+         return;
+      }//end if
+      _console = System.out;
+      System.setOut(new Output(System.out, OUTPUT));
+      System.setErr(new Output(System.err, ERROR));
+      _installed = true;
+   }//end install
+
+   /**
+    * @return the real standard out, bypassing any thread binding
+    */
+   public static PrintStream console () {
+      return _console;
+   }//end console
+
+   /**
+    * Binds input and output streams to the calling thread.
+    *
+    * @param in answers the prompts of the operations
+    * @param out receives what the operations print to System.out
+    * @param err receives what the operations print to System.err
+    */
+   public static void bind (BufferedReader in, PrintStream out, PrintStream err) {
+      INPUT.set(in);
+      OUTPUT.set(out);
+      ERROR.set(err);
+   }//end bind
+
+   /**
+    * Returns the calling thread to the console.
+    */
+   public static void unbind () {
+      INPUT.remove();
+      OUTPUT.remove();
+      ERROR.remove();
+   }//end unbind
+
+   /**
+    * @return a print stream that discards everything
+    */
+   public static PrintStream discard () {
+      return new PrintStream(new OutputStream() {
+         public void write (int b) { }
+         public void write (byte[] b, int off, int len) { }
+      });
+   }//end discard
+
+}//end SessionIO
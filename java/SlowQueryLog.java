@@ -0,0 +1,558 @@
+/*
+ * Slow query log
+ * ==============
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class records the statements DBProject runs that take longer than a
+ * threshold, together with the plan they ran with.
+ *
+ * Every statement is folded into the aggregate of its fingerprint: the SQL
+ * with its string and number literals replaced by '?', lists of '?'
+ * collapsed and the white space and case normalised, so statements built
+ * with literals group with the ones that bind them.  An aggregate counts the
+ * calls, slow calls and errors and keeps a latency histogram for the p99.
+ *
+ * A slow statement goes into a ring buffer of the most recent ones and, if
+ * dbproject.slowlog.file is set, into that log file, which is rotated at
+ * dbproject.slowlog.maxBytes keeping dbproject.slowlog.files files.  The
+ * first slow call of a fingerprint, and a dbproject.slowlog.explainSample
+ * share of the later ones, also capture the plan of the statement with the
+ * same parameters.  Only a plain SELECT that calls no function is run again
+ * for EXPLAIN (ANALYZE, BUFFERS); any other statement, which could take
+ * locks, draw ids or book rooms when run again, gets a plain EXPLAIN.  The
+ * capture runs on a background thread and its own pooled connection,
+ * inside a transaction that is always rolled back.  Statements run inside
+ * a transaction of the caller are not captured, as the caller may hold the
+ * locks the capture would wait for.  When the shape of a captured plan (its
+ * nodes and relations, without costs and timings) differs from the previous
+ * capture of the fingerprint the entry is flagged "plan changed".
+ *
+ * Statements faster than the threshold cost a map lookup and an uncontended
+ * lock.  A threshold below zero (-Ddbproject.slowlog.thresholdMillis=-1)
+ * turns the log off.  The class is thread safe.
+ */
+public class SlowQueryLog {
+
+   public static final long THRESHOLD_MILLIS = Long.getLong("dbproject.slowlog.thresholdMillis", 500L);
+   static final int RING_SIZE = Integer.getInteger("dbproject.slowlog.size", 256);
+   static final double EXPLAIN_SAMPLE =
+      Double.parseDouble(System.getProperty("dbproject.slowlog.explainSample", "0.1"));
+   static final long EXPLAIN_TIMEOUT_MILLIS = Long.getLong("dbproject.slowlog.explainTimeoutMillis", 30000L);
+   static final long MAX_BYTES = Long.getLong("dbproject.slowlog.maxBytes", 10L << 20);
+   static final int FILES = Integer.getInteger("dbproject.slowlog.files", 5);
+
+   // raw SQL strings remembered with their aggregate before fingerprinting every call
+   private static final int MAX_CACHED_SQL = 10000;
+
+   /**
+    * The calls of one fingerprint.
+    */
+   public static class Aggregate {
+      public final String id;
+      public final String fingerprint;
+      private final LatencyHistogram _latency = new LatencyHistogram();
+      private long _totalNanos = 0;
+      private long _slow = 0;
+      private long _errors = 0;
+      private long _planChanges = 0;
+      private String _planShape = null;
+      private boolean _capturing = false;
+
+      Aggregate (String id, String fingerprint) {
+         this.id = id;
+         this.fingerprint = fingerprint;
+      }//end Aggregate
+
+      public synchronized long getCalls () { return this._latency.getCount(); }
+      public synchronized long getSlowCalls () { return this._slow; }
+      public synchronized long getErrors () { return this._errors; }
+      public synchronized long getPlanChanges () { return this._planChanges; }
+      public synchronized double getTotalMillis () { return this._totalNanos / 1e6; }
+      public synchronized double getP99Millis () { return this._latency.valueAtPercentile(99) / 1e6; }
+      public synchronized double getMaxMillis () { return this._latency.getMax() / 1e6; }
+   }//end Aggregate
+
+   /**
+    * One slow statement.
+    */
+   public static class Entry {
+      public final long time;
+      public final Aggregate aggregate;
+      public final String sql;
+      public final String params;
+      public final long nanos;
+      public final long rows;
+      public final boolean failed;
+      volatile String plan = null;
+      volatile boolean planChanged = false;
+
+      Entry (long time, Aggregate aggregate, String sql, String params, long nanos, long rows, boolean failed) {
+         this.time = time;
+         this.aggregate = aggregate;
+         this.sql = sql;
+         this.params = params;
+         this.nanos = nanos;
+         this.rows = rows;
+         this.failed = failed;
+      }//end Entry
+
+      public String getPlan () {
+         return this.plan;
+      }//end getPlan
+
+      public boolean isPlanChanged () {
+         return this.planChanged;
+      }//end isPlanChanged
+
+      void write (StringBuilder sb) {
+         sb.append("# ").append(Instant.ofEpochMilli(this.time)).append(' ')
+           .append(String.format(Locale.ROOT, "%.3f ms", this.nanos / 1e6))
+           .append(this.rows < 0 ? "" : ", " + this.rows + " rows").append(this.failed ? ", failed" : "")
+           .append(" [fingerprint ").append(this.aggregate.id).append(']')
+           .append(this.planChanged ? " plan changed" : "").append('\n');
+         sb.append("# ").append(this.aggregate.fingerprint).append('\n');
+         sb.append(this.sql).append('\n');
+         sb.append("-- params: ").append(this.params).append('\n');
+         if (this.plan != null) {
+            sb.append(this.plan);
+         }//end if
+         sb.append('\n');
+      }//end write
+   }//end Entry
+
+   private final DBProject _esql;
+   private final long _thresholdNanos;
+   private final File _file = System.getProperty("dbproject.slowlog.file") == null
+                              ? null : new File(System.getProperty("dbproject.slowlog.file"));
+   private final Map<String, Aggregate> _bySql = new ConcurrentHashMap<String, Aggregate>();
+   private final Map<String, Aggregate> _byFingerprint = new ConcurrentHashMap<String, Aggregate>();
+   private final Entry[] _ring = new Entry[Math.max(1, RING_SIZE)];
+   private long _slowCount = 0;
+   private ThreadPoolExecutor _explainer = null;
+
+   /**
+    * Creates the slow query log of a DBProject
+    *
+    * @param esql where plans are captured
+    */
+   public SlowQueryLog (DBProject esql) {
+      this._esql = esql;
+      this._thresholdNanos = THRESHOLD_MILLIS < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(THRESHOLD_MILLIS);
+   }//end SlowQueryLog
+
+   /**
+    * @return whether statements are recorded at all
+    */
+   public boolean isEnabled () {
+      return this._thresholdNanos >= 0;
+   }//end isEnabled
+
+   /**
+    * Records one completed statement
+    *
+    * @param sql the SQL as run, with '?' for the parameters
+    * @param params the values bound to the parameters
+    * @param nanos how long it took
+    * @param rows the rows it returned or changed, or -1 when not known yet
+    * @param failed whether it threw
+    * @param inTransaction whether it ran inside a transaction of the caller
+    */
+   public void record (String sql, Object[] params, long nanos, long rows, boolean failed, boolean inTransaction) {
+      if (this._thresholdNanos < 0) {
+         return;
+      }//end if
+      Aggregate a = aggregate(sql);
+      boolean slow = nanos >= this._thresholdNanos;
+      boolean capture = false;
+      synchronized (a) {
+         a._latency.record(nanos);
+         a._totalNanos += nanos;
+         a._errors += failed ? 1 : 0;
+         if (slow) {
+            capture = !failed && !inTransaction && !a._capturing && explainable(sql)
+                      && (a._slow == 0 || ThreadLocalRandom.current().nextDouble() < EXPLAIN_SAMPLE);
+            a._capturing |= capture;
+            ++a._slow;
+         }//end if
+      }//end synchronized
+      if (!slow) {
+         return;
+      }//end if
+      Entry e = new Entry(System.currentTimeMillis(), a, sql, Arrays.deepToString(params), nanos, rows, failed);
+      synchronized (this._ring) {
+         this._ring[(int) (this._slowCount++ % this._ring.length)] = e;
+      }//end synchronized
+      if (!capture) {
+         append(e);
+         return;
+      }//end if
+      try {
+         explainer().execute(() -> {
+            capture(e, params);
+            append(e);
+         });
+      }catch (RejectedExecutionException x) {
+         synchronized (a) {
+            a._capturing = false;
+         }//end synchronized
+         e.plan = "-- plan not captured: " + x.getMessage() + "\n";
+         append(e);
+      }//end try
+   }//end record
+
+   private Aggregate aggregate (String sql) {
+      Aggregate a = this._bySql.get(sql);
+      if (a != null) {
+         return a;
+      }//end if
+      String fp = fingerprint(sql);
+      a = this._byFingerprint.get(fp);
+      if (a == null) {
+         Aggregate created = new Aggregate(id(fp), fp);
+         a = this._byFingerprint.putIfAbsent(fp, created);
+         a = a == null ? created : a;
+      }//end if
+      if (this._bySql.size() < MAX_CACHED_SQL) {
+         this._bySql.put(sql, a);
+      }//end if
+      return a;
+   }//end aggregate
+
+   // EXPLAIN takes the statements that return or change rows, not DDL or cursor commands
+   private static boolean explainable (String sql) {
+      String s = sql.trim().toLowerCase(Locale.ROOT);
+      return s.startsWith("select") || s.startsWith("with") || s.startsWith("insert")
+             || s.startsWith("update") || s.startsWith("delete") || s.startsWith("values");
+   }//end explainable
+
+   // words that may stand before a '(' without it being a function call
+   private static final Set<String> NOT_FUNCTIONS = new HashSet<String>(Arrays.asList(
+      "select", "from", "join", "on", "using", "where", "and", "or", "not", "in", "exists", "any", "some", "all",
+      "as", "lateral", "union", "intersect", "except", "by", "having", "case", "when", "then", "else", "is",
+      "between", "like", "values"));
+   private static final Pattern CALL = Pattern.compile("([a-z_][a-z0-9_$.]*|\"[^\"]*\")\\s*\\(");
+
+   // EXPLAIN ANALYZE runs the statement, so only a plain read without functions, which may have side effects
+   static boolean analyzable (String sql) {
+      String s = fingerprint(sql);
+      if (!s.startsWith("select") || s.contains(" for update") || s.contains(" for share")
+          || s.contains(" for no key update") || s.contains(" for key share") || s.contains(" into ")) {
+         return false;
+      }//end if
+      Matcher m = CALL.matcher(s);
+      while (m.find()) {
+         if (!NOT_FUNCTIONS.contains(m.group(1))) {
+            return false;
+         }//end if
+      }//end while
+      return true;
+   }//end analyzable
+
+   private synchronized ThreadPoolExecutor explainer () {
+      if (this._explainer == null) {
+         // one capture at a time, a few waiting; more are logged without their plan
+         this._explainer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                                                  new ArrayBlockingQueue<Runnable>(16), r -> {
+            Thread t = new Thread(r, "SlowQueryLog-explain");
+            t.setDaemon(true);
+            return t;
+         });
+      }//end if
+      return this._explainer;
+   }//end explainer
+
+   // runs EXPLAIN of an entry on a connection of its own, with ANALYZE when that is safe, and rolls it back
+   private void capture (Entry e, Object[] params) {
+      ConnectionPool.PooledConnection pc = null;
+      StringBuilder plan = new StringBuilder();
+      try {
+         pc = this._esql.getPool().borrow();
+         Connection connection = pc.connection;
+         connection.setAutoCommit(false);
+         try {
+            try (Statement timeout = connection.createStatement()) {
+               timeout.executeUpdate("SET LOCAL statement_timeout = " + EXPLAIN_TIMEOUT_MILLIS);
+            }//end try
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    (analyzable(e.sql) ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + e.sql)) {
+               DBProject.bind(stmt, params);
+               ResultSet rs = stmt.executeQuery();
+               while (rs.next()) {
+                  plan.append(rs.getString(1)).append('\n');
+               }//end while
+            }//end try
+         } finally {
+            try {
+               connection.rollback();
+            } finally {
+               connection.setAutoCommit(true);
+            }//end try
+         }//end try
+         e.plan = plan.toString();
+         String shape = shape(e.plan);
+         synchronized (e.aggregate) {
+            if (e.aggregate._planShape != null && !e.aggregate._planShape.equals(shape)) {
+               e.planChanged = true;
+               ++e.aggregate._planChanges;
+            }//end if
+            e.aggregate._planShape = shape;
+         }//end synchronized
+      }catch (SQLException x) {
+         e.plan = "-- plan not captured: " + x.getMessage() + "\n";
+         if (pc != null) {
+            this._esql.getPool().discard(pc);
+            pc = null;
+         }//end if
+      } finally {
+         if (pc != null) {
+            this._esql.getPool().release(pc);
+         }//end if
+         synchronized (e.aggregate) {
+            e.aggregate._capturing = false;
+         }//end synchronized
+      }//end try
+   }//end capture
+
+   // appends an entry to the log file, rotating the file when it is full
+   private synchronized void append (Entry e) {
+      if (this._file == null) {
+         return;
+      }//end if
+      StringBuilder sb = new StringBuilder();
+      e.write(sb);
+      byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+      if (this._file.length() > 0 && this._file.length() + bytes.length > MAX_BYTES) {
+         rotate();
+      }//end if
+      try (FileOutputStream out = new FileOutputStream(this._file, true)) {
+         out.write(bytes);
+      }catch (IOException x) {
+         System.err.println("Could not write the slow query log " + this._file + ": " + x.getMessage());
+      }//end try
+   }//end append
+
+   // log -> log.1 -> log.2 ..., dropping the oldest
+   private void rotate () {
+      String base = this._file.getPath();
+      new File(base + "." + (FILES - 1)).delete();
+      for (int i = FILES - 2; i >= 1; --i) {
+         new File(base + "." + i).renameTo(new File(base + "." + (i + 1)));
+      }//end for
+      if (FILES > 1) {
+         this._file.renameTo(new File(base + ".1"));
+      } else {
+         this._file.delete();
+      }//end if
+   }//end rotate
+
+   /**
+    * @return the slow statements in the ring buffer, oldest first
+    */
+   public List<Entry> recent () {
+      List<Entry> result = new ArrayList<Entry>();
+      synchronized (this._ring) {
+         long first = Math.max(0, this._slowCount - this._ring.length);
+         for (long i = first; i < this._slowCount; ++i) {
+            result.add(this._ring[(int) (i % this._ring.length)]);
+         }//end for
+      }//end synchronized
+      return result;
+   }//end recent
+
+   /**
+    * Writes the ring buffer to a file
+    *
+    * @param file the file, overwritten
+    * @throws java.io.IOException when the file could not be written
+    */
+   public void writeRecent (File file) throws IOException {
+      try (PrintWriter w = new PrintWriter(new OutputStreamWriter(
+              new FileOutputStream(file), StandardCharsets.UTF_8))) {
+         for (Entry e : recent()) {
+            StringBuilder sb = new StringBuilder();
+            e.write(sb);
+            w.print(sb);
+         }//end for
+      }//end try
+   }//end writeRecent
+
+   /**
+    * @return the number of slow statements seen
+    */
+   public long getSlowCount () {
+      synchronized (this._ring) {
+         return this._slowCount;
+      }//end synchronized
+   }//end getSlowCount
+
+   /**
+    * @return the aggregates that had a slow call, by total time, longest first
+    */
+   public List<Aggregate> slowest () {
+      List<Aggregate> result = new ArrayList<Aggregate>();
+      for (Aggregate a : this._byFingerprint.values()) {
+         if (a.getSlowCalls() > 0) {
+            result.add(a);
+         }//end if
+      }//end for
+      Collections.sort(result, new Comparator<Aggregate>() {
+         public int compare (Aggregate a, Aggregate b) {
+            return Double.compare(b.getTotalMillis(), a.getTotalMillis());
+         }
+      });
+      return result;
+   }//end slowest
+
+   /**
+    * @return one line per fingerprint that had a slow call, at most the ten slowest
+    */
+   public String report () {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format(Locale.ROOT, "%-16s %8s %6s %11s %9s %7s  %s%n", "fingerprint", "calls", "slow",
+                              "total ms", "p99 ms", "plans", "sql"));
+      List<Aggregate> slowest = slowest();
+      for (Aggregate a : slowest.subList(0, Math.min(10, slowest.size()))) {
+         String sql = a.fingerprint.length() > 80 ? a.fingerprint.substring(0, 77) + "..." : a.fingerprint;
+         sb.append(String.format(Locale.ROOT, "%-16s %8d %6d %11.1f %9.3f %7d  %s%n", a.id, a.getCalls(),
+                                 a.getSlowCalls(), a.getTotalMillis(), a.getP99Millis(), a.getPlanChanges() + 1, sql));
+      }//end for
+      return sb.toString();
+   }//end report
+
+   /**
+    * Stops capturing plans, waiting briefly for the one under way
+    */
+   public void close () {
+      ThreadPoolExecutor explainer;
+      synchronized (this) {
+         explainer = this._explainer;
+      }//end synchronized
+      if (explainer == null) {
+         return;
+      }//end if
+      explainer.shutdown();
+      try {
+         explainer.awaitTermination(EXPLAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+      }catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end close
+
+   /**
+    * Returns the fingerprint of a statement: its literals replaced by '?',
+    * lists of '?' collapsed to one, white space collapsed and unquoted text
+    * lower-cased
+    */
+   static String fingerprint (String sql) {
+      StringBuilder sb = new StringBuilder(sql.length());
+      boolean space = false;
+      int n = sql.length();
+      for (int i = 0; i < n; ++i) {
+         char c = sql.charAt(i);
+         if (Character.isWhitespace(c)) {
+            space = sb.length() > 0;
+            continue;
+         }//end if
+         if (space) {
+            sb.append(' ');
+            space = false;
+         }//end if
+         if (c == '\'') {
+            // a string literal, with '' for a quote inside it
+            int end = i + 1;
+            while (end < n && (sql.charAt(end) != '\'' || (end + 1 < n && sql.charAt(end + 1) == '\''))) {
+               end += sql.charAt(end) == '\'' ? 2 : 1;
+            }//end while
+            i = end;
+            sb.append('?');
+         } else if (c == '"') {
+            int end = sql.indexOf('"', i + 1);
+            end = end < 0 ? n - 1 : end;
+            sb.append(sql, i, end + 1);
+            i = end;
+         } else if (Character.isDigit(c) && !partOfWord(sb)) {
+            while (i + 1 < n && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+               ++i;
+            }//end while
+            sb.append('?');
+         } else {
+            sb.append(Character.toLowerCase(c));
+         }//end if
+      }//end for
+      return sb.toString().replaceAll("\\?(\\s*,\\s*\\?)+", "?");
+   }//end fingerprint
+
+   // whether a digit continues an identifier such as booking_y2005
+   private static boolean partOfWord (StringBuilder sb) {
+      if (sb.length() == 0) {
+         return false;
+      }//end if
+      char last = sb.charAt(sb.length() - 1);
+      return Character.isLetterOrDigit(last) || last == '_' || last == '$';
+   }//end partOfWord
+
+   // a short stable id of a fingerprint, FNV-1a
+   private static String id (String fingerprint) {
+      long h = 0xcbf29ce484222325L;
+      for (int i = 0; i < fingerprint.length(); ++i) {
+         h = (h ^ fingerprint.charAt(i)) * 0x100000001b3L;
+      }//end for
+      return String.format("%016x", h);
+   }//end id
+
+   // the nodes and relations of a plan, without its costs, timings, conditions and numbers
+   static String shape (String plan) {
+      StringBuilder sb = new StringBuilder();
+      String[] lines = plan.split("\n");
+      for (int i = 0; i < lines.length; ++i) {
+         String line = lines[i];
+         if (i > 0 && !line.trim().startsWith("->")) {
+            continue;
+         }//end if
+         int paren = line.indexOf("  (");
+         String node = paren < 0 ? line : line.substring(0, paren);
+         sb.append(node.replaceAll("[0-9]+", "#")).append('\n');
+      }//end for
+      return sb.toString();
+   }//end shape
+
+}//end SlowQueryLog
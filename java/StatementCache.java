@@ -0,0 +1,224 @@
+/*
+ * Prepared statement cache
+ * ========================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class keeps a bounded, least recently used set of PreparedStatements
+ * for a single physical connection, keyed by the SQL template text.
+ *
+ * The bundled pg73 driver fills the parameters in on the client and sends
+ * plain SQL text every time, so on its own a PreparedStatement saves only
+ * the Java objects.  A SELECT, INSERT, UPDATE, DELETE or WITH template is
+ * therefore prepared on the server as well, with PREPARE and the '?'s
+ * numbered, and the cached statement is an EXECUTE of it: the server
+ * parses the template once per connection and can reuse its plan.  The
+ * PREPARE leaves the parameter types to the server, so they are those of
+ * the columns they are compared with, as they are for the driver's quoted
+ * literals, and the indexes on CHAR columns keep being used.  A template
+ * the server cannot prepare (a parameter whose type it cannot infer), one
+ * first seen inside a transaction, where a failed PREPARE would abort it,
+ * and every template under -Ddbproject.serverPrepare=false stay prepared
+ * on the client only.  Evicting a statement deallocates it on the server.
+ *
+ * A cache belongs to exactly one connection and is not thread safe; callers
+ * must not share it between threads at the same time.
+ */
+public class StatementCache {
+
+   // default number of distinct SQL templates kept open per connection
+   public static final int DEFAULT_CAPACITY = 64;
+
+   // whether templates are prepared on the server too
+   static final boolean SERVER_PREPARE =
+      Boolean.parseBoolean(System.getProperty("dbproject.serverPrepare", "true"));
+
+   // the connection the cached statements were prepared on
+   private final Connection _connection;
+
+   // maximum number of cached statements
+   private final int _capacity;
+
+   // SQL template -> prepared statement, kept in access order
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   // SQL template -> name of its server-side prepared statement
+   private final Map<String, String> _serverNames = new HashMap<String, String>();
+
+   // written by the thread using the cache only, read by the pool's statistics from any thread
+   private volatile long _hits = 0;
+   private volatile long _misses = 0;
+   private volatile long _evictions = 0;
+   private volatile long _serverPrepared = 0;
+
+   /**
+    * Creates a new cache for the given connection
+    *
+    * @param connection the connection statements are prepared on
+    * @param capacity the maximum number of cached statements
+    */
+   public StatementCache (Connection connection, int capacity) {
+      if (capacity < 1) {
+         throw new IllegalArgumentException("capacity must be positive: " + capacity);
+      }//end if
+      this._connection = connection;
+      this._capacity = capacity;
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+   }//end StatementCache
+
+   /**
+    * Returns the cached PreparedStatement for the SQL template, preparing
+    * and caching a new one on a miss.  The least recently used statement is
+    * closed once the cache is full.
+    *
+    * @param sql the SQL template with '?' placeholders
+    * @return a prepared statement owned by this cache; do not close it
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare (String sql) throws SQLException {
+      PreparedStatement stmt = this._statements.get(sql);
+      if (stmt != null) {
+         ++this._hits;
+         return stmt;
+      }//end if
+      ++this._misses;
+      stmt = prepareOnServer(sql);
+      if (stmt == null) {
+         stmt = this._connection.prepareStatement(sql);
+      }//end if
+      this._statements.put(sql, stmt);
+      if (this._statements.size() > this._capacity) {
+         Iterator<Map.Entry<String, PreparedStatement>> eldest = this._statements.entrySet().iterator();
+         Map.Entry<String, PreparedStatement> victim = eldest.next();
+         eldest.remove();
+         ++this._evictions;
+         release(victim.getKey(), victim.getValue());
+      }//end if
+      return stmt;
+   }//end prepare
+
+   // PREPAREs a template on the server and returns an EXECUTE of it, or null to prepare it on the client
+   private PreparedStatement prepareOnServer (String sql) throws SQLException {
+      if (!SERVER_PREPARE || !preparable(sql) || !this._connection.getAutoCommit()) {
+         return null;
+      }//end if
+      String name = "dbproject_stmt_" + (this._serverPrepared + 1);
+      StringBuilder body = new StringBuilder();
+      int params = number(sql, body);
+      try (Statement prepare = this._connection.createStatement()) {
+         prepare.executeUpdate("PREPARE " + name + " AS " + body);
+      }catch (SQLException e) {
+         return null;
+      }//end try
+      ++this._serverPrepared;
+      StringBuilder execute = new StringBuilder("EXECUTE ").append(name);
+      for (int i = 0; i < params; ++i) {
+         execute.append(i == 0 ? "(?" : ", ?");
+      }//end for
+      PreparedStatement stmt = this._connection.prepareStatement(params == 0 ? execute.toString()
+                                                                             : execute.append(")").toString());
+      this._serverNames.put(sql, name);
+      return stmt;
+   }//end prepareOnServer
+
+   // PREPARE takes the statements that return or change rows, not DDL or cursor commands
+   static boolean preparable (String sql) {
+      String s = sql.trim().toLowerCase(Locale.ROOT);
+      return s.startsWith("select") || s.startsWith("with") || s.startsWith("insert")
+             || s.startsWith("update") || s.startsWith("delete");
+   }//end preparable
+
+   // copies a template with its '?'s, outside quotes, numbered $1, $2, ...; the number of parameters
+   static int number (String sql, StringBuilder out) {
+      int params = 0;
+      char quote = 0;
+      for (int i = 0; i < sql.length(); ++i) {
+         char c = sql.charAt(i);
+         if (quote != 0) {
+            quote = c == quote ? 0 : quote;
+            out.append(c);
+         } else if (c == '\'' || c == '"') {
+            quote = c;
+            out.append(c);
+         } else if (c == '?') {
+            out.append('$').append(++params);
+         } else {
+            out.append(c);
+         }//end if
+      }//end for
+      return params;
+   }//end number
+
+   /**
+    * Drops a statement from the cache, e.g. after it failed and may be left
+    * in an unusable state.
+    *
+    * @param sql the SQL template to drop
+    */
+   public void invalidate (String sql) {
+      PreparedStatement stmt = this._statements.remove(sql);
+      if (stmt != null) {
+         release(sql, stmt);
+      }//end if
+   }//end invalidate
+
+   public long getHits () { return this._hits; }
+   public long getMisses () { return this._misses; }
+   public long getEvictions () { return this._evictions; }
+   public long getServerPrepared () { return this._serverPrepared; }
+   public int size () { return this._statements.size(); }
+
+   /**
+    * Closes every cached statement, before the connection is closed.  The
+    * connection itself is left open; the server-side statements go when it
+    * is closed.
+    */
+   public void close () {
+      for (PreparedStatement stmt : this._statements.values()) {
+         closeQuietly(stmt);
+      }//end for
+      this._statements.clear();
+      this._serverNames.clear();
+   }//end close
+
+   // closes a statement dropped from the cache, and its server-side statement
+   private void release (String sql, PreparedStatement stmt) {
+      closeQuietly(stmt);
+      String name = this._serverNames.remove(sql);
+      if (name == null) {
+         return;
+      }//end if
+      try (Statement deallocate = this._connection.createStatement()) {
+         deallocate.executeUpdate("DEALLOCATE " + name);
+      }catch (SQLException e) {
+         // ignored; it goes with the connection.
+      }//end try
+   }//end release
+
+   private static void closeQuietly (PreparedStatement stmt) {
+      try {
+         stmt.close();
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
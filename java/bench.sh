@@ -0,0 +1,28 @@
+#!/bin/sh
+# Benchmarks every menu operation at several scale factors of the seed data.
+# For each scale factor the tables are reloaded with BulkLoader and one line
+# per operation is appended to bench-results.csv, labelled with the factor,
+# followed by the date range queries with and without partition pruning.
+#
+# Usage: ./bench.sh [scale factors...]      e.g. ./bench.sh 1 4 16
+# The database is overwritten: point it at a scratch database.
+
+# Export classpath with the postgressql driver
+export CLASSPATH=$CLASSPATH:$PWD/pg73jdbc3.jar
+
+DB=${BENCH_DB:-$USER"_DB"}
+PORT=${BENCH_PORT:-$PGPORT}
+OPTS=${BENCH_OPTS:-"--warmup 200 --iterations 1000 --threads 1"}
+SCALES=${*:-"1 4"}
+
+# compile the java program
+javac *.java || exit 1
+
+for SF in $SCALES
+do
+   psql -h localhost -p $PORT -q -f ../sql/create.sql $DB > /dev/null
+   java BulkLoader $DB $PORT $USER ../data --truncate --scale $SF || exit 1
+   psql -h localhost -p $PORT -q -c "VACUUM ANALYZE" $DB
+   java Benchmark $DB $PORT $USER --data ../data --label "sf=$SF" --csv bench-results.csv $OPTS
+   java PruningBenchmark $DB $PORT $USER --label "sf=$SF" --csv bench-results.csv
+done
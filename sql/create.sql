@@ -10,6 +10,26 @@ DROP TABLE IF EXISTS Repair CASCADE;
 DROP TABLE IF EXISTS Request CASCADE;
 DROP TABLE IF EXISTS Assigned CASCADE;
 
+DROP TABLE IF EXISTS RepairCountByCompany CASCADE;
+DROP TABLE IF EXISTS RepairCountByRoomYear CASCADE;
+DROP TABLE IF EXISTS IdFreeRange CASCADE;
+
+-- The below sql statements drops of the id sequences if they exist
+DROP SEQUENCE IF EXISTS customer_id_seq;
+DROP SEQUENCE IF EXISTS booking_id_seq;
+DROP SEQUENCE IF EXISTS repair_id_seq;
+DROP SEQUENCE IF EXISTS request_id_seq;
+DROP SEQUENCE IF EXISTS assigned_id_seq;
+DROP SEQUENCE IF EXISTS maintenancecompany_id_seq;
+
+-- The below sql statements drops of the functions if they exist
+DROP FUNCTION IF EXISTS book_room(Numeric, Numeric, Numeric, Text, Text, Numeric, Date, Numeric, Numeric);
+DROP FUNCTION IF EXISTS ensure_partitions(Integer);
+DROP FUNCTION IF EXISTS search_all(Text, Integer);
+DROP FUNCTION IF EXISTS add_partition(Text, Text, Integer);
+DROP FUNCTION IF EXISTS checkRequestRepair();
+DROP FUNCTION IF EXISTS releaseRequestRepair();
+
 -- The below sql statements drops of the enum types if they exits
 DROP TYPE IF EXISTS StaffRole CASCADE;
 DROP TYPE IF EXISTS GenderType CASCADE;
@@ -50,6 +70,12 @@ CREATE TABLE MaintenanceCompany( cmpID Numeric NOT NULL,
 								 address TEXT,
 								 isCertified Boolean NOT NULL,
 								 PRIMARY KEY(cmpID));
+-- Booking and Repair are range partitioned by date, one partition per year
+-- (PostgreSQL 11 or later), so the date range queries only read the years
+-- they ask for.  A primary key of a partitioned table has to include the
+-- partition key; bID and rID stay unique because they come from sequences.
+-- Rows of a year without a partition go to the default partition until
+-- ensure_partitions() below gives the year one.
 CREATE TABLE Booking( bID Numeric NOT NULL,
 					  customer Numeric NOT NULL DEFAULT 0,
 					  hotelID Numeric NOT NULL DEFAULT 0,
@@ -57,7 +83,10 @@ CREATE TABLE Booking( bID Numeric NOT NULL,
 					  bookingDate Date NOT NULL,
 					  noOfPeople Numeric,
 					  price Numeric(6,2) NOT NULL,
-					  PRIMARY KEY(bID));
+					  PRIMARY KEY(bID, bookingDate))
+PARTITION BY RANGE (bookingDate);
+
+CREATE TABLE Booking_default PARTITION OF Booking DEFAULT;
 					  
 CREATE TABLE Repair( rID Numeric NOT NULL,
 					 hotelID Numeric NOT NULL DEFAULT 0,
@@ -66,7 +95,10 @@ CREATE TABLE Repair( rID Numeric NOT NULL,
 					 repairDate Date NOT NULL,
 					 description TEXT,
 					 repairType CHAR(10),
-					 PRIMARY KEY(rID));
+					 PRIMARY KEY(rID, repairDate))
+PARTITION BY RANGE (repairDate);
+
+CREATE TABLE Repair_default PARTITION OF Repair DEFAULT;
 					 
 CREATE TABLE Request( reqID Numeric NOT NULL,
 					  managerID Numeric NOT NULL DEFAULT 0,
@@ -113,6 +145,11 @@ FOREIGN KEY(hotelID, roomNo)
 REFERENCES Room(hotelID, roomNo)
 ON DELETE SET DEFAULT;	
 
+-- a room can only be booked once per date
+ALTER TABLE Booking
+ADD CONSTRAINT bookingSlotConstraint
+UNIQUE(hotelID, roomNo, bookingDate);
+
 ALTER TABLE Repair
 ADD CONSTRAINT repairMcmpConstraint
 FOREIGN KEY(mCompany)
@@ -131,11 +168,42 @@ FOREIGN KEY(managerID)
 REFERENCES Staff(SSN)
 ON DELETE SET DEFAULT;
 
-ALTER TABLE Request
-ADD CONSTRAINT requestRepairConstraint
-FOREIGN KEY(repairID)
-REFERENCES Repair(rID)
-ON DELETE SET DEFAULT;
+-- rID alone is not a key of the partitioned Repair table, so a foreign key
+-- cannot reference it: the two triggers below enforce requestRepairConstraint
+-- instead, with the same ON DELETE SET DEFAULT behaviour
+CREATE OR REPLACE FUNCTION checkRequestRepair() RETURNS trigger AS $$
+BEGIN
+	PERFORM 1 FROM Repair WHERE rID = NEW.repairID;
+	IF NOT FOUND THEN
+		RAISE EXCEPTION 'insert or update on table "request" violates requestRepairConstraint: repair % does not exist',
+		                NEW.repairID USING ERRCODE = 'foreign_key_violation';
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE CONSTRAINT TRIGGER requestRepairConstraint
+AFTER INSERT OR UPDATE OF repairID ON Request
+FOR EACH ROW EXECUTE PROCEDURE checkRequestRepair();
+
+CREATE OR REPLACE FUNCTION releaseRequestRepair() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'UPDATE' AND NEW.rID = OLD.rID THEN
+		RETURN NULL;
+	END IF;
+	-- an update of repairDate that moves the row to another partition is a
+	-- delete and an insert: the repair still exists
+	PERFORM 1 FROM Repair WHERE rID = OLD.rID;
+	IF NOT FOUND THEN
+		UPDATE Request SET repairID = DEFAULT WHERE repairID = OLD.rID;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER repairRequestTrigger
+AFTER UPDATE OF rID OR DELETE ON Repair
+FOR EACH ROW EXECUTE PROCEDURE releaseRequestRepair();
 
 ALTER TABLE Assigned
 ADD CONSTRAINT assgndStaffConstraint
@@ -148,6 +216,85 @@ ADD CONSTRAINT assgndRoomConstraint
 FOREIGN KEY(hotelID, roomNo)
 REFERENCES Room(hotelID, roomNo)
 ON DELETE SET DEFAULT; 
+
+-- listRepairsMade pages through a company's repairs in rID order
+CREATE INDEX repairCompanyIndex ON Repair(mCompany, rID);
+
+-- The below function gives Booking or Repair a partition for one year,
+-- moving the rows of that year out of the default partition, and returns
+-- whether it created one.  The move bypasses every trigger: the rows stay
+-- in the table, so the repair summary tables and Request must not see it as
+-- a delete.  ALTER TABLE ... DISABLE TRIGGER USER would not do, as on
+-- PostgreSQL 11 and 12 it leaves the triggers cloned onto the partition
+-- from Booking and Repair firing, so the move runs with
+-- session_replication_role = replica instead, which needs a superuser (or,
+-- from PostgreSQL 15, the SET privilege on that parameter).  It is only
+-- set when the default partition holds rows of the year, so an ordinary
+-- user can still create the partitions of the coming years.
+CREATE OR REPLACE FUNCTION add_partition(p_table Text, p_column Text, p_year Integer) RETURNS Boolean AS $$
+DECLARE
+	parent Text := lower(p_table);
+	part Text := lower(p_table) || '_y' || p_year;
+	deflt Text := lower(p_table) || '_default';
+	col Text := lower(p_column);
+	fromDate Date := make_date(p_year, 1, 1);
+	toDate Date := make_date(p_year + 1, 1, 1);
+	prevRole Text := current_setting('session_replication_role');
+	hasRows Boolean;
+BEGIN
+	IF to_regclass(part) IS NOT NULL THEN
+		RETURN false;
+	END IF;
+	EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS)', part, parent);
+	EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I WHERE %I >= %L AND %I < %L)', deflt, col, fromDate, col, toDate)
+	INTO hasRows;
+	IF hasRows THEN
+		-- no trigger fires in replica mode; only for the move, within this transaction
+		PERFORM set_config('session_replication_role', 'replica', true);
+		EXECUTE format('WITH moved AS (DELETE FROM %I WHERE %I >= %L AND %I < %L RETURNING *)'
+		               ' INSERT INTO %I SELECT * FROM moved', deflt, col, fromDate, col, toDate, part);
+		PERFORM set_config('session_replication_role', prevRole, true);
+	END IF;
+	EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)', parent, part, fromDate, toDate);
+	RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The below function creates the Booking and Repair partitions of this year
+-- and the p_yearsAhead years after it, and of every year that has rows in a
+-- default partition, and returns the number of partitions it created.  The
+-- java client calls it on start and after a bulk load.
+CREATE OR REPLACE FUNCTION ensure_partitions(p_yearsAhead Integer) RETURNS Integer AS $$
+DECLARE
+	created Integer := 0;
+	thisYear Integer := EXTRACT(YEAR FROM CURRENT_DATE);
+	tbl Record;
+	years Integer[];
+	yr Integer;
+BEGIN
+	-- one caller at a time, so two clients do not create the same partition
+	PERFORM pg_advisory_xact_lock(hashtext('ensure_partitions'));
+	FOR tbl IN SELECT * FROM (VALUES ('booking', 'bookingdate'), ('repair', 'repairdate')) AS t(name, col) LOOP
+		-- read the years before any partition is attached, as the default
+		-- partition cannot be altered while a query has it open
+		EXECUTE format('SELECT array_agg(y ORDER BY y) FROM (SELECT generate_series(%s, %s) AS y'
+		               ' UNION SELECT DISTINCT EXTRACT(YEAR FROM %I)::Integer FROM %I) years',
+		               thisYear, thisYear + GREATEST(COALESCE(p_yearsAhead, 0), 0), tbl.col, tbl.name || '_default')
+		INTO years;
+		FOREACH yr IN ARRAY years LOOP
+			IF add_partition(tbl.name, tbl.col, yr) THEN
+				created := created + 1;
+			END IF;
+		END LOOP;
+	END LOOP;
+	RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- the years of the seed data get their partitions before it is copied in
+SELECT add_partition('Booking', 'bookingDate', y) FROM generate_series(2000, 2020) AS y;
+SELECT add_partition('Repair', 'repairDate', y) FROM generate_series(2000, 2020) AS y;
+
 -- data copy				 
 COPY Hotel(	hotelID,			 
 			address,	   
@@ -227,5 +374,190 @@ COPY Assigned(asgID,
 			  hotelID,
 			  roomNo)
 FROM 'assigned.csv'
-WITH DELIMITER ',';		
-	
+WITH DELIMITER ',';
+
+-- The below sql statements create the id sequences used by the java client.
+-- Every nextval() reserves a block of 50 ids (IdAllocator.BLOCK_SIZE), which
+-- the client hands out from memory instead of running SELECT MAX(id) + 1.
+CREATE SEQUENCE customer_id_seq INCREMENT BY 50;
+CREATE SEQUENCE booking_id_seq INCREMENT BY 50;
+CREATE SEQUENCE repair_id_seq INCREMENT BY 50;
+CREATE SEQUENCE request_id_seq INCREMENT BY 50;
+CREATE SEQUENCE assigned_id_seq INCREMENT BY 50;
+CREATE SEQUENCE maintenancecompany_id_seq INCREMENT BY 50;
+
+-- start every sequence after the ids loaded above
+SELECT setval('customer_id_seq', (SELECT COALESCE(MAX(customerID), 0) + 1 FROM Customer), false);
+SELECT setval('booking_id_seq', (SELECT COALESCE(MAX(bID), 0) + 1 FROM Booking), false);
+SELECT setval('repair_id_seq', (SELECT COALESCE(MAX(rID), 0) + 1 FROM Repair), false);
+SELECT setval('request_id_seq', (SELECT COALESCE(MAX(reqID), 0) + 1 FROM Request), false);
+SELECT setval('assigned_id_seq', (SELECT COALESCE(MAX(asgID), 0) + 1 FROM Assigned), false);
+SELECT setval('maintenancecompany_id_seq', (SELECT COALESCE(MAX(cmpID), 0) + 1 FROM MaintenanceCompany), false);
+
+-- The unused rest of a block a client held when it stopped, [firstID, limitID)
+-- of a sequence; the next client to need a block takes one of these before
+-- calling nextval(), so a clean shutdown loses no ids.
+CREATE TABLE IdFreeRange( seqName Text NOT NULL,
+						  firstID Numeric NOT NULL,
+						  limitID Numeric NOT NULL,
+						  PRIMARY KEY(seqName, firstID));
+
+-- partitions for the coming years, and for any loaded year after 2020
+SELECT ensure_partitions(2);
+
+-- The below sql statements create the search indexes read by search_all():
+-- full-text indexes over the repair and request descriptions, and trigram
+-- indexes (pg_trgm) over the names and addresses, which match partial and
+-- misspelled text without a sequential LIKE scan
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX repairDescriptionSearch ON Repair USING GIN (to_tsvector('english', COALESCE(description, '')));
+CREATE INDEX requestDescriptionSearch ON Request USING GIN (to_tsvector('english', COALESCE(description, '')));
+CREATE INDEX customerNameSearch ON Customer USING GIN ((fName::text || ' ' || lName::text) gin_trgm_ops);
+CREATE INDEX companyNameSearch ON MaintenanceCompany USING GIN ((name::text) gin_trgm_ops);
+CREATE INDEX customerAddressSearch ON Customer USING GIN (Address gin_trgm_ops);
+CREATE INDEX companyAddressSearch ON MaintenanceCompany USING GIN (address gin_trgm_ops);
+CREATE INDEX hotelAddressSearch ON Hotel USING GIN (address gin_trgm_ops);
+CREATE INDEX staffAddressSearch ON Staff USING GIN (address gin_trgm_ops);
+
+-- The below function searches all of them at once and returns at most
+-- p_limit matches of each kind, best first: repairs and requests whose
+-- description matches the words of p_query (web search syntax, ranked with
+-- ts_rank), and customers, companies, hotels and staff whose name or
+-- address contains text like p_query (ranked by trigram word similarity).
+-- Every branch repeats the indexed expression so the planner uses the index.
+CREATE OR REPLACE FUNCTION search_all(p_query Text, p_limit Integer)
+RETURNS TABLE(kind Text, id Numeric, label Text, detail Text, rank Real) AS $$
+	SELECT * FROM (
+		(SELECT 'repair'::text, r.rID, r.repairType::text, r.description,
+		        ts_rank(to_tsvector('english', COALESCE(r.description, '')), q)
+		 FROM Repair r, websearch_to_tsquery('english', p_query) q
+		 WHERE to_tsvector('english', COALESCE(r.description, '')) @@ q
+		 ORDER BY 5 DESC LIMIT p_limit)
+		UNION ALL
+		(SELECT 'request'::text, rq.reqID, 'repair ' || rq.repairID, rq.description,
+		        ts_rank(to_tsvector('english', COALESCE(rq.description, '')), q)
+		 FROM Request rq, websearch_to_tsquery('english', p_query) q
+		 WHERE to_tsvector('english', COALESCE(rq.description, '')) @@ q
+		 ORDER BY 5 DESC LIMIT p_limit)
+		UNION ALL
+		(SELECT 'customer'::text, c.customerID, c.fName::text || ' ' || c.lName::text, c.Address,
+		        word_similarity(p_query, c.fName::text || ' ' || c.lName::text)
+		 FROM Customer c
+		 WHERE p_query <% (c.fName::text || ' ' || c.lName::text)
+		 ORDER BY 5 DESC LIMIT p_limit)
+		UNION ALL
+		(SELECT 'company'::text, mc.cmpID, mc.name::text, mc.address, word_similarity(p_query, mc.name::text)
+		 FROM MaintenanceCompany mc
+		 WHERE p_query <% (mc.name::text)
+		 ORDER BY 5 DESC LIMIT p_limit)
+		UNION ALL
+		(SELECT 'customer address'::text, c.customerID, c.fName::text || ' ' || c.lName::text, c.Address,
+		        word_similarity(p_query, c.Address)
+		 FROM Customer c
+		 WHERE p_query <% c.Address
+		 ORDER BY 5 DESC LIMIT p_limit)
+		UNION ALL
+		(SELECT 'company address'::text, mc.cmpID, mc.name::text, mc.address, word_similarity(p_query, mc.address)
+		 FROM MaintenanceCompany mc
+		 WHERE p_query <% mc.address
+		 ORDER BY 5 DESC LIMIT p_limit)
+		UNION ALL
+		(SELECT 'hotel address'::text, h.hotelID, 'hotel ' || h.hotelID, h.address, word_similarity(p_query, h.address)
+		 FROM Hotel h
+		 WHERE p_query <% h.address
+		 ORDER BY 5 DESC LIMIT p_limit)
+		UNION ALL
+		(SELECT 'staff address'::text, s.SSN, s.fName::text || ' ' || s.lName::text, s.address,
+		        word_similarity(p_query, s.address)
+		 FROM Staff s
+		 WHERE p_query <% s.address
+		 ORDER BY 5 DESC LIMIT p_limit)
+	) AS found
+	ORDER BY 1, 5 DESC, 2;
+$$ LANGUAGE sql STABLE
+SET pg_trgm.word_similarity_threshold = 0.4;
+
+-- The below sql statements create the repair summary tables read by the
+-- topKMaintenanceCompany and numberOfRepairsForEachRoomPerYear reports.
+-- They are filled from the loaded data and then kept current by a trigger.
+CREATE TABLE RepairCountByCompany( mCompany Numeric NOT NULL,
+								   repairCount Numeric NOT NULL DEFAULT 0,
+								   PRIMARY KEY(mCompany));
+
+CREATE TABLE RepairCountByRoomYear( hotelID Numeric NOT NULL,
+									roomNo Numeric NOT NULL,
+									repairYear Numeric NOT NULL,
+									repairCount Numeric NOT NULL DEFAULT 0,
+									PRIMARY KEY(hotelID, roomNo, repairYear));
+
+INSERT INTO RepairCountByCompany(mCompany, repairCount)
+SELECT mCompany, COUNT(*) FROM Repair GROUP BY mCompany;
+
+INSERT INTO RepairCountByRoomYear(hotelID, roomNo, repairYear, repairCount)
+SELECT hotelID, roomNo, EXTRACT(YEAR FROM repairDate), COUNT(*)
+FROM Repair GROUP BY hotelID, roomNo, EXTRACT(YEAR FROM repairDate);
+
+CREATE OR REPLACE FUNCTION maintainRepairCounts() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE RepairCountByCompany SET repairCount = repairCount - 1
+		WHERE mCompany = OLD.mCompany;
+		UPDATE RepairCountByRoomYear SET repairCount = repairCount - 1
+		WHERE hotelID = OLD.hotelID AND roomNo = OLD.roomNo
+		  AND repairYear = EXTRACT(YEAR FROM OLD.repairDate);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO RepairCountByCompany(mCompany, repairCount) VALUES (NEW.mCompany, 1)
+		ON CONFLICT (mCompany) DO UPDATE SET repairCount = RepairCountByCompany.repairCount + 1;
+		INSERT INTO RepairCountByRoomYear(hotelID, roomNo, repairYear, repairCount)
+		VALUES (NEW.hotelID, NEW.roomNo, EXTRACT(YEAR FROM NEW.repairDate), 1)
+		ON CONFLICT (hotelID, roomNo, repairYear)
+		DO UPDATE SET repairCount = RepairCountByRoomYear.repairCount + 1;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER repairCountTrigger
+AFTER INSERT OR UPDATE OR DELETE ON Repair
+FOR EACH ROW EXECUTE PROCEDURE maintainRepairCounts();
+
+-- The below function books a room in one statement, and so in one
+-- transaction and one round trip: it checks the room, resolves the customer
+-- by name (or checks the given customerID) and inserts the booking, leaving
+-- conflict detection to bookingSlotConstraint.  status is one of BOOKED,
+-- ROOM_MISSING, CUSTOMER_MISSING, CUSTOMER_AMBIGUOUS and ALREADY_BOOKED.
+CREATE OR REPLACE FUNCTION book_room(p_bID Numeric, p_hotelID Numeric, p_roomNo Numeric,
+                                     p_fName Text, p_lName Text, p_customer Numeric,
+                                     p_bookingDate Date, p_noOfPeople Numeric, p_price Numeric,
+                                     OUT status Text, OUT customer_id Numeric) AS $$
+DECLARE
+	matches Integer;
+BEGIN
+	PERFORM 1 FROM Room WHERE hotelID = p_hotelID AND roomNo = p_roomNo;
+	IF NOT FOUND THEN
+		status := 'ROOM_MISSING';
+		RETURN;
+	END IF;
+	IF p_customer IS NULL THEN
+		SELECT COUNT(*), MIN(customerID) INTO matches, customer_id
+		FROM Customer WHERE fName = p_fName AND lName = p_lName;
+		IF matches > 1 THEN
+			status := 'CUSTOMER_AMBIGUOUS';
+			customer_id := NULL;
+			RETURN;
+		END IF;
+	ELSE
+		SELECT customerID INTO customer_id FROM Customer WHERE customerID = p_customer;
+	END IF;
+	IF customer_id IS NULL THEN
+		status := 'CUSTOMER_MISSING';
+		RETURN;
+	END IF;
+	INSERT INTO Booking(bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price)
+	VALUES (p_bID, customer_id, p_hotelID, p_roomNo, p_bookingDate, p_noOfPeople, p_price)
+	ON CONFLICT (hotelID, roomNo, bookingDate) DO NOTHING;
+	status := CASE WHEN FOUND THEN 'BOOKED' ELSE 'ALREADY_BOOKED' END;
+END;
+$$ LANGUAGE plpgsql;